@@ -48,6 +48,7 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 import javax.annotation.Nullable;
@@ -111,7 +112,7 @@ public final class JarFilter {
       options.filterSourceJars = ImmutableList.of();
     }
 
-    final List<String> archiveFileNamePrefixes = Lists.newArrayList();
+    final Set<String> archiveFileNamePrefixes = new HashSet<>();
     if (options.keepJavaFiles != null) {
       archiveFileNamePrefixes.addAll(parseJavaFiles(options.keepJavaFiles));
     }
@@ -246,6 +247,29 @@ public final class JarFilter {
   /** Filters a list of jars, keeping anything matching the passed predicate. */
   private static void filterJars(List<Path> jars, Path output, Predicate<String> shouldKeep)
       throws IOException {
+    try {
+      copyJarEntries(jars, output, shouldKeep);
+    } catch (ZipException e) {
+      logger.log(Level.INFO, "Can't copy jar entries directly, recompressing instead", e);
+      recompressJarEntries(jars, output, shouldKeep);
+    }
+  }
+
+  /** Copies the kept entries' compressed data as-is, without inflating and re-deflating it. */
+  private static void copyJarEntries(List<Path> jars, Path output, Predicate<String> shouldKeep)
+      throws IOException {
+    Set<String> names = new HashSet<>();
+    try (RawZipWriter writer = new RawZipWriter(output)) {
+      for (Path jar : jars) {
+        // ignore duplicate entries, on the assumption that their contents are identical
+        writer.copyEntries(jar, name -> shouldKeep.test(name) && names.add(name));
+      }
+      writer.finish();
+    }
+  }
+
+  private static void recompressJarEntries(
+      List<Path> jars, Path output, Predicate<String> shouldKeep) throws IOException {
     final int bufferSize = 8 * 1024;
     byte[] buffer = new byte[bufferSize];
     Set<String> names = new HashSet<>();
@@ -279,24 +303,26 @@ public final class JarFilter {
     }
   }
 
+  /**
+   * Returns true if the class file belongs to one of the given top-level classes. Only the
+   * '.' and '$' positions in the name are looked up, so this doesn't depend on the number of
+   * prefixes.
+   */
   @VisibleForTesting
-  static boolean shouldKeepClass(List<String> archiveFileNamePrefixes, String name) {
+  static boolean shouldKeepClass(Set<String> archiveFileNamePrefixes, String name) {
     if (!name.endsWith(".class")) {
       return false;
     }
-    for (String archiveFileNamePrefix : archiveFileNamePrefixes) {
-      if (name.startsWith(archiveFileNamePrefix)
-          && name.length() > archiveFileNamePrefix.length()) {
-        char c = name.charAt(archiveFileNamePrefix.length());
-        if (c == '.' || c == '$') {
-          return true;
-        }
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if ((c == '.' || c == '$') && archiveFileNamePrefixes.contains(name.substring(0, i))) {
+        return true;
       }
     }
     return false;
   }
 
-  private static boolean shouldKeepJavaFile(List<String> archiveFileNamePrefixes, String name) {
+  private static boolean shouldKeepJavaFile(Set<String> archiveFileNamePrefixes, String name) {
     if (!name.endsWith(".java")) {
       return false;
     }
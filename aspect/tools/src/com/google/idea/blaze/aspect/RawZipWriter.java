@@ -0,0 +1,247 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file by copying entries verbatim from other zip files, without inflating and
+ * re-deflating their contents.
+ *
+ * <p>Only plain zip files are supported: a {@link ZipException} is thrown for zip64 archives,
+ * encrypted entries, or if the output would need zip64 extensions. Callers are expected to fall
+ * back to {@link java.util.zip.ZipOutputStream} in that case.
+ */
+final class RawZipWriter implements Closeable {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+
+  private static final int FLAG_ENCRYPTED = 1;
+  private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+
+  private static final int MAX_ENTRIES = 0xffff;
+  private static final long MAX_UINT32 = 0xffffffffL;
+
+  private final FileChannel output;
+  private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+  private int entryCount = 0;
+
+  RawZipWriter(Path output) throws IOException {
+    this.output =
+        FileChannel.open(
+            output,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /** Copies every entry of the given zip file whose name is accepted by the filter. */
+  void copyEntries(Path zip, Predicate<String> filter) throws IOException {
+    try (FileChannel input = FileChannel.open(zip, StandardOpenOption.READ)) {
+      ByteBuffer entries = readCentralDirectory(input, zip);
+      byte[] bytes = entries.array();
+      while (entries.hasRemaining()) {
+        int start = entries.position();
+        if (entries.remaining() < CENTRAL_HEADER_SIZE
+            || entries.getInt(start) != CENTRAL_HEADER_SIGNATURE) {
+          throw new ZipException("Malformed central directory in " + zip);
+        }
+        int nameLength = readUnsignedShort(entries, start + 28);
+        int extraLength = readUnsignedShort(entries, start + 30);
+        int commentLength = readUnsignedShort(entries, start + 32);
+        String name = new String(bytes, start + CENTRAL_HEADER_SIZE, nameLength, UTF_8);
+        entries.position(start + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength);
+        if (filter.test(name)) {
+          copyEntry(input, entries, start, name);
+        }
+      }
+    }
+  }
+
+  private void copyEntry(FileChannel input, ByteBuffer centralHeader, int start, String name)
+      throws IOException {
+    int flags = readUnsignedShort(centralHeader, start + 8);
+    long compressedSize = readUnsignedInt(centralHeader, start + 20);
+    long uncompressedSize = readUnsignedInt(centralHeader, start + 24);
+    long localHeaderOffset = readUnsignedInt(centralHeader, start + 42);
+    if ((flags & FLAG_ENCRYPTED) != 0) {
+      throw new ZipException("Encrypted zip entries are not supported: " + name);
+    }
+    if (compressedSize == MAX_UINT32
+        || uncompressedSize == MAX_UINT32
+        || localHeaderOffset == MAX_UINT32) {
+      throw new ZipException("zip64 entries are not supported: " + name);
+    }
+    ByteBuffer sourceLocalHeader = read(input, localHeaderOffset, LOCAL_HEADER_SIZE);
+    if (sourceLocalHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException("Malformed local header for " + name);
+    }
+    long dataOffset =
+        localHeaderOffset
+            + LOCAL_HEADER_SIZE
+            + readUnsignedShort(sourceLocalHeader, 26)
+            + readUnsignedShort(sourceLocalHeader, 28);
+
+    long outputOffset = output.position();
+    if (outputOffset >= MAX_UINT32 || entryCount + 1 >= MAX_ENTRIES) {
+      throw new ZipException("Output requires zip64 extensions");
+    }
+    // sizes and crc are written up front, so no data descriptor follows the entry
+    flags &= ~FLAG_DATA_DESCRIPTOR;
+    byte[] nameBytes = name.getBytes(UTF_8);
+
+    ByteBuffer localHeader = allocate(LOCAL_HEADER_SIZE + nameBytes.length);
+    localHeader.putInt(LOCAL_HEADER_SIGNATURE);
+    localHeader.putShort(centralHeader.getShort(start + 6)); // version needed to extract
+    localHeader.putShort((short) flags);
+    localHeader.putShort(centralHeader.getShort(start + 10)); // compression method
+    localHeader.putInt(centralHeader.getInt(start + 12)); // modification time and date
+    localHeader.putInt(centralHeader.getInt(start + 16)); // crc-32
+    localHeader.putInt((int) compressedSize);
+    localHeader.putInt((int) uncompressedSize);
+    localHeader.putShort((short) nameBytes.length);
+    localHeader.putShort((short) 0);
+    localHeader.put(nameBytes);
+    localHeader.flip();
+    writeFully(localHeader);
+
+    long position = dataOffset;
+    long remaining = compressedSize;
+    while (remaining > 0) {
+      long transferred = input.transferTo(position, remaining, output);
+      if (transferred <= 0) {
+        throw new ZipException("Unexpected end of zip data for " + name);
+      }
+      position += transferred;
+      remaining -= transferred;
+    }
+
+    ByteBuffer outputCentralHeader = allocate(CENTRAL_HEADER_SIZE + nameBytes.length);
+    outputCentralHeader.putInt(CENTRAL_HEADER_SIGNATURE);
+    outputCentralHeader.putShort(centralHeader.getShort(start + 4)); // version made by
+    outputCentralHeader.putShort(centralHeader.getShort(start + 6));
+    outputCentralHeader.putShort((short) flags);
+    outputCentralHeader.putShort(centralHeader.getShort(start + 10));
+    outputCentralHeader.putInt(centralHeader.getInt(start + 12));
+    outputCentralHeader.putInt(centralHeader.getInt(start + 16));
+    outputCentralHeader.putInt((int) compressedSize);
+    outputCentralHeader.putInt((int) uncompressedSize);
+    outputCentralHeader.putShort((short) nameBytes.length);
+    outputCentralHeader.putShort((short) 0); // extra field length
+    outputCentralHeader.putShort((short) 0); // comment length
+    outputCentralHeader.putShort((short) 0); // disk number
+    outputCentralHeader.putShort(centralHeader.getShort(start + 36)); // internal attributes
+    outputCentralHeader.putInt(centralHeader.getInt(start + 38)); // external attributes
+    outputCentralHeader.putInt((int) outputOffset);
+    outputCentralHeader.put(nameBytes);
+    centralDirectory.write(outputCentralHeader.array(), 0, outputCentralHeader.position());
+    entryCount++;
+  }
+
+  /** Writes the central directory. No entries may be copied afterwards. */
+  void finish() throws IOException {
+    long centralDirectoryOffset = output.position();
+    long centralDirectorySize = centralDirectory.size();
+    if (centralDirectoryOffset + centralDirectorySize >= MAX_UINT32) {
+      throw new ZipException("Output requires zip64 extensions");
+    }
+    writeFully(ByteBuffer.wrap(centralDirectory.toByteArray()));
+
+    ByteBuffer end = allocate(END_OF_CENTRAL_DIRECTORY_SIZE);
+    end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+    end.putShort((short) 0); // disk number
+    end.putShort((short) 0); // disk with the central directory
+    end.putShort((short) entryCount);
+    end.putShort((short) entryCount);
+    end.putInt((int) centralDirectorySize);
+    end.putInt((int) centralDirectoryOffset);
+    end.putShort((short) 0); // comment length
+    end.flip();
+    writeFully(end);
+  }
+
+  @Override
+  public void close() throws IOException {
+    output.close();
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      output.write(buffer);
+    }
+  }
+
+  private static ByteBuffer readCentralDirectory(FileChannel input, Path zip) throws IOException {
+    long fileSize = input.size();
+    int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(input, fileSize - tailSize, tailSize);
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) != END_OF_CENTRAL_DIRECTORY_SIGNATURE
+          || i + END_OF_CENTRAL_DIRECTORY_SIZE + readUnsignedShort(tail, i + 20) != tailSize) {
+        continue;
+      }
+      int entries = readUnsignedShort(tail, i + 10);
+      long size = readUnsignedInt(tail, i + 12);
+      long offset = readUnsignedInt(tail, i + 16);
+      if (entries == MAX_ENTRIES || size == MAX_UINT32 || offset == MAX_UINT32) {
+        throw new ZipException("zip64 archives are not supported: " + zip);
+      }
+      return read(input, offset, (int) size);
+    }
+    throw new ZipException("Missing end of central directory in " + zip);
+  }
+
+  private static ByteBuffer read(FileChannel input, long position, int size) throws IOException {
+    ByteBuffer buffer = allocate(size);
+    while (buffer.hasRemaining()) {
+      if (input.read(buffer, position + buffer.position()) < 0) {
+        throw new ZipException("Unexpected end of zip file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static ByteBuffer allocate(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static int readUnsignedShort(ByteBuffer buffer, int index) {
+    return Short.toUnsignedInt(buffer.getShort(index));
+  }
+
+  private static long readUnsignedInt(ByteBuffer buffer, int index) {
+    return Integer.toUnsignedLong(buffer.getInt(index));
+  }
+}
@@ -18,14 +18,17 @@ package com.google.idea.blaze.aspect;
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.idea.blaze.aspect.JarFilter.JarFilterOptions;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -43,13 +46,60 @@ public class JarFilterTest {
 
   @Test
   public void testFilterMethod() throws Exception {
-    List<String> prefixes =
-        ImmutableList.of("com/google/foo/Foo", "com/google/bar/Bar", "com/google/baz/Baz");
+    Set<String> prefixes =
+        ImmutableSet.of("com/google/foo/Foo", "com/google/bar/Bar", "com/google/baz/Baz");
     assertThat(JarFilter.shouldKeepClass(prefixes, "com/google/foo/Foo.class")).isTrue();
     assertThat(JarFilter.shouldKeepClass(prefixes, "com/google/foo/Foo$Inner.class")).isTrue();
     assertThat(JarFilter.shouldKeepClass(prefixes, "com/google/bar/Bar.class")).isTrue();
     assertThat(JarFilter.shouldKeepClass(prefixes, "com/google/foo/Foo/NotFoo.class")).isFalse();
     assertThat(JarFilter.shouldKeepClass(prefixes, "wrong/com/google/foo/Foo.class")).isFalse();
+    assertThat(JarFilter.shouldKeepClass(prefixes, "com/google/foo/FooBar.class")).isFalse();
+    assertThat(JarFilter.shouldKeepClass(prefixes, "com/google/foo/Foo.java")).isFalse();
+  }
+
+  @Test
+  public void testKeptEntriesAreCopiedWithoutRecompression() throws Exception {
+    File fooJava = folder.newFile("Foo.java");
+    Files.write("package com.google.foo; class Foo {}".getBytes(UTF_8), fooJava);
+
+    byte[] contents = new byte[64 * 1024];
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = (byte) (i % 7);
+    }
+    File filterJar = folder.newFile("foo.jar");
+    try (ZipOutputStream zo = new ZipOutputStream(new FileOutputStream(filterJar))) {
+      zo.putNextEntry(new ZipEntry("com/google/foo/Foo.class"));
+      zo.write(contents);
+      zo.closeEntry();
+      zo.putNextEntry(new ZipEntry("com/google/foo/Bar.class"));
+      zo.write(contents);
+      zo.closeEntry();
+    }
+    long compressedSize;
+    try (ZipFile zipFile = new ZipFile(filterJar)) {
+      compressedSize = zipFile.getEntry("com/google/foo/Foo.class").getCompressedSize();
+    }
+
+    File filteredJar = folder.newFile("foo-filtered-gen.jar");
+    String[] args =
+        new String[] {
+          "--keep_java_file",
+          fooJava.getPath(),
+          "--filter_jar",
+          filterJar.getPath(),
+          "--filtered_jar",
+          filteredJar.getPath()
+        };
+    JarFilter.main(JarFilter.parseArgs(args));
+
+    try (ZipFile zipFile = new ZipFile(filteredJar)) {
+      assertThat(zipFile.size()).isEqualTo(1);
+      ZipEntry entry = zipFile.getEntry("com/google/foo/Foo.class");
+      assertThat(entry.getCompressedSize()).isEqualTo(compressedSize);
+      try (InputStream inputStream = zipFile.getInputStream(entry)) {
+        assertThat(ByteStreams.toByteArray(inputStream)).isEqualTo(contents);
+      }
+    }
   }
 
   @Test
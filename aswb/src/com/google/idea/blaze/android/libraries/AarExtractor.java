@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.libraries;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts an AAR directly from a stream into its unpacked directory, rewriting only the entries
+ * whose contents changed since the previous extraction.
+ *
+ * <p>The CRC and size of each extracted entry are recorded in a manifest file in the unpacked
+ * directory. Entries are compared against it, and files for entries no longer in the AAR are
+ * deleted. Unchanged files keep their timestamps, so the IDE doesn't need to re-read them.
+ */
+final class AarExtractor {
+
+  @VisibleForTesting static final String MANIFEST_FILE_NAME = "aar.entries";
+
+  /** The CRC and uncompressed size of an extracted entry. */
+  private static final class EntryState {
+    final long crc;
+    final long size;
+
+    EntryState(long crc, long size) {
+      this.crc = crc;
+      this.size = size;
+    }
+
+    boolean matches(long crc, long size) {
+      return this.crc == crc && this.size == size;
+    }
+  }
+
+  /** Counts of the entries written and left untouched by a single extraction. */
+  static final class Result {
+    final int written;
+    final int unchanged;
+    final int deleted;
+
+    private Result(int written, int unchanged, int deleted) {
+      this.written = written;
+      this.unchanged = unchanged;
+      this.deleted = deleted;
+    }
+  }
+
+  private AarExtractor() {}
+
+  /** Returns true if the directory was populated by a previous call to {@link #extract}. */
+  static boolean hasManifest(File aarDir) {
+    return new File(aarDir, MANIFEST_FILE_NAME).exists();
+  }
+
+  /**
+   * Extracts the entries of the AAR accepted by {@code include} into {@code aarDir}, which must
+   * either be empty or populated by a previous extraction.
+   */
+  static Result extract(InputStream aar, File aarDir, Predicate<String> include)
+      throws IOException {
+    Path root = aarDir.toPath().toAbsolutePath().normalize();
+    Files.createDirectories(root);
+    Map<String, EntryState> previous = readManifest(aarDir);
+    Map<String, EntryState> current = new HashMap<>();
+    int written = 0;
+    int unchanged = 0;
+    byte[] buffer = new byte[64 * 1024];
+    try (ZipInputStream zip = new ZipInputStream(aar)) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        String name = entry.getName();
+        if (entry.isDirectory() || !include.test(name)) {
+          continue;
+        }
+        Path destination = root.resolve(name).normalize();
+        if (!destination.startsWith(root) || destination.equals(root)) {
+          throw new IOException("AAR entry outside the unpacked directory: " + name);
+        }
+        EntryState old = previous.get(name);
+        // entries with a CRC in their local header can be skipped without reading them
+        if (old != null
+            && entry.getCrc() != -1
+            && old.matches(entry.getCrc(), entry.getSize())
+            && Files.exists(destination)) {
+          current.put(name, old);
+          unchanged++;
+          continue;
+        }
+        Files.createDirectories(destination.getParent());
+        Path temp = destination.resolveSibling(destination.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(temp)) {
+          int read;
+          while ((read = zip.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+            size += read;
+          }
+        }
+        EntryState state = new EntryState(crc.getValue(), size);
+        current.put(name, state);
+        if (old != null && old.matches(state.crc, state.size) && Files.exists(destination)) {
+          Files.delete(temp);
+          unchanged++;
+        } else {
+          Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+          written++;
+        }
+      }
+    }
+    int deleted = 0;
+    for (String name : previous.keySet()) {
+      if (!current.containsKey(name) && Files.deleteIfExists(root.resolve(name).normalize())) {
+        deleted++;
+      }
+    }
+    writeManifest(aarDir, current);
+    return new Result(written, unchanged, deleted);
+  }
+
+  private static Map<String, EntryState> readManifest(File aarDir) throws IOException {
+    Map<String, EntryState> entries = new HashMap<>();
+    File manifest = new File(aarDir, MANIFEST_FILE_NAME);
+    if (!manifest.exists()) {
+      return entries;
+    }
+    try (BufferedReader reader =
+        Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(" ", 3);
+        if (parts.length != 3) {
+          // a corrupt manifest just means every entry is rewritten
+          entries.clear();
+          break;
+        }
+        entries.put(
+            parts[2], new EntryState(Long.parseLong(parts[0], 16), Long.parseLong(parts[1])));
+      }
+    } catch (NumberFormatException e) {
+      entries.clear();
+    }
+    return entries;
+  }
+
+  private static void writeManifest(File aarDir, Map<String, EntryState> entries)
+      throws IOException {
+    Path manifest = new File(aarDir, MANIFEST_FILE_NAME).toPath();
+    Path temp = manifest.resolveSibling(MANIFEST_FILE_NAME + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, EntryState> entry : entries.entrySet()) {
+        writer.write(
+            String.format(
+                "%x %d %s", entry.getValue().crc, entry.getValue().size, entry.getKey()));
+        writer.newLine();
+      }
+    }
+    Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING);
+  }
+}
@@ -48,6 +48,7 @@ import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
@@ -95,6 +96,9 @@ import javax.annotation.Nullable;
 public class UnpackedAars {
   private static final Logger logger = Logger.getInstance(UnpackedAars.class);
 
+  private static final BoolExperiment streamingExtraction =
+      new BoolExperiment("blaze.aar.streaming.extraction", false);
+
   private final File cacheDir;
 
   /** The state of the cache as of the last call to {@link #readFileState}. */
@@ -423,17 +427,20 @@ public class UnpackedAars {
     String cacheKey = cacheKeyForAar(aarAndJar.aar);
     File aarDir = aarDirForKey(cacheKey);
     try {
-      if (ops.exists(aarDir)) {
-        ops.deleteRecursively(aarDir);
+      if (streamingExtraction.getValue()) {
+        extractIncrementally(ops, aarAndJar.aar, aarDir);
+      } else {
+        if (ops.exists(aarDir)) {
+          ops.deleteRecursively(aarDir);
+        }
+        ops.mkdirs(aarDir);
+        File toCopy = getOrCreateLocalFile(aarAndJar.aar);
+        ZipUtil.extract(
+            toCopy,
+            aarDir,
+            // Skip jars. The merged jar will be synchronized by JarTraits.
+            (dir, name) -> !name.endsWith(".jar"));
       }
-      ops.mkdirs(aarDir);
-      // TODO(brendandouglas): decompress via ZipInputStream so we don't require a local file
-      File toCopy = getOrCreateLocalFile(aarAndJar.aar);
-      ZipUtil.extract(
-          toCopy,
-          aarDir,
-          // Skip jars. The merged jar will be synchronized by JarTraits.
-          (dir, name) -> !name.endsWith(".jar"));
 
       createStampFile(ops, aarDir, aarAndJar.aar);
 
@@ -451,6 +458,22 @@ public class UnpackedAars {
     }
   }
 
+  /**
+   * Streams the AAR straight into its unpacked directory, rewriting only the entries which changed
+   * since it was last extracted.
+   */
+  private static void extractIncrementally(
+      FileOperationProvider ops, BlazeArtifact aar, File aarDir) throws IOException {
+    if (ops.exists(aarDir) && !AarExtractor.hasManifest(aarDir)) {
+      // extracted before entries were tracked, so we can't tell which files are stale
+      ops.deleteRecursively(aarDir);
+    }
+    try (InputStream stream = aar.getInputStream()) {
+      // Skip jars. The merged jar will be synchronized by JarTraits.
+      AarExtractor.extract(stream, aarDir, name -> !name.endsWith(".jar"));
+    }
+  }
+
   private static void createStampFile(
       FileOperationProvider fileOps, File aarDir, BlazeArtifact aar) {
     File stampFile = new File(aarDir, STAMP_FILE_NAME);
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.projectsystem;
+
+import com.android.SdkConstants;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.sync.SyncCache;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * Maps the binary name of each class in the project's output jars to the jars containing it, so
+ * {@link TransitiveClosureClassFileFinder} can find a class with a single hash lookup rather than
+ * probing every jar in a target's transitive closure.
+ *
+ * <p>The index is rebuilt after each sync, reusing the class listings of jars which haven't
+ * changed since the previous sync. A class missing from the index is only searched for in jars
+ * whose listing is out of date.
+ */
+public final class ClassJarIndex {
+
+  private static final Logger logger = Logger.getInstance(ClassJarIndex.class);
+
+  static final BoolExperiment enabled = new BoolExperiment("blaze.class.jar.index", false);
+
+  /** A class jar, and the target which produced it. */
+  static final class JarLocation {
+    final TargetKey owner;
+    final File jar;
+
+    /** Whether this is the owner's resource jar, which is only searched for the owner itself. */
+    final boolean resourceJar;
+
+    JarLocation(TargetKey owner, File jar) {
+      this(owner, jar, /* resourceJar= */ false);
+    }
+
+    JarLocation(TargetKey owner, File jar, boolean resourceJar) {
+      this.owner = owner;
+      this.jar = jar;
+      this.resourceJar = resourceJar;
+    }
+  }
+
+  /** The class listing of a single jar, valid while its size and timestamp are unchanged. */
+  static final class JarListing {
+    final long length;
+    final long lastModified;
+    final ImmutableList<String> classNames;
+
+    JarListing(long length, long lastModified, ImmutableList<String> classNames) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.classNames = classNames;
+    }
+
+    /** Whether the jar is unchanged since it was listed. */
+    boolean isCurrent(File jar) {
+      FileOperationProvider files = FileOperationProvider.getInstance();
+      long modified = files.getFileModifiedTime(jar);
+      return modified != 0 && modified == lastModified && files.getFileSize(jar) == length;
+    }
+  }
+
+  /** The index for a single sync. */
+  static final class Index {
+    // values are a single JarLocation, or a List<JarLocation> for classes in several jars
+    private final Map<String, Object> classes = new HashMap<>();
+    private final Map<File, JarListing> listings = new HashMap<>();
+
+    void add(JarLocation location, JarListing listing) {
+      listings.put(location.jar, listing);
+      for (String className : listing.classNames) {
+        classes.merge(className, location, Index::mergeLocations);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object mergeLocations(Object existing, Object added) {
+      List<JarLocation> list;
+      if (existing instanceof JarLocation) {
+        list = new ArrayList<>(2);
+        list.add((JarLocation) existing);
+      } else {
+        list = (List<JarLocation>) existing;
+      }
+      list.add((JarLocation) added);
+      return list;
+    }
+
+    /** Returns the jars containing the class with the given binary name. */
+    @SuppressWarnings("unchecked")
+    ImmutableList<JarLocation> find(String className) {
+      Object value = classes.get(className);
+      if (value == null) {
+        return ImmutableList.of();
+      }
+      return value instanceof JarLocation
+          ? ImmutableList.of((JarLocation) value)
+          : ImmutableList.copyOf((List<JarLocation>) value);
+    }
+
+    /**
+     * Whether the index is up to date for the given jar, so a class missing from the index isn't
+     * in it. False for jars which were rebuilt since the index was, or couldn't be read then.
+     */
+    boolean isCurrent(File jar) {
+      JarListing listing = listings.get(jar);
+      return listing != null && listing.isCurrent(jar);
+    }
+
+    int size() {
+      return classes.size();
+    }
+  }
+
+  public static ClassJarIndex getInstance(Project project) {
+    return ServiceManager.getService(project, ClassJarIndex.class);
+  }
+
+  private final Project project;
+  private final ConcurrentMap<File, JarListing> listings = new ConcurrentHashMap<>();
+
+  public ClassJarIndex(Project project) {
+    this.project = project;
+  }
+
+  /** Returns the index for the current sync, building it if necessary. */
+  @Nullable
+  Index getIndex() {
+    return SyncCache.getInstance(project).get(ClassJarIndex.class, this::buildIndex);
+  }
+
+  @SuppressWarnings("unused")
+  private Index buildIndex(Project project, BlazeProjectData projectData) {
+    Stopwatch timer = Stopwatch.createStarted();
+    ArtifactLocationDecoder decoder = projectData.getArtifactLocationDecoder();
+    List<JarLocation> jars = new ArrayList<>();
+    for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
+      if (target.getJavaIdeInfo() == null) {
+        continue;
+      }
+      // resource jars are indexed too, since a module's own R classes are found in them
+      LibraryArtifact resourceJar =
+          target.getAndroidIdeInfo() != null ? target.getAndroidIdeInfo().getResourceJar() : null;
+      for (LibraryArtifact artifact : target.getJavaIdeInfo().getJars()) {
+        ArtifactLocation classJar = artifact.getClassJar();
+        if (classJar == null || classJar.isSource()) {
+          continue;
+        }
+        File jar = resolve(decoder, classJar);
+        if (jar != null) {
+          jars.add(new JarLocation(target.getKey(), jar, artifact.equals(resourceJar)));
+        }
+      }
+    }
+
+    List<ListenableFuture<JarListing>> futures = new ArrayList<>(jars.size());
+    for (JarLocation location : jars) {
+      futures.add(FetchExecutor.EXECUTOR.submit(() -> getListing(location.jar)));
+    }
+    List<JarListing> results;
+    try {
+      results = Futures.successfulAsList(futures).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      logger.warn("Failed to index class jars", e);
+      return null;
+    }
+
+    Index index = new Index();
+    Set<File> indexedFiles = new HashSet<>();
+    for (int i = 0; i < jars.size(); i++) {
+      JarListing listing = results.get(i);
+      if (listing != null) {
+        index.add(jars.get(i), listing);
+        indexedFiles.add(jars.get(i).jar);
+      }
+    }
+    listings.keySet().retainAll(indexedFiles);
+    logger.info(
+        String.format(
+            "Indexed %d classes in %d jars in %d ms",
+            index.size(), indexedFiles.size(), timer.elapsed(TimeUnit.MILLISECONDS)));
+    return index;
+  }
+
+  @Nullable
+  private File resolve(ArtifactLocationDecoder decoder, ArtifactLocation jar) {
+    return OutputArtifactResolver.resolve(project, decoder, jar);
+  }
+
+  /**
+   * Returns the class listing of a jar, reusing the previous listing if the jar is unchanged.
+   * Returns null if the jar doesn't exist or can't be read.
+   */
+  @Nullable
+  private JarListing getListing(File jar) {
+    JarListing listing = listings.get(jar);
+    if (listing != null && listing.isCurrent(jar)) {
+      return listing;
+    }
+    FileOperationProvider files = FileOperationProvider.getInstance();
+    long lastModified = files.getFileModifiedTime(jar);
+    if (lastModified == 0) {
+      return null;
+    }
+    long length = files.getFileSize(jar);
+    try {
+      listing = new JarListing(length, lastModified, listClasses(jar));
+    } catch (IOException e) {
+      return null;
+    }
+    listings.put(jar, listing);
+    return listing;
+  }
+
+  /**
+   * Returns the binary names of the classes in a jar. Only the jar's central directory is read.
+   */
+  @VisibleForTesting
+  static ImmutableList<String> listClasses(File jar) throws IOException {
+    ImmutableList.Builder<String> classNames = ImmutableList.builder();
+    try (ZipFile zip = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        String name = entries.nextElement().getName();
+        if (name.endsWith(SdkConstants.DOT_CLASS)) {
+          classNames.add(
+              name.substring(0, name.length() - SdkConstants.DOT_CLASS.length())
+                  .replace('/', '.'));
+        }
+      }
+    }
+    return classNames.build();
+  }
+
+  /**
+   * Returns the jars to search for a class on behalf of the given target, in the order the jars
+   * of its transitive closure would be probed without the index: the target's own jars first
+   * (including its resource jar), then the non-resource jars of its transitive dependencies, in
+   * dependency order.
+   *
+   * @param jars the jars containing the class, in index order
+   * @param isDependency whether a target is a transitive dependency of {@code targetKey}
+   * @param dependencyOrder the transitive dependencies of {@code targetKey}, only requested if the
+   *     class is in more than one dependency's jars
+   */
+  static List<JarLocation> selectJars(
+      List<JarLocation> jars,
+      TargetKey targetKey,
+      Predicate<TargetKey> isDependency,
+      Supplier<Collection<TargetKey>> dependencyOrder) {
+    List<JarLocation> ownJars = new ArrayList<>();
+    List<JarLocation> dependencyJars = new ArrayList<>();
+    for (JarLocation jar : jars) {
+      if (jar.owner.equals(targetKey)) {
+        ownJars.add(jar);
+      } else if (!jar.resourceJar && isDependency.test(jar.owner)) {
+        dependencyJars.add(jar);
+      }
+    }
+    if (dependencyJars.size() > 1) {
+      Map<TargetKey, Integer> rank = new HashMap<>();
+      for (TargetKey key : dependencyOrder.get()) {
+        rank.putIfAbsent(key, rank.size());
+      }
+      // stable, so a target's own jars stay in order
+      dependencyJars.sort(
+          Comparator.comparingInt(jar -> rank.getOrDefault(jar.owner, Integer.MAX_VALUE)));
+    }
+    ownJars.addAll(dependencyJars);
+    return ownJars;
+  }
+
+  /** Returns the path of a class within its jar, given its binary name. */
+  static String toEntryPath(String className) {
+    return className.replace('.', '/') + SdkConstants.DOT_CLASS;
+  }
+
+  /** Builds the index in the background after sync. */
+  static class Precomputer implements SyncCache.Precomputer {
+    @Override
+    public void precompute(Project project) {
+      if (enabled.getValue()) {
+        getInstance(project).getIndex();
+      }
+    }
+  }
+}
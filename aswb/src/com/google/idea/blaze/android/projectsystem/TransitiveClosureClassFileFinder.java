@@ -24,6 +24,7 @@ import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
 import com.google.idea.blaze.base.model.BlazeProjectData;
@@ -33,6 +34,7 @@ import com.google.idea.blaze.base.targetmaps.TransitiveDependencyMap;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.JarFileSystem;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -94,6 +96,18 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
       return null;
     }
 
+    ClassJarIndex.Index index = null;
+    if (ClassJarIndex.enabled.getValue()) {
+      index = ClassJarIndex.getInstance(module.getProject()).getIndex();
+      if (index != null) {
+        classFile = findClassFileInIndex(module.getProject(), index, target.getKey(), className);
+        if (classFile != null) {
+          return classFile;
+        }
+        // only probe the jars rebuilt since the index was, or which couldn't be indexed
+      }
+    }
+
     // As a potential optimization, we could choose an arbitrary android_binary target
     // that depends on the library to provide a single complete resource jar,
     // instead of having to rely on dynamic class generation.
@@ -123,6 +137,9 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
               OutputArtifactResolver.resolve(module.getProject(), decoder, classJar),
               "Fail to find file %s",
               classJar.getRelativePath());
+      if (index != null && index.isCurrent(classJarFile)) {
+        continue;
+      }
       VirtualFile classJarVF =
           VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(classJarFile);
       if (classJarVF == null) {
@@ -141,6 +158,59 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
     return null;
   }
 
+  /**
+   * Finds the class in the jars of the given target or its transitive dependencies, using the
+   * class to jar index.
+   */
+  @Nullable
+  private VirtualFile findClassFileInIndex(
+      Project project, ClassJarIndex.Index index, TargetKey targetKey, String className) {
+    String entryPath = ClassJarIndex.toEntryPath(className);
+    List<File> missingClassJars = Lists.newArrayList();
+    VirtualFile classFile =
+        findClassInJars(project, index.find(className), targetKey, entryPath, missingClassJars);
+    maybeRefreshJars(missingClassJars, pendingJarsRefresh);
+    return classFile;
+  }
+
+  /**
+   * Returns the class file from the first of the given jars belonging to the target or its
+   * transitive dependencies, searched in the same order as without the index.
+   */
+  @Nullable
+  private static VirtualFile findClassInJars(
+      Project project,
+      List<ClassJarIndex.JarLocation> jars,
+      TargetKey targetKey,
+      String entryPath,
+      List<File> missingClassJars) {
+    if (jars.isEmpty()) {
+      return null;
+    }
+    TransitiveDependencyMap dependencies = TransitiveDependencyMap.getInstance(project);
+    List<ClassJarIndex.JarLocation> candidates =
+        ClassJarIndex.selectJars(
+            jars,
+            targetKey,
+            owner -> dependencies.hasTransitiveDependency(targetKey, owner),
+            () -> dependencies.getTransitiveDependencies(targetKey));
+    for (ClassJarIndex.JarLocation jar : candidates) {
+      VirtualFile classJarVF =
+          VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(jar.jar);
+      if (classJarVF == null) {
+        if (jar.jar.exists()) {
+          missingClassJars.add(jar.jar);
+        }
+        continue;
+      }
+      VirtualFile classFile = findClassInJar(classJarVF, entryPath);
+      if (classFile != null) {
+        return classFile;
+      }
+    }
+    return null;
+  }
+
   public static Stream<LibraryArtifact> getNonResourceJars(TargetIdeInfo target) {
     if (target.getJavaIdeInfo() == null) {
       return null;
@@ -229,8 +229,7 @@ public class BlazeRenderErrorContributor extends RenderErrorContributor {
     SortedSetMultimap<String, TargetKey> missingClassToTargetMap = TreeMultimap.create();
 
     SourceToTargetMap sourceToTargetMap = SourceToTargetMap.getInstance(project);
-    ImmutableCollection transitiveDependencies =
-        TransitiveDependencyMap.getInstance(project).getTransitiveDependencies(target.getKey());
+    TransitiveDependencyMap transitiveDependencyMap = TransitiveDependencyMap.getInstance(project);
 
     for (String missingClass : missingClasses) {
       File sourceFile = getSourceFileForClass(missingClass);
@@ -243,7 +242,8 @@ public class BlazeRenderErrorContributor extends RenderErrorContributor {
           .noneMatch(
               sourceTarget ->
                   sourceTarget.equals(target.getKey())
-                      || transitiveDependencies.contains(sourceTarget))) {
+                      || transitiveDependencyMap.hasTransitiveDependency(
+                          target.getKey(), sourceTarget))) {
         missingClassToTargetMap.putAll(missingClass, sourceTargets);
       }
     }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AarExtractor}. */
+@RunWith(JUnit4.class)
+public class AarExtractorTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testExtractSkipsExcludedEntries() throws Exception {
+    File aarDir = folder.newFolder("aar");
+
+    AarExtractor.Result result =
+        AarExtractor.extract(
+            aar(
+                "R.txt", "int id foo 1",
+                "res/values/strings.xml", "<resources/>",
+                "classes.jar", ""),
+            aarDir,
+            name -> !name.endsWith(".jar"));
+
+    assertThat(result.written).isEqualTo(2);
+    assertThat(read(new File(aarDir, "R.txt"))).isEqualTo("int id foo 1");
+    assertThat(read(new File(aarDir, "res/values/strings.xml"))).isEqualTo("<resources/>");
+    assertThat(new File(aarDir, "classes.jar").exists()).isFalse();
+  }
+
+  @Test
+  public void testReExtractRewritesOnlyChangedEntries() throws Exception {
+    File aarDir = folder.newFolder("aar");
+    AarExtractor.extract(
+        aar("R.txt", "int id foo 1", "res/layout/a.xml", "<a/>", "res/layout/b.xml", "<b/>"),
+        aarDir,
+        name -> true);
+
+    AarExtractor.Result result =
+        AarExtractor.extract(
+            aar("R.txt", "int id foo 2", "res/layout/a.xml", "<a/>"), aarDir, name -> true);
+
+    assertThat(result.written).isEqualTo(1);
+    assertThat(result.unchanged).isEqualTo(1);
+    assertThat(result.deleted).isEqualTo(1);
+    assertThat(read(new File(aarDir, "R.txt"))).isEqualTo("int id foo 2");
+    assertThat(new File(aarDir, "res/layout/b.xml").exists()).isFalse();
+  }
+
+  @Test
+  public void testEntriesOutsideDirectoryAreRejected() throws Exception {
+    File aarDir = folder.newFolder("aar");
+
+    try {
+      AarExtractor.extract(aar("../evil.txt", "evil"), aarDir, name -> true);
+      fail("Should have thrown IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+    assertThat(new File(aarDir.getParentFile(), "evil.txt").exists()).isFalse();
+  }
+
+  private static InputStream aar(String... namesAndContents) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        out.putNextEntry(new ZipEntry(namesAndContents[i]));
+        out.write(namesAndContents[i + 1].getBytes(UTF_8));
+        out.closeEntry();
+      }
+    }
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.projectsystem;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ClassJarIndex}. */
+@RunWith(JUnit4.class)
+public class ClassJarIndexTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(FileOperationProvider.class, new FileOperationProvider());
+  }
+
+  @Test
+  public void testListClasses() throws Exception {
+    File jar =
+        createJar(
+            "foo.jar",
+            "com/google/Foo.class",
+            "com/google/Foo$Inner.class",
+            "com/google/",
+            "META-INF/MANIFEST.MF");
+
+    assertThat(ClassJarIndex.listClasses(jar))
+        .containsExactly("com.google.Foo", "com.google.Foo$Inner");
+  }
+
+  @Test
+  public void testFindClassInSeveralJars() {
+    ClassJarIndex.JarLocation foo = location("//foo:foo", "foo.jar");
+    ClassJarIndex.JarLocation bar = location("//bar:bar", "bar.jar");
+    ClassJarIndex.Index index = new ClassJarIndex.Index();
+    index.add(foo, listing(ImmutableList.of("com.google.Foo", "com.google.Shared")));
+    index.add(bar, listing(ImmutableList.of("com.google.Bar", "com.google.Shared")));
+
+    assertThat(index.find("com.google.Foo")).containsExactly(foo);
+    assertThat(index.find("com.google.Shared")).containsExactly(foo, bar).inOrder();
+    assertThat(index.find("com.google.Missing")).isEmpty();
+  }
+
+  @Test
+  public void testIndexIsCurrentForUnchangedJars() throws Exception {
+    File jar = createJar("foo.jar", "com/google/Foo.class");
+    ClassJarIndex.Index index = new ClassJarIndex.Index();
+    index.add(
+        new ClassJarIndex.JarLocation(key("//foo:foo"), jar),
+        new ClassJarIndex.JarListing(
+            jar.length(), jar.lastModified(), ClassJarIndex.listClasses(jar)));
+
+    assertThat(index.isCurrent(jar)).isTrue();
+    assertThat(index.isCurrent(folder.newFile("unindexed.jar"))).isFalse();
+  }
+
+  @Test
+  public void testIndexIsNotCurrentForRebuiltJars() throws Exception {
+    File jar = createJar("foo.jar", "com/google/Foo.class");
+    ClassJarIndex.Index index = new ClassJarIndex.Index();
+    index.add(
+        new ClassJarIndex.JarLocation(key("//foo:foo"), jar),
+        new ClassJarIndex.JarListing(
+            jar.length(), jar.lastModified(), ClassJarIndex.listClasses(jar)));
+
+    writeJar(jar, "com/google/Foo.class", "com/google/Bar.class");
+
+    assertThat(index.isCurrent(jar)).isFalse();
+  }
+
+  @Test
+  public void testSelectJarsIncludesOnlyOwnResourceJar() {
+    ClassJarIndex.JarLocation ownResources = location("//app:app", "app_resources.jar", true);
+    ClassJarIndex.JarLocation depResources = location("//lib:lib", "lib_resources.jar", true);
+    ClassJarIndex.JarLocation depClasses = location("//lib:lib", "lib.jar", false);
+
+    assertThat(
+            ClassJarIndex.selectJars(
+                ImmutableList.of(depResources, depClasses, ownResources),
+                key("//app:app"),
+                ImmutableSet.of(key("//lib:lib"))::contains,
+                () -> ImmutableList.of(key("//lib:lib"))))
+        .containsExactly(ownResources, depClasses)
+        .inOrder();
+  }
+
+  @Test
+  public void testSelectJarsFollowsDependencyOrder() {
+    ClassJarIndex.JarLocation first = location("//first:first", "first.jar", false);
+    ClassJarIndex.JarLocation second = location("//second:second", "second.jar", false);
+    ClassJarIndex.JarLocation secondExtra = location("//second:second", "second_2.jar", false);
+    ClassJarIndex.JarLocation unrelated = location("//other:other", "other.jar", false);
+
+    assertThat(
+            ClassJarIndex.selectJars(
+                ImmutableList.of(second, unrelated, secondExtra, first),
+                key("//app:app"),
+                ImmutableSet.of(key("//first:first"), key("//second:second"))::contains,
+                () -> ImmutableList.of(key("//first:first"), key("//second:second"))))
+        .containsExactly(first, second, secondExtra)
+        .inOrder();
+  }
+
+  @Test
+  public void testToEntryPath() {
+    assertThat(ClassJarIndex.toEntryPath("com.google.Foo$Inner"))
+        .isEqualTo("com/google/Foo$Inner.class");
+  }
+
+  private File createJar(String name, String... entries) throws IOException {
+    File jar = folder.newFile(name);
+    writeJar(jar, entries);
+    return jar;
+  }
+
+  private static void writeJar(File jar, String... entries) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.closeEntry();
+      }
+    }
+  }
+
+  private static ClassJarIndex.JarListing listing(ImmutableList<String> classNames) {
+    return new ClassJarIndex.JarListing(/* length= */ 0, /* lastModified= */ 0, classNames);
+  }
+
+  private static ClassJarIndex.JarLocation location(String label, String jar) {
+    return new ClassJarIndex.JarLocation(key(label), new File(jar));
+  }
+
+  private static ClassJarIndex.JarLocation location(
+      String label, String jar, boolean resourceJar) {
+    return new ClassJarIndex.JarLocation(key(label), new File(jar), resourceJar);
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+}
@@ -20,8 +20,15 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
-/** An base output stream which marshals output into newline-delimited segments for processing. */
+/**
+ * An base output stream which marshals output into newline-delimited segments for processing.
+ *
+ * <p>Output is split into lines at the byte level, and each line is only decoded once it's
+ * complete, so multi-byte UTF-8 characters split across writes are decoded correctly. Each byte is
+ * scanned for line breaks once, so long lines arriving in many small writes take linear time.
+ */
 public final class LineProcessingOutputStream extends OutputStream {
 
   /** A line processor */
@@ -34,7 +41,15 @@ public final class LineProcessingOutputStream extends OutputStream {
     boolean processLine(String line);
   }
 
-  private final StringBuffer stringBuffer = new StringBuffer();
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+  /** Bytes of the current, incomplete line. */
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int bufferLength;
+
+  /** Whether the last line ended with '\r', in which case a following '\n' is skipped. */
+  private boolean afterCarriageReturn;
+
   private volatile boolean closed;
   private final ImmutableList<LineProcessor> lineProcessors;
 
@@ -52,42 +67,28 @@ public final class LineProcessingOutputStream extends OutputStream {
 
   @Override
   public synchronized void write(byte[] b, int off, int len) {
-    if (!closed) {
-      String text = new String(b, off, len, UTF_8);
-      stringBuffer.append(text);
-
-      while (true) {
-        int lineBreakIndex = -1;
-        int lineBreakLength = 0;
-        for (int i = 0; i < stringBuffer.length(); ++i) {
-          char c = stringBuffer.charAt(i);
-          if (c == '\r' || c == '\n') {
-            lineBreakIndex = i;
-            lineBreakLength = 1;
-            if (c == '\r'
-                && (i + 1) < stringBuffer.length()
-                && stringBuffer.charAt(i + 1) == '\n') {
-              ++lineBreakLength;
-            }
-            break;
-          }
-        }
-
-        if (lineBreakIndex == -1) {
-          return;
-        }
-
-        String line = stringBuffer.substring(0, lineBreakIndex);
-
-        stringBuffer.delete(0, lineBreakIndex + lineBreakLength);
-
-        for (LineProcessor lineProcessor : lineProcessors) {
-          if (!lineProcessor.processLine(line)) {
-            break;
-          }
-        }
+    if (closed) {
+      return;
+    }
+    int end = off + len;
+    int lineStart = off;
+    for (int i = off; i < end; i++) {
+      byte c = b[i];
+      if (c != '\r' && c != '\n') {
+        afterCarriageReturn = false;
+        continue;
+      }
+      if (c == '\n' && afterCarriageReturn) {
+        // second half of a "\r\n" line break
+        afterCarriageReturn = false;
+        lineStart = i + 1;
+        continue;
       }
+      afterCarriageReturn = c == '\r';
+      processLine(b, lineStart, i);
+      lineStart = i + 1;
     }
+    append(b, lineStart, end);
   }
 
   @Override
@@ -95,6 +96,39 @@ public final class LineProcessingOutputStream extends OutputStream {
     write(new byte[] {(byte) b}, 0, 1);
   }
 
+  /** Processes the buffered bytes followed by {@code b[start, end)} as a single line. */
+  private void processLine(byte[] b, int start, int end) {
+    String line;
+    if (bufferLength == 0) {
+      line = new String(b, start, end - start, UTF_8);
+    } else {
+      append(b, start, end);
+      line = new String(buffer, 0, bufferLength, UTF_8);
+      bufferLength = 0;
+      if (buffer.length > INITIAL_BUFFER_SIZE) {
+        // don't hold on to the space needed by an unusually long line
+        buffer = new byte[INITIAL_BUFFER_SIZE];
+      }
+    }
+    for (LineProcessor lineProcessor : lineProcessors) {
+      if (!lineProcessor.processLine(line)) {
+        break;
+      }
+    }
+  }
+
+  private void append(byte[] b, int start, int end) {
+    int length = end - start;
+    if (length == 0) {
+      return;
+    }
+    if (bufferLength + length > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + length));
+    }
+    System.arraycopy(b, start, buffer, bufferLength, length);
+    bufferLength += length;
+  }
+
   @Override
   public void close() throws IOException {
     closed = true;
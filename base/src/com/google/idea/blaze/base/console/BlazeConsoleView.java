@@ -15,6 +15,7 @@
  */
 package com.google.idea.blaze.base.console;
 
+import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.run.filter.BlazeTargetFilter;
 import com.intellij.codeEditor.printing.PrintAction;
 import com.intellij.execution.filters.ConsoleDependentFilterProvider;
@@ -71,6 +72,7 @@ public class BlazeConsoleView implements Disposable {
   private final Project project;
   private final ConsoleViewImpl consoleView;
   private final CompositeFilter customFilters = new CompositeFilter();
+  private final ConsoleFilterStats filterStats = new ConsoleFilterStats();
 
   private volatile Runnable stopHandler;
 
@@ -83,10 +85,10 @@ public class BlazeConsoleView implements Disposable {
             /* viewer= */ false,
             /* usePredefinedFilters= */ false);
 
-    consoleView.addMessageFilter(customFilters);
+    consoleView.addMessageFilter(filterStats.timed(customFilters));
     addWrappedPredefinedFilters();
     // add target filter last, so it doesn't override other links containing a target string
-    consoleView.addMessageFilter(new BlazeTargetFilter(false));
+    consoleView.addMessageFilter(filterStats.timed(new BlazeTargetFilter(false)));
     Disposer.register(this, consoleView);
   }
 
@@ -203,7 +205,9 @@ public class BlazeConsoleView implements Disposable {
     toolWindow.getContentManager().addContent(content);
   }
 
+  /** Clears the console, logging the time spent filtering the previous output. */
   public void clear() {
+    filterStats.logAndReset();
     consoleView.clear();
   }
 
@@ -216,7 +220,9 @@ public class BlazeConsoleView implements Disposable {
   }
 
   @Override
-  public void dispose() {}
+  public void dispose() {
+    filterStats.logAndReset();
+  }
 
   private class StopAction extends DumbAwareAction {
     public StopAction() {
@@ -238,24 +244,31 @@ public class BlazeConsoleView implements Disposable {
     }
   }
 
-  /** A composite filter composed of a modifiable list of custom filters. */
+  /**
+   * A composite filter composed of a modifiable list of custom filters.
+   *
+   * <p>The console may apply filters off the EDT while the filters are replaced, so the list is
+   * swapped atomically rather than modified in place.
+   */
   private static class CompositeFilter implements Filter {
-    private final List<Filter> customFilters = new ArrayList<>();
+    private volatile ImmutableList<Filter> customFilters = ImmutableList.of();
 
     void setCustomFilters(List<Filter> filters) {
-      customFilters.clear();
-      customFilters.addAll(filters);
+      customFilters = ImmutableList.copyOf(filters);
     }
 
     @Nullable
     @Override
     public Result applyFilter(String line, int entireLength) {
-      return customFilters
-          .stream()
-          .map(f -> f.applyFilter(line, entireLength))
-          .filter(Objects::nonNull)
-          .reduce(this::combine)
-          .orElse(null);
+      // called for every line of output, so avoid the overhead of a stream
+      Result result = null;
+      for (Filter filter : customFilters) {
+        Result filterResult = filter.applyFilter(line, entireLength);
+        if (filterResult != null) {
+          result = result == null ? filterResult : combine(result, filterResult);
+        }
+      }
+      return result;
     }
 
     Result combine(Result first, Result second) {
@@ -271,7 +284,8 @@ public class BlazeConsoleView implements Disposable {
     GlobalSearchScope scope = GlobalSearchScope.allScope(project);
     for (ConsoleFilterProvider provider : ConsoleFilterProvider.FILTER_PROVIDERS.getExtensions()) {
       Arrays.stream(getFilters(scope, provider))
-          .forEach(f -> consoleView.addMessageFilter(NonProblemFilterWrapper.wrap(f)));
+          .map(NonProblemFilterWrapper::wrap)
+          .forEach(f -> consoleView.addMessageFilter(filterStats.timed(f)));
     }
   }
 
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.console;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.logging.EventLoggingService;
+import com.intellij.execution.filters.Filter;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.PossiblyDumbAware;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Times the filters the blaze console applies to each line of output, separating the time spent
+ * on the EDT. The totals are logged and reset each time the console is cleared.
+ */
+final class ConsoleFilterStats {
+
+  private final AtomicLong filterCalls = new AtomicLong();
+  private final AtomicLong filterNanos = new AtomicLong();
+  private final AtomicLong edtFilterCalls = new AtomicLong();
+  private final AtomicLong edtFilterNanos = new AtomicLong();
+
+  /** Returns a filter delegating to {@code filter}, recording the time spent in it. */
+  Filter timed(Filter filter) {
+    return new TimedFilter(filter);
+  }
+
+  /** Logs the filter time since the last call, if any filters were applied. */
+  void logAndReset() {
+    long calls = filterCalls.getAndSet(0);
+    long nanos = filterNanos.getAndSet(0);
+    long edtCalls = edtFilterCalls.getAndSet(0);
+    long edtNanos = edtFilterNanos.getAndSet(0);
+    if (calls == 0) {
+      return;
+    }
+    EventLoggingService.getInstance()
+        .logEvent(
+            ConsoleFilterStats.class,
+            "ConsoleFiltersApplied",
+            ImmutableMap.of(
+                "filterCalls", Long.toString(calls),
+                "edtFilterCalls", Long.toString(edtCalls),
+                "edtFilterMillis", Long.toString(TimeUnit.NANOSECONDS.toMillis(edtNanos))),
+            nanos);
+  }
+
+  private void record(long nanos) {
+    filterCalls.incrementAndGet();
+    filterNanos.addAndGet(nanos);
+    if (ApplicationManager.getApplication().isDispatchThread()) {
+      edtFilterCalls.incrementAndGet();
+      edtFilterNanos.addAndGet(nanos);
+    }
+  }
+
+  private class TimedFilter implements Filter, PossiblyDumbAware {
+    private final Filter delegate;
+
+    private TimedFilter(Filter delegate) {
+      this.delegate = delegate;
+    }
+
+    @Nullable
+    @Override
+    public Result applyFilter(String line, int entireLength) {
+      long start = System.nanoTime();
+      try {
+        return delegate.applyFilter(line, entireLength);
+      } finally {
+        record(System.nanoTime() - start);
+      }
+    }
+
+    @Override
+    public boolean isDumbAware() {
+      return DumbService.isDumbAware(delegate);
+    }
+  }
+}
@@ -18,12 +18,14 @@ package com.google.idea.blaze.base.filecache;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
@@ -35,10 +37,13 @@ import com.google.idea.blaze.base.model.RemoteOutputArtifacts;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.google.idea.common.experiments.IntExperiment;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -69,6 +74,10 @@ import javax.annotation.Nullable;
  * interest will be copied locally.
  *
  * <p>Cache files have a hash appended to their name to allow matching to the original artifact.
+ *
+ * <p>If {@link #useIndex} is enabled, the cache is instead bounded by a disk budget: a persisted
+ * {@link RemoteOutputsCacheIndex} records the size and access history of each cached file, and
+ * least-recently used files are evicted once the budget is exceeded.
  */
 public final class RemoteOutputsCache {
 
@@ -78,11 +87,22 @@ public final class RemoteOutputsCache {
 
   private static final Logger logger = Logger.getInstance(RemoteOutputsCache.class);
 
+  private static final BoolExperiment useIndex =
+      new BoolExperiment("blaze.remote.outputs.cache.index", false);
+
+  private static final IntExperiment diskBudgetMb =
+      new IntExperiment("blaze.remote.outputs.cache.budget.mb", 2048);
+
   private final File cacheDir;
+  private final File indexFile;
   private volatile Map<String, File> cachedFiles = ImmutableMap.of();
 
+  /** The cache index, or null if {@link #useIndex} is disabled. */
+  @Nullable private volatile RemoteOutputsCacheIndex index;
+
   private RemoteOutputsCache(Project project) {
     this.cacheDir = getCacheDir(project);
+    this.indexFile = new File(cacheDir.getPath() + ".index");
   }
 
   /**
@@ -90,12 +110,42 @@ public final class RemoteOutputsCache {
    * cached outputs.
    */
   public void initialize() {
-    cachedFiles = readCachedFiles();
+    if (useIndex.getValue()) {
+      index = readIndex();
+    } else {
+      index = null;
+      indexFile.delete();
+      cachedFiles = readCachedFiles();
+    }
+  }
+
+  /**
+   * Reads the persisted index. If there's no index, the cache directory was populated without one
+   * (or the index was lost), so any existing files are discarded. Otherwise, only files which the
+   * index doesn't refer to are discarded.
+   */
+  private RemoteOutputsCacheIndex readIndex() {
+    RemoteOutputsCacheIndex index = RemoteOutputsCacheIndex.load(indexFile);
+    if (index == null) {
+      clearCache();
+      return new RemoteOutputsCacheIndex();
+    }
+    // the cache isn't being updated yet, so delete synchronously
+    for (File file : index.findUnreferencedFiles(cacheDir)) {
+      if (!file.delete()) {
+        logger.info("Could not delete unreferenced remote outputs cache file: " + file);
+      }
+    }
+    return index;
   }
 
   /** Finds the locally-cached version of this file, or null if it isn't in the cache. */
   @Nullable
   public File resolveOutput(RemoteOutputArtifact output) {
+    RemoteOutputsCacheIndex index = this.index;
+    if (index != null) {
+      return index.resolve(cacheDir, output);
+    }
     Map<String, File> cachedFiles = this.cachedFiles;
     return cachedFiles != null ? cachedFiles.get(getCacheKey(output)) : null;
   }
@@ -139,6 +189,14 @@ public final class RemoteOutputsCache {
       BlazeContext context,
       Set<RemoteOutputArtifact> toCache,
       RemoteOutputArtifacts previousOutputs) {
+    if (useIndex.getValue()) {
+      updateIndexedCache(context, toCache);
+      return;
+    }
+    if (index != null) {
+      index = null;
+      indexFile.delete();
+    }
     Map<String, RemoteOutputArtifact> newState =
         toCache.stream()
             .collect(toImmutableMap(RemoteOutputsCache::getCacheKey, Functions.identity()));
@@ -148,11 +206,7 @@ public final class RemoteOutputsCache {
       Map<String, RemoteOutputArtifact> updatedOutputs =
           FileCacheDiffer.findUpdatedOutputs(newState, cachedFiles, previousOutputs);
 
-      List<File> removed =
-          cachedFiles.entrySet().stream()
-              .filter(e -> !updatedOutputs.containsKey(e.getKey()))
-              .map(Map.Entry::getValue)
-              .collect(toImmutableList());
+      List<File> removed = findRemovedFiles(cachedFiles, newState.keySet());
 
       // Ensure the cache dir exists
       if (!cacheDir.exists()) {
@@ -182,6 +236,149 @@ public final class RemoteOutputsCache {
     }
   }
 
+  /** Returns the cached files which are no longer needed. Unchanged files must be kept. */
+  @VisibleForTesting
+  static List<File> findRemovedFiles(Map<String, File> cachedFiles, Set<String> newCacheKeys) {
+    return cachedFiles.entrySet().stream()
+        .filter(e -> !newCacheKeys.contains(e.getKey()))
+        .map(Map.Entry::getValue)
+        .collect(toImmutableList());
+  }
+
+  private void updateIndexedCache(BlazeContext context, Set<RemoteOutputArtifact> toCache) {
+    RemoteOutputsCacheIndex index = this.index;
+    if (index == null) {
+      index = readIndex();
+      this.index = index;
+    }
+    // Ensure the cache dir exists
+    if (!cacheDir.exists()) {
+      if (!cacheDir.mkdirs()) {
+        IssueOutput.error("Could not create remote outputs cache directory").submit(context);
+        context.setHasError();
+        return;
+      }
+    }
+    int resolved = index.getAndResetResolvedCount();
+    long syncTime = System.currentTimeMillis();
+    int reused = 0;
+    long reusedBytes = 0;
+    List<RemoteOutputArtifact> toDownload = new ArrayList<>();
+    for (RemoteOutputArtifact artifact : toCache) {
+      RemoteOutputsCacheIndex.Entry entry = index.get(artifact);
+      if (entry != null) {
+        index.markSelected(entry, syncTime);
+        reused++;
+        reusedBytes += entry.size;
+      } else {
+        toDownload.add(artifact);
+      }
+    }
+    try {
+      List<RemoteOutputsCacheIndex.Entry> downloaded =
+          Futures.allAsList(download(toDownload, syncTime)).get();
+      long downloadedBytes = 0;
+      List<RemoteOutputsCacheIndex.Entry> toDelete = new ArrayList<>();
+      for (int i = 0; i < downloaded.size(); i++) {
+        RemoteOutputsCacheIndex.Entry entry = downloaded.get(i);
+        if (entry != null) {
+          index.put(entry);
+          downloadedBytes += entry.size;
+        } else {
+          // the cached file holds an older version of the artifact, which is no longer needed
+          RemoteOutputsCacheIndex.Entry stale = index.remove(toDownload.get(i).getKey());
+          if (stale != null) {
+            toDelete.add(stale);
+          }
+        }
+      }
+      // never evict the files this sync has just selected
+      List<RemoteOutputsCacheIndex.Entry> evicted =
+          index.evict(
+              diskBudgetMb.getValue() * 1024L * 1024L,
+              toCache.stream().map(RemoteOutputArtifact::getKey).collect(toImmutableSet()));
+      toDelete.addAll(evicted);
+      Futures.allAsList(
+              deleteCacheFiles(
+                  toDelete.stream()
+                      .map(e -> new File(cacheDir, e.fileName))
+                      .collect(toImmutableList())))
+          .get();
+      long evictedBytes = evicted.stream().mapToLong(e -> e.size).sum();
+      context.output(
+          PrintOutput.log(
+              String.format(
+                  "Remote outputs cache: %d up to date (%d kB), %d downloaded (%d kB), "
+                      + "%d evicted (%d kB), %d resolved since last sync. Total size: %d kB",
+                  reused,
+                  reusedBytes / 1024,
+                  downloaded.stream().filter(Objects::nonNull).count(),
+                  downloadedBytes / 1024,
+                  evicted.size(),
+                  evictedBytes / 1024,
+                  resolved,
+                  index.totalSize() / 1024)));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      context.setCancelled();
+    } catch (ExecutionException e) {
+      IssueOutput.warn("Remote outputs synchronization didn't complete: " + e.getMessage())
+          .submit(context);
+    } finally {
+      try {
+        index.save(indexFile);
+      } catch (IOException e) {
+        logger.warn("Couldn't write remote outputs cache index", e);
+      }
+    }
+  }
+
+  /**
+   * Copies the artifacts locally, returning an index entry for each. The entry is null if the copy
+   * failed.
+   *
+   * <p>Each artifact is downloaded to a temporary file, then moved into place atomically, so
+   * concurrent readers of a previously cached version never see a partially written file.
+   */
+  private List<ListenableFuture<RemoteOutputsCacheIndex.Entry>> download(
+      List<RemoteOutputArtifact> artifacts, long syncTime) {
+    List<ListenableFuture<RemoteOutputsCacheIndex.Entry>> futures = new ArrayList<>();
+    for (RemoteOutputArtifact artifact : artifacts) {
+      futures.add(
+          FetchExecutor.EXECUTOR.submit(
+              () -> {
+                String fileName = getIndexedCacheKey(artifact);
+                Path destination = Paths.get(new File(cacheDir, fileName).getPath());
+                Path temp = null;
+                try (InputStream stream = artifact.getInputStream()) {
+                  // left behind by a crash, the temp file is deleted as an unreferenced file
+                  temp = Files.createTempFile(destination.getParent(), fileName, ".tmp");
+                  long size = Files.copy(stream, temp, StandardCopyOption.REPLACE_EXISTING);
+                  Files.move(
+                      temp,
+                      destination,
+                      StandardCopyOption.ATOMIC_MOVE,
+                      StandardCopyOption.REPLACE_EXISTING);
+                  return new RemoteOutputsCacheIndex.Entry(
+                      artifact.getKey(),
+                      artifact.getHashId(),
+                      fileName,
+                      size,
+                      syncTime,
+                      /* accessCount= */ 0);
+                } catch (IOException e) {
+                  logger.warn(e);
+                  // don't leave a partially written file behind
+                  if (temp != null) {
+                    temp.toFile().delete();
+                  }
+                  return null;
+                }
+              }));
+    }
+    return futures;
+  }
+
   private Map<String, File> readCachedFiles() {
     File[] files = cacheDir.listFiles();
     if (files == null) {
@@ -197,12 +394,24 @@ public final class RemoteOutputsCache {
   @VisibleForTesting
   static String getCacheKey(RemoteOutputArtifact output) {
     String key = output.getKey();
+    return getCacheKey(key, Integer.toHexString(key.hashCode()));
+  }
+
+  /**
+   * The file name used for artifacts when {@link #useIndex} is enabled. Uses a stronger hash than
+   * {@link #getCacheKey}, though the index doesn't rely on it to tell artifacts apart.
+   */
+  @VisibleForTesting
+  static String getIndexedCacheKey(RemoteOutputArtifact output) {
+    String key = output.getKey();
+    String hash = Hashing.sha256().hashString(key, UTF_8).toString().substring(0, 16);
+    return getCacheKey(key, hash);
+  }
+
+  private static String getCacheKey(String key, String hash) {
     String fileName = PathUtil.getFileName(key);
     List<String> components = Splitter.on('.').limit(2).splitToList(fileName);
-    StringBuilder builder =
-        new StringBuilder(components.get(0))
-            .append('_')
-            .append(Integer.toHexString(key.hashCode()));
+    StringBuilder builder = new StringBuilder(components.get(0)).append('_').append(hash);
     if (components.size() > 1) {
       // file extension(s)
       builder.append('.').append(components.get(1));
@@ -250,6 +459,18 @@ public final class RemoteOutputsCache {
 
   private void clearCache() {
     cachedFiles = ImmutableMap.of();
+    if (useIndex.getValue()) {
+      // the indexed cache is repopulated straight away, so delete synchronously
+      index = new RemoteOutputsCacheIndex();
+      indexFile.delete();
+      File[] cacheFiles = cacheDir.listFiles();
+      if (cacheFiles != null) {
+        for (File file : cacheFiles) {
+          file.delete();
+        }
+      }
+      return;
+    }
     if (cacheDir.exists()) {
       File[] cacheFiles = cacheDir.listFiles();
       if (cacheFiles != null) {
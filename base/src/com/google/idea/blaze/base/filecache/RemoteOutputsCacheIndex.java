@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * The persisted index of the {@link RemoteOutputsCache}, recording the artifact, size and access
+ * history of every cached file.
+ *
+ * <p>Entries are keyed by the full artifact key, and only match artifacts with the same remote
+ * content ID, so a stale or colliding cache file is never returned.
+ */
+final class RemoteOutputsCacheIndex {
+
+  /** A single cached file. */
+  static final class Entry {
+    final String artifactKey;
+    final String hashId;
+    final String fileName;
+    final long size;
+    private volatile long lastAccessTime;
+    private final AtomicInteger accessCount;
+
+    Entry(
+        String artifactKey,
+        String hashId,
+        String fileName,
+        long size,
+        long lastAccessTime,
+        int accessCount) {
+      this.artifactKey = artifactKey;
+      this.hashId = hashId;
+      this.fileName = fileName;
+      this.size = size;
+      this.lastAccessTime = lastAccessTime;
+      this.accessCount = new AtomicInteger(accessCount);
+    }
+
+    long getLastAccessTime() {
+      return lastAccessTime;
+    }
+
+    int getAccessCount() {
+      return accessCount.get();
+    }
+
+    private void recordAccess(long time) {
+      lastAccessTime = time;
+      accessCount.incrementAndGet();
+    }
+
+    private static Entry fromProto(ProjectData.RemoteOutputsCacheIndex.Entry proto) {
+      return new Entry(
+          proto.getArtifactKey(),
+          proto.getHashId(),
+          proto.getFileName(),
+          proto.getSize(),
+          proto.getLastAccessTime(),
+          proto.getAccessCount());
+    }
+
+    private ProjectData.RemoteOutputsCacheIndex.Entry toProto() {
+      return ProjectData.RemoteOutputsCacheIndex.Entry.newBuilder()
+          .setArtifactKey(artifactKey)
+          .setHashId(hashId)
+          .setFileName(fileName)
+          .setSize(size)
+          .setLastAccessTime(lastAccessTime)
+          .setAccessCount(accessCount.get())
+          .build();
+    }
+  }
+
+  /** Evicts least-recently used entries first, then least-frequently used. */
+  private static final Comparator<Entry> EVICTION_ORDER =
+      Comparator.comparingLong(Entry::getLastAccessTime).thenComparingInt(Entry::getAccessCount);
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicInteger resolvedCount = new AtomicInteger();
+
+  /** Reads the index from disk. Returns null if it doesn't exist or can't be read. */
+  @Nullable
+  static RemoteOutputsCacheIndex load(File file) {
+    if (!file.exists()) {
+      return null;
+    }
+    try (InputStream stream = Files.newInputStream(file.toPath())) {
+      RemoteOutputsCacheIndex index = new RemoteOutputsCacheIndex();
+      for (ProjectData.RemoteOutputsCacheIndex.Entry proto :
+          ProjectData.RemoteOutputsCacheIndex.parseFrom(stream).getEntriesList()) {
+        index.put(Entry.fromProto(proto));
+      }
+      return index;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Atomically replaces the index on disk. */
+  void save(File file) throws IOException {
+    ProjectData.RemoteOutputsCacheIndex.Builder builder =
+        ProjectData.RemoteOutputsCacheIndex.newBuilder();
+    entries.values().forEach(entry -> builder.addEntries(entry.toProto()));
+    File temp = new File(file.getPath() + ".tmp");
+    try (OutputStream stream = Files.newOutputStream(temp.toPath())) {
+      builder.build().writeTo(stream);
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** Returns the entry for this artifact, if its current contents are cached. */
+  @Nullable
+  Entry get(RemoteOutputArtifact output) {
+    Entry entry = entries.get(output.getKey());
+    return entry != null && entry.hashId.equals(output.getHashId()) ? entry : null;
+  }
+
+  /**
+   * Returns the cached file for this artifact, or null if its current contents aren't cached.
+   * Counts as an access for eviction purposes.
+   */
+  @Nullable
+  File resolve(File cacheDir, RemoteOutputArtifact output) {
+    Entry entry = get(output);
+    if (entry == null) {
+      return null;
+    }
+    entry.recordAccess(System.currentTimeMillis());
+    resolvedCount.incrementAndGet();
+    return new File(cacheDir, entry.fileName);
+  }
+
+  /** Marks an entry as selected for caching by the current sync. */
+  void markSelected(Entry entry, long time) {
+    entry.lastAccessTime = Math.max(entry.lastAccessTime, time);
+  }
+
+  /** Adds or replaces the entry for an artifact. Returns the previous entry, if any. */
+  @Nullable
+  Entry put(Entry entry) {
+    return entries.put(entry.artifactKey, entry);
+  }
+
+  /**
+   * Removes the entry for an artifact, e.g. because its file couldn't be updated. Returns the
+   * removed entry, if any.
+   */
+  @Nullable
+  Entry remove(String artifactKey) {
+    return entries.remove(artifactKey);
+  }
+
+  /**
+   * Returns the files in the cache directory which no index entry refers to, e.g. left behind by
+   * a download interrupted by an IDE crash.
+   */
+  List<File> findUnreferencedFiles(File cacheDir) {
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return new ArrayList<>();
+    }
+    Set<String> referenced = new HashSet<>();
+    entries.values().forEach(entry -> referenced.add(entry.fileName));
+    List<File> unreferenced = new ArrayList<>();
+    for (File file : files) {
+      if (!referenced.contains(file.getName())) {
+        unreferenced.add(file);
+      }
+    }
+    return unreferenced;
+  }
+
+  long totalSize() {
+    return entries.values().stream().mapToLong(e -> e.size).sum();
+  }
+
+  /**
+   * Removes entries in eviction order until the total size fits within the given budget. Entries
+   * for {@code retainedArtifactKeys}, e.g. those selected by the current sync, are never evicted,
+   * even if that leaves the cache over budget. Returns the removed entries; deleting their files is
+   * left to the caller.
+   */
+  List<Entry> evict(long budgetBytes, Set<String> retainedArtifactKeys) {
+    long total = totalSize();
+    List<Entry> evicted = new ArrayList<>();
+    if (total <= budgetBytes) {
+      return evicted;
+    }
+    List<Entry> candidates = new ArrayList<>(entries.values());
+    candidates.sort(EVICTION_ORDER);
+    for (Entry entry : candidates) {
+      if (total <= budgetBytes) {
+        break;
+      }
+      if (retainedArtifactKeys.contains(entry.artifactKey)) {
+        continue;
+      }
+      entries.remove(entry.artifactKey, entry);
+      evicted.add(entry);
+      total -= entry.size;
+    }
+    return evicted;
+  }
+
+  /** Returns the number of successful {@link #resolve} calls since the last call to this method. */
+  int getAndResetResolvedCount() {
+    return resolvedCount.getAndSet(0);
+  }
+}
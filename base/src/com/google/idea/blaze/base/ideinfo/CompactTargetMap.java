@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A memory-compact, read-only backend for {@link TargetMap}.
+ *
+ * <p>Every distinct {@link TargetKey} (including keys only referenced as dependencies) is stored
+ * once in a key table, with targets sorted at the front for binary search lookups. Dependencies are
+ * int adjacency arrays into that table, and the remaining per-target data is kept as serialized
+ * proto bytes.
+ */
+final class CompactTargetMap extends LazyTargetMap {
+
+  /** Targets in [0, targetCount), sorted. Dependency-only keys follow, unsorted. */
+  private final TargetKey[] keys;
+
+  private final int targetCount;
+  private final Kind[] kinds;
+
+  /** Dependencies of target i are in [depOffsets[i], depOffsets[i + 1]). */
+  private final int[] depOffsets;
+
+  private final int[] depKeys;
+  private final byte[] depTypes;
+
+  /** Serialized target protos, excluding the key, kind and dependencies. */
+  private final byte[][] payloads;
+
+  private CompactTargetMap(
+      TargetKey[] keys,
+      int targetCount,
+      Kind[] kinds,
+      int[] depOffsets,
+      int[] depKeys,
+      byte[] depTypes,
+      byte[][] payloads) {
+    this.keys = keys;
+    this.targetCount = targetCount;
+    this.kinds = kinds;
+    this.depOffsets = depOffsets;
+    this.depKeys = depKeys;
+    this.depTypes = depTypes;
+    this.payloads = payloads;
+  }
+
+  static CompactTargetMap fromTargets(Collection<TargetIdeInfo> targets) {
+    Map<TargetKey, IntellijIdeInfo.TargetIdeInfo> protos = new TreeMap<>();
+    for (TargetIdeInfo target : targets) {
+      protos.put(target.getKey(), target.toProto());
+    }
+    return create(protos);
+  }
+
+  static CompactTargetMap fromProtos(Collection<IntellijIdeInfo.TargetIdeInfo> targets) {
+    Map<TargetKey, IntellijIdeInfo.TargetIdeInfo> protos = new TreeMap<>();
+    for (IntellijIdeInfo.TargetIdeInfo proto : targets) {
+      // targets with unrecognized kinds are dropped, as in TargetIdeInfo#fromProto
+      if (proto.hasKey() && Kind.fromProto(proto) != null) {
+        protos.put(TargetKey.fromProto(proto.getKey()), proto);
+      }
+    }
+    return create(protos);
+  }
+
+  private static CompactTargetMap create(Map<TargetKey, IntellijIdeInfo.TargetIdeInfo> sorted) {
+    int targetCount = sorted.size();
+    Map<TargetKey, Integer> keyIndex = new HashMap<>();
+    int totalDeps = 0;
+    for (Map.Entry<TargetKey, IntellijIdeInfo.TargetIdeInfo> entry : sorted.entrySet()) {
+      keyIndex.put(entry.getKey(), keyIndex.size());
+      totalDeps += entry.getValue().getDepsCount();
+    }
+
+    Kind[] kinds = new Kind[targetCount];
+    int[] depOffsets = new int[targetCount + 1];
+    int[] depKeys = new int[totalDeps];
+    byte[] depTypes = new byte[totalDeps];
+    byte[][] payloads = new byte[targetCount][];
+
+    int target = 0;
+    int dep = 0;
+    for (IntellijIdeInfo.TargetIdeInfo proto : sorted.values()) {
+      kinds[target] = Kind.fromProto(proto);
+      depOffsets[target] = dep;
+      for (IntellijIdeInfo.Dependency dependency : proto.getDepsList()) {
+        TargetKey depKey = TargetKey.fromProto(dependency.getTarget());
+        Integer index = keyIndex.get(depKey);
+        if (index == null) {
+          index = keyIndex.size();
+          keyIndex.put(depKey, index);
+        }
+        depKeys[dep] = index;
+        depTypes[dep] = (byte) dependency.getDependencyTypeValue();
+        dep++;
+      }
+      payloads[target] =
+          proto.toBuilder().clearKey().clearKindString().clearDeps().build().toByteArray();
+      target++;
+    }
+    depOffsets[targetCount] = dep;
+
+    TargetKey[] keys = new TargetKey[keyIndex.size()];
+    keyIndex.forEach((key, index) -> keys[index] = key);
+    return new CompactTargetMap(keys, targetCount, kinds, depOffsets, depKeys, depTypes, payloads);
+  }
+
+  @Override
+  int size() {
+    return targetCount;
+  }
+
+  @Override
+  TargetKey keyAt(int index) {
+    return keys[index];
+  }
+
+  @Override
+  int indexOf(TargetKey key) {
+    int index = Arrays.binarySearch(keys, 0, targetCount, key);
+    return index >= 0 ? index : -1;
+  }
+
+  @Override
+  IntellijIdeInfo.TargetIdeInfo toTargetProto(int index) {
+    IntellijIdeInfo.TargetIdeInfo.Builder builder;
+    try {
+      builder = IntellijIdeInfo.TargetIdeInfo.parseFrom(payloads[index]).toBuilder();
+    } catch (InvalidProtocolBufferException e) {
+      // we serialized this ourselves, so this is never expected
+      throw new IllegalStateException(e);
+    }
+    builder.setKey(keys[index].toProto()).setKindString(kinds[index].getKindString());
+    for (int dep = depOffsets[index]; dep < depOffsets[index + 1]; dep++) {
+      builder.addDeps(
+          IntellijIdeInfo.Dependency.newBuilder()
+              .setTarget(keys[depKeys[dep]].toProto())
+              .setDependencyTypeValue(depTypes[dep]));
+    }
+    return builder.build();
+  }
+
+  /** Compares the compact encodings, without materializing any targets. */
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof CompactTargetMap)) {
+      return false;
+    }
+    CompactTargetMap other = (CompactTargetMap) o;
+    if (targetCount != other.targetCount
+        || !Arrays.equals(depOffsets, other.depOffsets)
+        || !Arrays.equals(kinds, other.kinds)
+        || !Arrays.equals(depTypes, other.depTypes)) {
+      return false;
+    }
+    for (int i = 0; i < targetCount; i++) {
+      if (!keys[i].equals(other.keys[i])) {
+        return false;
+      }
+    }
+    for (int dep = 0; dep < depKeys.length; dep++) {
+      if (!keys[depKeys[dep]].equals(other.keys[other.depKeys[dep]])) {
+        return false;
+      }
+    }
+    for (int i = 0; i < targetCount; i++) {
+      if (!Arrays.equals(payloads[i], other.payloads[i]) && !samePayloadProto(other, i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Serialization isn't guaranteed to be canonical, so fall back to comparing parsed protos. */
+  private boolean samePayloadProto(CompactTargetMap other, int index) {
+    try {
+      return IntellijIdeInfo.TargetIdeInfo.parseFrom(payloads[index])
+          .equals(IntellijIdeInfo.TargetIdeInfo.parseFrom(other.payloads[index]));
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** The hash code of the set of target keys, matching {@link TargetMap#hashCode}. */
+  @Override
+  public int hashCode() {
+    int hash = 0;
+    for (int i = 0; i < targetCount; i++) {
+      hash += keys[i].hashCode();
+    }
+    return hash;
+  }
+}
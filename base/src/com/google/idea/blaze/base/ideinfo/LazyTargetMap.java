@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import java.lang.ref.SoftReference;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+
+/**
+ * A read-only backend for {@link TargetMap} which keeps its targets in serialized form, sorted by
+ * key, and materializes {@link TargetIdeInfo} instances on demand.
+ *
+ * <p>Materialized targets are only softly cached, so the garbage collector can reclaim them under
+ * memory pressure. Iterating over all targets doesn't add them to the cache, so a full pass doesn't
+ * retain every target. The fully materialized map, needed by callers of {@link TargetMap#map}, is
+ * likewise only softly cached.
+ */
+abstract class LazyTargetMap {
+
+  private final Cache<Integer, TargetIdeInfo> materialized =
+      CacheBuilder.newBuilder().softValues().build();
+
+  private volatile SoftReference<ImmutableMap<TargetKey, TargetIdeInfo>> materializedMap =
+      new SoftReference<>(null);
+
+  /** The number of targets. */
+  abstract int size();
+
+  /** Returns the key of the target at the given index, in sorted order. */
+  abstract TargetKey keyAt(int index);
+
+  /** Returns the index of the target with the given key, or -1 if there's no such target. */
+  abstract int indexOf(TargetKey key);
+
+  /** Returns the full proto of the target at the given index. */
+  abstract IntellijIdeInfo.TargetIdeInfo toTargetProto(int index);
+
+  boolean contains(TargetKey key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Nullable
+  TargetIdeInfo get(TargetKey key) {
+    int index = indexOf(key);
+    return index >= 0 ? materialize(index) : null;
+  }
+
+  /** The keys of the targets, in sorted order. */
+  Collection<TargetKey> keys() {
+    return new AbstractList<TargetKey>() {
+      @Override
+      public TargetKey get(int index) {
+        return keyAt(index);
+      }
+
+      @Override
+      public int size() {
+        return LazyTargetMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * A read-only view of the targets, in key order. Each target is materialized as it's iterated,
+   * and isn't retained by this map.
+   */
+  Collection<TargetIdeInfo> targets() {
+    return new AbstractCollection<TargetIdeInfo>() {
+      @Override
+      public Iterator<TargetIdeInfo> iterator() {
+        return new Iterator<TargetIdeInfo>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < LazyTargetMap.this.size();
+          }
+
+          @Override
+          public TargetIdeInfo next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return peek(next++);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return LazyTargetMap.this.size();
+      }
+    };
+  }
+
+  /** Materializes the full target map, or returns it from the soft cache. */
+  ImmutableMap<TargetKey, TargetIdeInfo> toMap() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = materializedMap.get();
+    if (map != null) {
+      return map;
+    }
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder = ImmutableMap.builder();
+    for (int i = 0; i < size(); i++) {
+      builder.put(keyAt(i), peek(i));
+    }
+    map = builder.build();
+    materializedMap = new SoftReference<>(map);
+    return map;
+  }
+
+  /** Serializes directly from the stored protos, without materializing targets. */
+  ProjectData.TargetMap toProto() {
+    ProjectData.TargetMap.Builder builder = ProjectData.TargetMap.newBuilder();
+    for (int i = 0; i < size(); i++) {
+      builder.addTargets(toTargetProto(i));
+    }
+    return builder.build();
+  }
+
+  @VisibleForTesting
+  long cachedTargetCount() {
+    return materialized.size();
+  }
+
+  private TargetIdeInfo materialize(int index) {
+    TargetIdeInfo target = materialized.getIfPresent(index);
+    if (target == null) {
+      target = TargetIdeInfo.fromProto(toTargetProto(index));
+      materialized.put(index, target);
+    }
+    return target;
+  }
+
+  /** Returns the cached target if present, otherwise materializes it without caching it. */
+  private TargetIdeInfo peek(int index) {
+    TargetIdeInfo target = materialized.getIfPresent(index);
+    return target != null ? target : TargetIdeInfo.fromProto(toTargetProto(index));
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * A read-only backend for {@link TargetMap} which decodes targets directly from a serialized
+ * {@link ProjectData.TargetMap}, typically a memory-mapped file.
+ *
+ * <p>Only the key and kind of each target are read up front, to index the targets. Everything else
+ * is decoded from the buffer when a target is accessed, so loading doesn't copy the target map onto
+ * the heap.
+ */
+final class SerializedTargetMap extends LazyTargetMap {
+
+  private static final int TARGETS_TAG =
+      WireFormat.makeTag(
+          ProjectData.TargetMap.TARGETS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int KIND_STRING_TAG =
+      WireFormat.makeTag(
+          IntellijIdeInfo.TargetIdeInfo.KIND_STRING_FIELD_NUMBER,
+          WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int KEY_TAG =
+      WireFormat.makeTag(
+          IntellijIdeInfo.TargetIdeInfo.KEY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+  /** Never modified, and only read through duplicates, so it can be shared between threads. */
+  private final ByteBuffer buffer;
+
+  /** Sorted. */
+  private final TargetKey[] keys;
+
+  /** Target i is serialized in [offsets[i], offsets[i] + lengths[i]) of the buffer. */
+  private final int[] offsets;
+
+  private final int[] lengths;
+
+  private SerializedTargetMap(ByteBuffer buffer, TargetKey[] keys, int[] offsets, int[] lengths) {
+    this.buffer = buffer;
+    this.keys = keys;
+    this.offsets = offsets;
+    this.lengths = lengths;
+  }
+
+  /**
+   * Indexes the targets of a serialized {@link ProjectData.TargetMap}. The buffer must not be
+   * modified afterwards.
+   */
+  static SerializedTargetMap create(ByteBuffer buffer) throws IOException {
+    Map<TargetKey, int[]> locations = new TreeMap<>();
+    CodedInputStream in = CodedInputStream.newInstance(buffer.duplicate());
+    in.setSizeLimit(Integer.MAX_VALUE);
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      if (tag != TARGETS_TAG) {
+        in.skipField(tag);
+        continue;
+      }
+      int length = in.readRawVarint32();
+      int offset = buffer.position() + in.getTotalBytesRead();
+      TargetKey key = readKey(buffer, offset, length);
+      if (key != null) {
+        // as with the other target map representations, later duplicates win
+        locations.put(key, new int[] {offset, length});
+      }
+      in.skipRawBytes(length);
+    }
+
+    TargetKey[] keys = new TargetKey[locations.size()];
+    int[] offsets = new int[keys.length];
+    int[] lengths = new int[keys.length];
+    int index = 0;
+    for (Map.Entry<TargetKey, int[]> entry : locations.entrySet()) {
+      keys[index] = entry.getKey();
+      offsets[index] = entry.getValue()[0];
+      lengths[index] = entry.getValue()[1];
+      index++;
+    }
+    return new SerializedTargetMap(buffer, keys, offsets, lengths);
+  }
+
+  /**
+   * Reads just the key and kind of a serialized target. Returns null for targets which {@link
+   * TargetIdeInfo#fromProto} would drop.
+   */
+  @Nullable
+  private static TargetKey readKey(ByteBuffer buffer, int offset, int length)
+      throws IOException {
+    CodedInputStream in = CodedInputStream.newInstance(slice(buffer, offset, length));
+    IntellijIdeInfo.TargetKey key = null;
+    String kindString = "";
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      if (tag == KEY_TAG) {
+        key =
+            in.readMessage(
+                IntellijIdeInfo.TargetKey.parser(), ExtensionRegistryLite.getEmptyRegistry());
+      } else if (tag == KIND_STRING_TAG) {
+        kindString = in.readStringRequireUtf8();
+      } else {
+        in.skipField(tag);
+      }
+    }
+    if (key == null) {
+      return null;
+    }
+    // unrecognized rule names need the full proto to check the kind heuristics
+    if (Kind.fromRuleName(kindString) == null
+        && Kind.fromProto(
+                IntellijIdeInfo.TargetIdeInfo.parseFrom(slice(buffer, offset, length)))
+            == null) {
+      return null;
+    }
+    return TargetKey.fromProto(key);
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(offset);
+    slice.limit(offset + length);
+    return slice.slice();
+  }
+
+  @Override
+  int size() {
+    return keys.length;
+  }
+
+  @Override
+  TargetKey keyAt(int index) {
+    return keys[index];
+  }
+
+  @Override
+  int indexOf(TargetKey key) {
+    int index = Arrays.binarySearch(keys, key);
+    return index >= 0 ? index : -1;
+  }
+
+  @Override
+  IntellijIdeInfo.TargetIdeInfo toTargetProto(int index) {
+    try {
+      return IntellijIdeInfo.TargetIdeInfo.parseFrom(slice(buffer, offsets[index], lengths[index]));
+    } catch (InvalidProtocolBufferException e) {
+      // only the target's key and kind were checked when it was indexed
+      throw new IllegalStateException("Corrupt serialized target: " + keys[index], e);
+    }
+  }
+}
@@ -15,22 +15,72 @@
  */
 package com.google.idea.blaze.base.ideinfo;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
 import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.common.experiments.BoolExperiment;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Objects;
 import javax.annotation.Nullable;
 
-/** Map of configured targets (and soon aspects). */
+/**
+ * Map of configured targets (and soon aspects).
+ *
+ * <p>For very large projects, the targets can optionally be held in a {@link CompactTargetMap}, or
+ * read directly from a serialized target map with a {@link SerializedTargetMap}. Either way, {@link
+ * TargetIdeInfo} instances are materialized on demand.
+ */
 public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
-  private final ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+  static final BoolExperiment compactTargetMap =
+      new BoolExperiment("blaze.compact.target.map", false);
+
+  @Nullable private final ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+  @Nullable private final LazyTargetMap lazyMap;
 
   public TargetMap(ImmutableMap<TargetKey, TargetIdeInfo> targetMap) {
     this.targetMap = targetMap;
+    this.lazyMap = null;
+  }
+
+  private TargetMap(LazyTargetMap lazyMap) {
+    this.targetMap = null;
+    this.lazyMap = lazyMap;
+  }
+
+  /**
+   * Returns a new {@link TargetMap}, using the compact representation if that's enabled for this
+   * IDE.
+   */
+  public static TargetMap create(ImmutableMap<TargetKey, TargetIdeInfo> targetMap) {
+    return compactTargetMap.getValue()
+        ? new TargetMap(CompactTargetMap.fromTargets(targetMap.values()))
+        : new TargetMap(targetMap);
+  }
+
+  /** Returns a {@link TargetMap} backed by the compact representation. */
+  @VisibleForTesting
+  static TargetMap compact(Collection<IntellijIdeInfo.TargetIdeInfo> targets) {
+    return new TargetMap(CompactTargetMap.fromProtos(targets));
+  }
+
+  /**
+   * Returns a {@link TargetMap} which decodes targets from a serialized {@link
+   * ProjectData.TargetMap} as they're accessed. Only each target's key and kind are read up front.
+   * The buffer must not be modified afterwards.
+   */
+  public static TargetMap fromSerializedProto(ByteBuffer buffer) throws IOException {
+    return new TargetMap(SerializedTargetMap.create(buffer));
   }
 
   public static TargetMap fromProto(ProjectData.TargetMap proto) {
+    if (compactTargetMap.getValue()) {
+      return compact(proto.getTargetsList());
+    }
     return new TargetMap(
         proto.getTargetsList().stream()
             .map(TargetIdeInfo::fromProto)
@@ -38,8 +88,16 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
             .collect(ImmutableMap.toImmutableMap(TargetIdeInfo::getKey, Functions.identity())));
   }
 
+  @VisibleForTesting
+  boolean isCompact() {
+    return lazyMap instanceof CompactTargetMap;
+  }
+
   @Override
   public ProjectData.TargetMap toProto() {
+    if (lazyMap != null) {
+      return lazyMap.toProto();
+    }
     ProjectData.TargetMap.Builder builder = ProjectData.TargetMap.newBuilder();
     targetMap.values().stream().map(TargetIdeInfo::toProto).forEach(builder::addTargets);
     return builder.build();
@@ -47,19 +105,42 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
 
   @Nullable
   public TargetIdeInfo get(TargetKey key) {
-    return targetMap.get(key);
+    return lazyMap != null ? lazyMap.get(key) : targetMap.get(key);
   }
 
   public boolean contains(TargetKey key) {
-    return targetMap.containsKey(key);
+    return lazyMap != null ? lazyMap.contains(key) : targetMap.containsKey(key);
+  }
+
+  public int size() {
+    return lazyMap != null ? lazyMap.size() : targetMap.size();
   }
 
   public ImmutableCollection<TargetIdeInfo> targets() {
-    return targetMap.values();
+    return map().values();
+  }
+
+  /**
+   * Returns the targets. For a compact target map, this is a lazy view which materializes each
+   * target as it's iterated, and doesn't retain them; prefer it to {@link #targets} for a single
+   * pass over a compact target map.
+   */
+  public Collection<TargetIdeInfo> targetsView() {
+    return lazyMap != null ? lazyMap.targets() : targetMap.values();
+  }
+
+  /** Returns the keys of the targets, without materializing any targets. */
+  public Collection<TargetKey> keys() {
+    return lazyMap != null ? lazyMap.keys() : targetMap.keySet();
   }
 
+  /**
+   * Returns the targets as an {@link ImmutableMap}. For a compact target map, every target is
+   * materialized on first use, and the result is only softly cached; prefer {@link #get}, {@link
+   * #targetsView} or {@link #keys}.
+   */
   public ImmutableMap<TargetKey, TargetIdeInfo> map() {
-    return targetMap;
+    return lazyMap != null ? lazyMap.toMap() : targetMap;
   }
 
   @Override
@@ -71,11 +152,33 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
       return false;
     }
     TargetMap other = (TargetMap) o;
-    return Objects.equals(targetMap, other.targetMap);
+    if (lazyMap instanceof CompactTargetMap && other.lazyMap instanceof CompactTargetMap) {
+      return lazyMap.equals(other.lazyMap);
+    }
+    if (targetMap != null && other.targetMap != null) {
+      return targetMap.equals(other.targetMap);
+    }
+    if (size() != other.size()) {
+      return false;
+    }
+    for (TargetIdeInfo target : targetsView()) {
+      if (!target.equals(other.get(target.getKey()))) {
+        return false;
+      }
+    }
+    return true;
   }
 
+  /** The hash code of the set of target keys, which is the same for every representation. */
   @Override
   public int hashCode() {
-    return Objects.hash(targetMap);
+    if (targetMap != null) {
+      return targetMap.keySet().hashCode();
+    }
+    int hash = 0;
+    for (TargetKey key : lazyMap.keys()) {
+      hash += key.hashCode();
+    }
+    return hash;
   }
 }
@@ -17,6 +17,7 @@ package com.google.idea.blaze.base.issueparser;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ascii;
 import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
@@ -106,12 +107,22 @@ public class BlazeIssueParser {
     ParseResult parse(String currentLine, List<String> previousLines);
   }
 
-  /** Base for a Parser that consumes a single contextless line at a time, matched via regex */
+  /**
+   * Base for a Parser that consumes a single contextless line at a time, matched via regex.
+   *
+   * <p>Most lines of blaze output don't match any parser, so lines are first screened for the
+   * literal text the regex starts with (or the line must start with, for regexes anchored with
+   * '^'). The regex is only run on lines containing that text.
+   */
   public abstract static class SingleLineParser implements Parser {
     final Pattern pattern;
+    private final String requiredLiteral;
+    private final boolean anchored;
 
     public SingleLineParser(String regex) {
       pattern = Pattern.compile(regex);
+      anchored = regex.startsWith("^");
+      requiredLiteral = requiredLiteral(regex);
     }
 
     @Override
@@ -122,6 +133,9 @@ public class BlazeIssueParser {
     }
 
     ParseResult parse(String line) {
+      if (!mightMatch(line)) {
+        return ParseResult.NO_RESULT;
+      }
       Matcher matcher = pattern.matcher(line);
       if (matcher.find()) {
         IssueOutput issue = createIssue(matcher);
@@ -130,10 +144,76 @@ public class BlazeIssueParser {
       return ParseResult.NO_RESULT;
     }
 
+    /**
+     * A cheap check run before the regex. Returning false means the regex can't match the line.
+     */
+    protected boolean mightMatch(String line) {
+      if (requiredLiteral.isEmpty()) {
+        return true;
+      }
+      return anchored ? line.startsWith(requiredLiteral) : line.contains(requiredLiteral);
+    }
+
     @Nullable
     protected abstract IssueOutput createIssue(Matcher matcher);
   }
 
+  private static final String REGEX_METACHARACTERS = "\\[](){}.*+?^$|";
+  private static final String REGEX_QUANTIFIERS = "*+?{";
+
+  /**
+   * Returns the literal text at the start of the regex (after any '^' anchor), which every match
+   * must begin with. Returns an empty string if there's no such text, or the regex contains a
+   * top-level alternation.
+   */
+  @VisibleForTesting
+  static String requiredLiteral(String regex) {
+    if (hasTopLevelAlternation(regex)) {
+      return "";
+    }
+    int start = regex.startsWith("^") ? 1 : 0;
+    int end = start;
+    while (end < regex.length() && REGEX_METACHARACTERS.indexOf(regex.charAt(end)) == -1) {
+      end++;
+    }
+    if (end > start
+        && end < regex.length()
+        && REGEX_QUANTIFIERS.indexOf(regex.charAt(end)) != -1) {
+      // the quantifier applies to the last literal character
+      end--;
+    }
+    return regex.substring(start, end);
+  }
+
+  private static boolean hasTopLevelAlternation(String regex) {
+    int depth = 0;
+    boolean inCharacterClass = false;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (inCharacterClass) {
+        inCharacterClass = c != ']';
+      } else if (c == '[') {
+        inCharacterClass = true;
+        // a ']' at the start of a character class is a literal
+        if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+          i++;
+        }
+        if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+          i++;
+        }
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '|' && depth == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public static File fileFromAbsolutePath(String absolutePath) {
     return new File(absolutePath);
   }
@@ -218,6 +298,17 @@ public class BlazeIssueParser {
       this.project = project;
     }
 
+    /** The file path runs up to the first colon, which must be followed by the line number. */
+    @Override
+    protected boolean mightMatch(String line) {
+      int colon = line.indexOf(':');
+      if (colon <= 0 || colon + 1 >= line.length()) {
+        return false;
+      }
+      char c = line.charAt(colon + 1);
+      return c >= '0' && c <= '9';
+    }
+
     @Override
     protected IssueOutput createIssue(Matcher matcher) {
       final File file = FileResolver.resolveToFile(project, matcher.group(1));
@@ -260,7 +351,7 @@ public class BlazeIssueParser {
     @Override
     public ParseResult parse(String currentLine, List<String> previousLines) {
       if (previousLines.isEmpty()) {
-        if (PATTERN.matcher(currentLine).find()) {
+        if (currentLine.contains("ERROR: ") && PATTERN.matcher(currentLine).find()) {
           return ParseResult.NEEDS_MORE_INPUT;
         } else {
           return ParseResult.NO_RESULT;
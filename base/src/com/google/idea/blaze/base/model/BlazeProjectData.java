@@ -68,10 +68,18 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
   @VisibleForTesting
   public static BlazeProjectData fromProto(
       BuildSystem buildSystem, ProjectData.BlazeProjectData proto) {
+    return fromProto(buildSystem, proto, parseTargetData(proto));
+  }
+
+  /**
+   * Parses project data whose target data was stored separately. Any target data in {@code proto}
+   * is ignored.
+   */
+  public static BlazeProjectData fromProto(
+      BuildSystem buildSystem, ProjectData.BlazeProjectData proto, ProjectTargetData targetData) {
     BlazeInfo blazeInfo = BlazeInfo.fromProto(buildSystem, proto.getBlazeInfo());
     WorkspacePathResolver workspacePathResolver =
         WorkspacePathResolver.fromProto(proto.getWorkspacePathResolver());
-    ProjectTargetData targetData = parseTargetData(proto);
     return new BlazeProjectData(
         targetData,
         blazeInfo,
@@ -99,14 +107,24 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
 
   @Override
   public ProjectData.BlazeProjectData toProto() {
+    return toProtoBuilderWithoutTargetData().setTargetData(targetData.toProto()).build();
+  }
+
+  /**
+   * Returns the proto form of this project data, excluding the (comparatively large) target data,
+   * for callers which serialize {@link #getTargetData()} separately.
+   */
+  public ProjectData.BlazeProjectData toProtoWithoutTargetData() {
+    return toProtoBuilderWithoutTargetData().build();
+  }
+
+  private ProjectData.BlazeProjectData.Builder toProtoBuilderWithoutTargetData() {
     return ProjectData.BlazeProjectData.newBuilder()
-        .setTargetData(targetData.toProto())
         .setBlazeInfo(blazeInfo.toProto())
         .setBlazeVersionData(blazeVersionData.toProto())
         .setWorkspacePathResolver(workspacePathResolver.toProto())
         .setWorkspaceLanguageSettings(workspaceLanguageSettings.toProto())
-        .setSyncState(syncState.toProto())
-        .build();
+        .setSyncState(syncState.toProto());
   }
 
   public ProjectTargetData getTargetData() {
@@ -147,8 +165,13 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
 
   public static BlazeProjectData loadFromDisk(BuildSystem buildSystem, File file)
       throws IOException {
+    return fromProto(buildSystem, readProtoFromDisk(file));
+  }
+
+  /** Reads the serialized form of a project data file written by {@link #saveToDisk}. */
+  public static ProjectData.BlazeProjectData readProtoFromDisk(File file) throws IOException {
     try (InputStream stream = new GZIPInputStream(new FileInputStream(file))) {
-      return fromProto(buildSystem, ProjectData.BlazeProjectData.parseFrom(stream));
+      return ProjectData.BlazeProjectData.parseFrom(stream);
     }
   }
 
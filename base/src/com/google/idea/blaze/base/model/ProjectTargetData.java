@@ -16,10 +16,10 @@
 package com.google.idea.blaze.base.model;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
 import com.google.devtools.intellij.model.ProjectData;
 import com.google.devtools.intellij.model.ProjectData.TargetData;
 import com.google.idea.blaze.base.ideinfo.ProtoWrapper;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceState;
@@ -69,8 +69,13 @@ public final class ProjectTargetData implements ProtoWrapper<ProjectData.TargetD
    */
   public ProjectTargetData filter(
       Predicate<TargetKey> targetsToKeep, WorkspaceLanguageSettings settings) {
-    TargetMap newTargets =
-        new TargetMap(ImmutableMap.copyOf(Maps.filterKeys(targetMap.map(), targetsToKeep::test)));
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> kept = ImmutableMap.builder();
+    for (TargetIdeInfo target : targetMap.targetsView()) {
+      if (targetsToKeep.test(target.getKey())) {
+        kept.put(target.getKey(), target);
+      }
+    }
+    TargetMap newTargets = TargetMap.create(kept.build());
     BlazeIdeInterfaceState newState =
         ideInterfaceState != null ? ideInterfaceState.filter(targetsToKeep) : null;
     RemoteOutputArtifacts newOutputs = remoteOutputs.removeUntrackedOutputs(newTargets, settings);
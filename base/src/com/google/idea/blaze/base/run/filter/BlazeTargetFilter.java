@@ -58,6 +58,10 @@ public class BlazeTargetFilter implements Filter {
   @Nullable
   @Override
   public Result applyFilter(String line, int entireLength) {
+    // applied to every line of blaze output, so skip the regex for lines which can't match
+    if (!line.contains("//")) {
+      return null;
+    }
     Matcher matcher = TARGET_PATTERN.matcher(line);
     List<ResultItem> results = new ArrayList<>();
     while (matcher.find()) {
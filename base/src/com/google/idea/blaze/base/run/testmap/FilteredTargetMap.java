@@ -17,24 +17,19 @@ package com.google.idea.blaze.base.run.testmap;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Queues;
-import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
-import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
+import com.google.idea.blaze.base.targetmaps.TargetDependencyGraph;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Collection;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.Set;
 import java.util.function.Predicate;
 
 /** Filters a {@link TargetMap} according to a given filter. */
@@ -64,33 +59,24 @@ public class FilteredTargetMap {
     BlazeProjectData blazeProjectData =
         BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
     if (blazeProjectData != null) {
-      return targetsForSourceFilesImpl(ReverseDependencyMap.get(project), sourceFiles);
+      return targetsForSourceFilesImpl(TargetDependencyGraph.getInstance(project), sourceFiles);
     }
     return ImmutableSet.of();
   }
 
   private ImmutableSet<TargetIdeInfo> targetsForSourceFilesImpl(
-      ImmutableMultimap<TargetKey, TargetKey> rdepsMap, Collection<File> sourceFiles) {
-    ImmutableSet.Builder<TargetIdeInfo> result = ImmutableSet.builder();
-    Set<TargetKey> roots =
+      TargetDependencyGraph graph, Collection<File> sourceFiles) {
+    ImmutableSet<TargetKey> roots =
         sourceFiles.stream()
             .flatMap(f -> rootsMap.get(f).stream())
             .collect(ImmutableSet.toImmutableSet());
 
-    Queue<TargetKey> todo = Queues.newArrayDeque();
-    todo.addAll(roots);
-    Set<TargetKey> seen = Sets.newHashSet();
-    while (!todo.isEmpty()) {
-      TargetKey targetKey = todo.remove();
-      if (!seen.add(targetKey)) {
-        continue;
-      }
-
+    ImmutableSet.Builder<TargetIdeInfo> result = ImmutableSet.builder();
+    for (TargetKey targetKey : graph.getReverseTransitiveClosure(roots)) {
       TargetIdeInfo target = targetMap.get(targetKey);
       if (filter.test(target)) {
         result.add(target);
       }
-      todo.addAll(rdepsMap.get(targetKey));
     }
     return result.build();
   }
@@ -15,19 +15,11 @@
  */
 package com.google.idea.blaze.base.run.testmap;
 
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
-
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.idea.blaze.base.dependencies.TargetInfo;
-import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
-import com.google.idea.blaze.base.ideinfo.TargetMap;
-import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.RuleType;
 import com.google.idea.blaze.base.run.SourceToTargetFinder;
-import com.google.idea.blaze.base.sync.SyncCache;
-import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Collection;
@@ -45,27 +37,10 @@ public class ProjectSourceToTargetFinder implements SourceToTargetFinder {
   @Override
   public Future<Collection<TargetInfo>> targetsForSourceFiles(
       Project project, Set<File> sourceFiles, Optional<RuleType> ruleType) {
-    FilteredTargetMap targetMap =
-        SyncCache.getInstance(project)
-            .get(ProjectSourceToTargetFinder.class, ProjectSourceToTargetFinder::computeTargetMap);
-    if (targetMap == null) {
+    ReachableTargetsIndex index = ReachableTargetsIndex.getInstance(project);
+    if (index == null) {
       return Futures.immediateFuture(ImmutableList.of());
     }
-    ImmutableSet<TargetInfo> targets =
-        targetMap.targetsForSourceFiles(sourceFiles).stream()
-            .map(TargetIdeInfo::toTargetInfo)
-            .filter(target -> !ruleType.isPresent() || target.getRuleType().equals(ruleType.get()))
-            .collect(toImmutableSet());
-    return Futures.immediateFuture(targets);
-  }
-
-  private static FilteredTargetMap computeTargetMap(Project project, BlazeProjectData projectData) {
-    return computeTargetMap(
-        project, projectData.getArtifactLocationDecoder(), projectData.getTargetMap());
-  }
-
-  private static FilteredTargetMap computeTargetMap(
-      Project project, ArtifactLocationDecoder decoder, TargetMap targetMap) {
-    return new FilteredTargetMap(project, decoder, targetMap, t -> true);
+    return Futures.immediateFuture(index.getTargets(sourceFiles, ruleType));
   }
 }
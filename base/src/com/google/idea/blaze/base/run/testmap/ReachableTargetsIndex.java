@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.testmap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.dependencies.TargetInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.primitives.RuleType;
+import com.google.idea.blaze.base.sync.SyncCache;
+import com.google.idea.blaze.base.targetmaps.SourceToTargetMapImpl;
+import com.google.idea.blaze.base.targetmaps.TargetDependencyGraph;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * Maps source files to the targets reachable from them via reverse dependencies, grouped by rule
+ * type.
+ *
+ * <p>Built once per sync on top of the shared source to target map and {@link
+ * TargetDependencyGraph}. The targets for a given set of source files are computed on first
+ * request and memoized until the next sync (or until the GC needs the memory back), so repeated
+ * queries for the same file (e.g. from gutter icons) are a single cache lookup.
+ */
+final class ReachableTargetsIndex {
+
+  /** The targets reachable from a set of source files, in breadth-first order. */
+  private static final class ReachableTargets {
+    final ImmutableList<TargetInfo> all;
+    final ImmutableListMultimap<RuleType, TargetInfo> byRuleType;
+
+    ReachableTargets(ImmutableList<TargetInfo> all) {
+      this.all = all;
+      ImmutableListMultimap.Builder<RuleType, TargetInfo> builder = ImmutableListMultimap.builder();
+      for (TargetInfo target : all) {
+        builder.put(target.getRuleType(), target);
+      }
+      this.byRuleType = builder.build();
+    }
+  }
+
+  @Nullable
+  static ReachableTargetsIndex getInstance(Project project) {
+    return SyncCache.getInstance(project)
+        .get(
+            ReachableTargetsIndex.class,
+            (p, data) ->
+                new ReachableTargetsIndex(
+                    data.getTargetMap(),
+                    SourceToTargetMapImpl.getSourceToTargetMap(p),
+                    TargetDependencyGraph.getInstance(p)));
+  }
+
+  private final TargetMap targetMap;
+  @Nullable private final ImmutableMultimap<File, TargetKey> sourceToTargetMap;
+  private final TargetDependencyGraph graph;
+  private final Cache<ImmutableList<File>, ReachableTargets> reachableTargets =
+      CacheBuilder.newBuilder().softValues().build();
+
+  private ReachableTargetsIndex(
+      TargetMap targetMap,
+      @Nullable ImmutableMultimap<File, TargetKey> sourceToTargetMap,
+      TargetDependencyGraph graph) {
+    this.targetMap = targetMap;
+    this.sourceToTargetMap = sourceToTargetMap;
+    this.graph = graph;
+  }
+
+  /**
+   * Returns the targets building the given source files, followed by all targets transitively
+   * depending on them, in breadth-first order. Only targets of the given rule type are returned,
+   * if one is specified.
+   */
+  ImmutableList<TargetInfo> getTargets(Set<File> sourceFiles, Optional<RuleType> ruleType) {
+    ReachableTargets targets;
+    try {
+      // keyed by list, since the order of the files determines the order of the results
+      ImmutableList<File> key = ImmutableList.copyOf(sourceFiles);
+      targets = reachableTargets.get(key, () -> computeReachableTargets(key));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    return ruleType.isPresent() ? targets.byRuleType.get(ruleType.get()) : targets.all;
+  }
+
+  private ReachableTargets computeReachableTargets(ImmutableList<File> sourceFiles) {
+    if (sourceToTargetMap == null) {
+      return new ReachableTargets(ImmutableList.of());
+    }
+    ImmutableSet.Builder<TargetKey> roots = ImmutableSet.builder();
+    for (File file : sourceFiles) {
+      roots.addAll(sourceToTargetMap.get(file));
+    }
+    ImmutableSet.Builder<TargetInfo> targets = ImmutableSet.builder();
+    for (TargetKey key : graph.getReverseTransitiveClosure(roots.build())) {
+      TargetIdeInfo target = targetMap.get(key);
+      if (target != null) {
+        targets.add(target.toTargetInfo());
+      }
+    }
+    return new ReachableTargets(targets.build().asList());
+  }
+
+  /** Builds the index in the background after sync. */
+  static class Precomputer implements SyncCache.Precomputer {
+    @Override
+    public void precompute(Project project) {
+      getInstance(project);
+    }
+  }
+}
@@ -16,19 +16,38 @@
 package com.google.idea.blaze.base.sync;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.Nullable;
 
-/** Computes a cache on the project data. */
+/**
+ * Computes a cache on the project data.
+ *
+ * <p>Each key is computed at most once per sync, without blocking lookups of other keys. Entries
+ * registered via {@link Precomputer} are computed in parallel in the background straight after
+ * sync, rather than by the first caller.
+ */
 public class SyncCache {
   /** Computes a value based on the sync project data. */
   public interface SyncCacheComputable<T> {
@@ -36,8 +55,24 @@ public class SyncCache {
     T compute(Project project, BlazeProjectData projectData);
   }
 
+  /** Populates sync cache entries eagerly, in the background, after each sync. */
+  public interface Precomputer {
+    ExtensionPointName<Precomputer> EP_NAME =
+        ExtensionPointName.create("com.google.idea.blaze.SyncCachePrecomputer");
+
+    /**
+     * Computes the cache entries, typically by calling the same accessor used to read them. Called
+     * on a background thread.
+     */
+    void precompute(Project project);
+  }
+
+  private static final Logger logger = Logger.getInstance(SyncCache.class);
+  private static final long WAIT_INTERVAL_MILLIS = 10;
+
   private final Project project;
-  private final Map<Object, Object> cache = Maps.newHashMap();
+  private volatile ConcurrentMap<Object, CompletableFuture<Object>> cache =
+      new ConcurrentHashMap<>();
 
   public SyncCache(Project project) {
     this.project = project;
@@ -50,23 +85,97 @@ public class SyncCache {
   /** Computes a value derived from the sync project data and caches it until the next sync. */
   @Nullable
   @SuppressWarnings("unchecked")
-  public synchronized <T> T get(Object key, SyncCacheComputable<T> computable) {
-    if (cache.containsKey(key)) {
-      return (T) cache.get(key);
+  public <T> T get(Object key, SyncCacheComputable<T> computable) {
+    ConcurrentMap<Object, CompletableFuture<Object>> cache = this.cache;
+    CompletableFuture<Object> existing = cache.get(key);
+    if (existing != null) {
+      return (T) getValue(existing);
     }
     BlazeProjectData blazeProjectData =
         BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
     if (blazeProjectData == null) {
       return null;
     }
-    T value = computable.compute(project, blazeProjectData);
-    cache.put(key, value);
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    existing = cache.putIfAbsent(key, future);
+    if (existing != null) {
+      // another thread is already computing this value
+      return (T) getValue(existing);
+    }
+    long start = System.nanoTime();
+    T value;
+    try {
+      value = computable.compute(project, blazeProjectData);
+    } catch (RuntimeException | Error e) {
+      cache.remove(key, future);
+      future.completeExceptionally(e);
+      throw e;
+    }
+    future.complete(value);
+    logComputation(key, System.nanoTime() - start);
     return value;
   }
 
+  /**
+   * Waits for a value computed by another thread. Waiting checks for cancellation, so a reader
+   * blocked on a slow computation gives way to a pending write action instead of holding it up.
+   */
+  @Nullable
+  private static Object getValue(CompletableFuture<Object> future) {
+    while (true) {
+      try {
+        return future.get(WAIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        ProgressManager.checkCanceled();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ProcessCanceledException(e);
+      } catch (ExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+  }
+
+  private static void logComputation(Object key, long durationNanos) {
+    String keyName = key instanceof Class ? ((Class<?>) key).getSimpleName() : key.toString();
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          String.format("Computed sync cache entry %s in %d ms", keyName, durationNanos / 1000000));
+    }
+    EventLoggingService.getInstance()
+        .logEvent(
+            SyncCache.class,
+            "SyncCacheComputed",
+            ImmutableMap.of("key", keyName),
+            durationNanos);
+  }
+
   @VisibleForTesting
-  public synchronized void clear() {
-    cache.clear();
+  public void clear() {
+    cache = new ConcurrentHashMap<>();
+  }
+
+  /** Runs all {@link Precomputer}s in parallel, on pooled threads. */
+  private void precompute() {
+    for (Precomputer precomputer : Precomputer.EP_NAME.getExtensions()) {
+      @SuppressWarnings("unused") // go/futurereturn-lsc
+      Future<?> possiblyIgnoredError =
+          ApplicationManager.getApplication()
+              .executeOnPooledThread(
+                  () -> {
+                    if (project.isDisposed()) {
+                      return;
+                    }
+                    try {
+                      precomputer.precompute(project);
+                    } catch (ProcessCanceledException e) {
+                      // the entry will be computed on demand instead
+                    } catch (RuntimeException e) {
+                      logger.warn("Failed to precompute sync cache entry", e);
+                    }
+                  });
+    }
   }
 
   static class ClearSyncCache implements SyncListener {
@@ -82,6 +191,9 @@ public class SyncCache {
         SyncResult syncResult) {
       SyncCache syncCache = getInstance(project);
       syncCache.clear();
+      if (!ApplicationManager.getApplication().isUnitTestMode()) {
+        syncCache.precompute();
+      }
     }
   }
 }
@@ -527,7 +527,7 @@ final class SyncPhaseCoordinator {
           int librariesCount =
               BlazeLibraryCollector.getLibraries(projectViewSet, projectData).size();
           stats
-              .setTargetMapSize(projectData.getTargetMap().targets().size())
+              .setTargetMapSize(projectData.getTargetMap().size())
               .setLibraryCount(librariesCount);
         }
         onSyncComplete(
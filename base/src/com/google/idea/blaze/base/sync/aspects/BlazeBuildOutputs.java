@@ -28,6 +28,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /** The result of the blaze build sync step. */
 public class BlazeBuildOutputs {
@@ -50,6 +51,9 @@ public class BlazeBuildOutputs {
   /** The artifacts transitively associated with each top-level target. */
   private final ImmutableSetMultimap<String, OutputArtifact> perTargetArtifacts;
 
+  /** Aspect outputs already being parsed in the background, if pipelined parsing is enabled. */
+  @Nullable final IdeInfoPreloader ideInfoPreloader;
+
   private BlazeBuildOutputs(
       BuildResult buildResult,
       Map<String, BepArtifactData> artifacts,
@@ -57,12 +61,26 @@ public class BlazeBuildOutputs {
     this.buildResult = buildResult;
     this.artifacts = ImmutableMap.copyOf(artifacts);
     this.buildIds = buildIds;
+    this.ideInfoPreloader = null;
 
     ImmutableSetMultimap.Builder<String, OutputArtifact> perTarget = ImmutableSetMultimap.builder();
     artifacts.values().forEach(a -> a.topLevelTargets.forEach(t -> perTarget.put(t, a.artifact)));
     this.perTargetArtifacts = perTarget.build();
   }
 
+  private BlazeBuildOutputs(BlazeBuildOutputs outputs, @Nullable IdeInfoPreloader preloader) {
+    this.buildResult = outputs.buildResult;
+    this.artifacts = outputs.artifacts;
+    this.buildIds = outputs.buildIds;
+    this.perTargetArtifacts = outputs.perTargetArtifacts;
+    this.ideInfoPreloader = preloader;
+  }
+
+  /** Returns a copy of these outputs, associated with the given {@link IdeInfoPreloader}. */
+  BlazeBuildOutputs withIdeInfoPreloader(@Nullable IdeInfoPreloader preloader) {
+    return preloader == ideInfoPreloader ? this : new BlazeBuildOutputs(this, preloader);
+  }
+
   @VisibleForTesting
   public ImmutableList<OutputArtifact> getOutputGroupArtifacts(
       Predicate<String> outputGroupFilter) {
@@ -108,9 +126,15 @@ public class BlazeBuildOutputs {
         }
       }
     }
-    return new BlazeBuildOutputs(
-        BuildResult.combine(buildResult, nextOutputs.buildResult),
-        combined,
-        ImmutableList.<String>builder().addAll(buildIds).addAll(nextOutputs.buildIds).build());
+    BlazeBuildOutputs merged =
+        new BlazeBuildOutputs(
+            BuildResult.combine(buildResult, nextOutputs.buildResult),
+            combined,
+            ImmutableList.<String>builder().addAll(buildIds).addAll(nextOutputs.buildIds).build());
+    IdeInfoPreloader preloader =
+        ideInfoPreloader != null
+            ? ideInfoPreloader.merge(nextOutputs.ideInfoPreloader)
+            : nextOutputs.ideInfoPreloader;
+    return merged.withIdeInfoPreloader(preloader);
   }
 }
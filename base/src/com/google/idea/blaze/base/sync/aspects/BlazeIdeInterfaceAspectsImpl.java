@@ -160,7 +160,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     if (state == null) {
       return null;
     }
-    context.output(PrintOutput.log("Target map size: " + state.targetMap.targets().size()));
+    context.output(PrintOutput.log("Target map size: " + state.targetMap.size()));
 
     RemoteOutputArtifacts oldRemoteOutputs = RemoteOutputArtifacts.fromProjectData(oldProjectData);
     // combine outputs map, then filter to remove out-of-date / unnecessary items
@@ -201,14 +201,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     BlazeIdeInterfaceState prevState =
         oldProjectData != null ? oldProjectData.getTargetData().ideInterfaceState : null;
 
-    Predicate<String> ideInfoPredicate = AspectStrategy.ASPECT_OUTPUT_FILE_PREDICATE;
-    Collection<OutputArtifact> files =
-        buildResult
-            .getOutputGroupArtifacts(group -> group.startsWith(OutputGroup.INFO.prefix))
-            .stream()
-            .filter(f -> ideInfoPredicate.test(f.getKey()))
-            .distinct()
-            .collect(toImmutableList());
+    Collection<OutputArtifact> files = getIdeInfoFiles(buildResult);
 
     ArtifactsDiff diff;
     try {
@@ -231,9 +224,27 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                 "Total rules: %d, new/changed: %d, removed: %d",
                 targetCount, diff.getUpdatedOutputs().size(), removedCount)));
 
+    // files already read in the background during the build don't need to be fetched again
+    IdeInfoPreloader preloader = buildResult.ideInfoPreloader;
+    ImmutableMap<String, ArtifactState> newState = diff.getNewState();
+    ImmutableList<OutputArtifact> filesToFetch =
+        preloader == null
+            ? diff.getUpdatedOutputs()
+            : diff.getUpdatedOutputs().stream()
+                .filter(f -> preloader.getPreloadedProto(f, newState.get(f.getKey())) == null)
+                .collect(toImmutableList());
+    if (preloader != null) {
+      context.output(
+          PrintOutput.log(
+              String.format(
+                  "Aspect output files parsed during build: %d of %d",
+                  diff.getUpdatedOutputs().size() - filesToFetch.size(),
+                  diff.getUpdatedOutputs().size())));
+    }
+
     // prefetch remote outputs
     List<ListenableFuture<?>> futures = new ArrayList<>();
-    for (BlazeArtifact file : diff.getUpdatedOutputs()) {
+    for (BlazeArtifact file : filesToFetch) {
       if (file instanceof RemoteOutputArtifact) {
         futures.add(FetchExecutor.EXECUTOR.submit(((RemoteOutputArtifact) file)::prefetch));
       }
@@ -249,7 +260,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
     ListenableFuture<?> prefetchFuture =
         PrefetchService.getInstance()
-            .prefetchFiles(BlazeArtifact.getLocalFiles(diff.getUpdatedOutputs()), true, false);
+            .prefetchFiles(BlazeArtifact.getLocalFiles(filesToFetch), true, false);
     if (!FutureUtil.waitForFuture(context, prefetchFuture)
         .timed("FetchAspectOutput", EventType.Prefetching)
         .withProgressMessage("Reading IDE info result...")
@@ -276,7 +287,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             projectState.getLanguageSettings(),
             importRoots,
             mergeWithOldState,
-            oldTargetMap);
+            oldTargetMap,
+            preloader);
     if (state == null) {
       return null;
     }
@@ -306,6 +318,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       AspectStrategy aspectStrategy) {
 
     final Ref<BlazeBuildOutputs> combinedResult = new Ref<>();
+    IdeInfoPreloader preloader = IdeInfoPreloader.create(project, aspectStrategy);
 
     boolean parallelize = buildParams.parallelizeBuilds();
 
@@ -327,8 +340,14 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                   targets,
                   aspectStrategy);
           if (!result.buildResult.outOfMemory()) {
-            combinedResult.set(
-                combinedResult.isNull() ? result : combinedResult.get().updateOutputs(result));
+            if (preloader != null) {
+              preloader.preload(result);
+            }
+            // shards may complete concurrently if run in parallel or pipelined
+            synchronized (combinedResult) {
+              combinedResult.set(
+                  combinedResult.isNull() ? result : combinedResult.get().updateOutputs(result));
+            }
           }
           return result.buildResult;
         };
@@ -338,7 +357,18 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     if (combinedResult.isNull() || result.status == Status.FATAL_ERROR) {
       return BlazeBuildOutputs.noOutputs(result);
     }
-    return combinedResult.get();
+    return combinedResult.get().withIdeInfoPreloader(preloader);
+  }
+
+  /** Returns the distinct intellij-info.txt outputs of the given build. */
+  static ImmutableList<OutputArtifact> getIdeInfoFiles(BlazeBuildOutputs buildOutputs) {
+    Predicate<String> ideInfoPredicate = AspectStrategy.ASPECT_OUTPUT_FILE_PREDICATE;
+    return buildOutputs
+        .getOutputGroupArtifacts(group -> group.startsWith(OutputGroup.INFO.prefix))
+        .stream()
+        .filter(f -> ideInfoPredicate.test(f.getKey()))
+        .distinct()
+        .collect(toImmutableList());
   }
 
   /**
@@ -420,7 +450,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       WorkspaceLanguageSettings languageSettings,
       ImportRoots importRoots,
       boolean mergeWithOldState,
-      @Nullable TargetMap oldTargetMap) {
+      @Nullable TargetMap oldTargetMap,
+      @Nullable IdeInfoPreloader preloader) {
     AspectStrategy aspectStrategy = AspectStrategy.getInstance(versionData);
     Result<TargetMapAndInterfaceState> result =
         Scope.push(
@@ -445,7 +476,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
               Map<TargetKey, TargetIdeInfo> targetMap = Maps.newHashMap();
               if (prevState != null && oldTargetMap != null) {
-                targetMap.putAll(oldTargetMap.map());
+                for (TargetIdeInfo target : oldTargetMap.targetsView()) {
+                  targetMap.put(target.getKey(), target);
+                }
                 state.ideInfoToTargetKey.putAll(prevState.ideInfoFileToTargetKey);
               }
 
@@ -467,21 +500,25 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
               // Read protos from any new files
               List<ListenableFuture<TargetFilePair>> futures = Lists.newArrayList();
               for (OutputArtifact file : fileState.getUpdatedOutputs()) {
+                ListenableFuture<IntellijIdeInfo.TargetIdeInfo> message =
+                    preloader != null
+                        ? preloader.getPreloadedProto(
+                            file, fileState.getNewState().get(file.getKey()))
+                        : null;
+                if (message == null) {
+                  message = executor.submit(() -> aspectStrategy.readAspectFile(file));
+                }
                 futures.add(
-                    executor.submit(
-                        () -> {
+                    Futures.transform(
+                        message,
+                        m -> {
                           totalSizeLoaded.addAndGet(file.getLength());
-                          IntellijIdeInfo.TargetIdeInfo message =
-                              aspectStrategy.readAspectFile(file);
                           TargetIdeInfo target =
                               protoToTarget(
-                                  languageSettings,
-                                  importRoots,
-                                  message,
-                                  ignoredLanguages,
-                                  syncTime);
+                                  languageSettings, importRoots, m, ignoredLanguages, syncTime);
                           return new TargetFilePair(file, target);
-                        }));
+                        },
+                        executor));
               }
 
               Set<TargetKey> newTargets = new HashSet<>();
@@ -561,7 +598,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
               return Result.of(
                   new TargetMapAndInterfaceState(
-                      new TargetMap(ImmutableMap.copyOf(targetMap)), state.build()));
+                      TargetMap.create(ImmutableMap.copyOf(targetMap)), state.build()));
             });
 
     if (result.error != null) {
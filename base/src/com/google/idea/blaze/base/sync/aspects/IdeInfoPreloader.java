@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactsDiff;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * Reads intellij-info.txt outputs in the background as each shard of the blaze build completes, so
+ * that building the target map is pipelined with the remaining shards.
+ *
+ * <p>Parsed protos are keyed by the {@link ArtifactState} they were read from. The project update
+ * phase only reuses them if that state is still current, falling back to reading the file again
+ * otherwise.
+ */
+final class IdeInfoPreloader {
+
+  private static final Logger logger = Logger.getInstance(IdeInfoPreloader.class);
+
+  private static final BoolExperiment preloadAspectOutputs =
+      new BoolExperiment("blaze.sync.preload.aspect.outputs", false);
+
+  private static class PreloadedFile {
+    private final ArtifactState state;
+    private final ListenableFuture<IntellijIdeInfo.TargetIdeInfo> proto;
+
+    PreloadedFile(ArtifactState state, ListenableFuture<IntellijIdeInfo.TargetIdeInfo> proto) {
+      this.state = state;
+      this.proto = proto;
+    }
+  }
+
+  /**
+   * Returns a new {@link IdeInfoPreloader} for a single sync build, or null if pipelined aspect
+   * output parsing is disabled.
+   */
+  @Nullable
+  static IdeInfoPreloader create(Project project, AspectStrategy aspectStrategy) {
+    if (!preloadAspectOutputs.getValue()) {
+      return null;
+    }
+    BlazeProjectData projectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    BlazeIdeInterfaceState prevState =
+        projectData != null ? projectData.getTargetData().ideInterfaceState : null;
+    return new IdeInfoPreloader(
+        aspectStrategy,
+        prevState != null ? prevState.ideInfoFileState : null,
+        BlazeExecutor.getInstance().getExecutor());
+  }
+
+  private final AspectStrategy aspectStrategy;
+  @Nullable private final ImmutableMap<String, ArtifactState> prevFileState;
+  private final ListeningExecutorService executor;
+  private final Map<String, PreloadedFile> preloaded = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  IdeInfoPreloader(
+      AspectStrategy aspectStrategy,
+      @Nullable ImmutableMap<String, ArtifactState> prevFileState,
+      ListeningExecutorService executor) {
+    this.aspectStrategy = aspectStrategy;
+    this.prevFileState = prevFileState;
+    this.executor = executor;
+  }
+
+  /**
+   * Asynchronously diffs the ide-info outputs of a single completed build shard against the
+   * previous sync's state, then prefetches and parses any new or updated files.
+   */
+  void preload(BlazeBuildOutputs shardOutputs) {
+    preloadFiles(BlazeIdeInterfaceAspectsImpl.getIdeInfoFiles(shardOutputs));
+  }
+
+  @VisibleForTesting
+  void preloadFiles(ImmutableList<OutputArtifact> files) {
+    if (files.isEmpty()) {
+      return;
+    }
+    executor.submit(
+        () -> {
+          ArtifactsDiff diff;
+          try {
+            diff = ArtifactsDiff.diffArtifacts(prevFileState, files);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          } catch (ExecutionException e) {
+            // not fatal: these outputs are read again when updating the target map
+            logger.warn("Failed to diff aspect output files", e);
+            return;
+          }
+          for (OutputArtifact file : diff.getUpdatedOutputs()) {
+            ArtifactState state = diff.getNewState().get(file.getKey());
+            if (state == null) {
+              continue;
+            }
+            ListenableFuture<IntellijIdeInfo.TargetIdeInfo> proto =
+                executor.submit(
+                    () -> {
+                      if (file instanceof RemoteOutputArtifact) {
+                        ((RemoteOutputArtifact) file).prefetch();
+                      }
+                      return aspectStrategy.readAspectFile(file);
+                    });
+            preloaded.put(file.getKey(), new PreloadedFile(state, proto));
+          }
+        });
+  }
+
+  /**
+   * Returns the parsed contents of the given ide-info file, if it was preloaded from an artifact
+   * which is at least as recent as {@code currentState}.
+   *
+   * <p>Preloading failures (e.g. a transient remote prefetch error) aren't fatal: the file is read
+   * again instead, as it would have been without preloading.
+   */
+  @Nullable
+  ListenableFuture<IntellijIdeInfo.TargetIdeInfo> getPreloadedProto(
+      OutputArtifact file, @Nullable ArtifactState currentState) {
+    PreloadedFile entry = preloaded.get(file.getKey());
+    if (entry == null || currentState == null || entry.state.isMoreRecent(currentState)) {
+      return null;
+    }
+    return Futures.catchingAsync(
+        entry.proto,
+        Throwable.class,
+        e -> {
+          logger.warn("Failed to preload aspect output file " + file.getKey(), e);
+          return executor.submit(() -> aspectStrategy.readAspectFile(file));
+        },
+        executor);
+  }
+
+  /** Combines the preloaded files of this build with those of a more recent build. */
+  IdeInfoPreloader merge(@Nullable IdeInfoPreloader next) {
+    if (next == null || next == this) {
+      return this;
+    }
+    IdeInfoPreloader merged =
+        new IdeInfoPreloader(next.aspectStrategy, next.prevFileState, next.executor);
+    merged.preloaded.putAll(preloaded);
+    merged.preloaded.putAll(next.preloaded);
+    return merged;
+  }
+}
@@ -23,7 +23,9 @@ import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.sync.data.SectionedProjectDataStore.Codec;
 import com.google.idea.common.concurrency.ConcurrencyUtil;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
@@ -32,6 +34,7 @@ import com.intellij.openapi.util.Disposer;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.concurrent.Executors;
 import javax.annotation.Nullable;
 
@@ -41,11 +44,25 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   private static final Logger logger =
       Logger.getInstance(BlazeProjectDataManagerImpl.class.getName());
 
+  /** Whether to save project data in separately stored, uncompressed sections. */
+  private static final BoolExperiment sectionedProjectData =
+      new BoolExperiment("blaze.sectioned.project.data", false);
+
+  /** Whether to deflate the sections of sectioned project data. */
+  private static final BoolExperiment compressProjectDataSections =
+      new BoolExperiment("blaze.sectioned.project.data.compress", false);
+
+  /** Whether to append the changes made by each sync to a journal, rather than a full rewrite. */
+  private static final BoolExperiment journalProjectData =
+      new BoolExperiment("blaze.project.data.journal", false);
+
   private final Project project;
   // a per-project single-threaded executor to write project data to disk
   private final ListeningExecutorService writeDataExecutor;
 
   @Nullable private volatile BlazeProjectData projectData;
+  @Nullable private SectionedProjectDataStore sectionedStore;
+  @Nullable private ProjectDataJournal journal;
 
   public static BlazeProjectDataManagerImpl getImpl(Project project) {
     return (BlazeProjectDataManagerImpl) BlazeProjectDataManager.getInstance(project);
@@ -81,8 +98,14 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   @Nullable
   private synchronized BlazeProjectData loadProject(BlazeImportSettings importSettings) {
     try {
-      File file = getCacheFile(project, importSettings);
-      projectData = BlazeProjectData.loadFromDisk(importSettings.getBuildSystem(), file);
+      // sectioned data is deleted whenever the legacy format is saved, so it's never stale
+      BlazeProjectData data =
+          getSectionedStore(importSettings).load(importSettings.getBuildSystem());
+      if (data == null) {
+        // any journal is replayed on top of the legacy snapshot
+        data = getJournal(importSettings).load(importSettings.getBuildSystem());
+      }
+      projectData = data;
       return projectData;
     } catch (Throwable e) {
       if (!(e instanceof FileNotFoundException)) {
@@ -104,10 +127,11 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
             (ProgressIndicator indicator) -> {
               try {
                 File file = getCacheFile(project, importSettings);
+                long size;
                 synchronized (this) {
-                  projectData.saveToDisk(file);
+                  size = saveToDisk(importSettings, projectData, file);
                 }
-                logFileSize(projectData, file);
+                logFileSize(projectData, size);
 
               } catch (Throwable e) {
                 logger.error(serializationErrorMessage(e), e);
@@ -115,9 +139,53 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
             });
   }
 
-  private static void logFileSize(BlazeProjectData projectData, File cacheFile) {
+  /** Saves the project data in the configured format, returning its size on disk. */
+  private long saveToDisk(
+      BlazeImportSettings importSettings, BlazeProjectData projectData, File legacyCacheFile)
+      throws IOException {
+    SectionedProjectDataStore store = getSectionedStore(importSettings);
+    ProjectDataJournal journal = getJournal(importSettings);
+    if (sectionedProjectData.getValue()) {
+      long size =
+          store.save(
+              projectData, compressProjectDataSections.getValue() ? Codec.DEFLATE : Codec.RAW);
+      journal.clear();
+      Files.deleteIfExists(legacyCacheFile.toPath());
+      return size;
+    }
+    long size;
+    if (journalProjectData.getValue()) {
+      size = journal.save(projectData);
+    } else {
+      journal.clear();
+      projectData.saveToDisk(legacyCacheFile);
+      size = FileOperationProvider.getInstance().getFileSize(legacyCacheFile);
+    }
+    store.clear();
+    return size;
+  }
+
+  private synchronized SectionedProjectDataStore getSectionedStore(
+      BlazeImportSettings importSettings) {
+    File manifestFile =
+        new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), "cache.dat");
+    if (sectionedStore == null || !sectionedStore.getManifestFile().equals(manifestFile)) {
+      sectionedStore = new SectionedProjectDataStore(manifestFile);
+    }
+    return sectionedStore;
+  }
+
+  private synchronized ProjectDataJournal getJournal(BlazeImportSettings importSettings) {
+    File cacheFile = getCacheFile(project, importSettings);
+    if (journal == null || !journal.getBaseFile().equals(cacheFile)) {
+      journal = new ProjectDataJournal(cacheFile);
+    }
+    return journal;
+  }
+
+  private static void logFileSize(BlazeProjectData projectData, long size) {
     ImmutableMap.Builder<String, String> data = ImmutableMap.builder();
-    data.put("size", Long.toString(FileOperationProvider.getInstance().getFileSize(cacheFile)));
+    data.put("size", Long.toString(size));
     Long clientCl = projectData.getBlazeVersionData().clientCl;
     if (clientCl != null) {
       data.put("cl", Long.toString(clientCl));
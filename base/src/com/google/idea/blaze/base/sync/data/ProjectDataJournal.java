@@ -0,0 +1,403 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.devtools.intellij.model.ProjectData.LocalFileOrOutputArtifact;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.ProjectTargetData;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Saves {@link BlazeProjectData} as a full snapshot plus an append-only journal of the changes made
+ * by each subsequent sync.
+ *
+ * <p>Each journal entry records the targets, ide info file states and remote outputs which were
+ * added, changed or removed since the previous entry, along with the (comparatively small)
+ * remainder of the project data. Once the journal grows past the size of the snapshot, or past
+ * {@link #MAX_JOURNAL_ENTRIES} entries, the next save compacts it into a new snapshot.
+ *
+ * <p>The journal header identifies the snapshot it applies to, so a journal left over from an
+ * interrupted compaction is never replayed against the wrong snapshot.
+ */
+final class ProjectDataJournal {
+
+  private static final Logger logger = Logger.getInstance(ProjectDataJournal.class);
+
+  @VisibleForTesting static final int MAX_JOURNAL_ENTRIES = 50;
+
+  private final File baseFile;
+  private final File journalFile;
+  private final Function<OutputStream, OutputStream> journalStreamWrapper;
+
+  /**
+   * The project data represented by the snapshot and journal on disk, or null if unknown, in which
+   * case the next save writes a new snapshot.
+   */
+  @Nullable private BlazeProjectData savedData;
+
+  private int journalEntries;
+
+  ProjectDataJournal(File baseFile) {
+    this(baseFile, Function.identity());
+  }
+
+  @VisibleForTesting
+  ProjectDataJournal(File baseFile, Function<OutputStream, OutputStream> journalStreamWrapper) {
+    this.baseFile = baseFile;
+    this.journalFile = new File(baseFile.getPath() + ".journal");
+    this.journalStreamWrapper = journalStreamWrapper;
+  }
+
+  File getBaseFile() {
+    return baseFile;
+  }
+
+  /** Reads the snapshot, replaying any journal entries on top of it. */
+  synchronized BlazeProjectData load(BuildSystem buildSystem) throws IOException {
+    savedData = null;
+    journalEntries = 0;
+    ProjectData.BlazeProjectData base = BlazeProjectData.readProtoFromDisk(baseFile);
+    boolean consistent = true;
+    if (FileOperationProvider.getInstance().exists(journalFile)) {
+      if (base.hasTargetData()) {
+        ReplayResult result = replay(base);
+        base = result.proto;
+        consistent = result.complete;
+      } else {
+        consistent = false;
+      }
+    }
+    BlazeProjectData projectData = BlazeProjectData.fromProto(buildSystem, base);
+    if (consistent) {
+      savedData = projectData;
+    }
+    return projectData;
+  }
+
+  /**
+   * Saves the given project data, appending to the journal if possible and otherwise writing a new
+   * snapshot. If the save fails, the next one writes a new snapshot.
+   *
+   * @return the total size on disk of the snapshot and journal
+   */
+  synchronized long save(BlazeProjectData projectData) throws IOException {
+    FileOperationProvider fileOps = FileOperationProvider.getInstance();
+    ProjectData.ProjectDataDelta delta = null;
+    if (savedData != null
+        && journalEntries < MAX_JOURNAL_ENTRIES
+        && fileOps.exists(baseFile)
+        && journalFile.length() <= fileOps.getFileSize(baseFile)) {
+      delta = computeDelta(savedData, projectData);
+    }
+    // until this save succeeds, what's on disk is unknown
+    savedData = null;
+    if (delta != null) {
+      append(delta);
+    } else {
+      compact(projectData);
+    }
+    savedData = projectData;
+    return fileOps.getFileSize(baseFile) + journalFile.length();
+  }
+
+  /** Deletes the journal. The snapshot is left untouched. */
+  synchronized void clear() throws IOException {
+    savedData = null;
+    journalEntries = 0;
+    Files.deleteIfExists(journalFile.toPath());
+  }
+
+  private void compact(BlazeProjectData projectData) throws IOException {
+    // the old journal doesn't apply to the new snapshot, so it must go first
+    Files.deleteIfExists(journalFile.toPath());
+    journalEntries = 0;
+    projectData.saveToDisk(baseFile);
+  }
+
+  /**
+   * Appends an entry to the journal. If that fails, the journal is truncated back to its previous
+   * length, so a partially written entry can't hide later ones.
+   */
+  private void append(ProjectData.ProjectDataDelta delta) throws IOException {
+    boolean newJournal = !journalFile.exists();
+    long previousLength = journalFile.length();
+    try {
+      writeEntry(delta, newJournal);
+    } catch (IOException e) {
+      discardPartialEntry(newJournal, previousLength);
+      throw e;
+    }
+    journalEntries++;
+  }
+
+  private void writeEntry(ProjectData.ProjectDataDelta delta, boolean newJournal)
+      throws IOException {
+    try (OutputStream out =
+        new BufferedOutputStream(
+            journalStreamWrapper.apply(
+                new FileOutputStream(journalFile, /* append= */ true)))) {
+      if (newJournal) {
+        FileOperationProvider fileOps = FileOperationProvider.getInstance();
+        ProjectData.ProjectDataJournalHeader.newBuilder()
+            .setBaseFileSize(fileOps.getFileSize(baseFile))
+            .setBaseFileModifiedTime(fileOps.getFileModifiedTime(baseFile))
+            .build()
+            .writeDelimitedTo(out);
+      }
+      delta.writeDelimitedTo(out);
+    }
+  }
+
+  private void discardPartialEntry(boolean newJournal, long previousLength) {
+    try {
+      if (newJournal) {
+        Files.deleteIfExists(journalFile.toPath());
+        return;
+      }
+      try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+        file.setLength(previousLength);
+      }
+    } catch (IOException e) {
+      // the journal is now inconsistent, but the next save writes a new snapshot regardless
+      logger.warn("Could not discard partially written project data journal entry", e);
+    }
+  }
+
+  private static class ReplayResult {
+    private final ProjectData.BlazeProjectData proto;
+    private final boolean complete;
+
+    ReplayResult(ProjectData.BlazeProjectData proto, boolean complete) {
+      this.proto = proto;
+      this.complete = complete;
+    }
+  }
+
+  private ReplayResult replay(ProjectData.BlazeProjectData base) {
+    FileOperationProvider fileOps = FileOperationProvider.getInstance();
+    DeltaApplier applier = new DeltaApplier(base);
+    try (InputStream in = new BufferedInputStream(new FileInputStream(journalFile))) {
+      ProjectData.ProjectDataJournalHeader header =
+          ProjectData.ProjectDataJournalHeader.parseDelimitedFrom(in);
+      if (header == null
+          || header.getBaseFileSize() != fileOps.getFileSize(baseFile)
+          || header.getBaseFileModifiedTime() != fileOps.getFileModifiedTime(baseFile)) {
+        logger.info("Ignoring project data journal written for a different snapshot");
+        return new ReplayResult(base, false);
+      }
+      ProjectData.ProjectDataDelta delta;
+      while ((delta = ProjectData.ProjectDataDelta.parseDelimitedFrom(in)) != null) {
+        applier.apply(delta);
+        journalEntries++;
+      }
+    } catch (IOException e) {
+      // most likely a partially written final entry; everything before it is still valid
+      logger.warn("Truncated project data journal", e);
+      return new ReplayResult(applier.build(), false);
+    }
+    return new ReplayResult(applier.build(), true);
+  }
+
+  /**
+   * Returns the changes from {@code before} to {@code after}, or null if they can't be represented
+   * as a journal entry.
+   */
+  @VisibleForTesting
+  @Nullable
+  static ProjectData.ProjectDataDelta computeDelta(
+      BlazeProjectData before, BlazeProjectData after) {
+    ProjectTargetData oldData = before.getTargetData();
+    ProjectTargetData newData = after.getTargetData();
+    if ((oldData.ideInterfaceState == null) != (newData.ideInterfaceState == null)) {
+      return null;
+    }
+    ProjectData.ProjectDataDelta.Builder delta =
+        ProjectData.ProjectDataDelta.newBuilder()
+            .setProjectData(after.toProtoWithoutTargetData());
+
+    if (oldData.targetMap != newData.targetMap) {
+      TargetMap oldTargets = oldData.targetMap;
+      TargetMap newTargets = newData.targetMap;
+      for (TargetIdeInfo target : newTargets.targetsView()) {
+        if (!target.equals(oldTargets.get(target.getKey()))) {
+          delta.addUpdatedTargets(target.toProto());
+        }
+      }
+      for (TargetKey key : oldTargets.keys()) {
+        if (!newTargets.contains(key)) {
+          delta.addRemovedTargets(key.toProto());
+        }
+      }
+    }
+
+    if (oldData.ideInterfaceState != null
+        && newData.ideInterfaceState != null
+        && oldData.ideInterfaceState != newData.ideInterfaceState) {
+      ProjectData.BlazeIdeInterfaceState oldState = oldData.ideInterfaceState.toProto();
+      ProjectData.BlazeIdeInterfaceState newState = newData.ideInterfaceState.toProto();
+      Map<String, LocalFileOrOutputArtifact> oldFiles =
+          index(oldState.getIdeInfoFilesList(), ProjectDataJournal::ideInfoFileKey);
+      Map<String, LocalFileOrOutputArtifact> newFiles =
+          index(newState.getIdeInfoFilesList(), ProjectDataJournal::ideInfoFileKey);
+      newFiles.forEach(
+          (key, file) -> {
+            if (!file.equals(oldFiles.get(key))) {
+              delta.addUpdatedIdeInfoFiles(file);
+            }
+          });
+      oldFiles.keySet().stream()
+          .filter(key -> !newFiles.containsKey(key))
+          .forEach(delta::addRemovedIdeInfoFiles);
+
+      Map<String, IntellijIdeInfo.TargetKey> oldTargets = oldState.getFileToTargetMap();
+      Map<String, IntellijIdeInfo.TargetKey> newTargets = newState.getFileToTargetMap();
+      newTargets.forEach(
+          (file, target) -> {
+            if (!target.equals(oldTargets.get(file))) {
+              delta.putUpdatedFileToTarget(file, target);
+            }
+          });
+      oldTargets.keySet().stream()
+          .filter(file -> !newTargets.containsKey(file))
+          .forEach(delta::addRemovedFileToTarget);
+    }
+
+    if (oldData.remoteOutputs != newData.remoteOutputs) {
+      Map<String, ProjectData.OutputArtifact> oldOutputs =
+          index(
+              oldData.remoteOutputs.toProto().getArtifactsList(),
+              ProjectData.OutputArtifact::getRelativePath);
+      Map<String, ProjectData.OutputArtifact> newOutputs =
+          index(
+              newData.remoteOutputs.toProto().getArtifactsList(),
+              ProjectData.OutputArtifact::getRelativePath);
+      newOutputs.forEach(
+          (path, output) -> {
+            if (!output.equals(oldOutputs.get(path))) {
+              delta.addUpdatedRemoteOutputs(output);
+            }
+          });
+      oldOutputs.keySet().stream()
+          .filter(path -> !newOutputs.containsKey(path))
+          .forEach(delta::addRemovedRemoteOutputs);
+    }
+    return delta.build();
+  }
+
+  @Nullable
+  private static String ideInfoFileKey(LocalFileOrOutputArtifact file) {
+    ArtifactState state = ArtifactState.fromProto(file);
+    return state != null ? state.getKey() : null;
+  }
+
+  /** Indexes the given protos by key, in iteration order. Protos with a null key are dropped. */
+  private static <T> Map<String, T> index(Iterable<T> protos, Function<T, String> keyFunction) {
+    Map<String, T> map = new LinkedHashMap<>();
+    for (T proto : protos) {
+      String key = keyFunction.apply(proto);
+      if (key != null) {
+        map.put(key, proto);
+      }
+    }
+    return map;
+  }
+
+  /** Applies a sequence of journal entries to a snapshot's proto. */
+  @VisibleForTesting
+  static class DeltaApplier {
+    private ProjectData.BlazeProjectData projectData;
+    private final boolean hasIdeInterfaceState;
+    private final Map<IntellijIdeInfo.TargetKey, IntellijIdeInfo.TargetIdeInfo> targets =
+        new LinkedHashMap<>();
+    private final Map<String, LocalFileOrOutputArtifact> ideInfoFiles;
+    private final Map<String, IntellijIdeInfo.TargetKey> fileToTarget;
+    private final Map<String, ProjectData.OutputArtifact> remoteOutputs;
+
+    DeltaApplier(ProjectData.BlazeProjectData base) {
+      projectData = base;
+      ProjectData.TargetData targetData = base.getTargetData();
+      for (IntellijIdeInfo.TargetIdeInfo target : targetData.getTargetMap().getTargetsList()) {
+        targets.put(target.getKey(), target);
+      }
+      hasIdeInterfaceState = targetData.hasIdeInterfaceState();
+      ideInfoFiles =
+          index(
+              targetData.getIdeInterfaceState().getIdeInfoFilesList(),
+              ProjectDataJournal::ideInfoFileKey);
+      fileToTarget = new LinkedHashMap<>(targetData.getIdeInterfaceState().getFileToTargetMap());
+      remoteOutputs =
+          index(
+              targetData.getRemoteOutputs().getArtifactsList(),
+              ProjectData.OutputArtifact::getRelativePath);
+    }
+
+    void apply(ProjectData.ProjectDataDelta delta) {
+      projectData = delta.getProjectData();
+      delta.getRemovedTargetsList().forEach(targets::remove);
+      delta.getUpdatedTargetsList().forEach(t -> targets.put(t.getKey(), t));
+      delta.getRemovedIdeInfoFilesList().forEach(ideInfoFiles::remove);
+      for (LocalFileOrOutputArtifact file : delta.getUpdatedIdeInfoFilesList()) {
+        String key = ideInfoFileKey(file);
+        if (key != null) {
+          ideInfoFiles.put(key, file);
+        }
+      }
+      delta.getRemovedFileToTargetList().forEach(fileToTarget::remove);
+      fileToTarget.putAll(delta.getUpdatedFileToTargetMap());
+      delta.getRemovedRemoteOutputsList().forEach(remoteOutputs::remove);
+      delta.getUpdatedRemoteOutputsList().forEach(o -> remoteOutputs.put(o.getRelativePath(), o));
+    }
+
+    ProjectData.BlazeProjectData build() {
+      ProjectData.TargetData.Builder targetData =
+          ProjectData.TargetData.newBuilder()
+              .setTargetMap(ProjectData.TargetMap.newBuilder().addAllTargets(targets.values()))
+              .setRemoteOutputs(
+                  ProjectData.RemoteOutputArtifacts.newBuilder()
+                      .addAllArtifacts(remoteOutputs.values()));
+      if (hasIdeInterfaceState) {
+        targetData.setIdeInterfaceState(
+            ProjectData.BlazeIdeInterfaceState.newBuilder()
+                .addAllIdeInfoFiles(ideInfoFiles.values())
+                .putAllFileToTarget(fileToTarget));
+      }
+      return projectData.toBuilder().setTargetData(targetData).build();
+    }
+  }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.ProjectTargetData;
+import com.google.idea.blaze.base.model.RemoteOutputArtifacts;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceState;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Stores {@link BlazeProjectData} as separately addressable sections, indexed by a small manifest.
+ *
+ * <p>Each section lives in its own content-addressed file, either uncompressed (so it can be
+ * memory-mapped and parsed in place) or deflated at the fastest compression level. Sections which
+ * haven't changed since the last save aren't rewritten. The manifest is replaced atomically once
+ * every section it references is on disk, so a failed save leaves the previous data intact.
+ */
+final class SectionedProjectDataStore {
+
+  private static final Logger logger = Logger.getInstance(SectionedProjectDataStore.class);
+
+  private static final int MAGIC = 0x424c5a53;
+  private static final int VERSION = 1;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The separately stored parts of the project data. */
+  private enum Section {
+    PROJECT("project"),
+    TARGET_MAP("target_map"),
+    IDE_INTERFACE_STATE("ide_interface_state"),
+    REMOTE_OUTPUTS("remote_outputs");
+
+    private final String fileNamePrefix;
+
+    Section(String fileNamePrefix) {
+      this.fileNamePrefix = fileNamePrefix;
+    }
+  }
+
+  /** How a section is encoded on disk. */
+  enum Codec {
+    RAW(".bin"),
+    DEFLATE(".z");
+
+    private final String extension;
+
+    Codec(String extension) {
+      this.extension = extension;
+    }
+  }
+
+  private static class SectionFile {
+    private final String name;
+    private final Codec codec;
+    private final long length;
+
+    SectionFile(String name, Codec codec, long length) {
+      this.name = name;
+      this.codec = codec;
+      this.length = length;
+    }
+  }
+
+  private final File manifestFile;
+  private final File sectionDir;
+
+  /** The sections referenced by the manifest on disk. */
+  private final Map<Section, SectionFile> currentFiles = new EnumMap<>(Section.class);
+
+  /** The objects the current sections were written from or read into. */
+  private final Map<Section, Object> currentSources = new EnumMap<>(Section.class);
+
+  SectionedProjectDataStore(File manifestFile) {
+    this.manifestFile = manifestFile;
+    this.sectionDir = new File(manifestFile.getPath() + ".sections");
+  }
+
+  File getManifestFile() {
+    return manifestFile;
+  }
+
+  /**
+   * Returns the stored project data, or null if there is no sectioned data on disk.
+   *
+   * <p>A raw target map section stays memory-mapped, and its targets are decoded as they're
+   * accessed. The other sections, and deflated target map sections, are decoded eagerly.
+   */
+  @Nullable
+  synchronized BlazeProjectData load(BuildSystem buildSystem) throws IOException {
+    if (!FileOperationProvider.getInstance().exists(manifestFile)) {
+      return null;
+    }
+    Map<Section, SectionFile> files = readManifest();
+    ProjectData.BlazeProjectData projectProto =
+        readSection(files, Section.PROJECT, ProjectData.BlazeProjectData.parser());
+    TargetMap targetMap = readTargetMap(files);
+    ProjectData.BlazeIdeInterfaceState ideInterfaceStateProto =
+        readSection(
+            files, Section.IDE_INTERFACE_STATE, ProjectData.BlazeIdeInterfaceState.parser());
+    ProjectData.RemoteOutputArtifacts remoteOutputsProto =
+        readSection(files, Section.REMOTE_OUTPUTS, ProjectData.RemoteOutputArtifacts.parser());
+    if (projectProto == null || targetMap == null) {
+      throw new IOException("Incomplete project data: " + manifestFile);
+    }
+    ProjectTargetData targetData =
+        new ProjectTargetData(
+            targetMap,
+            ideInterfaceStateProto != null
+                ? BlazeIdeInterfaceState.fromProto(ideInterfaceStateProto)
+                : null,
+            remoteOutputsProto != null
+                ? RemoteOutputArtifacts.fromProto(remoteOutputsProto)
+                : RemoteOutputArtifacts.EMPTY);
+    BlazeProjectData projectData =
+        BlazeProjectData.fromProto(buildSystem, projectProto, targetData);
+
+    currentFiles.clear();
+    currentFiles.putAll(files);
+    currentSources.clear();
+    rememberSources(projectData, currentSources);
+    return projectData;
+  }
+
+  /**
+   * Writes any sections which have changed since the last save or load, then atomically replaces
+   * the manifest.
+   *
+   * @return the total size on disk of the stored project data
+   */
+  synchronized long save(BlazeProjectData projectData, Codec codec) throws IOException {
+    FileOperationProvider fileOps = FileOperationProvider.getInstance();
+    if (!fileOps.isDirectory(sectionDir) && !fileOps.mkdirs(sectionDir)) {
+      throw new IOException("Could not create directory: " + sectionDir);
+    }
+    ProjectTargetData targetData = projectData.getTargetData();
+    Map<Section, SectionFile> files = new EnumMap<>(Section.class);
+    // the project section is small and changes every sync, so it's always serialized
+    files.put(
+        Section.PROJECT,
+        writeSection(Section.PROJECT, projectData.toProtoWithoutTargetData(), codec));
+    saveSection(files, Section.TARGET_MAP, targetData.targetMap, codec);
+    saveSection(files, Section.IDE_INTERFACE_STATE, targetData.ideInterfaceState, codec);
+    saveSection(files, Section.REMOTE_OUTPUTS, targetData.remoteOutputs, codec);
+    writeManifest(files);
+
+    currentFiles.clear();
+    currentFiles.putAll(files);
+    currentSources.clear();
+    rememberSources(projectData, currentSources);
+    deleteUnreferencedSections(files);
+    return files.values().stream().mapToLong(f -> f.length).sum() + manifestFile.length();
+  }
+
+  /** Deletes all sectioned data from disk. */
+  synchronized void clear() throws IOException {
+    currentFiles.clear();
+    currentSources.clear();
+    FileOperationProvider fileOps = FileOperationProvider.getInstance();
+    if (fileOps.exists(manifestFile)) {
+      Files.delete(manifestFile.toPath());
+    }
+    if (fileOps.exists(sectionDir)) {
+      fileOps.deleteRecursively(sectionDir);
+    }
+  }
+
+  private static void rememberSources(BlazeProjectData projectData, Map<Section, Object> sources) {
+    ProjectTargetData targetData = projectData.getTargetData();
+    sources.put(Section.TARGET_MAP, targetData.targetMap);
+    sources.put(Section.REMOTE_OUTPUTS, targetData.remoteOutputs);
+    if (targetData.ideInterfaceState != null) {
+      sources.put(Section.IDE_INTERFACE_STATE, targetData.ideInterfaceState);
+    }
+  }
+
+  /**
+   * Writes a section, unless it was last written from (or read into) the very same object using
+   * the same codec. Sections with a null source are omitted.
+   */
+  private void saveSection(
+      Map<Section, SectionFile> files, Section section, @Nullable Object source, Codec codec)
+      throws IOException {
+    if (source == null) {
+      return;
+    }
+    SectionFile current = currentFiles.get(section);
+    if (current != null
+        && current.codec == codec
+        && currentSources.get(section) == source
+        && new File(sectionDir, current.name).exists()) {
+      files.put(section, current);
+      return;
+    }
+    files.put(section, writeSection(section, toProto(source), codec));
+  }
+
+  private static MessageLite toProto(Object source) {
+    if (source instanceof TargetMap) {
+      return ((TargetMap) source).toProto();
+    }
+    if (source instanceof BlazeIdeInterfaceState) {
+      return ((BlazeIdeInterfaceState) source).toProto();
+    }
+    if (source instanceof RemoteOutputArtifacts) {
+      return ((RemoteOutputArtifacts) source).toProto();
+    }
+    throw new IllegalArgumentException("Unexpected section source: " + source.getClass());
+  }
+
+  /**
+   * Streams a section to a temporary file, then moves it to a name derived from its contents. If
+   * an identical section is already on disk, the new copy is discarded.
+   */
+  private SectionFile writeSection(Section section, MessageLite proto, Codec codec)
+      throws IOException {
+    File temp = new File(sectionDir, section.fileNamePrefix + ".tmp");
+    MessageDigest digest = newDigest();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (OutputStream fileStream =
+        new DigestOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE), digest)) {
+      if (codec == Codec.DEFLATE) {
+        DeflaterOutputStream out = new DeflaterOutputStream(fileStream, deflater, BUFFER_SIZE);
+        proto.writeTo(out);
+        out.finish();
+      } else {
+        proto.writeTo(fileStream);
+      }
+    } finally {
+      deflater.end();
+    }
+    String name =
+        section.fileNamePrefix
+            + "-"
+            + BaseEncoding.base16().lowerCase().encode(digest.digest(), 0, 16)
+            + codec.extension;
+    File file = new File(sectionDir, name);
+    if (file.exists()) {
+      Files.delete(temp.toPath());
+    } else {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+    return new SectionFile(name, codec, file.length());
+  }
+
+  /**
+   * Reads the target map section. A raw section is memory-mapped and indexed without decoding its
+   * targets; a deflated section has to be decoded up front.
+   */
+  @Nullable
+  private TargetMap readTargetMap(Map<Section, SectionFile> files) throws IOException {
+    SectionFile sectionFile = files.get(Section.TARGET_MAP);
+    if (sectionFile == null) {
+      return null;
+    }
+    if (sectionFile.codec == Codec.RAW) {
+      return TargetMap.fromSerializedProto(mapSection(sectionFile));
+    }
+    ProjectData.TargetMap proto =
+        readSection(files, Section.TARGET_MAP, ProjectData.TargetMap.parser());
+    return proto != null ? TargetMap.fromProto(proto) : null;
+  }
+
+  @Nullable
+  private <T> T readSection(Map<Section, SectionFile> files, Section section, Parser<T> parser)
+      throws IOException {
+    SectionFile sectionFile = files.get(section);
+    if (sectionFile == null) {
+      return null;
+    }
+    if (sectionFile.codec == Codec.RAW) {
+      // parse directly from the page cache, without copying the file onto the heap first
+      CodedInputStream in = CodedInputStream.newInstance(mapSection(sectionFile));
+      in.setSizeLimit(Integer.MAX_VALUE);
+      return parser.parseFrom(in);
+    }
+    File file = new File(sectionDir, sectionFile.name);
+    try (FileChannel channel = openSection(file, sectionFile)) {
+      try (InputStream in =
+          new InflaterInputStream(
+              new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE))) {
+        return parser.parseFrom(in);
+      }
+    }
+  }
+
+  /** Maps a raw section into memory. The mapping stays valid after the file is closed. */
+  private MappedByteBuffer mapSection(SectionFile sectionFile) throws IOException {
+    File file = new File(sectionDir, sectionFile.name);
+    try (FileChannel channel = openSection(file, sectionFile)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  private static FileChannel openSection(File file, SectionFile sectionFile) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    if (channel.size() != sectionFile.length) {
+      channel.close();
+      throw new IOException("Truncated project data section: " + file);
+    }
+    return channel;
+  }
+
+  private Map<Section, SectionFile> readManifest() throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unrecognized project data format: " + manifestFile);
+      }
+      Map<Section, SectionFile> files = new EnumMap<>(Section.class);
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Section section = Section.valueOf(in.readUTF());
+        String name = in.readUTF();
+        Codec codec = Codec.valueOf(in.readUTF());
+        long length = in.readLong();
+        files.put(section, new SectionFile(name, codec, length));
+      }
+      return files;
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Corrupt project data manifest: " + manifestFile, e);
+    }
+  }
+
+  private void writeManifest(Map<Section, SectionFile> files) throws IOException {
+    File temp = new File(manifestFile.getPath() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(files.size());
+      for (Map.Entry<Section, SectionFile> entry : files.entrySet()) {
+        out.writeUTF(entry.getKey().name());
+        out.writeUTF(entry.getValue().name);
+        out.writeUTF(entry.getValue().codec.name());
+        out.writeLong(entry.getValue().length);
+      }
+    }
+    Files.move(
+        temp.toPath(),
+        manifestFile.toPath(),
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private void deleteUnreferencedSections(Map<Section, SectionFile> files) {
+    ImmutableSet<String> referenced =
+        files.values().stream().map(f -> f.name).collect(ImmutableSet.toImmutableSet());
+    File[] children = FileOperationProvider.getInstance().listFiles(sectionDir);
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (!referenced.contains(child.getName()) && !child.delete()) {
+        // not fatal: this can happen if a stale section is still memory-mapped; retried next save
+        logger.info("Could not delete stale project data section: " + child);
+      }
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
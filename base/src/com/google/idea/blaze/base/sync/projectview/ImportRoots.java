@@ -33,11 +33,10 @@ import com.google.idea.blaze.base.projectview.section.sections.TargetSection;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.settings.BuildSystem;
 import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import com.google.idea.blaze.base.util.WorkspacePathUtil;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.project.Project;
-import java.nio.file.FileSystems;
-import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -199,33 +198,26 @@ public final class ImportRoots {
   static class ProjectDirectoriesHelper {
     private final ImmutableSet<WorkspacePath> rootDirectories;
     private final ImmutableSet<WorkspacePath> excludeDirectories;
+    private final WorkspacePathTrie<Boolean> rootTrie = new WorkspacePathTrie<>();
+    private final WorkspacePathTrie<Boolean> excludeTrie = new WorkspacePathTrie<>();
 
     @VisibleForTesting
     ProjectDirectoriesHelper(
         Collection<WorkspacePath> rootDirectories, Collection<WorkspacePath> excludeDirectories) {
       this.rootDirectories = ImmutableSet.copyOf(rootDirectories);
       this.excludeDirectories = ImmutableSet.copyOf(excludeDirectories);
+      this.rootDirectories.forEach(dir -> rootTrie.put(dir, true));
+      this.excludeDirectories.forEach(dir -> excludeTrie.put(dir, true));
     }
 
     boolean containsWorkspacePath(WorkspacePath workspacePath) {
-      boolean included = false;
-      boolean excluded = false;
-      for (WorkspacePath rootDirectory : rootDirectories) {
-        included = included || isSubdirectory(rootDirectory, workspacePath);
-      }
-      for (WorkspacePath excludeDirectory : excludeDirectories) {
-        excluded = excluded || isSubdirectory(excludeDirectory, workspacePath);
-      }
-      return included && !excluded;
+      return containsWorkspacePath(workspacePath.relativePath());
     }
 
-    private static boolean isSubdirectory(WorkspacePath ancestor, WorkspacePath descendant) {
-      if (ancestor.isWorkspaceRoot()) {
-        return true;
-      }
-      Path ancestorPath = FileSystems.getDefault().getPath(ancestor.relativePath());
-      Path descendantPath = FileSystems.getDefault().getPath(descendant.relativePath());
-      return descendantPath.startsWith(ancestorPath);
+    /** Returns true if the given workspace-relative path is under a root, and not excluded. */
+    boolean containsWorkspacePath(String relativePath) {
+      return rootTrie.getAncestorValue(relativePath) != null
+          && excludeTrie.getAncestorValue(relativePath) == null;
     }
   }
 }
@@ -18,31 +18,48 @@ package com.google.idea.blaze.base.sync.projectview;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots.ProjectDirectoriesHelper;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
  * Identifies targets/sources covered by an ordered list of {@link TargetExpression}.
  *
  * <p>Handles a mixture of included and excluded target expressions.
+ *
+ * <p>The expressions are compiled up front into lookup tables keyed by label, package and
+ * recursive base package. A query finds every expression covering it with a few hash lookups, and
+ * the last of them (the one with the highest index) decides the result, so the cost doesn't grow
+ * with the number of expressions.
  */
 public final class TargetExpressionList {
 
   public static TargetExpressionList create(List<TargetExpression> targets) {
-    return new TargetExpressionList(
-        targets.stream().map(TargetData::new).collect(toImmutableList()), null);
+    return new TargetExpressionList(toTargetData(targets), null);
   }
 
   static TargetExpressionList createWithTargetsDerivedFromDirectories(
       List<TargetExpression> targets, ProjectDirectoriesHelper directories) {
-    return new TargetExpressionList(
-        targets.stream().map(TargetData::new).collect(toImmutableList()), directories);
+    return new TargetExpressionList(toTargetData(targets), directories);
+  }
+
+  private static ImmutableList<TargetData> toTargetData(List<TargetExpression> targets) {
+    ImmutableList.Builder<TargetData> builder = ImmutableList.builder();
+    for (int i = 0; i < targets.size(); i++) {
+      builder.add(new TargetData(targets.get(i), i));
+    }
+    return builder.build();
   }
 
   /**
@@ -51,6 +68,18 @@ public final class TargetExpressionList {
    */
   private final ImmutableList<TargetData> reversedTargets;
 
+  /** The last single-label expression for each label. */
+  private final Map<Label, TargetData> labels = new HashMap<>();
+
+  /** The last non-recursive wildcard expression for each package, keyed by relative path. */
+  private final Map<String, TargetData> packagePatterns = new HashMap<>();
+
+  /** The last recursive wildcard expression for each base package. */
+  private final WorkspacePathTrie<TargetData> recursivePatterns = new WorkspacePathTrie<>();
+
+  /** The packages of the included single-label expressions. */
+  private final ImmutableSet<WorkspacePath> packagesWithIncludedLabels;
+
   /** Non-null if we're auto-including targets derived from the project directories. */
   @Nullable private final ProjectDirectoriesHelper directories;
 
@@ -72,6 +101,26 @@ public final class TargetExpressionList {
     }
     this.reversedTargets = builder.build();
     this.directories = directories;
+
+    // later expressions replace earlier ones with the same key
+    Set<WorkspacePath> packagesWithIncludedLabels = new HashSet<>();
+    for (TargetData target : reversedTargets.reverse()) {
+      WildcardTargetPattern pattern = target.wildcardPattern;
+      if (pattern == null) {
+        if (target.unexcludedExpression instanceof Label) {
+          Label label = (Label) target.unexcludedExpression;
+          labels.put(label, target);
+          if (!target.isExcluded()) {
+            packagesWithIncludedLabels.add(label.blazePackage());
+          }
+        }
+      } else if (pattern.isRecursive()) {
+        recursivePatterns.put(pattern.getBasePackage(), target);
+      } else {
+        packagePatterns.put(pattern.getBasePackage().relativePath(), target);
+      }
+    }
+    this.packagesWithIncludedLabels = ImmutableSet.copyOf(packagesWithIncludedLabels);
   }
 
   /** Returns the original list of targets with trivially-excluded targets removed. */
@@ -84,10 +133,9 @@ public final class TargetExpressionList {
   /** Returns true if the entire package is covered by the target expressions. */
   public boolean includesPackage(WorkspacePath packagePath) {
     // the last target expression to cover this label overrides all previous expressions
-    for (TargetData target : reversedTargets) {
-      if (target.coversPackage(packagePath)) {
-        return !target.isExcluded();
-      }
+    TargetData target = findPackageCover(packagePath.relativePath());
+    if (target != null) {
+      return !target.isExcluded();
     }
     return directories != null && directories.containsWorkspacePath(packagePath);
   }
@@ -95,32 +143,52 @@ public final class TargetExpressionList {
   /** Returns true if any target in the package is covered by these target expressions. */
   public boolean includesAnyTargetInPackage(WorkspacePath packagePath) {
     // first check if the entire package is included/excluded
-    for (TargetData target : reversedTargets) {
-      if (target.coversPackage(packagePath)) {
-        return !target.isExcluded();
-      }
+    TargetData target = findPackageCover(packagePath.relativePath());
+    if (target != null) {
+      return !target.isExcluded();
     }
     if (directories != null && directories.containsWorkspacePath(packagePath)) {
       return true;
     }
     // fall back to looking for any unexcluded expression including a target in this package
-    for (TargetData target : reversedTargets) {
-      if (!target.isExcluded() && target.inPackage(packagePath)) {
-        return true;
-      }
-    }
-    return false;
+    return packagesWithIncludedLabels.contains(packagePath);
   }
 
   /** Returns true if the individual target is covered by this list. */
   public boolean includesTarget(Label label) {
     // the last target expression to cover this label overrides all previous expressions
-    for (TargetData target : reversedTargets) {
-      if (target.coversTarget(label)) {
-        return !target.isExcluded();
-      }
+    String packagePath = packageRelativePath(label);
+    TargetData target = later(labels.get(label), findPackageCover(packagePath));
+    if (target != null) {
+      return !target.isExcluded();
+    }
+    return directories != null && directories.containsWorkspacePath(packagePath);
+  }
+
+  /** Returns the last wildcard expression covering the entire package, if any. */
+  @Nullable
+  private TargetData findPackageCover(String packagePath) {
+    return later(
+        packagePatterns.get(packagePath),
+        recursivePatterns.reduceAncestorValues(packagePath, TargetExpressionList::later));
+  }
+
+  @Nullable
+  private static TargetData later(@Nullable TargetData first, @Nullable TargetData second) {
+    if (first == null) {
+      return second;
+    }
+    if (second == null) {
+      return first;
     }
-    return directories != null && directories.containsWorkspacePath(label.blazePackage());
+    return first.index > second.index ? first : second;
+  }
+
+  /** Equivalent to {@code label.blazePackage().relativePath()}, without validating the path. */
+  private static String packageRelativePath(Label label) {
+    String labelStr = label.toString();
+    int startIndex = labelStr.indexOf("//") + "//".length();
+    return labelStr.substring(startIndex, labelStr.lastIndexOf(':'));
   }
 
   /** A single {@link TargetExpression} and associated information. */
@@ -128,9 +196,12 @@ public final class TargetExpressionList {
     private final TargetExpression originalExpression;
     private final TargetExpression unexcludedExpression;
     @Nullable private final WildcardTargetPattern wildcardPattern;
+    /** The position of this expression in the original list. */
+    private final int index;
 
-    TargetData(TargetExpression expression) {
+    TargetData(TargetExpression expression, int index) {
       this.originalExpression = expression;
+      this.index = index;
       this.unexcludedExpression =
           expression.isExcluded()
               ? TargetExpression.fromStringSafe(expression.toString().substring(1))
@@ -164,13 +235,5 @@ public final class TargetExpressionList {
               && wildcardPattern.coversPackage(data.wildcardPattern.getBasePackage())
           : wildcardPattern.coversPackage(data.wildcardPattern.getBasePackage());
     }
-
-    boolean inPackage(WorkspacePath path) {
-      if (coversPackage(path)) {
-        return true;
-      }
-      return unexcludedExpression instanceof Label
-          && ((Label) unexcludedExpression).blazePackage().equals(path);
-    }
   }
 }
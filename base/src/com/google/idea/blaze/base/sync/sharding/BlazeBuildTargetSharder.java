@@ -147,6 +147,7 @@ public class BlazeBuildTargetSharder {
 
         return new ShardedTargetsResult(
             shardSingleTargets(
+                project,
                 expandedTargets.singleTargets,
                 buildParams.blazeBinaryType().isRemote,
                 getTargetShardSize(viewSet)),
@@ -183,13 +184,13 @@ public class BlazeBuildTargetSharder {
       ProjectViewSet projectViewSet,
       WorkspacePathResolver pathResolver,
       List<TargetExpression> targets) {
-    List<WildcardTargetPattern> includes = getWildcardPatterns(targets);
-    if (includes.isEmpty()) {
+    List<WildcardTargetPattern> wildcardPatterns = getWildcardPatterns(targets);
+    if (wildcardPatterns.stream().allMatch(WildcardTargetPattern::isExcluded)) {
       return new ExpandedTargetsResult(targets, BuildResult.SUCCESS);
     }
     Map<TargetExpression, List<TargetExpression>> expandedTargets =
         WildcardTargetExpander.expandToNonRecursiveWildcardTargets(
-            project, context, pathResolver, includes);
+            project, context, pathResolver, wildcardPatterns);
     if (expandedTargets == null) {
       return new ExpandedTargetsResult(ImmutableList.of(), BuildResult.FATAL_ERROR);
     }
@@ -229,9 +230,10 @@ public class BlazeBuildTargetSharder {
   @SuppressWarnings("unchecked")
   @VisibleForTesting
   static ShardedTargetList shardSingleTargets(
-      List<TargetExpression> targets, boolean isRemote, int shardSize) {
+      Project project, List<TargetExpression> targets, boolean isRemote, int shardSize) {
     ImmutableList<ImmutableList<Label>> batches =
-        BuildBatchingService.batchTargets(canonicalizeSingleTargets(targets), isRemote, shardSize);
+        BuildBatchingService.batchTargets(
+            project, canonicalizeSingleTargets(targets), isRemote, shardSize);
     return new ShardedTargetList((ImmutableList) batches);
   }
 
@@ -284,10 +286,9 @@ public class BlazeBuildTargetSharder {
     return TargetExpressionList.create(targets).getTargets();
   }
 
-  /** Returns the wildcard target patterns, ignoring exclude patterns (those starting with '-') */
+  /** Returns the included and excluded wildcard patterns, in their original order. */
   private static List<WildcardTargetPattern> getWildcardPatterns(List<TargetExpression> targets) {
     return targets.stream()
-        .filter(t -> !t.isExcluded())
         .map(WildcardTargetPattern::fromExpression)
         .filter(Objects::nonNull)
         .collect(Collectors.toList());
@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.sync.sharding;
 import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.project.Project;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.Set;
@@ -48,6 +49,16 @@ public interface BuildBatchingService {
   ImmutableList<ImmutableList<Label>> calculateTargetBatches(
       Set<Label> targets, boolean remoteBuild, int suggestedShardSize);
 
+  /**
+   * As {@link #calculateTargetBatches(Set, boolean, int)}, for a particular project.
+   * Implementations may use the project's build history to inform the batching.
+   */
+  @Nullable
+  default ImmutableList<ImmutableList<Label>> calculateTargetBatches(
+      Project project, Set<Label> targets, boolean remoteBuild, int suggestedShardSize) {
+    return calculateTargetBatches(targets, remoteBuild, suggestedShardSize);
+  }
+
   /**
    * Given a list of individual, un-excluded blaze targets (no wildcard target patterns), returns a
    * list of target batches.
@@ -56,9 +67,9 @@ public interface BuildBatchingService {
    * else falling back to returning a single batch.
    */
   static ImmutableList<ImmutableList<Label>> batchTargets(
-      Set<Label> targets, boolean remoteBuild, int suggestedShardSize) {
+      Project project, Set<Label> targets, boolean remoteBuild, int suggestedShardSize) {
     return Arrays.stream(EP_NAME.getExtensions())
-        .map(s -> s.calculateTargetBatches(targets, remoteBuild, suggestedShardSize))
+        .map(s -> s.calculateTargetBatches(project, targets, remoteBuild, suggestedShardSize))
         .filter(Objects::nonNull)
         .findFirst()
         .orElse(ImmutableList.of(ImmutableList.copyOf(targets)));
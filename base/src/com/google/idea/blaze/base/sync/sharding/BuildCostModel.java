@@ -0,0 +1,294 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Estimates the cost of building each blaze package, learned from the durations and out of memory
+ * errors of previous sharded builds, and uses it to partition targets into shards of similar
+ * predicted duration.
+ */
+class BuildCostModel {
+
+  private static final Logger logger = Logger.getInstance(BuildCostModel.class);
+
+  private static final int VERSION = 1;
+  private static final String FILE_NAME = "build_cost_model.dat";
+
+  /** The estimated build time of a target in a package we haven't built before. */
+  private static final double DEFAULT_MILLIS_PER_TARGET = 100;
+
+  /** The weight given to the latest observation of a package's build time. */
+  private static final double SMOOTHING_FACTOR = 0.5;
+
+  /**
+   * Each out of memory error adds a package's estimated cost again when partitioning, up to this
+   * many times. The penalty decays with each successful build.
+   */
+  private static final double MAX_OUT_OF_MEMORY_WEIGHT = 3;
+
+  private static final double OUT_OF_MEMORY_DECAY = 0.8;
+
+  /** Shards may exceed the suggested size by this factor if their targets are cheap. */
+  private static final int MAX_SHARD_SIZE_FACTOR = 2;
+
+  private static class PackageCost {
+    double millisPerTarget;
+    double outOfMemoryWeight;
+
+    PackageCost(double millisPerTarget, double outOfMemoryWeight) {
+      this.millisPerTarget = millisPerTarget;
+      this.outOfMemoryWeight = outOfMemoryWeight;
+    }
+  }
+
+  static BuildCostModel getInstance(Project project) {
+    return ServiceManager.getService(project, BuildCostModel.class);
+  }
+
+  @Nullable private final Project project;
+  private final Map<String, PackageCost> costs = new HashMap<>();
+  private boolean loaded;
+  private boolean modified;
+
+  BuildCostModel(Project project) {
+    this.project = project;
+  }
+
+  @VisibleForTesting
+  BuildCostModel() {
+    this.project = null;
+    this.loaded = true;
+  }
+
+  /**
+   * Splits the targets into contiguous runs of the lexicographically sorted targets, each with
+   * similar predicted build time. Produces as many shards as a fixed-size split would, unless
+   * that would exceed twice the suggested shard size.
+   */
+  synchronized ImmutableList<ImmutableList<Label>> partition(
+      Set<Label> targets, int suggestedShardSize) {
+    ensureLoaded();
+    List<Label> sorted = ImmutableList.sortedCopyOf(Comparator.comparing(Label::toString), targets);
+    int shardCount = Math.max(1, (sorted.size() + suggestedShardSize - 1) / suggestedShardSize);
+    int maxShardSize = MAX_SHARD_SIZE_FACTOR * suggestedShardSize;
+    double defaultCost = defaultMillisPerTarget();
+    double[] targetCosts = new double[sorted.size()];
+    double total = 0;
+    for (int i = 0; i < sorted.size(); i++) {
+      targetCosts[i] = weightedCost(sorted.get(i), defaultCost);
+      total += targetCosts[i];
+    }
+
+    ImmutableList.Builder<ImmutableList<Label>> shards = ImmutableList.builder();
+    List<Label> shard = new ArrayList<>();
+    double shardCost = 0;
+    double remaining = total;
+    int remainingShards = shardCount;
+    for (int i = 0; i < sorted.size(); i++) {
+      // re-balance the remaining targets each time a shard is closed
+      double budget = remaining / remainingShards;
+      boolean overBudget = remainingShards > 1 && shardCost + targetCosts[i] / 2 > budget;
+      if (!shard.isEmpty() && (overBudget || shard.size() >= maxShardSize)) {
+        shards.add(ImmutableList.copyOf(shard));
+        shard.clear();
+        remaining -= shardCost;
+        shardCost = 0;
+        remainingShards = Math.max(1, remainingShards - 1);
+      }
+      shard.add(sorted.get(i));
+      shardCost += targetCosts[i];
+    }
+    if (!shard.isEmpty()) {
+      shards.add(ImmutableList.copyOf(shard));
+    }
+    return shards.build();
+  }
+
+  /** Returns the predicted time to build these targets, in milliseconds. */
+  synchronized long predictMillis(Collection<Label> targets) {
+    ensureLoaded();
+    double defaultCost = defaultMillisPerTarget();
+    double total = 0;
+    for (Label target : targets) {
+      total += millisPerTarget(target.blazePackage().relativePath(), defaultCost);
+    }
+    return Math.round(total);
+  }
+
+  /**
+   * Updates the estimated cost of each package in a shard from its actual build time. The shard's
+   * duration is shared between its packages in proportion to their previous estimates.
+   */
+  synchronized void recordBuild(Collection<Label> targets, long durationMillis) {
+    ensureLoaded();
+    if (targets.isEmpty() || durationMillis <= 0) {
+      return;
+    }
+    Map<String, Integer> targetsPerPackage = countTargetsPerPackage(targets);
+    double defaultCost = defaultMillisPerTarget();
+    double predicted = 0;
+    for (Map.Entry<String, Integer> entry : targetsPerPackage.entrySet()) {
+      predicted += millisPerTarget(entry.getKey(), defaultCost) * entry.getValue();
+    }
+    double ratio = durationMillis / predicted;
+    for (String pkg : targetsPerPackage.keySet()) {
+      PackageCost cost = costs.get(pkg);
+      if (cost == null) {
+        costs.put(pkg, new PackageCost(defaultCost * ratio, 0));
+        continue;
+      }
+      double observed = cost.millisPerTarget * ratio;
+      cost.millisPerTarget += SMOOTHING_FACTOR * (observed - cost.millisPerTarget);
+      cost.outOfMemoryWeight *= OUT_OF_MEMORY_DECAY;
+    }
+    modified = true;
+  }
+
+  /** Records an out of memory error while building these targets. */
+  synchronized void recordOutOfMemory(Collection<Label> targets) {
+    ensureLoaded();
+    double defaultCost = defaultMillisPerTarget();
+    for (String pkg : countTargetsPerPackage(targets).keySet()) {
+      PackageCost cost = costs.computeIfAbsent(pkg, p -> new PackageCost(defaultCost, 0));
+      cost.outOfMemoryWeight = Math.min(MAX_OUT_OF_MEMORY_WEIGHT, cost.outOfMemoryWeight + 1);
+    }
+    modified = true;
+  }
+
+  private static Map<String, Integer> countTargetsPerPackage(Collection<Label> targets) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (Label target : targets) {
+      counts.merge(target.blazePackage().relativePath(), 1, Integer::sum);
+    }
+    return counts;
+  }
+
+  private double weightedCost(Label target, double defaultCost) {
+    PackageCost cost = costs.get(target.blazePackage().relativePath());
+    if (cost == null) {
+      return defaultCost;
+    }
+    return cost.millisPerTarget * (1 + cost.outOfMemoryWeight);
+  }
+
+  private double millisPerTarget(String pkg, double defaultCost) {
+    PackageCost cost = costs.get(pkg);
+    return cost != null ? cost.millisPerTarget : defaultCost;
+  }
+
+  /** The mean cost of known packages, used for packages we haven't built before. */
+  private double defaultMillisPerTarget() {
+    if (costs.isEmpty()) {
+      return DEFAULT_MILLIS_PER_TARGET;
+    }
+    return costs.values().stream()
+        .mapToDouble(c -> c.millisPerTarget)
+        .average()
+        .orElse(DEFAULT_MILLIS_PER_TARGET);
+  }
+
+  /** Persists the model, if it's been updated since it was loaded. */
+  synchronized void save() {
+    File file = getModelFile();
+    if (!modified || file == null) {
+      return;
+    }
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+      out.writeInt(VERSION);
+      out.writeInt(costs.size());
+      for (Map.Entry<String, PackageCost> entry : costs.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeDouble(entry.getValue().millisPerTarget);
+        out.writeDouble(entry.getValue().outOfMemoryWeight);
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to save build cost model", e);
+      return;
+    }
+    try {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      modified = false;
+    } catch (IOException e) {
+      logger.warn("Failed to save build cost model", e);
+    }
+  }
+
+  private void ensureLoaded() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    File file = getModelFile();
+    if (file == null || !file.exists()) {
+      return;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != VERSION) {
+        return;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        costs.put(in.readUTF(), new PackageCost(in.readDouble(), in.readDouble()));
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to read build cost model", e);
+      costs.clear();
+    }
+  }
+
+  @Nullable
+  private File getModelFile() {
+    if (project == null) {
+      return null;
+    }
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    if (importSettings == null) {
+      return null;
+    }
+    File dir = BlazeDataStorage.getProjectDataDir(importSettings);
+    return dir.exists() || dir.mkdirs() ? new File(dir, FILE_NAME) : null;
+  }
+}
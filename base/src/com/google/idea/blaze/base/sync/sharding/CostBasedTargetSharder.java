@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.project.Project;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Splits targets into batches of similar predicted build time, based on the per-package build
+ * costs learned from previous syncs.
+ */
+class CostBasedTargetSharder implements BuildBatchingService {
+
+  static final BoolExperiment enabled =
+      new BoolExperiment("blaze.build.cost.based.sharding", false);
+
+  @Nullable
+  @Override
+  public ImmutableList<ImmutableList<Label>> calculateTargetBatches(
+      Set<Label> targets, boolean remoteBuild, int suggestedShardSize) {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public ImmutableList<ImmutableList<Label>> calculateTargetBatches(
+      Project project, Set<Label> targets, boolean remoteBuild, int suggestedShardSize) {
+    if (!enabled.getValue()) {
+      return null;
+    }
+    return BuildCostModel.getInstance(project).partition(targets, suggestedShardSize);
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A persisted record of which directories contain a BUILD file, and which child directories they
+ * have, used to avoid re-listing unchanged parts of the workspace when expanding wildcard target
+ * patterns.
+ *
+ * <p>An entry is only reused if its directory's modification time is unchanged. Adding, removing
+ * or renaming a directory's children updates its modification time, so a valid entry has the same
+ * BUILD file and child directories as a fresh listing.
+ */
+final class PackageDirectoryIndex {
+
+  private static final int VERSION = 1;
+
+  /** Modification time recorded for entries which mustn't be reused by a later traversal. */
+  private static final long UNKNOWN_MODIFIED_TIME = -1;
+
+  /**
+   * Directories modified this recently when listed may be modified again without their timestamp
+   * changing, so their entries aren't reused by later traversals.
+   */
+  private static final long RACY_INTERVAL_MILLIS = 2000;
+
+  /** The listing of a single directory. */
+  static final class Entry {
+    final long modifiedTime;
+    final boolean hasBuildFile;
+    final ImmutableList<String> childDirectories;
+
+    Entry(long modifiedTime, boolean hasBuildFile, ImmutableList<String> childDirectories) {
+      this.modifiedTime = modifiedTime;
+      this.hasBuildFile = hasBuildFile;
+      this.childDirectories = childDirectories;
+    }
+
+    private Entry withModifiedTime(long modifiedTime) {
+      return new Entry(modifiedTime, hasBuildFile, childDirectories);
+    }
+  }
+
+  private final String buildFileNames;
+  private final Map<String, Entry> previous;
+  private final Map<String, Entry> current = new ConcurrentHashMap<>();
+  private final Set<String> roots = ConcurrentHashMap.newKeySet();
+  private final long creationTime = System.currentTimeMillis();
+  private final AtomicInteger reusedCount = new AtomicInteger();
+
+  private PackageDirectoryIndex(String buildFileNames, Map<String, Entry> previous) {
+    this.buildFileNames = buildFileNames;
+    this.previous = previous;
+  }
+
+  /** Returns an empty index for a build system with the given BUILD file names. */
+  static PackageDirectoryIndex empty(List<String> buildFileNames) {
+    return new PackageDirectoryIndex(String.join(",", buildFileNames), new HashMap<>());
+  }
+
+  /**
+   * Reads the index from disk. Returns an empty index if the file doesn't exist, can't be read, or
+   * was written for a different set of BUILD file names.
+   */
+  static PackageDirectoryIndex load(File file, List<String> buildFileNames) {
+    PackageDirectoryIndex empty = empty(buildFileNames);
+    if (!file.exists()) {
+      return empty;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != VERSION || !in.readUTF().equals(empty.buildFileNames)) {
+        return empty;
+      }
+      Map<String, Entry> entries = new HashMap<>();
+      int rootCount = in.readInt();
+      for (int i = 0; i < rootCount; i++) {
+        readTree(in, new File(in.readUTF()), entries);
+      }
+      return new PackageDirectoryIndex(empty.buildFileNames, entries);
+    } catch (IOException e) {
+      return empty;
+    }
+  }
+
+  private static void readTree(DataInputStream in, File dir, Map<String, Entry> entries)
+      throws IOException {
+    long modifiedTime = in.readLong();
+    boolean hasBuildFile = in.readBoolean();
+    int childCount = in.readInt();
+    ImmutableList.Builder<String> children = ImmutableList.builder();
+    for (int i = 0; i < childCount; i++) {
+      String child = in.readUTF();
+      children.add(child);
+      if (in.readBoolean()) {
+        readTree(in, new File(dir, child), entries);
+      }
+    }
+    entries.put(dir.getPath(), new Entry(modifiedTime, hasBuildFile, children.build()));
+  }
+
+  /**
+   * Atomically replaces the index on disk with the directories listed by this traversal. Entries
+   * from previous traversals which weren't reached this time are dropped.
+   */
+  void save(File file) throws IOException {
+    List<String> topLevelRoots = new ArrayList<>();
+    for (String root : roots) {
+      if (roots.stream().noneMatch(other -> isStrictAncestor(other, root))) {
+        topLevelRoots.add(root);
+      }
+    }
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+      out.writeInt(VERSION);
+      out.writeUTF(buildFileNames);
+      out.writeInt(topLevelRoots.size());
+      for (String root : topLevelRoots) {
+        out.writeUTF(root);
+        writeTree(out, new File(root), current.get(root));
+      }
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private void writeTree(DataOutputStream out, File dir, @Nullable Entry entry)
+      throws IOException {
+    if (entry == null) {
+      entry = new Entry(UNKNOWN_MODIFIED_TIME, false, ImmutableList.of());
+    }
+    out.writeLong(entry.modifiedTime);
+    out.writeBoolean(entry.hasBuildFile);
+    out.writeInt(entry.childDirectories.size());
+    for (String child : entry.childDirectories) {
+      out.writeUTF(child);
+      File childDir = new File(dir, child);
+      Entry childEntry = current.get(childDir.getPath());
+      out.writeBoolean(childEntry != null);
+      if (childEntry != null) {
+        writeTree(out, childDir, childEntry);
+      }
+    }
+  }
+
+  private static boolean isStrictAncestor(String ancestor, String path) {
+    return path.length() > ancestor.length()
+        && path.startsWith(ancestor)
+        && path.charAt(ancestor.length()) == File.separatorChar;
+  }
+
+  /** Records a directory from which a traversal started. */
+  void addRoot(File dir) {
+    roots.add(dir.getPath());
+  }
+
+  /**
+   * Returns the listing of this directory, if it was already listed by this traversal, or was
+   * listed by a previous traversal and hasn't been modified since.
+   */
+  @Nullable
+  Entry get(File dir, long modifiedTime) {
+    String key = dir.getPath();
+    Entry entry = current.get(key);
+    if (entry != null) {
+      return entry;
+    }
+    entry = previous.get(key);
+    if (entry == null
+        || entry.modifiedTime == UNKNOWN_MODIFIED_TIME
+        || entry.modifiedTime != modifiedTime) {
+      return null;
+    }
+    current.put(key, entry);
+    reusedCount.incrementAndGet();
+    return entry;
+  }
+
+  /** Records a fresh listing of this directory. */
+  void put(File dir, Entry entry) {
+    if (entry.modifiedTime <= 0 || entry.modifiedTime > creationTime - RACY_INTERVAL_MILLIS) {
+      entry = entry.withModifiedTime(UNKNOWN_MODIFIED_TIME);
+    }
+    current.put(dir.getPath(), entry);
+  }
+
+  /** The number of directories whose listing was reused from a previous traversal. */
+  int getReusedCount() {
+    return reusedCount.get();
+  }
+
+  /** The number of directories listed or reused by this traversal. */
+  int size() {
+    return current.size();
+  }
+}
@@ -15,6 +15,8 @@
  */
 package com.google.idea.blaze.base.sync.sharding;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -31,6 +33,7 @@ import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import com.google.idea.blaze.base.util.WorkspacePathUtil;
 import java.io.File;
 import java.util.ArrayList;
@@ -40,6 +43,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -50,6 +56,12 @@ import javax.annotation.Nullable;
  */
 class PackageLister {
 
+  /** Directory traversal is IO-bound, so uses more threads than there are cores. */
+  private static final int TRAVERSAL_PARALLELISM =
+      Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+  private static final ForkJoinPool FORK_JOIN_POOL = new ForkJoinPool(TRAVERSAL_PARALLELISM);
+
   private PackageLister() {}
 
   /** The set of blaze packages to prefetch prior to traversing the directory tree. */
@@ -75,6 +87,12 @@ class PackageLister {
    * Expands all-in-package-recursive wildcard targets into all-in-single-package targets by
    * traversing the file system, looking for child blaze packages.
    *
+   * <p>Packages excluded by a later '-' pattern aren't returned, and recursively excluded
+   * directories aren't traversed.
+   *
+   * <p>If an index is provided, directories it records as unchanged aren't listed again, and the
+   * listings of all traversed directories are added to it.
+   *
    * <p>Returns null if directory traversal failed or was cancelled.
    */
   @Nullable
@@ -82,22 +100,31 @@ class PackageLister {
       BuildSystemProvider provider,
       BlazeContext context,
       WorkspacePathResolver pathResolver,
-      Collection<WildcardTargetPattern> wildcardPatterns) {
+      List<WildcardTargetPattern> wildcardPatterns,
+      @Nullable PackageDirectoryIndex index) {
+    AtomicBoolean cancelled = new AtomicBoolean();
     List<ListenableFuture<Entry<TargetExpression, List<TargetExpression>>>> futures =
         Lists.newArrayList();
-    for (WildcardTargetPattern pattern : wildcardPatterns) {
-      if (!pattern.isRecursive() || pattern.toString().startsWith("-")) {
+    for (int i = 0; i < wildcardPatterns.size(); i++) {
+      WildcardTargetPattern pattern = wildcardPatterns.get(i);
+      if (!pattern.isRecursive() || pattern.isExcluded()) {
         continue;
       }
       File dir = pathResolver.resolveToFile(pattern.getBasePackage());
       if (!FileOperationProvider.getInstance().isDirectory(dir)) {
         continue;
       }
+      Traversal traversal =
+          new Traversal(
+              provider,
+              pathResolver,
+              wildcardPatterns.subList(i + 1, wildcardPatterns.size()),
+              index,
+              cancelled);
       futures.add(
           FetchExecutor.EXECUTOR.submit(
               () -> {
-                List<TargetExpression> expandedTargets = new ArrayList<>();
-                traversePackageRecursively(provider, pathResolver, dir, expandedTargets);
+                List<TargetExpression> expandedTargets = traversal.traverse(dir);
                 return Maps.immutableEntry(pattern.originalPattern, expandedTargets);
               }));
     }
@@ -111,6 +138,7 @@ class PackageLister {
             .onError("Expanding wildcard target patterns failed")
             .run();
     if (!result.success()) {
+      cancelled.set(true);
       return null;
     }
     return result
@@ -119,27 +147,112 @@ class PackageLister {
         .collect(Collectors.toMap(Entry::getKey, Entry::getValue, (x, y) -> x));
   }
 
-  private static void traversePackageRecursively(
-      BuildSystemProvider provider,
-      WorkspacePathResolver pathResolver,
-      File dir,
-      List<TargetExpression> output) {
-    WorkspacePath path = pathResolver.getWorkspacePath(dir);
-    if (path == null) {
-      return;
+  /**
+   * The state shared by a single pattern's directory traversal, which is split into a fork-join
+   * task per directory.
+   */
+  @VisibleForTesting
+  static class Traversal {
+    private final BuildSystemProvider provider;
+    private final WorkspacePathResolver pathResolver;
+    private final WorkspacePathTrie<Boolean> recursiveExcludes = new WorkspacePathTrie<>();
+    private final Set<WorkspacePath> packageExcludes = new HashSet<>();
+    @Nullable private final PackageDirectoryIndex index;
+    private final AtomicBoolean cancelled;
+    private final FileOperationProvider fileOperationProvider =
+        FileOperationProvider.getInstance();
+
+    Traversal(
+        BuildSystemProvider provider,
+        WorkspacePathResolver pathResolver,
+        List<WildcardTargetPattern> laterPatterns,
+        @Nullable PackageDirectoryIndex index,
+        AtomicBoolean cancelled) {
+      this.provider = provider;
+      this.pathResolver = pathResolver;
+      this.index = index;
+      this.cancelled = cancelled;
+      // only excludes following the recursive pattern apply to it
+      for (WildcardTargetPattern pattern : laterPatterns) {
+        if (!pattern.isExcluded()) {
+          continue;
+        }
+        if (pattern.isRecursive()) {
+          recursiveExcludes.put(pattern.getBasePackage(), true);
+        } else {
+          packageExcludes.add(pattern.getBasePackage());
+        }
+      }
     }
-    if (provider.findBuildFileInDirectory(dir) != null) {
-      output.add(TargetExpression.allFromPackageNonRecursive(path));
+
+    List<TargetExpression> traverse(File dir) {
+      if (index != null) {
+        index.addRoot(dir);
+      }
+      return FORK_JOIN_POOL.invoke(new DirectoryTask(this, dir));
     }
-    FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
-    File[] children = fileOperationProvider.listFiles(dir);
-    if (children == null) {
-      return;
+
+    PackageDirectoryIndex.Entry listDirectory(File dir) {
+      long modifiedTime = 0;
+      if (index != null) {
+        modifiedTime = fileOperationProvider.getFileModifiedTime(dir);
+        PackageDirectoryIndex.Entry entry = index.get(dir, modifiedTime);
+        if (entry != null) {
+          return entry;
+        }
+      }
+      boolean hasBuildFile = provider.findBuildFileInDirectory(dir) != null;
+      ImmutableList.Builder<String> childDirectories = ImmutableList.builder();
+      File[] children = fileOperationProvider.listFiles(dir);
+      if (children != null) {
+        for (File child : children) {
+          if (fileOperationProvider.isDirectory(child)) {
+            childDirectories.add(child.getName());
+          }
+        }
+      }
+      PackageDirectoryIndex.Entry entry =
+          new PackageDirectoryIndex.Entry(modifiedTime, hasBuildFile, childDirectories.build());
+      if (index != null) {
+        index.put(dir, entry);
+      }
+      return entry;
+    }
+  }
+
+  /** Lists a single directory, then traverses its child directories in parallel. */
+  private static class DirectoryTask extends RecursiveTask<List<TargetExpression>> {
+    private final Traversal traversal;
+    private final File dir;
+
+    DirectoryTask(Traversal traversal, File dir) {
+      this.traversal = traversal;
+      this.dir = dir;
     }
-    for (File child : children) {
-      if (fileOperationProvider.isDirectory(child)) {
-        traversePackageRecursively(provider, pathResolver, child, output);
+
+    @Override
+    protected List<TargetExpression> compute() {
+      if (traversal.cancelled.get()) {
+        return ImmutableList.of();
+      }
+      WorkspacePath path = traversal.pathResolver.getWorkspacePath(dir);
+      if (path == null || traversal.recursiveExcludes.hasAncestor(path)) {
+        return ImmutableList.of();
+      }
+      PackageDirectoryIndex.Entry entry = traversal.listDirectory(dir);
+      List<TargetExpression> output = new ArrayList<>();
+      if (entry.hasBuildFile && !traversal.packageExcludes.contains(path)) {
+        output.add(TargetExpression.allFromPackageNonRecursive(path));
+      }
+      List<DirectoryTask> children = new ArrayList<>(entry.childDirectories.size());
+      for (String child : entry.childDirectories) {
+        children.add(new DirectoryTask(traversal, new File(dir, child)));
+      }
+      invokeAll(children);
+      for (DirectoryTask child : children) {
+        output.addAll(child.join());
       }
+      return output;
     }
   }
 }
@@ -18,23 +18,33 @@ package com.google.idea.blaze.base.sync.sharding;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.async.FutureUtil;
+import com.google.idea.blaze.base.logging.EventLoggingService;
+import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.experiments.IntExperiment;
 import com.intellij.openapi.project.Project;
 import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 
 /** Partitioned list of blaze targets. */
 public class ShardedTargetList {
@@ -43,6 +53,21 @@ public class ShardedTargetList {
   private static final IntExperiment remoteConcurrentSyncs =
       new IntExperiment("number.concurrent.remote.syncs", 10);
 
+  /**
+   * If enabled, local shards are run on a small pool rather than strictly serially, so each
+   * shard's blaze invocation starts while the previous shard's outputs are still being processed.
+   * The invocations themselves are still serialized by the blaze server.
+   */
+  private static final BoolExperiment pipelineLocalShards =
+      new BoolExperiment("blaze.sync.pipeline.local.shards", false);
+
+  /** The maximum number of local shards in flight at once when pipelining. */
+  private static final IntExperiment localConcurrentShards =
+      new IntExperiment("number.concurrent.local.shards", 2);
+
+  /** How many times a shard which runs out of memory may be halved. */
+  private static final int MAX_OOM_SPLIT_DEPTH = 3;
+
   @VisibleForTesting final ImmutableList<ImmutableList<TargetExpression>> shardedTargets;
 
   public ShardedTargetList(ImmutableList<ImmutableList<TargetExpression>> shardedTargets) {
@@ -61,6 +86,9 @@ public class ShardedTargetList {
    * Runs the provided blaze invocation on each target list shard, returning the combined {@link
    * BuildResult}. If running serially, attempts to work around out of memory errors caused by lack
    * of blaze garbage collection where possible.
+   *
+   * <p>If cost-based sharding is enabled, the build time of each shard is recorded to improve
+   * future batching, and a shard which runs out of memory is split in half and retried.
    */
   public BuildResult runShardedCommand(
       Project project,
@@ -68,25 +96,75 @@ public class ShardedTargetList {
       Function<Integer, String> progressMessage,
       Function<List<TargetExpression>, BuildResult> invocation,
       boolean parallelize) {
+    BuildCostModel costModel =
+        CostBasedTargetSharder.enabled.getValue() ? BuildCostModel.getInstance(project) : null;
+    BuildResult result =
+        doRunShardedCommand(
+            project, context, progressMessage, invocation, parallelize, costModel);
+    if (costModel != null) {
+      costModel.save();
+    }
+    return result;
+  }
+
+  private BuildResult doRunShardedCommand(
+      Project project,
+      BlazeContext context,
+      Function<Integer, String> progressMessage,
+      Function<List<TargetExpression>, BuildResult> invocation,
+      boolean parallelize,
+      @Nullable BuildCostModel costModel) {
     if (isEmpty()) {
       return BuildResult.SUCCESS;
     }
     if (shardedTargets.size() == 1) {
-      return invocation.apply(shardedTargets.get(0));
+      return runShard(context, invocation, shardedTargets.get(0), costModel);
     }
     if (parallelize) {
-      return runInParallel(project, context, invocation);
+      return runInParallel(project, context, invocation, costModel);
+    }
+    if (pipelineLocalShards.getValue()) {
+      return runPipelined(project, context, progressMessage, invocation, costModel);
     }
     int progress = 0;
     BuildResult output = null;
     for (int i = 0; i < shardedTargets.size(); i++, progress++) {
       context.output(new StatusOutput(progressMessage.apply(i + 1)));
-      BuildResult result = invocation.apply(shardedTargets.get(i));
-      if (result.outOfMemory() && progress > 0) {
+      ImmutableList<TargetExpression> shard = shardedTargets.get(i);
+      BuildResult result = runShard(context, invocation, shard, costModel);
+      if (result.outOfMemory() && costModel != null && canSplit(shard)) {
+        // split rather than retrying the whole shard, in case it's too large to ever succeed
+        progress = 0;
+        IssueOutput.warn(splitOnOomMessage(project, i)).submit(context);
+        result = runSplitShard(context, invocation, shard, costModel, 1);
+      } else if (result.outOfMemory() && progress > 0) {
         // re-try now that blaze server has restarted
         progress = 0;
         IssueOutput.warn(retryOnOomMessage(project, i)).submit(context);
-        result = invocation.apply(shardedTargets.get(i));
+        result = runShard(context, invocation, shard, costModel);
+      }
+      output = output == null ? result : BuildResult.combine(output, result);
+      if (output.status == BuildResult.Status.FATAL_ERROR) {
+        return output;
+      }
+    }
+    return output;
+  }
+
+  /** Builds each half of a shard which ran out of memory, splitting further if necessary. */
+  private static BuildResult runSplitShard(
+      BlazeContext context,
+      Function<List<TargetExpression>, BuildResult> invocation,
+      List<TargetExpression> shard,
+      BuildCostModel costModel,
+      int depth) {
+    int middle = shard.size() / 2;
+    BuildResult output = null;
+    for (List<TargetExpression> half :
+        ImmutableList.of(shard.subList(0, middle), shard.subList(middle, shard.size()))) {
+      BuildResult result = runShard(context, invocation, half, costModel);
+      if (result.outOfMemory() && depth < MAX_OOM_SPLIT_DEPTH && canSplit(half)) {
+        result = runSplitShard(context, invocation, half, costModel, depth + 1);
       }
       output = output == null ? result : BuildResult.combine(output, result);
       if (output.status == BuildResult.Status.FATAL_ERROR) {
@@ -96,10 +174,72 @@ public class ShardedTargetList {
     return output;
   }
 
+  /**
+   * Runs the invocation on a single shard. If a cost model is provided and the shard consists
+   * only of individual targets, records its build time or out of memory error, and logs its
+   * predicted and actual durations.
+   */
+  private static BuildResult runShard(
+      BlazeContext context,
+      Function<List<TargetExpression>, BuildResult> invocation,
+      List<TargetExpression> shard,
+      @Nullable BuildCostModel costModel) {
+    List<Label> labels = costModel != null ? getSingleTargets(shard) : null;
+    if (labels == null) {
+      return invocation.apply(shard);
+    }
+    long predictedMillis = costModel.predictMillis(labels);
+    Stopwatch timer = Stopwatch.createStarted();
+    BuildResult result = invocation.apply(shard);
+    long actualMillis = timer.elapsed(TimeUnit.MILLISECONDS);
+    if (result.outOfMemory()) {
+      costModel.recordOutOfMemory(labels);
+    } else if (result.status != BuildResult.Status.FATAL_ERROR) {
+      costModel.recordBuild(labels, actualMillis);
+    }
+    context.output(
+        PrintOutput.log(
+            String.format(
+                "Built shard of %s targets in %.1fs (predicted %.1fs)",
+                labels.size(), actualMillis / 1000d, predictedMillis / 1000d)));
+    EventLoggingService.getInstance()
+        .logEvent(
+            ShardedTargetList.class,
+            "ShardBuild",
+            ImmutableMap.of(
+                "targets", Integer.toString(labels.size()),
+                "predictedMillis", Long.toString(predictedMillis),
+                "actualMillis", Long.toString(actualMillis),
+                "outOfMemory", Boolean.toString(result.outOfMemory())),
+            TimeUnit.MILLISECONDS.toNanos(actualMillis));
+    return result;
+  }
+
+  /**
+   * Returns the shard's targets if they're all individual, included targets, otherwise null. The
+   * cost of building wildcard patterns or excluded targets can't be attributed to packages.
+   */
+  @Nullable
+  private static List<Label> getSingleTargets(List<TargetExpression> shard) {
+    List<Label> labels = new ArrayList<>(shard.size());
+    for (TargetExpression target : shard) {
+      if (!(target instanceof Label) || target.isExcluded()) {
+        return null;
+      }
+      labels.add((Label) target);
+    }
+    return labels;
+  }
+
+  private static boolean canSplit(List<TargetExpression> shard) {
+    return shard.size() > 1 && getSingleTargets(shard) != null;
+  }
+
   private BuildResult runInParallel(
       Project project,
       BlazeContext context,
-      Function<List<TargetExpression>, BuildResult> invocation) {
+      Function<List<TargetExpression>, BuildResult> invocation,
+      @Nullable BuildCostModel costModel) {
     // new executor for each sync, so we get an up-to-date experiment value. This is fine, because
     // it's just a view of the single application pool executor. Doesn't need to be shutdown for the
     // same reason
@@ -111,7 +251,7 @@ public class ShardedTargetList {
     ListenableFuture<List<BuildResult>> future =
         Futures.allAsList(
             shardedTargets.stream()
-                .map(s -> executor.submit(() -> invocation.apply(s)))
+                .map(s -> executor.submit(() -> runShard(context, invocation, s, costModel)))
                 .collect(toImmutableList()));
 
     String buildSystem = Blaze.buildSystemName(project);
@@ -126,6 +266,76 @@ public class ShardedTargetList {
     return results.stream().reduce(BuildResult::combine).orElse(BuildResult.FATAL_ERROR);
   }
 
+  /**
+   * Runs local shards in order, with a bounded number in flight at once. Shards which run out of
+   * memory are retried serially once the pipeline has drained.
+   */
+  private BuildResult runPipelined(
+      Project project,
+      BlazeContext context,
+      Function<Integer, String> progressMessage,
+      Function<List<TargetExpression>, BuildResult> invocation,
+      @Nullable BuildCostModel costModel) {
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(
+            AppExecutorUtil.createBoundedApplicationPoolExecutor(
+                "LocalBlazeExecutor", Math.max(1, localConcurrentShards.getValue())));
+    AtomicBoolean failed = new AtomicBoolean();
+    List<ListenableFuture<BuildResult>> futures = new ArrayList<>();
+    for (int i = 0; i < shardedTargets.size(); i++) {
+      int shardIndex = i;
+      ImmutableList<TargetExpression> shard = shardedTargets.get(i);
+      futures.add(
+          executor.submit(
+              () -> {
+                if (failed.get()) {
+                  return BuildResult.FATAL_ERROR;
+                }
+                context.output(new StatusOutput(progressMessage.apply(shardIndex + 1)));
+                BuildResult result = runShard(context, invocation, shard, costModel);
+                if (result.status == BuildResult.Status.FATAL_ERROR) {
+                  failed.set(true);
+                }
+                return result;
+              }));
+    }
+    String buildSystem = Blaze.buildSystemName(project);
+    List<BuildResult> results =
+        FutureUtil.waitForFuture(context, Futures.allAsList(futures))
+            .onError(String.format("%s build failed", buildSystem))
+            .run()
+            .result();
+    if (results == null) {
+      return BuildResult.FATAL_ERROR;
+    }
+    BuildResult output = null;
+    for (int i = 0; i < results.size(); i++) {
+      BuildResult result = results.get(i);
+      if (result.outOfMemory()) {
+        ImmutableList<TargetExpression> shard = shardedTargets.get(i);
+        if (costModel != null && canSplit(shard)) {
+          IssueOutput.warn(splitOnOomMessage(project, i)).submit(context);
+          result = runSplitShard(context, invocation, shard, costModel, 1);
+        } else {
+          IssueOutput.warn(retryOnOomMessage(project, i)).submit(context);
+          result = runShard(context, invocation, shard, costModel);
+        }
+      }
+      output = output == null ? result : BuildResult.combine(output, result);
+      if (output.status == BuildResult.Status.FATAL_ERROR) {
+        return output;
+      }
+    }
+    return output;
+  }
+
+  private String splitOnOomMessage(Project project, int shardIndex) {
+    String buildSystem = Blaze.buildSystemName(project);
+    return String.format(
+        "%s server ran out of memory on shard %s of %s. Retrying the shard in smaller pieces.",
+        buildSystem, shardIndex + 1, shardedTargets.size());
+  }
+
   private String retryOnOomMessage(Project project, int shardIndex) {
     String buildSystem = Blaze.buildSystemName(project);
     return String.format(
@@ -20,6 +20,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.process.ExternalTask;
 import com.google.idea.blaze.base.async.process.LineProcessingOutputStream;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
 import com.google.idea.blaze.base.command.BlazeCommand;
 import com.google.idea.blaze.base.command.BlazeCommandName;
 import com.google.idea.blaze.base.command.BlazeFlags;
@@ -39,14 +40,19 @@ import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.settings.Blaze;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.sync.BlazeBuildParams;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
 import com.google.idea.blaze.base.sync.aspects.BuildResult.Status;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.projectview.LanguageSupport;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -58,9 +64,16 @@ import javax.annotation.Nullable;
 /** Expands wildcard target patterns into individual blaze targets. */
 public class WildcardTargetExpander {
 
+  private static final Logger logger = Logger.getInstance(WildcardTargetExpander.class);
+
   private static final BoolExperiment filterByRuleType =
       new BoolExperiment("blaze.build.filter.by.rule.type", true);
 
+  private static final BoolExperiment persistPackageDirectoryIndex =
+      new BoolExperiment("blaze.sync.wildcard.package.index", false);
+
+  private static final String PACKAGE_DIRECTORY_INDEX_FILE = "package_directory.index";
+
   static class ExpandedTargetsResult {
     final List<TargetExpression> singleTargets;
     final BuildResult buildResult;
@@ -85,7 +98,8 @@ public class WildcardTargetExpander {
    * Expand recursive wildcard blaze target patterns into single-package wildcard patterns, via a
    * file system traversal.
    *
-   * <p>Exclude target patterns (beginning with '-') are not expanded.
+   * <p>Exclude target patterns (beginning with '-') are not expanded, but packages they exclude
+   * are omitted from the expansion of earlier recursive patterns.
    *
    * <p>Returns null if operation failed or was cancelled.
    */
@@ -122,8 +136,38 @@ public class WildcardTargetExpander {
       return null;
     }
 
-    return PackageLister.expandPackageTargets(
-        Blaze.getBuildSystemProvider(project), context, pathResolver, includes);
+    BuildSystemProvider provider = Blaze.getBuildSystemProvider(project);
+    File indexFile = persistPackageDirectoryIndex.getValue() ? getIndexFile(project) : null;
+    PackageDirectoryIndex index =
+        indexFile != null
+            ? PackageDirectoryIndex.load(indexFile, provider.possibleBuildFileNames())
+            : null;
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        PackageLister.expandPackageTargets(
+            provider, context, pathResolver, wildcardPatterns, index);
+    if (expanded != null && index != null) {
+      logger.info(
+          String.format(
+              "Wildcard expansion reused %d of %d directory listings",
+              index.getReusedCount(), index.size()));
+      try {
+        index.save(indexFile);
+      } catch (IOException e) {
+        logger.warn("Failed to save package directory index", e);
+      }
+    }
+    return expanded;
+  }
+
+  @Nullable
+  private static File getIndexFile(Project project) {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    if (importSettings == null) {
+      return null;
+    }
+    File dir = BlazeDataStorage.getProjectDataDir(importSettings);
+    return dir.exists() || dir.mkdirs() ? new File(dir, PACKAGE_DIRECTORY_INDEX_FILE) : null;
   }
 
   /** Runs a sharded blaze query to expand wildcard targets to individual blaze targets */
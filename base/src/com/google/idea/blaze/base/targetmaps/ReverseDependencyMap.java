@@ -17,10 +17,7 @@ package com.google.idea.blaze.base.targetmaps;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMultimap;
-import com.google.idea.blaze.base.ideinfo.Dependency;
-import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
-import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.sync.SyncCache;
 import com.intellij.openapi.project.Project;
@@ -30,24 +27,23 @@ public class ReverseDependencyMap {
   public static ImmutableMultimap<TargetKey, TargetKey> get(Project project) {
     ImmutableMultimap<TargetKey, TargetKey> map =
         SyncCache.getInstance(project)
-            .get(ReverseDependencyMap.class, ReverseDependencyMap::createRdepsMap);
+            .get(
+                ReverseDependencyMap.class,
+                (p, data) -> TargetDependencyGraph.getInstance(p).toReverseDependencyMultimap());
     return map != null ? map : ImmutableMultimap.of();
   }
 
   @VisibleForTesting
   static ImmutableMultimap<TargetKey, TargetKey> createRdepsMap(
       Project project, BlazeProjectData projectData) {
-    TargetMap targetMap = projectData.getTargetMap();
-    ImmutableMultimap.Builder<TargetKey, TargetKey> builder = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : targetMap.targets()) {
-      TargetKey key = target.getKey();
-      for (Dependency dep : target.getDependencies()) {
-        TargetKey depKey = dep.getTargetKey();
-        if (targetMap.contains(depKey)) {
-          builder.put(depKey, key);
-        }
-      }
+    return TargetDependencyGraph.create(projectData.getTargetMap()).toReverseDependencyMultimap();
+  }
+
+  /** Computes the reverse dependency map in the background after sync. */
+  static class Precomputer implements SyncCache.Precomputer {
+    @Override
+    public void precompute(Project project) {
+      get(project);
     }
-    return builder.build();
   }
 }
@@ -61,15 +61,19 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
 
   @Override
   public ImmutableCollection<TargetKey> getRulesForSourceFile(File sourceFile) {
-    ImmutableMultimap<File, TargetKey> sourceToTargetMap = getSourceToTargetMap();
+    ImmutableMultimap<File, TargetKey> sourceToTargetMap = getSourceToTargetMap(project);
     if (sourceToTargetMap == null) {
       return ImmutableList.of();
     }
     return sourceToTargetMap.get(sourceFile);
   }
 
+  /**
+   * Returns the map from each source file to the targets it's a source of, computed once per sync
+   * and shared with other source file lookups. Returns null if the project isn't synced.
+   */
   @Nullable
-  private synchronized ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
+  public static ImmutableMultimap<File, TargetKey> getSourceToTargetMap(Project project) {
     return SyncCache.getInstance(project)
         .get(SourceToTargetMapImpl.class, SourceToTargetMapImpl::computeSourceToTargetMap);
   }
@@ -90,4 +94,12 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
     }
     return sourceToTargetMap.build();
   }
+
+  /** Computes the source to target map in the background after sync. */
+  static class Precomputer implements SyncCache.Precomputer {
+    @Override
+    public void precompute(Project project) {
+      getSourceToTargetMap(project);
+    }
+  }
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.sync.SyncCache;
+import com.intellij.openapi.project.Project;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An integer-indexed view of the project's dependency graph, built once per sync.
+ *
+ * <p>Forward and reverse edges are held in compressed sparse row form: the edges of node i are
+ * {@code edges[offsets[i]]} to {@code edges[offsets[i + 1] - 1]}. Transitive closures are computed
+ * on demand and memoized until the next sync (or until the GC needs the memory back).
+ *
+ * <p>Forward edges follow {@link TransitiveDependencyMap}: dependencies are keyed by their plain
+ * target. Reverse edges follow {@link ReverseDependencyMap}: only dependencies present in the
+ * target map are included.
+ */
+public final class TargetDependencyGraph {
+
+  private static final TargetDependencyGraph EMPTY = create(new TargetMap(ImmutableMap.of()));
+
+  /** Returns the dependency graph for the current project data, computed once per sync. */
+  public static TargetDependencyGraph getInstance(Project project) {
+    TargetDependencyGraph graph =
+        SyncCache.getInstance(project)
+            .get(TargetDependencyGraph.class, (p, data) -> create(data.getTargetMap()));
+    return graph != null ? graph : EMPTY;
+  }
+
+  /** Nodes in [0, targetCount) are the targets in the target map. */
+  private final TargetKey[] keys;
+
+  private final int targetCount;
+  private final Map<TargetKey, Integer> index;
+  private final int[] depOffsets;
+  private final int[] deps;
+  private final int[] rdepOffsets;
+  private final int[] rdeps;
+
+  private final Cache<Integer, BitSet> closures = CacheBuilder.newBuilder().softValues().build();
+  private final Cache<Integer, ImmutableList<TargetKey>> orderedClosures =
+      CacheBuilder.newBuilder().softValues().build();
+
+  private TargetDependencyGraph(
+      TargetKey[] keys,
+      int targetCount,
+      Map<TargetKey, Integer> index,
+      int[] depOffsets,
+      int[] deps,
+      int[] rdepOffsets,
+      int[] rdeps) {
+    this.keys = keys;
+    this.targetCount = targetCount;
+    this.index = index;
+    this.depOffsets = depOffsets;
+    this.deps = deps;
+    this.rdepOffsets = rdepOffsets;
+    this.rdeps = rdeps;
+  }
+
+  static TargetDependencyGraph create(TargetMap targetMap) {
+    ImmutableList<TargetIdeInfo> targets = targetMap.targets().asList();
+    int targetCount = targets.size();
+    Map<TargetKey, Integer> index = new HashMap<>();
+    for (TargetIdeInfo target : targets) {
+      index.put(target.getKey(), index.size());
+    }
+    int edgeCount = 0;
+    for (TargetIdeInfo target : targets) {
+      for (Dependency dep : target.getDependencies()) {
+        index.putIfAbsent(plainKey(dep), index.size());
+        edgeCount++;
+      }
+    }
+    int nodeCount = index.size();
+
+    int[] depOffsets = new int[nodeCount + 1];
+    int[] deps = new int[edgeCount];
+    int[] rdepOffsets = new int[nodeCount + 1];
+    int edge = 0;
+    for (int i = 0; i < targetCount; i++) {
+      depOffsets[i] = edge;
+      for (Dependency dep : targets.get(i).getDependencies()) {
+        deps[edge++] = index.get(plainKey(dep));
+        Integer depIndex = index.get(dep.getTargetKey());
+        if (depIndex != null && depIndex < targetCount) {
+          rdepOffsets[depIndex + 1]++;
+        }
+      }
+    }
+    for (int i = targetCount; i <= nodeCount; i++) {
+      depOffsets[i] = edge;
+    }
+
+    // counting sort of the reverse edges, keeping them in target map order
+    for (int i = 0; i < nodeCount; i++) {
+      rdepOffsets[i + 1] += rdepOffsets[i];
+    }
+    int[] rdeps = new int[rdepOffsets[nodeCount]];
+    int[] next = new int[nodeCount];
+    System.arraycopy(rdepOffsets, 0, next, 0, nodeCount);
+    for (int i = 0; i < targetCount; i++) {
+      for (Dependency dep : targets.get(i).getDependencies()) {
+        Integer depIndex = index.get(dep.getTargetKey());
+        if (depIndex != null && depIndex < targetCount) {
+          rdeps[next[depIndex]++] = i;
+        }
+      }
+    }
+
+    TargetKey[] keys = new TargetKey[nodeCount];
+    index.forEach((key, i) -> keys[i] = key);
+    return new TargetDependencyGraph(
+        keys, targetCount, index, depOffsets, deps, rdepOffsets, rdeps);
+  }
+
+  private static TargetKey plainKey(Dependency dep) {
+    return TargetKey.forPlainTarget(dep.getTargetKey().getLabel());
+  }
+
+  /**
+   * Returns true if {@code possibleDependent} transitively depends on {@code possibleDependency}.
+   * The first query for a given dependent computes its transitive closure; subsequent queries are a
+   * single bit lookup.
+   */
+  public boolean hasTransitiveDependency(
+      TargetKey possibleDependent, TargetKey possibleDependency) {
+    Integer from = index.get(possibleDependent);
+    Integer to = index.get(possibleDependency);
+    return from != null && to != null && getClosure(from).get(to);
+  }
+
+  /**
+   * Returns the transitive dependencies of the given target, in breadth-first order. See {@link
+   * TransitiveDependencyMap#getTransitiveDependenciesStream}.
+   */
+  public ImmutableList<TargetKey> getTransitiveDependencies(TargetKey key) {
+    Integer node = index.get(key);
+    if (node == null) {
+      return ImmutableList.of();
+    }
+    try {
+      return orderedClosures.get(node, () -> computeOrderedClosure(node));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /** Returns the targets directly depending on the given target. */
+  public ImmutableList<TargetKey> getReverseDependencies(TargetKey key) {
+    Integer node = index.get(key);
+    if (node == null || node >= targetCount) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<TargetKey> builder = ImmutableList.builder();
+    for (int i = rdepOffsets[node]; i < rdepOffsets[node + 1]; i++) {
+      builder.add(keys[rdeps[i]]);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the given targets followed by every target transitively depending on them, in
+   * breadth-first order. Only targets in the target map are included.
+   */
+  public ImmutableList<TargetKey> getReverseTransitiveClosure(Collection<TargetKey> roots) {
+    BitSet visited = new BitSet(targetCount);
+    int[] queue = new int[targetCount];
+    int head = 0;
+    int tail = 0;
+    for (TargetKey root : roots) {
+      Integer node = index.get(root);
+      if (node != null && node < targetCount && !visited.get(node)) {
+        visited.set(node);
+        queue[tail++] = node;
+      }
+    }
+    ImmutableList.Builder<TargetKey> result = ImmutableList.builder();
+    while (head < tail) {
+      int current = queue[head++];
+      result.add(keys[current]);
+      for (int i = rdepOffsets[current]; i < rdepOffsets[current + 1]; i++) {
+        if (!visited.get(rdeps[i])) {
+          visited.set(rdeps[i]);
+          queue[tail++] = rdeps[i];
+        }
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns the reverse dependencies of all targets, in {@link ReverseDependencyMap} form. */
+  ImmutableMultimap<TargetKey, TargetKey> toReverseDependencyMultimap() {
+    ImmutableMultimap.Builder<TargetKey, TargetKey> builder = ImmutableMultimap.builder();
+    for (int node = 0; node < targetCount; node++) {
+      for (int i = rdepOffsets[node]; i < rdepOffsets[node + 1]; i++) {
+        builder.put(keys[node], keys[rdeps[i]]);
+      }
+    }
+    return builder.build();
+  }
+
+  private BitSet getClosure(int node) {
+    BitSet closure = closures.getIfPresent(node);
+    if (closure == null) {
+      closure = computeClosure(node);
+      closures.put(node, closure);
+    }
+    return closure;
+  }
+
+  /**
+   * Marks every node reachable from {@code node}. Nodes with an already-memoized closure aren't
+   * expanded further; their closure is merged in directly.
+   */
+  private BitSet computeClosure(int node) {
+    BitSet reached = new BitSet(keys.length);
+    int[] stack = new int[Math.max(depOffsets[node + 1] - depOffsets[node], 16)];
+    int size = 0;
+    for (int i = depOffsets[node]; i < depOffsets[node + 1]; i++) {
+      stack[size++] = deps[i];
+    }
+    while (size > 0) {
+      int current = stack[--size];
+      if (reached.get(current)) {
+        continue;
+      }
+      reached.set(current);
+      BitSet memoized = closures.getIfPresent(current);
+      if (memoized != null) {
+        reached.or(memoized);
+        continue;
+      }
+      int edgeCount = depOffsets[current + 1] - depOffsets[current];
+      if (size + edgeCount > stack.length) {
+        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size + edgeCount));
+      }
+      for (int i = depOffsets[current]; i < depOffsets[current + 1]; i++) {
+        if (!reached.get(deps[i])) {
+          stack[size++] = deps[i];
+        }
+      }
+    }
+    return reached;
+  }
+
+  private ImmutableList<TargetKey> computeOrderedClosure(int node) {
+    BitSet visited = new BitSet(keys.length);
+    int[] queue = new int[keys.length];
+    int head = 0;
+    int tail = 0;
+    for (int i = depOffsets[node]; i < depOffsets[node + 1]; i++) {
+      if (!visited.get(deps[i])) {
+        visited.set(deps[i]);
+        queue[tail++] = deps[i];
+      }
+    }
+    ImmutableList.Builder<TargetKey> result = ImmutableList.builder();
+    while (head < tail) {
+      int current = queue[head++];
+      result.add(keys[current]);
+      for (int i = depOffsets[current]; i < depOffsets[current + 1]; i++) {
+        if (!visited.get(deps[i])) {
+          visited.set(deps[i]);
+          queue[tail++] = deps[i];
+        }
+      }
+    }
+    return result.build();
+  }
+}
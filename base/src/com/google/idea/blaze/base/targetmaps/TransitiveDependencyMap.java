@@ -23,8 +23,6 @@ import com.google.idea.blaze.base.ideinfo.Dependency;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
-import com.google.idea.blaze.base.model.BlazeProjectData;
-import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
 import java.util.Collection;
@@ -53,25 +51,16 @@ public class TransitiveDependencyMap {
    */
   public boolean hasTransitiveDependency(
       TargetKey possibleDependent, TargetKey possibleDependency) {
-
-    BlazeProjectData blazeProjectData =
-        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-    if (blazeProjectData == null) {
-      return false;
-    }
-
-    return getTransitiveDependenciesStream(possibleDependent, blazeProjectData.getTargetMap())
-        .anyMatch(possibleDependency::equals);
+    return TargetDependencyGraph.getInstance(project)
+        .hasTransitiveDependency(possibleDependent, possibleDependency);
   }
 
+  /**
+   * Returns the transitive dependencies of the given target, in breadth-first order. Results are
+   * cached until the next sync.
+   */
   public ImmutableCollection<TargetKey> getTransitiveDependencies(TargetKey targetKey) {
-    BlazeProjectData blazeProjectData =
-        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-    if (blazeProjectData == null) {
-      return ImmutableSet.of();
-    }
-    // TODO: see if we need caching.
-    return getTransitiveDependencies(targetKey, blazeProjectData.getTargetMap());
+    return TargetDependencyGraph.getInstance(project).getTransitiveDependencies(targetKey);
   }
 
   public static ImmutableCollection<TargetKey> getTransitiveDependencies(
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.util;
+
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import javax.annotation.Nullable;
+
+/**
+ * Associates values with workspace directories, and finds the directories containing a given
+ * workspace-relative path in time proportional to the path's depth, rather than the number of
+ * directories.
+ */
+public final class WorkspacePathTrie<T> {
+
+  private static final class Node<T> {
+    @Nullable private Map<String, Node<T>> children;
+    @Nullable private T value;
+
+    @Nullable
+    Node<T> getChild(String name) {
+      return children != null ? children.get(name) : null;
+    }
+
+    Node<T> getOrCreateChild(String name) {
+      if (children == null) {
+        children = new HashMap<>();
+      }
+      return children.computeIfAbsent(name, k -> new Node<>());
+    }
+  }
+
+  private final Node<T> root = new Node<>();
+
+  /** Associates a value with the given directory, replacing any previous value. */
+  public void put(WorkspacePath directory, T value) {
+    Node<T> node = root;
+    String path = directory.relativePath();
+    int start = 0;
+    while (start < path.length()) {
+      int end = path.indexOf('/', start);
+      if (end == -1) {
+        end = path.length();
+      }
+      node = node.getOrCreateChild(path.substring(start, end));
+      start = end + 1;
+    }
+    node.value = value;
+  }
+
+  /**
+   * Returns the value associated with the outermost directory containing the given path (including
+   * the path itself), or null if there is no such directory.
+   */
+  @Nullable
+  public T getAncestorValue(WorkspacePath path) {
+    return getAncestorValue(path.relativePath());
+  }
+
+  /**
+   * Returns the value associated with the outermost directory containing the given
+   * workspace-relative path (including the path itself), or null if there is no such directory.
+   */
+  @Nullable
+  public T getAncestorValue(String relativePath) {
+    Node<T> node = root;
+    int start = 0;
+    while (node.value == null && start < relativePath.length()) {
+      int end = relativePath.indexOf('/', start);
+      if (end == -1) {
+        end = relativePath.length();
+      }
+      node = node.getChild(relativePath.substring(start, end));
+      if (node == null) {
+        return null;
+      }
+      start = end + 1;
+    }
+    return node.value;
+  }
+
+  /**
+   * Combines the values associated with all the directories containing the given
+   * workspace-relative path (including the path itself), from outermost to innermost. Returns null
+   * if there are no such directories.
+   */
+  @Nullable
+  public T reduceAncestorValues(String relativePath, BinaryOperator<T> reducer) {
+    Node<T> node = root;
+    T result = root.value;
+    int start = 0;
+    while (start < relativePath.length()) {
+      int end = relativePath.indexOf('/', start);
+      if (end == -1) {
+        end = relativePath.length();
+      }
+      node = node.getChild(relativePath.substring(start, end));
+      if (node == null) {
+        break;
+      }
+      if (node.value != null) {
+        result = result == null ? node.value : reducer.apply(result, node.value);
+      }
+      start = end + 1;
+    }
+    return result;
+  }
+
+  /** Returns true if the given path is, or is under, any directory with an associated value. */
+  public boolean hasAncestor(WorkspacePath path) {
+    return getAncestorValue(path) != null;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link LineProcessingOutputStream}. */
+@RunWith(JUnit4.class)
+public final class LineProcessingOutputStreamTest {
+
+  private final List<String> lines = new ArrayList<>();
+  private final LineProcessingOutputStream stream =
+      LineProcessingOutputStream.of(
+          line -> {
+            lines.add(line);
+            return true;
+          });
+
+  @Test
+  public void testSplitsOnAllLineBreaks() {
+    write("one\ntwo\r\nthree\rfour\n\nfive");
+
+    assertThat(lines).containsExactly("one", "two", "three", "four", "", "five").inOrder();
+  }
+
+  @Test
+  public void testIncompleteLineNotProcessed() {
+    write("one\ntw");
+    write("o");
+
+    assertThat(lines).containsExactly("one");
+  }
+
+  @Test
+  public void testCarriageReturnAndNewlineInSeparateWrites() {
+    write("one\r");
+    write("\ntwo\n");
+
+    assertThat(lines).containsExactly("one", "two").inOrder();
+  }
+
+  @Test
+  public void testMultiByteCharacterSplitAcrossWrites() {
+    byte[] bytes = "caf\u00e9 \u2713\n".getBytes(UTF_8);
+    for (byte b : bytes) {
+      stream.write(new byte[] {b}, 0, 1);
+    }
+
+    assertThat(lines).containsExactly("caf\u00e9 \u2713");
+  }
+
+  @Test
+  public void testLongLineInManySmallWrites() {
+    String longLine = Strings.repeat("0123456789", 100_000);
+    for (int i = 0; i < longLine.length(); i += 7) {
+      write(longLine.substring(i, Math.min(i + 7, longLine.length())));
+    }
+    write("\nshort\n");
+
+    assertThat(lines).containsExactly(longLine, "short").inOrder();
+  }
+
+  @Test
+  public void testLaterProcessorsSkippedWhenProcessingStops() {
+    List<String> secondLines = new ArrayList<>();
+    LineProcessingOutputStream stream =
+        LineProcessingOutputStream.of(
+            line -> !line.startsWith("stop"),
+            line -> {
+              secondLines.add(line);
+              return true;
+            });
+
+    byte[] bytes = "one\nstop\ntwo\n".getBytes(UTF_8);
+    stream.write(bytes, 0, bytes.length);
+
+    assertThat(secondLines).containsExactly("one", "two").inOrder();
+  }
+
+  @Test
+  public void testNoLinesProcessedAfterClose() throws Exception {
+    write("one\n");
+    stream.close();
+    write("two\n");
+
+    assertThat(lines).containsExactly("one");
+  }
+
+  private void write(String text) {
+    byte[] bytes = text.getBytes(UTF_8);
+    stream.write(bytes, 0, bytes.length);
+  }
+}
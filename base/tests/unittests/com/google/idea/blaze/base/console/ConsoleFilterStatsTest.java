@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.console;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.logging.EventLoggingService;
+import com.intellij.execution.filters.Filter;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.DumbService;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+/** Unit tests for {@link ConsoleFilterStats}. */
+@RunWith(JUnit4.class)
+public class ConsoleFilterStatsTest extends BlazeTestCase {
+
+  private final EventLoggingService eventLoggingService = mock(EventLoggingService.class);
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(EventLoggingService.class, eventLoggingService);
+  }
+
+  @Test
+  public void testTimedFilterReturnsDelegateResult() {
+    Filter.Result result = new Filter.Result(ImmutableList.of());
+    Filter timed = new ConsoleFilterStats().timed((line, entireLength) -> result);
+
+    assertThat(timed.applyFilter("line", 4)).isSameAs(result);
+  }
+
+  @Test
+  public void testTimedFilterKeepsDumbAwareness() {
+    ConsoleFilterStats stats = new ConsoleFilterStats();
+
+    assertThat(DumbService.isDumbAware(stats.timed(new DumbAwareFilter()))).isTrue();
+    assertThat(DumbService.isDumbAware(stats.timed((line, entireLength) -> null))).isFalse();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testLogsAndResetsFilterCalls() {
+    ConsoleFilterStats stats = new ConsoleFilterStats();
+    Filter timed = stats.timed((line, entireLength) -> null);
+    timed.applyFilter("first", 5);
+    timed.applyFilter("second", 12);
+
+    stats.logAndReset();
+
+    ArgumentCaptor<Map<String, String>> keyValues = ArgumentCaptor.forClass(Map.class);
+    verify(eventLoggingService)
+        .logEvent(
+            eq(ConsoleFilterStats.class), eq("ConsoleFiltersApplied"), keyValues.capture(), any());
+    assertThat(keyValues.getValue()).containsEntry("filterCalls", "2");
+  }
+
+  @Test
+  public void testNothingLoggedWithoutFilterCalls() {
+    ConsoleFilterStats stats = new ConsoleFilterStats();
+    stats.timed((line, entireLength) -> null);
+
+    stats.logAndReset();
+
+    verify(eventLoggingService, never()).logEvent(any(), any(), any(), any());
+  }
+
+  private static class DumbAwareFilter implements Filter, DumbAware {
+    @Override
+    public Result applyFilter(String line, int entireLength) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import java.io.File;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RemoteOutputsCacheIndex} */
+@RunWith(JUnit4.class)
+public class RemoteOutputsCacheIndexTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testOnlyMatchesSameContents() {
+    RemoteOutputsCacheIndex index = new RemoteOutputsCacheIndex();
+    index.put(entry("k8-opt/foo/Foo.java", "id1", 10, 0, 0));
+
+    assertThat(index.get(artifact("k8-opt/foo/Foo.java", "id1"))).isNotNull();
+    assertThat(index.get(artifact("k8-opt/foo/Foo.java", "id2"))).isNull();
+    assertThat(index.get(artifact("k8-fastbuild/foo/Foo.java", "id1"))).isNull();
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyThenLeastFrequentlyUsed() {
+    RemoteOutputsCacheIndex index = new RemoteOutputsCacheIndex();
+    index.put(entry("recent", "id", 10, 300, 0));
+    index.put(entry("old_frequent", "id", 10, 100, 5));
+    index.put(entry("old_rare", "id", 10, 100, 1));
+    index.put(entry("oldest", "id", 10, 50, 10));
+
+    assertThat(index.evict(/* budgetBytes= */ 40, ImmutableSet.of())).isEmpty();
+    List<RemoteOutputsCacheIndex.Entry> evicted =
+        index.evict(/* budgetBytes= */ 15, ImmutableSet.of());
+
+    assertThat(evicted.stream().map(e -> e.artifactKey).collect(toImmutableList()))
+        .containsExactly("oldest", "old_rare", "old_frequent")
+        .inOrder();
+    assertThat(index.totalSize()).isEqualTo(10);
+  }
+
+  @Test
+  public void testRetainedEntriesAreNotEvicted() {
+    RemoteOutputsCacheIndex index = new RemoteOutputsCacheIndex();
+    index.put(entry("recent", "id", 10, 300, 0));
+    index.put(entry("selected", "id", 10, 50, 0));
+    index.put(entry("oldest", "id", 10, 10, 0));
+
+    List<RemoteOutputsCacheIndex.Entry> evicted =
+        index.evict(/* budgetBytes= */ 5, ImmutableSet.of("selected"));
+
+    assertThat(evicted.stream().map(e -> e.artifactKey).collect(toImmutableList()))
+        .containsExactly("oldest", "recent")
+        .inOrder();
+    assertThat(index.get(artifact("selected", "id"))).isNotNull();
+  }
+
+  @Test
+  public void testResolveRecordsAccess() {
+    RemoteOutputsCacheIndex index = new RemoteOutputsCacheIndex();
+    index.put(entry("k8-opt/foo/Foo.java", "id1", 10, 0, 0));
+    File cacheDir = folder.getRoot();
+
+    File file = index.resolve(cacheDir, artifact("k8-opt/foo/Foo.java", "id1"));
+
+    assertThat(file).isEqualTo(new File(cacheDir, "k8-opt/foo/Foo.java.cached"));
+    RemoteOutputsCacheIndex.Entry entry = index.get(artifact("k8-opt/foo/Foo.java", "id1"));
+    assertThat(entry.getAccessCount()).isEqualTo(1);
+    assertThat(entry.getLastAccessTime()).isGreaterThan(0L);
+    assertThat(index.getAndResetResolvedCount()).isEqualTo(1);
+    assertThat(index.getAndResetResolvedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    RemoteOutputsCacheIndex index = new RemoteOutputsCacheIndex();
+    index.put(entry("k8-opt/foo/Foo.java", "id1", 10, 20, 3));
+    File indexFile = new File(folder.getRoot(), "remoteOutputCache.index");
+    index.save(indexFile);
+
+    RemoteOutputsCacheIndex loaded = RemoteOutputsCacheIndex.load(indexFile);
+
+    RemoteOutputsCacheIndex.Entry entry = loaded.get(artifact("k8-opt/foo/Foo.java", "id1"));
+    assertThat(entry.size).isEqualTo(10);
+    assertThat(entry.getLastAccessTime()).isEqualTo(20);
+    assertThat(entry.getAccessCount()).isEqualTo(3);
+    assertThat(RemoteOutputsCacheIndex.load(new File(folder.getRoot(), "missing"))).isNull();
+  }
+
+  @Test
+  public void testFindUnreferencedFiles() throws Exception {
+    RemoteOutputsCacheIndex index = new RemoteOutputsCacheIndex();
+    index.put(entry("Foo.java", "id1", 10, 0, 0));
+    index.put(entry("Bar.java", "id1", 10, 0, 0));
+    File cacheDir = folder.newFolder("cache");
+    new File(cacheDir, "Foo.java.cached").createNewFile();
+    File orphan = new File(cacheDir, "Orphan.java.cached");
+    orphan.createNewFile();
+
+    assertThat(index.findUnreferencedFiles(cacheDir)).containsExactly(orphan);
+
+    index.remove("Foo.java");
+    assertThat(index.findUnreferencedFiles(cacheDir))
+        .containsExactly(orphan, new File(cacheDir, "Foo.java.cached"));
+  }
+
+  private static RemoteOutputsCacheIndex.Entry entry(
+      String key, String hashId, long size, long lastAccessTime, int accessCount) {
+    return new RemoteOutputsCacheIndex.Entry(
+        key, hashId, key + ".cached", size, lastAccessTime, accessCount);
+  }
+
+  private static RemoteOutputArtifact artifact(String key, String hashId) {
+    RemoteOutputArtifact artifact = mock(RemoteOutputArtifact.class);
+    when(artifact.getKey()).thenReturn(key);
+    when(artifact.getHashId()).thenReturn(hashId);
+    return artifact;
+  }
+}
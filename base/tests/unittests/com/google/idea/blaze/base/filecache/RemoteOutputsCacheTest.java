@@ -19,7 +19,10 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import java.io.File;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -82,4 +85,28 @@ public class RemoteOutputsCacheTest {
     when(artifact.getKey()).thenReturn("k8-opt\\foo\\bar\\foo.bar");
     assertThat(RemoteOutputsCache.getCacheKey(artifact)).isEqualTo("foo_2a410243.bar");
   }
+
+  @Test
+  public void testIndexedCacheKeyUsesStrongerHash() {
+    RemoteOutputArtifact artifact = mock(RemoteOutputArtifact.class);
+    when(artifact.getKey()).thenReturn("k8-opt/foo/bar/proto.pb.go");
+    String key = RemoteOutputsCache.getIndexedCacheKey(artifact);
+    assertThat(key).matches("proto_[0-9a-f]{16}\\.pb\\.go");
+  }
+
+  @Test
+  public void testUnchangedFilesAreNotRemoved() {
+    File unchanged = new File("/cache/Unchanged_1.java");
+    File updated = new File("/cache/Updated_2.java");
+    File unused = new File("/cache/Unused_3.java");
+    ImmutableMap<String, File> cachedFiles =
+        ImmutableMap.of(
+            "Unchanged_1.java", unchanged, "Updated_2.java", updated, "Unused_3.java", unused);
+
+    // previously, every cached file which didn't need updating was removed
+    assertThat(
+            RemoteOutputsCache.findRemovedFiles(
+                cachedFiles, ImmutableSet.of("Unchanged_1.java", "Updated_2.java", "New_4.java")))
+        .containsExactly(unused);
+  }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CompactTargetMap}. */
+@RunWith(JUnit4.class)
+public class CompactTargetMapTest extends BlazeTestCase {
+
+  private final MockExperimentService experimentService = new MockExperimentService();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    applicationServices.register(ExperimentService.class, experimentService);
+  }
+
+  @Test
+  public void testMaterializedTargetsMatchOriginals() {
+    TargetMap original =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//foo:lib")
+                    .setKind("sh_library")
+                    .addSource(source("foo/lib.sh"))
+                    .addTag("manual")
+                    .addDependency("//bar:lib")
+                    .addRuntimeDep("//baz:data")
+                    .setSyncTime(Instant.ofEpochMilli(1000)))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//bar:lib")
+                    .setKind("sh_library")
+                    .addSource(source("bar/lib.sh")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//foo:test")
+                    .setKind("sh_test")
+                    .addDependency("//foo:lib"))
+            .build();
+
+    TargetMap compact = TargetMap.compact(toProtos(original));
+
+    assertThat(compact.size()).isEqualTo(3);
+    assertThat(compact.map()).isEqualTo(original.map());
+    for (TargetIdeInfo target : original.targets()) {
+      assertThat(compact.get(target.getKey())).isEqualTo(target);
+    }
+  }
+
+  @Test
+  public void testDependencyOnlyKeysAreNotTargets() {
+    TargetMap compact =
+        TargetMap.compact(
+            toProtos(
+                TargetMapBuilder.builder()
+                    .addTarget(
+                        TargetIdeInfo.builder()
+                            .setLabel("//foo:lib")
+                            .setKind("sh_library")
+                            .addDependency("//external:dep"))
+                    .build()));
+
+    TargetKey dep = TargetKey.forPlainTarget(Label.create("//external:dep"));
+    assertThat(compact.contains(dep)).isFalse();
+    assertThat(compact.get(dep)).isNull();
+    assertThat(
+            compact
+                .get(TargetKey.forPlainTarget(Label.create("//foo:lib")))
+                .getDependencies()
+                .get(0)
+                .getTargetKey())
+        .isEqualTo(dep);
+  }
+
+  @Test
+  public void testUnknownKindsAreDropped() {
+    IntellijIdeInfo.TargetIdeInfo unknown =
+        TargetIdeInfo.builder()
+            .setLabel("//foo:lib")
+            .setKind("sh_library")
+            .build()
+            .toProto()
+            .toBuilder()
+            .setKindString("not_a_real_rule")
+            .build();
+
+    assertThat(TargetMap.compact(ImmutableList.of(unknown)).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSerializationRoundTrip() {
+    TargetMap original =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//foo:lib")
+                    .setKind("sh_library")
+                    .addDependency("//bar:lib"))
+            .addTarget(TargetIdeInfo.builder().setLabel("//bar:lib").setKind("sh_library"))
+            .build();
+
+    TargetMap compact = TargetMap.compact(toProtos(original));
+
+    assertThat(TargetMap.fromProto(compact.toProto())).isEqualTo(original);
+  }
+
+  @Test
+  public void testExperimentEnablesCompactStorage() {
+    TargetMap original = sampleTargets();
+    assertThat(TargetMap.fromProto(original.toProto()).isCompact()).isFalse();
+
+    experimentService.setExperiment(TargetMap.compactTargetMap, true);
+    TargetMap compact = TargetMap.fromProto(original.toProto());
+
+    assertThat(compact.isCompact()).isTrue();
+    assertThat(TargetMap.create(original.map()).isCompact()).isTrue();
+    assertThat(compact).isEqualTo(original);
+  }
+
+  @Test
+  public void testMaterializedMapIsCached() {
+    TargetMap compact = TargetMap.compact(toProtos(sampleTargets()));
+
+    assertThat(compact.map()).isSameAs(compact.map());
+    assertThat(compact.targets()).containsExactlyElementsIn(compact.map().values()).inOrder();
+  }
+
+  @Test
+  public void testTargetsViewDoesNotPopulateCache() {
+    TargetMap original = sampleTargets();
+    CompactTargetMap compact = CompactTargetMap.fromProtos(toProtos(original));
+
+    assertThat(compact.targets()).containsExactlyElementsIn(original.targets());
+    assertThat(compact.keys()).containsExactlyElementsIn(original.keys()).inOrder();
+    assertThat(compact.cachedTargetCount()).isEqualTo(0);
+
+    TargetKey key = TargetKey.forPlainTarget(Label.create("//foo:lib"));
+    TargetIdeInfo cached = compact.get(key);
+    assertThat(compact.cachedTargetCount()).isEqualTo(1);
+    assertThat(compact.targets()).contains(cached);
+    assertThat(compact.get(key)).isSameAs(cached);
+  }
+
+  @Test
+  public void testEqualsComparesCompactEncodings() {
+    TargetMap original = sampleTargets();
+    TargetMap compact = TargetMap.compact(toProtos(original));
+    TargetMap otherCompact = TargetMap.compact(toProtos(original).reverse());
+
+    assertThat(compact).isEqualTo(otherCompact);
+    assertThat(compact.hashCode()).isEqualTo(otherCompact.hashCode());
+    assertThat(compact).isEqualTo(original);
+    assertThat(original).isEqualTo(compact);
+    assertThat(compact.hashCode()).isEqualTo(original.hashCode());
+  }
+
+  @Test
+  public void testEqualsDetectsChangedTarget() {
+    TargetMap original = sampleTargets();
+    TargetMap changed =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//foo:lib")
+                    .setKind("sh_library")
+                    .addSource(source("foo/other.sh"))
+                    .addDependency("//bar:lib"))
+            .addTarget(TargetIdeInfo.builder().setLabel("//bar:lib").setKind("sh_library"))
+            .build();
+    TargetMap changedDep =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//foo:lib")
+                    .setKind("sh_library")
+                    .addSource(source("foo/lib.sh"))
+                    .addDependency("//baz:lib"))
+            .addTarget(TargetIdeInfo.builder().setLabel("//bar:lib").setKind("sh_library"))
+            .build();
+
+    TargetMap compact = TargetMap.compact(toProtos(original));
+
+    assertThat(compact).isNotEqualTo(TargetMap.compact(toProtos(changed)));
+    assertThat(compact).isNotEqualTo(changed);
+    assertThat(compact).isNotEqualTo(TargetMap.compact(toProtos(changedDep)));
+    assertThat(compact).isNotEqualTo(changedDep);
+  }
+
+  private static TargetMap sampleTargets() {
+    return TargetMapBuilder.builder()
+        .addTarget(
+            TargetIdeInfo.builder()
+                .setLabel("//foo:lib")
+                .setKind("sh_library")
+                .addSource(source("foo/lib.sh"))
+                .addDependency("//bar:lib"))
+        .addTarget(TargetIdeInfo.builder().setLabel("//bar:lib").setKind("sh_library"))
+        .build();
+  }
+
+  private static ImmutableList<IntellijIdeInfo.TargetIdeInfo> toProtos(TargetMap targetMap) {
+    return targetMap.targets().stream().map(TargetIdeInfo::toProto).collect(toImmutableList());
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SerializedTargetMap}. */
+@RunWith(JUnit4.class)
+public class SerializedTargetMapTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testTargetsAreDecodedOnDemand() throws Exception {
+    TargetMap original = sampleTargets();
+    SerializedTargetMap serialized = SerializedTargetMap.create(serialize(original.toProto()));
+
+    assertThat(serialized.keys()).containsExactlyElementsIn(original.keys());
+    assertThat(serialized.cachedTargetCount()).isEqualTo(0);
+
+    TargetKey key = TargetKey.forPlainTarget(Label.create("//foo:lib"));
+    assertThat(serialized.get(key)).isEqualTo(original.get(key));
+    assertThat(serialized.cachedTargetCount()).isEqualTo(1);
+    assertThat(serialized.contains(TargetKey.forPlainTarget(Label.create("//baz:lib")))).isFalse();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    TargetMap original = sampleTargets();
+
+    TargetMap serialized = TargetMap.fromSerializedProto(serialize(original.toProto()));
+
+    assertThat(serialized).isEqualTo(original);
+    assertThat(serialized.hashCode()).isEqualTo(original.hashCode());
+    assertThat(serialized.toProto().getTargetsList())
+        .containsExactlyElementsIn(original.toProto().getTargetsList());
+  }
+
+  @Test
+  public void testReadsFromBufferPosition() throws Exception {
+    byte[] proto = sampleTargets().toProto().toByteArray();
+    ByteBuffer buffer = ByteBuffer.allocate(proto.length + 3);
+    buffer.position(3);
+    buffer.put(proto);
+    buffer.position(3);
+
+    assertThat(TargetMap.fromSerializedProto(buffer)).isEqualTo(sampleTargets());
+  }
+
+  @Test
+  public void testUnknownKindsAreDropped() throws Exception {
+    TargetIdeInfo unknown =
+        TargetIdeInfo.builder().setLabel("//baz:lib").setKind("sh_library").build();
+    ProjectData.TargetMap proto =
+        addTarget(sampleTargets(), unknown.toProto().toBuilder().setKindString("not_a_real_rule"));
+
+    TargetMap serialized = TargetMap.fromSerializedProto(serialize(proto));
+
+    assertThat(serialized).isEqualTo(sampleTargets());
+  }
+
+  @Test
+  public void testLaterDuplicatesWin() throws Exception {
+    TargetIdeInfo updated =
+        TargetIdeInfo.builder()
+            .setLabel("//bar:lib")
+            .setKind("sh_library")
+            .addSource(source("bar/lib.sh"))
+            .build();
+    ProjectData.TargetMap proto = addTarget(sampleTargets(), updated.toProto().toBuilder());
+
+    TargetMap serialized = TargetMap.fromSerializedProto(serialize(proto));
+
+    assertThat(serialized.size()).isEqualTo(2);
+    assertThat(serialized.get(updated.getKey())).isEqualTo(updated);
+  }
+
+  private static ProjectData.TargetMap addTarget(
+      TargetMap targetMap, IntellijIdeInfo.TargetIdeInfo.Builder target) {
+    return targetMap.toProto().toBuilder().addTargets(target).build();
+  }
+
+  private static ByteBuffer serialize(ProjectData.TargetMap proto) {
+    return ByteBuffer.wrap(proto.toByteArray());
+  }
+
+  private static TargetMap sampleTargets() {
+    return TargetMapBuilder.builder()
+        .addTarget(
+            TargetIdeInfo.builder()
+                .setLabel("//foo:lib")
+                .setKind("sh_library")
+                .addSource(source("foo/lib.sh"))
+                .addDependency("//bar:lib"))
+        .addTarget(TargetIdeInfo.builder().setLabel("//bar:lib").setKind("sh_library"))
+        .build();
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
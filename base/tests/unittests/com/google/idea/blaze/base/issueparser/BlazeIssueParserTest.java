@@ -532,6 +532,28 @@ public class BlazeIssueParserTest extends BlazeTestCase {
         .isEqualTo(TextRange.create(0, "File \"foo/bar.py\", line 123".length()));
   }
 
+  @Test
+  public void testRequiredLiteral() {
+    assertThat(BlazeIssueParser.requiredLiteral("^ERROR: (/.*?BUILD):([0-9]+)"))
+        .isEqualTo("ERROR: ");
+    assertThat(BlazeIssueParser.requiredLiteral("no such target '(.*)'"))
+        .isEqualTo("no such target '");
+    assertThat(BlazeIssueParser.requiredLiteral("^ERROR: (?:(a)|(b))$")).isEqualTo("ERROR: ");
+    assertThat(BlazeIssueParser.requiredLiteral("abc?d")).isEqualTo("ab");
+    assertThat(BlazeIssueParser.requiredLiteral("ab[|]c")).isEqualTo("ab");
+    assertThat(BlazeIssueParser.requiredLiteral("abc|d")).isEmpty();
+    assertThat(BlazeIssueParser.requiredLiteral("(?i)abc")).isEmpty();
+  }
+
+  @Test
+  public void testLinesWithoutRequiredLiteralNotParsed() {
+    BlazeIssueParser blazeIssueParser = new BlazeIssueParser(parsers);
+    assertThat(blazeIssueParser.parseIssue("INFO: Analyzed 3 targets (0 packages loaded)."))
+        .isNull();
+    assertThat(blazeIssueParser.parseIssue("foo/bar.cc: note: no line number")).isNull();
+    assertThat(blazeIssueParser.parseIssue("  ERROR: not at the start of the line")).isNull();
+  }
+
   /** Simple Parser for testing */
   private static class TestParser extends BlazeIssueParser.SingleLineParser {
 
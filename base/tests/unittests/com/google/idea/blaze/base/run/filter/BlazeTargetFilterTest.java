@@ -70,6 +70,12 @@ public class BlazeTargetFilterTest {
     assertThat(findMatch(line)).isNull();
   }
 
+  @Test
+  public void testLineWithoutTargetIsNotFiltered() {
+    String line = "INFO: Analyzed 12 targets (0 packages loaded, 0 targets configured).";
+    assertThat(new BlazeTargetFilter(false).applyFilter(line, line.length())).isNull();
+  }
+
   @Nullable
   private static String findMatch(String line) {
     Matcher matcher = TARGET_PATTERN.matcher(line);
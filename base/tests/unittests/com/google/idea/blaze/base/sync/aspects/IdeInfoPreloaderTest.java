@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactState.RemoteOutputState;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategyBazel;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link IdeInfoPreloader}. */
+@RunWith(JUnit4.class)
+public class IdeInfoPreloaderTest extends BlazeTestCase {
+
+  private static final String IDE_INFO_PATH = "k8-fastbuild/bin/foo/bar.intellij-info.txt";
+
+  @Test
+  public void testPreloadedProtoIsReused() throws Exception {
+    FakeOutputArtifact file = new FakeOutputArtifact("id1", 1, /* failures= */ 0);
+    IdeInfoPreloader preloader = createPreloader(null);
+    preloader.preloadFiles(ImmutableList.of(file));
+
+    IntellijIdeInfo.TargetIdeInfo proto =
+        preloader.getPreloadedProto(file, file.toArtifactState()).get();
+
+    assertThat(proto.getKey().getLabel()).isEqualTo("//foo:bar");
+    assertThat(file.reads).isEqualTo(1);
+  }
+
+  @Test
+  public void testStalePreloadIsIgnored() {
+    FakeOutputArtifact file = new FakeOutputArtifact("id1", 1, /* failures= */ 0);
+    IdeInfoPreloader preloader = createPreloader(null);
+    preloader.preloadFiles(ImmutableList.of(file));
+
+    // a later shard rebuilt the same output
+    FakeOutputArtifact rebuilt = new FakeOutputArtifact("id2", 2, /* failures= */ 0);
+
+    assertThat(preloader.getPreloadedProto(rebuilt, rebuilt.toArtifactState())).isNull();
+  }
+
+  @Test
+  public void testFilesUnchangedSinceLastSyncAreNotPreloaded() {
+    FakeOutputArtifact file = new FakeOutputArtifact("id1", 1, /* failures= */ 0);
+    IdeInfoPreloader preloader =
+        createPreloader(ImmutableMap.of(IDE_INFO_PATH, file.toArtifactState()));
+    preloader.preloadFiles(ImmutableList.of(file));
+
+    assertThat(preloader.getPreloadedProto(file, file.toArtifactState())).isNull();
+    assertThat(file.reads).isEqualTo(0);
+  }
+
+  @Test
+  public void testFailedPreloadIsReadAgain() throws Exception {
+    FakeOutputArtifact file = new FakeOutputArtifact("id1", 1, /* failures= */ 1);
+    IdeInfoPreloader preloader = createPreloader(null);
+    preloader.preloadFiles(ImmutableList.of(file));
+
+    IntellijIdeInfo.TargetIdeInfo proto =
+        preloader.getPreloadedProto(file, file.toArtifactState()).get();
+
+    assertThat(proto.getKey().getLabel()).isEqualTo("//foo:bar");
+    assertThat(file.reads).isEqualTo(2);
+  }
+
+  private static IdeInfoPreloader createPreloader(
+      @Nullable ImmutableMap<String, ArtifactState> prevFileState) {
+    return new IdeInfoPreloader(
+        new AspectStrategyBazel(), prevFileState, MoreExecutors.newDirectExecutorService());
+  }
+
+  /** A remote ide-info output, which fails to be read a given number of times. */
+  private static class FakeOutputArtifact implements OutputArtifact {
+    private static final byte[] CONTENTS =
+        "key { label: \"//foo:bar\" }\nkind_string: \"java_library\"\n".getBytes(UTF_8);
+
+    private final String id;
+    private final long syncStartTimeMillis;
+    private int failures;
+    private int reads;
+
+    FakeOutputArtifact(String id, long syncStartTimeMillis, int failures) {
+      this.id = id;
+      this.syncStartTimeMillis = syncStartTimeMillis;
+      this.failures = failures;
+    }
+
+    @Override
+    public String getConfigurationMnemonic() {
+      return "k8-fastbuild";
+    }
+
+    @Override
+    public String getRelativePath() {
+      return IDE_INFO_PATH;
+    }
+
+    @Override
+    public ArtifactState toArtifactState() {
+      return new RemoteOutputState(IDE_INFO_PATH, id, syncStartTimeMillis);
+    }
+
+    @Override
+    public long getLength() {
+      return CONTENTS.length;
+    }
+
+    @Override
+    public BufferedInputStream getInputStream() throws IOException {
+      reads++;
+      if (failures > 0) {
+        failures--;
+        throw new IOException("Failed to fetch " + IDE_INFO_PATH);
+      }
+      return new BufferedInputStream(new ByteArrayInputStream(CONTENTS));
+    }
+  }
+}
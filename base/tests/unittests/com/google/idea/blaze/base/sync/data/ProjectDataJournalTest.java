@@ -0,0 +1,282 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ProjectDataJournal}. */
+@RunWith(JUnit4.class)
+public class ProjectDataJournalTest extends BlazeTestCase {
+
+  private static final WorkspaceRoot WORKSPACE_ROOT = new WorkspaceRoot(new File("/root"));
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File baseFile;
+  private File journalFile;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    applicationServices.register(FileOperationProvider.class, new FileOperationProvider());
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+    // no sync data extractors are needed; the extension point just has to exist
+    registerExtensionPoint(
+        ExtensionPointName.create("com.google.idea.blaze.SyncDataExtractor"), Object.class);
+    baseFile = new File(folder.getRoot(), "cache.dat.gz");
+    journalFile = new File(baseFile.getPath() + ".journal");
+  }
+
+  @Test
+  public void testDeltaOnlyContainsChangedTargets() {
+    BlazeProjectData before =
+        projectData(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a").addDependency("//pkg:b"))
+                .addTarget(target("//pkg:b"))
+                .addTarget(target("//pkg:c"))
+                .build());
+    BlazeProjectData after =
+        projectData(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a").addDependency("//pkg:b"))
+                .addTarget(target("//pkg:b").addDependency("//pkg:d"))
+                .addTarget(target("//pkg:d"))
+                .build());
+
+    ProjectData.ProjectDataDelta delta = ProjectDataJournal.computeDelta(before, after);
+
+    assertThat(delta).isNotNull();
+    assertThat(
+            delta.getUpdatedTargetsList().stream()
+                .map(t -> t.getKey().getLabel())
+                .collect(toImmutableList()))
+        .containsExactly("//pkg:b", "//pkg:d");
+    assertThat(delta.getRemovedTargetsList()).hasSize(1);
+    assertThat(delta.getRemovedTargetsList().get(0).getLabel()).isEqualTo("//pkg:c");
+    assertThat(delta.getUpdatedRemoteOutputsList()).isEmpty();
+  }
+
+  @Test
+  public void testReplayingDeltasReproducesLatestTargetMap() {
+    BlazeProjectData first =
+        projectData(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a"))
+                .addTarget(target("//pkg:b"))
+                .build());
+    BlazeProjectData second =
+        projectData(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a").addDependency("//pkg:c"))
+                .addTarget(target("//pkg:c"))
+                .build());
+    BlazeProjectData third =
+        projectData(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a").addDependency("//pkg:c"))
+                .addTarget(target("//pkg:b"))
+                .build());
+
+    ProjectDataJournal.DeltaApplier applier = new ProjectDataJournal.DeltaApplier(first.toProto());
+    applier.apply(ProjectDataJournal.computeDelta(first, second));
+    applier.apply(ProjectDataJournal.computeDelta(second, third));
+
+    assertThat(applier.build().getTargetData().getTargetMap().getTargetsList())
+        .containsExactlyElementsIn(toProtos(third.getTargetMap()));
+  }
+
+  @Test
+  public void testLoadReplaysJournalOnTopOfSnapshot() throws IOException {
+    BlazeProjectData first = projectDataWithManyTargets("//new:a");
+    BlazeProjectData second = projectDataWithManyTargets("//new:b");
+    ProjectDataJournal journal = new ProjectDataJournal(baseFile);
+    journal.save(first);
+    long snapshotSize = baseFile.length();
+    journal.save(second);
+
+    assertThat(baseFile.length()).isEqualTo(snapshotSize);
+    assertThat(journalFile.exists()).isTrue();
+    assertThat(new ProjectDataJournal(baseFile).load(BuildSystem.Bazel)).isEqualTo(second);
+  }
+
+  @Test
+  public void testJournalIsIgnoredOnceSnapshotIsRewritten() throws IOException {
+    BlazeProjectData first = projectDataWithManyTargets("//new:a");
+    ProjectDataJournal journal = new ProjectDataJournal(baseFile);
+    journal.save(first);
+    journal.save(projectDataWithManyTargets("//new:b"));
+
+    // e.g. a compaction which was interrupted before the stale journal was deleted
+    BlazeProjectData rewritten = projectDataWithManyTargets("//new:c");
+    long modifiedTime = baseFile.lastModified();
+    rewritten.saveToDisk(baseFile);
+    assertThat(baseFile.setLastModified(modifiedTime + 10_000)).isTrue();
+
+    assertThat(new ProjectDataJournal(baseFile).load(BuildSystem.Bazel)).isEqualTo(rewritten);
+  }
+
+  @Test
+  public void testTruncatedJournalLoadsCompleteEntriesThenCompacts() throws IOException {
+    BlazeProjectData first = projectDataWithManyTargets("//new:a");
+    ProjectDataJournal journal = new ProjectDataJournal(baseFile);
+    journal.save(first);
+    journal.save(projectDataWithManyTargets("//new:b"));
+    try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+      file.setLength(file.length() - 1);
+    }
+
+    ProjectDataJournal reloaded = new ProjectDataJournal(baseFile);
+    assertThat(reloaded.load(BuildSystem.Bazel)).isEqualTo(first);
+
+    // the journal's integrity is unknown, so the next save replaces it with a new snapshot
+    BlazeProjectData third = projectDataWithManyTargets("//new:c");
+    reloaded.save(third);
+    assertThat(journalFile.exists()).isFalse();
+    assertThat(new ProjectDataJournal(baseFile).load(BuildSystem.Bazel)).isEqualTo(third);
+  }
+
+  @Test
+  public void testFailedAppendIsDiscarded() throws IOException {
+    FailingOutputStreams streams = new FailingOutputStreams();
+    ProjectDataJournal journal = new ProjectDataJournal(baseFile, streams::wrap);
+    journal.save(projectDataWithManyTargets("//new:a"));
+    BlazeProjectData second = projectDataWithManyTargets("//new:b");
+    journal.save(second);
+    long journalLength = journalFile.length();
+
+    streams.failAfterBytes = 10;
+    try {
+      journal.save(projectDataWithManyTargets("//new:c"));
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+
+    assertThat(journalFile.length()).isEqualTo(journalLength);
+    assertThat(new ProjectDataJournal(baseFile).load(BuildSystem.Bazel)).isEqualTo(second);
+
+    streams.failAfterBytes = Long.MAX_VALUE;
+    BlazeProjectData fourth = projectDataWithManyTargets("//new:d");
+    journal.save(fourth);
+    assertThat(new ProjectDataJournal(baseFile).load(BuildSystem.Bazel)).isEqualTo(fourth);
+  }
+
+  @Test
+  public void testFailedFirstAppendDeletesJournal() throws IOException {
+    FailingOutputStreams streams = new FailingOutputStreams();
+    ProjectDataJournal journal = new ProjectDataJournal(baseFile, streams::wrap);
+    BlazeProjectData first = projectDataWithManyTargets("//new:a");
+    journal.save(first);
+
+    streams.failAfterBytes = 10;
+    try {
+      journal.save(projectDataWithManyTargets("//new:b"));
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+
+    assertThat(journalFile.exists()).isFalse();
+    assertThat(new ProjectDataJournal(baseFile).load(BuildSystem.Bazel)).isEqualTo(first);
+  }
+
+  /** Wraps journal streams so that writes fail once a given number of bytes have been written. */
+  private static class FailingOutputStreams {
+    private long failAfterBytes = Long.MAX_VALUE;
+
+    OutputStream wrap(OutputStream out) {
+      return new FilterOutputStream(out) {
+        private long written = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+          if (written++ >= failAfterBytes) {
+            throw new IOException("Simulated write failure");
+          }
+          super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          for (int i = 0; i < len; i++) {
+            write(b[off + i]);
+          }
+        }
+      };
+    }
+  }
+
+  /**
+   * Returns project data with enough targets that the snapshot is larger than a journal entry,
+   * plus the given extra target.
+   */
+  private static BlazeProjectData projectDataWithManyTargets(String extraLabel) {
+    TargetMapBuilder targets = TargetMapBuilder.builder();
+    for (int i = 0; i < 200; i++) {
+      targets.addTarget(target("//pkg" + i + ":lib").addDependency("//pkg" + (i + 1) + ":lib"));
+    }
+    targets.addTarget(target(extraLabel));
+    return projectData(targets.build());
+  }
+
+  private static BlazeProjectData projectData(TargetMap targetMap) {
+    return MockBlazeProjectDataBuilder.builder(WORKSPACE_ROOT).setTargetMap(targetMap).build();
+  }
+
+  private static ImmutableList<IntellijIdeInfo.TargetIdeInfo> toProtos(TargetMap targetMap) {
+    return targetMap.targets().stream().map(TargetIdeInfo::toProto).collect(toImmutableList());
+  }
+
+  private static TargetIdeInfo.Builder target(String label) {
+    return TargetIdeInfo.builder().setLabel(label).setKind("proto_library");
+  }
+}
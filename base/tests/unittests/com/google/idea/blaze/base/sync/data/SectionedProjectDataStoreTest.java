@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.google.idea.blaze.base.sync.data.SectionedProjectDataStore.Codec;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SectionedProjectDataStore}. */
+@RunWith(JUnit4.class)
+public class SectionedProjectDataStoreTest extends BlazeTestCase {
+
+  private static final WorkspaceRoot WORKSPACE_ROOT = new WorkspaceRoot(new File("/root"));
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File manifestFile;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    applicationServices.register(FileOperationProvider.class, new FileOperationProvider());
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+    // no sync data extractors are needed; the extension point just has to exist
+    registerExtensionPoint(
+        ExtensionPointName.create("com.google.idea.blaze.SyncDataExtractor"), Object.class);
+    manifestFile = new File(folder.getRoot(), "cache.dat.sections");
+  }
+
+  @Test
+  public void testRoundTripMemoryMappedSections() throws IOException {
+    BlazeProjectData projectData = projectData("//pkg:a", "//pkg:b");
+    new SectionedProjectDataStore(manifestFile).save(projectData, Codec.RAW);
+
+    assertThat(sectionFileNames()).asList().contains("target_map");
+    assertThat(new SectionedProjectDataStore(manifestFile).load(BuildSystem.Bazel))
+        .isEqualTo(projectData);
+  }
+
+  @Test
+  public void testRoundTripDeflatedSections() throws IOException {
+    BlazeProjectData projectData = projectData("//pkg:a", "//pkg:b");
+    new SectionedProjectDataStore(manifestFile).save(projectData, Codec.DEFLATE);
+
+    assertThat(new SectionedProjectDataStore(manifestFile).load(BuildSystem.Bazel))
+        .isEqualTo(projectData);
+  }
+
+  @Test
+  public void testSwitchingCodecRewritesSections() throws IOException {
+    BlazeProjectData projectData = projectData("//pkg:a");
+    SectionedProjectDataStore store = new SectionedProjectDataStore(manifestFile);
+    store.save(projectData, Codec.RAW);
+    store.save(projectData, Codec.DEFLATE);
+
+    assertThat(Arrays.stream(sectionDir().list()).allMatch(name -> name.endsWith(".z"))).isTrue();
+    assertThat(new SectionedProjectDataStore(manifestFile).load(BuildSystem.Bazel))
+        .isEqualTo(projectData);
+  }
+
+  @Test
+  public void testUnchangedTargetMapIsNotRewritten() throws IOException {
+    BlazeProjectData projectData = projectData("//pkg:a");
+    SectionedProjectDataStore store = new SectionedProjectDataStore(manifestFile);
+    store.save(projectData, Codec.RAW);
+    File targetMapSection = sectionFile("target_map");
+    assertThat(targetMapSection.setLastModified(1000)).isTrue();
+
+    store.save(projectData, Codec.RAW);
+
+    assertThat(sectionFile("target_map")).isEqualTo(targetMapSection);
+    assertThat(targetMapSection.lastModified()).isEqualTo(1000);
+  }
+
+  @Test
+  public void testChangedTargetMapReplacesStaleSection() throws IOException {
+    SectionedProjectDataStore store = new SectionedProjectDataStore(manifestFile);
+    store.save(projectData("//pkg:a"), Codec.RAW);
+    File oldSection = sectionFile("target_map");
+
+    BlazeProjectData updated = projectData("//pkg:a", "//pkg:c");
+    store.save(updated, Codec.RAW);
+
+    assertThat(oldSection.exists()).isFalse();
+    assertThat(new SectionedProjectDataStore(manifestFile).load(BuildSystem.Bazel))
+        .isEqualTo(updated);
+  }
+
+  @Test
+  public void testNoManifestLoadsNothing() throws IOException {
+    assertThat(new SectionedProjectDataStore(manifestFile).load(BuildSystem.Bazel)).isNull();
+  }
+
+  @Test
+  public void testMissingSectionFailsToLoad() throws IOException {
+    new SectionedProjectDataStore(manifestFile).save(projectData("//pkg:a"), Codec.RAW);
+    Files.delete(sectionFile("target_map").toPath());
+
+    assertLoadFails();
+  }
+
+  @Test
+  public void testTruncatedSectionFailsToLoad() throws IOException {
+    new SectionedProjectDataStore(manifestFile).save(projectData("//pkg:a"), Codec.RAW);
+    File section = sectionFile("target_map");
+    try (RandomAccessFile file = new RandomAccessFile(section, "rw")) {
+      file.setLength(section.length() - 1);
+    }
+
+    assertLoadFails();
+  }
+
+  @Test
+  public void testCorruptDeflatedSectionFailsToLoad() throws IOException {
+    new SectionedProjectDataStore(manifestFile).save(projectData("//pkg:a"), Codec.DEFLATE);
+    File section = sectionFile("target_map");
+    byte[] garbage = new byte[(int) section.length()];
+    Arrays.fill(garbage, (byte) 0xff);
+    Files.write(section.toPath(), garbage);
+
+    assertLoadFails();
+  }
+
+  @Test
+  public void testCorruptManifestFailsToLoad() throws IOException {
+    new SectionedProjectDataStore(manifestFile).save(projectData("//pkg:a"), Codec.RAW);
+    Files.write(manifestFile.toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+
+    assertLoadFails();
+  }
+
+  @Test
+  public void testClearDeletesAllSections() throws IOException {
+    SectionedProjectDataStore store = new SectionedProjectDataStore(manifestFile);
+    store.save(projectData("//pkg:a"), Codec.RAW);
+
+    store.clear();
+
+    assertThat(manifestFile.exists()).isFalse();
+    assertThat(sectionDir().exists()).isFalse();
+    assertThat(store.load(BuildSystem.Bazel)).isNull();
+  }
+
+  private void assertLoadFails() {
+    try {
+      new SectionedProjectDataStore(manifestFile).load(BuildSystem.Bazel);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  private File sectionDir() {
+    return new File(manifestFile.getPath() + ".sections");
+  }
+
+  private String[] sectionFileNames() {
+    return Arrays.stream(sectionDir().list())
+        .map(name -> name.substring(0, name.indexOf('-')))
+        .toArray(String[]::new);
+  }
+
+  private File sectionFile(String prefix) {
+    File[] matching = sectionDir().listFiles((dir, name) -> name.startsWith(prefix + "-"));
+    assertThat(matching).hasLength(1);
+    return matching[0];
+  }
+
+  private static BlazeProjectData projectData(String... labels) {
+    TargetMapBuilder targets = TargetMapBuilder.builder();
+    for (String label : labels) {
+      targets.addTarget(TargetIdeInfo.builder().setLabel(label).setKind("proto_library"));
+    }
+    TargetMap targetMap = targets.build();
+    return MockBlazeProjectDataBuilder.builder(WORKSPACE_ROOT).setTargetMap(targetMap).build();
+  }
+}
@@ -24,6 +24,8 @@ import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots.ProjectDirectoriesHelper;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -229,4 +231,60 @@ public class TargetExpressionListTest extends BlazeTestCase {
     assertThat(helper.includesPackage(new WorkspacePath("foo/bar"))).isFalse();
     assertThat(helper.includesPackage(new WorkspacePath("foo/other"))).isTrue();
   }
+
+  @Test
+  public void testLaterRecursiveExclusionOverridesNestedInclusions() {
+    TargetExpressionList helper =
+        TargetExpressionList.create(
+            ImmutableList.of(
+                TargetExpression.fromString("//foo/bar/..."),
+                TargetExpression.fromString("//foo/bar:target"),
+                TargetExpression.fromString("-//foo/..."),
+                TargetExpression.fromString("//foo/bar/baz:all")));
+
+    assertThat(helper.includesTarget(Label.create("//foo/bar:target"))).isFalse();
+    assertThat(helper.includesTarget(Label.create("//foo/bar/other:target"))).isFalse();
+    assertThat(helper.includesTarget(Label.create("//foo/bar/baz:target"))).isTrue();
+    assertThat(helper.includesTarget(Label.create("//foo/bar/baz/qux:target"))).isFalse();
+
+    assertThat(helper.includesPackage(new WorkspacePath("foo/bar"))).isFalse();
+    assertThat(helper.includesPackage(new WorkspacePath("foo/bar/baz"))).isTrue();
+  }
+
+  @Test
+  public void testLaterNestedRecursiveExpressionOverridesOuterExpression() {
+    TargetExpressionList helper =
+        TargetExpressionList.create(
+            ImmutableList.of(
+                TargetExpression.fromString("//..."),
+                TargetExpression.fromString("-//foo/..."),
+                TargetExpression.fromString("//foo/bar/..."),
+                TargetExpression.fromString("-//foo/bar/baz:target")));
+
+    assertThat(helper.includesTarget(Label.create("//other:target"))).isTrue();
+    assertThat(helper.includesTarget(Label.create("//foo:target"))).isFalse();
+    assertThat(helper.includesTarget(Label.create("//foo/bar:target"))).isTrue();
+    assertThat(helper.includesTarget(Label.create("//foo/bar/baz:target"))).isFalse();
+    assertThat(helper.includesTarget(Label.create("//foo/bar/baz:other"))).isTrue();
+    assertThat(helper.includesTarget(Label.create("//foobar:target"))).isTrue();
+  }
+
+  @Test
+  public void testLargeProjectView() {
+    // 2000 expressions: alternating recursive inclusions and exclusions of their subpackages
+    List<TargetExpression> targets = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      targets.add(TargetExpression.fromString("//dir" + i + "/..."));
+      targets.add(TargetExpression.fromString("-//dir" + i + "/excluded/..."));
+    }
+    TargetExpressionList helper = TargetExpressionList.create(targets);
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(helper.includesTarget(Label.create("//dir" + i + "/pkg:target"))).isTrue();
+      assertThat(helper.includesTarget(Label.create("//dir" + i + "/excluded/pkg:target")))
+          .isFalse();
+    }
+    assertThat(helper.includesTarget(Label.create("//dir1000:target"))).isFalse();
+    assertThat(helper.getTargets()).isEqualTo(targets);
+  }
 }
@@ -53,18 +53,19 @@ public class BlazeBuildTargetSharderTest extends BlazeTestCase {
             target("//java/com/google:four"),
             target("//java/com/google:five"));
     ShardedTargetList shards =
-        BlazeBuildTargetSharder.shardSingleTargets(targets, /* isRemote= */ false, 2);
+        BlazeBuildTargetSharder.shardSingleTargets(project, targets, /* isRemote= */ false, 2);
     assertThat(shards.shardedTargets).hasSize(3);
     assertThat(shards.shardedTargets.get(0)).hasSize(2);
     assertThat(shards.shardedTargets.get(1)).hasSize(2);
     assertThat(shards.shardedTargets.get(2)).hasSize(1);
 
-    shards = BlazeBuildTargetSharder.shardSingleTargets(targets, /* isRemote= */ false, 4);
+    shards = BlazeBuildTargetSharder.shardSingleTargets(project, targets, /* isRemote= */ false, 4);
     assertThat(shards.shardedTargets).hasSize(2);
     assertThat(shards.shardedTargets.get(0)).hasSize(4);
     assertThat(shards.shardedTargets.get(1)).hasSize(1);
 
-    shards = BlazeBuildTargetSharder.shardSingleTargets(targets, /* isRemote= */ false, 100);
+    shards =
+        BlazeBuildTargetSharder.shardSingleTargets(project, targets, /* isRemote= */ false, 100);
     assertThat(shards.shardedTargets).hasSize(1);
     assertThat(shards.shardedTargets.get(0)).hasSize(5);
   }
@@ -80,7 +81,7 @@ public class BlazeBuildTargetSharderTest extends BlazeTestCase {
             target("//java/com/c:target"),
             target("-//java/com/e:target"));
     ShardedTargetList shards =
-        BlazeBuildTargetSharder.shardSingleTargets(targets, /* isRemote= */ false, 2);
+        BlazeBuildTargetSharder.shardSingleTargets(project, targets, /* isRemote= */ false, 2);
     assertThat(shards.shardedTargets).hasSize(2);
     assertThat(shards.shardedTargets.get(0))
         .containsExactly(target("//java/com/a:target"), target("//java/com/b:target"))
@@ -101,7 +102,7 @@ public class BlazeBuildTargetSharderTest extends BlazeTestCase {
             target("-//java/com/google:three"),
             target("-//java/com/google:six"));
     ShardedTargetList shards =
-        BlazeBuildTargetSharder.shardSingleTargets(targets, /* isRemote= */ false, 3);
+        BlazeBuildTargetSharder.shardSingleTargets(project, targets, /* isRemote= */ false, 3);
 
     assertThat(shards.shardedTargets).hasSize(1);
     assertThat(shards.shardedTargets.get(0)).containsExactly(target("//java/com/google:two"));
@@ -117,7 +118,7 @@ public class BlazeBuildTargetSharderTest extends BlazeTestCase {
             target("//java/com/foo:other"),
             target("-//java/com/foo/..."));
     ShardedTargetList shards =
-        BlazeBuildTargetSharder.shardSingleTargets(targets, /* isRemote= */ false, 2);
+        BlazeBuildTargetSharder.shardSingleTargets(project, targets, /* isRemote= */ false, 2);
     assertThat(shards.shardedTargets).hasSize(1);
     assertThat(shards.shardedTargets.get(0))
         .containsExactly(target("//java/com/bar:target"), target("//java/com/baz:target"))
@@ -134,7 +135,7 @@ public class BlazeBuildTargetSharderTest extends BlazeTestCase {
             target("-//java/com/google:two"),
             target("//java/com/google:two"));
     ShardedTargetList shards =
-        BlazeBuildTargetSharder.shardSingleTargets(targets, /* isRemote= */ false, 3);
+        BlazeBuildTargetSharder.shardSingleTargets(project, targets, /* isRemote= */ false, 3);
     assertThat(shards.shardedTargets).hasSize(1);
     assertThat(shards.shardedTargets.get(0))
         .containsExactly(target("//java/com/google:one"), target("//java/com/google:two"));
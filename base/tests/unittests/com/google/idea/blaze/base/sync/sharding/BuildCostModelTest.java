@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BuildCostModel}. */
+@RunWith(JUnit4.class)
+public class BuildCostModelTest {
+
+  @Test
+  public void testUnknownPackagesAreShardedBySize() {
+    BuildCostModel model = new BuildCostModel();
+
+    ImmutableList<ImmutableList<Label>> shards =
+        model.partition(labels("//a:1", "//a:2", "//b:1", "//b:2", "//c:1"), 2);
+
+    assertThat(shards)
+        .containsExactly(
+            labels("//a:1", "//a:2").asList(),
+            labels("//b:1", "//b:2").asList(),
+            labels("//c:1").asList())
+        .inOrder();
+  }
+
+  @Test
+  public void testExpensivePackagesGetSmallerShards() {
+    BuildCostModel model = new BuildCostModel();
+    model.recordBuild(labels("//a:1", "//a:2"), 10000);
+    model.recordBuild(labels("//b:1", "//b:2", "//b:3", "//b:4"), 400);
+
+    ImmutableList<ImmutableList<Label>> shards =
+        model.partition(labels("//a:1", "//a:2", "//b:1", "//b:2", "//b:3", "//b:4"), 3);
+
+    assertThat(shards.stream().map(ImmutableList::size).collect(toImmutableList()))
+        .containsExactly(1, 5)
+        .inOrder();
+  }
+
+  @Test
+  public void testPredictionsLearnedFromBuilds() {
+    BuildCostModel model = new BuildCostModel();
+    model.recordBuild(labels("//a:1", "//a:2"), 10000);
+
+    assertThat(model.predictMillis(labels("//a:1", "//a:2"))).isEqualTo(10000L);
+    assertThat(model.predictMillis(labels("//a:3"))).isEqualTo(5000L);
+  }
+
+  @Test
+  public void testShardSizeIsBounded() {
+    BuildCostModel model = new BuildCostModel();
+    model.recordBuild(labels("//z:1"), 100000);
+    model.recordBuild(labels("//b:1", "//b:2", "//b:3", "//b:4", "//b:5"), 5);
+
+    ImmutableList<ImmutableList<Label>> shards =
+        model.partition(labels("//b:1", "//b:2", "//b:3", "//b:4", "//b:5", "//z:1"), 2);
+
+    assertThat(shards.stream().map(ImmutableList::size).collect(toImmutableList()))
+        .containsExactly(4, 1, 1)
+        .inOrder();
+  }
+
+  private static ImmutableSet<Label> labels(String... labels) {
+    return Arrays.stream(labels).map(Label::create).collect(ImmutableSet.toImmutableSet());
+  }
+}
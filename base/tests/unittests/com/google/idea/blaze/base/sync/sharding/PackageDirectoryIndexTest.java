@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PackageDirectoryIndex} */
+@RunWith(JUnit4.class)
+public class PackageDirectoryIndexTest {
+
+  private static final ImmutableList<String> BUILD_FILE_NAMES = ImmutableList.of("BUILD");
+
+  /** Old enough that entries aren't considered to be racily modified. */
+  private static final long MODIFIED_TIME = 1000;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReusesUnmodifiedDirectoriesAfterReload() throws Exception {
+    File root = new File("/workspace/java");
+    File child = new File(root, "foo");
+    PackageDirectoryIndex index = PackageDirectoryIndex.empty(BUILD_FILE_NAMES);
+    index.addRoot(root);
+    index.put(root, entry(MODIFIED_TIME, false, "foo"));
+    index.put(child, entry(MODIFIED_TIME + 1, true));
+    File file = new File(folder.getRoot(), "index");
+    index.save(file);
+
+    PackageDirectoryIndex loaded = PackageDirectoryIndex.load(file, BUILD_FILE_NAMES);
+
+    assertThat(loaded.get(root, MODIFIED_TIME).childDirectories).containsExactly("foo");
+    assertThat(loaded.get(child, MODIFIED_TIME + 1).hasBuildFile).isTrue();
+    assertThat(loaded.getReusedCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testModifiedDirectoryIsNotReused() throws Exception {
+    File root = new File("/workspace/java");
+    PackageDirectoryIndex index = PackageDirectoryIndex.empty(BUILD_FILE_NAMES);
+    index.addRoot(root);
+    index.put(root, entry(MODIFIED_TIME, true));
+    File file = new File(folder.getRoot(), "index");
+    index.save(file);
+
+    PackageDirectoryIndex loaded = PackageDirectoryIndex.load(file, BUILD_FILE_NAMES);
+
+    assertThat(loaded.get(root, MODIFIED_TIME + 1)).isNull();
+  }
+
+  @Test
+  public void testRecentlyModifiedDirectoryIsNotPersisted() throws Exception {
+    File root = new File("/workspace/java");
+    PackageDirectoryIndex index = PackageDirectoryIndex.empty(BUILD_FILE_NAMES);
+    long now = System.currentTimeMillis();
+    index.addRoot(root);
+    index.put(root, entry(now, true));
+    File file = new File(folder.getRoot(), "index");
+    index.save(file);
+
+    assertThat(index.get(root, now)).isNotNull();
+    assertThat(PackageDirectoryIndex.load(file, BUILD_FILE_NAMES).get(root, now)).isNull();
+  }
+
+  @Test
+  public void testIndexForOtherBuildFileNamesIsIgnored() throws Exception {
+    File root = new File("/workspace/java");
+    PackageDirectoryIndex index = PackageDirectoryIndex.empty(BUILD_FILE_NAMES);
+    index.addRoot(root);
+    index.put(root, entry(MODIFIED_TIME, true));
+    File file = new File(folder.getRoot(), "index");
+    index.save(file);
+
+    PackageDirectoryIndex loaded =
+        PackageDirectoryIndex.load(file, ImmutableList.of("BUILD.bazel", "BUILD"));
+
+    assertThat(loaded.get(root, MODIFIED_TIME)).isNull();
+  }
+
+  @Test
+  public void testNestedRootIsSavedOnce() throws Exception {
+    File root = new File("/workspace/java");
+    File child = new File(root, "foo");
+    PackageDirectoryIndex index = PackageDirectoryIndex.empty(BUILD_FILE_NAMES);
+    index.addRoot(root);
+    index.addRoot(child);
+    index.put(root, entry(MODIFIED_TIME, false, "foo"));
+    index.put(child, entry(MODIFIED_TIME, true));
+    File file = new File(folder.getRoot(), "index");
+    index.save(file);
+
+    PackageDirectoryIndex loaded = PackageDirectoryIndex.load(file, BUILD_FILE_NAMES);
+
+    assertThat(loaded.get(child, MODIFIED_TIME)).isNotNull();
+    assertThat(loaded.get(root, MODIFIED_TIME)).isNotNull();
+  }
+
+  private static PackageDirectoryIndex.Entry entry(
+      long modifiedTime, boolean hasBuildFile, String... children) {
+    return new PackageDirectoryIndex.Entry(
+        modifiedTime, hasBuildFile, ImmutableList.copyOf(children));
+  }
+}
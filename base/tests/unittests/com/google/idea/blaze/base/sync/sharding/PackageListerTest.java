@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.bazel.BazelBuildSystemProvider;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolverImpl;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the directory traversal in {@link PackageLister}. */
+@RunWith(JUnit4.class)
+public class PackageListerTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(FileOperationProvider.class, new FileOperationProvider());
+  }
+
+  @Test
+  public void testFindsNestedPackages() throws Exception {
+    createBuildFile("java/BUILD");
+    createBuildFile("java/com/foo/BUILD.bazel");
+    createBuildFile("java/com/foo/bar/baz/BUILD");
+    new File(folder.getRoot(), "java/com/empty").mkdirs();
+
+    assertThat(traverse("java", ImmutableList.of(), null))
+        .containsExactly(
+            packageTarget("java"),
+            packageTarget("java/com/foo"),
+            packageTarget("java/com/foo/bar/baz"));
+  }
+
+  @Test
+  public void testSkipsRecursivelyExcludedSubtrees() throws Exception {
+    createBuildFile("java/BUILD");
+    createBuildFile("java/excluded/BUILD");
+    createBuildFile("java/excluded/nested/BUILD");
+    createBuildFile("java/included/BUILD");
+    PackageDirectoryIndex index =
+        PackageDirectoryIndex.empty(new BazelBuildSystemProvider().possibleBuildFileNames());
+
+    assertThat(traverse("java", ImmutableList.of("-//java/excluded/..."), index))
+        .containsExactly(packageTarget("java"), packageTarget("java/included"));
+    assertThat(index.get(new File(folder.getRoot(), "java/included"), 0)).isNotNull();
+    // the excluded subtree isn't listed at all
+    assertThat(index.get(new File(folder.getRoot(), "java/excluded"), 0)).isNull();
+  }
+
+  @Test
+  public void testSkipsExcludedPackageButTraversesItsChildren() throws Exception {
+    createBuildFile("java/excluded/BUILD");
+    createBuildFile("java/excluded/nested/BUILD");
+
+    assertThat(traverse("java", ImmutableList.of("-//java/excluded:all"), null))
+        .containsExactly(packageTarget("java/excluded/nested"));
+  }
+
+  @Test
+  public void testDirectoryNamedBuildIsNotABuildFile() throws Exception {
+    new File(folder.getRoot(), "java/BUILD").mkdirs();
+
+    assertThat(traverse("java", ImmutableList.of(), null)).isEmpty();
+  }
+
+  private List<TargetExpression> traverse(
+      String root, List<String> laterPatterns, @Nullable PackageDirectoryIndex index) {
+    PackageLister.Traversal traversal =
+        new PackageLister.Traversal(
+            new BazelBuildSystemProvider(),
+            new WorkspacePathResolverImpl(new WorkspaceRoot(folder.getRoot())),
+            laterPatterns.stream()
+                .map(TargetExpression::fromStringSafe)
+                .map(WildcardTargetPattern::fromExpression)
+                .collect(toImmutableList()),
+            index,
+            new AtomicBoolean());
+    return traversal.traverse(new File(folder.getRoot(), root));
+  }
+
+  private void createBuildFile(String relativePath) throws IOException {
+    File file = new File(folder.getRoot(), relativePath);
+    file.getParentFile().mkdirs();
+    file.createNewFile();
+  }
+
+  private static TargetExpression packageTarget(String packagePath) {
+    return TargetExpression.allFromPackageNonRecursive(new WorkspacePath(packagePath));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TargetDependencyGraph}. */
+@RunWith(JUnit4.class)
+public class TargetDependencyGraphTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testTransitiveDependenciesAreBreadthFirst() {
+    TargetDependencyGraph graph =
+        TargetDependencyGraph.create(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a").addDependency("//pkg:b").addDependency("//pkg:c"))
+                .addTarget(target("//pkg:b").addDependency("//pkg:d"))
+                .addTarget(target("//pkg:c").addDependency("//pkg:d").addDependency("//pkg:e"))
+                .addTarget(target("//pkg:d"))
+                .build());
+
+    assertThat(graph.getTransitiveDependencies(key("//pkg:a")))
+        .containsExactly(key("//pkg:b"), key("//pkg:c"), key("//pkg:d"), key("//pkg:e"))
+        .inOrder();
+    assertThat(graph.getTransitiveDependencies(key("//pkg:d"))).isEmpty();
+    assertThat(graph.getTransitiveDependencies(key("//pkg:unknown"))).isEmpty();
+  }
+
+  @Test
+  public void testHasTransitiveDependencyReusesMemoizedClosures() {
+    TargetDependencyGraph graph =
+        TargetDependencyGraph.create(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a").addDependency("//pkg:b"))
+                .addTarget(target("//pkg:b").addDependency("//pkg:c"))
+                .addTarget(target("//pkg:c").addDependency("//pkg:d"))
+                .addTarget(target("//pkg:d"))
+                .build());
+
+    // memoize an inner closure first, then query through it
+    assertThat(graph.hasTransitiveDependency(key("//pkg:b"), key("//pkg:d"))).isTrue();
+    assertThat(graph.hasTransitiveDependency(key("//pkg:a"), key("//pkg:d"))).isTrue();
+    assertThat(graph.hasTransitiveDependency(key("//pkg:a"), key("//pkg:c"))).isTrue();
+    assertThat(graph.hasTransitiveDependency(key("//pkg:d"), key("//pkg:a"))).isFalse();
+    assertThat(graph.hasTransitiveDependency(key("//pkg:a"), key("//pkg:a"))).isFalse();
+  }
+
+  @Test
+  public void testCyclesTerminate() {
+    TargetDependencyGraph graph =
+        TargetDependencyGraph.create(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a").addDependency("//pkg:b"))
+                .addTarget(target("//pkg:b").addDependency("//pkg:a"))
+                .build());
+
+    assertThat(graph.hasTransitiveDependency(key("//pkg:a"), key("//pkg:a"))).isTrue();
+    assertThat(graph.getTransitiveDependencies(key("//pkg:a")))
+        .containsExactly(key("//pkg:b"), key("//pkg:a"))
+        .inOrder();
+  }
+
+  @Test
+  public void testReverseDependenciesOnlyIncludeTargetsInMap() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//pkg:a").addDependency("//pkg:c").addDependency("//pkg:external"))
+            .addTarget(target("//pkg:b").addDependency("//pkg:c"))
+            .addTarget(target("//pkg:c"))
+            .build();
+    TargetDependencyGraph graph = TargetDependencyGraph.create(targetMap);
+
+    assertThat(graph.getReverseDependencies(key("//pkg:c")))
+        .containsExactly(key("//pkg:a"), key("//pkg:b"))
+        .inOrder();
+    assertThat(graph.getReverseDependencies(key("//pkg:external"))).isEmpty();
+    assertThat(graph.toReverseDependencyMultimap().keySet()).containsExactly(key("//pkg:c"));
+  }
+
+  @Test
+  public void testReverseTransitiveClosureIsBreadthFirst() {
+    TargetDependencyGraph graph =
+        TargetDependencyGraph.create(
+            TargetMapBuilder.builder()
+                .addTarget(target("//pkg:a").addDependency("//pkg:c"))
+                .addTarget(target("//pkg:b").addDependency("//pkg:c"))
+                .addTarget(target("//pkg:c"))
+                .addTarget(target("//pkg:d").addDependency("//pkg:a"))
+                .addTarget(target("//pkg:e").addDependency("//pkg:b").addDependency("//pkg:d"))
+                .build());
+
+    assertThat(graph.getReverseTransitiveClosure(ImmutableList.of(key("//pkg:c"))))
+        .containsExactly(
+            key("//pkg:c"), key("//pkg:a"), key("//pkg:b"), key("//pkg:d"), key("//pkg:e"))
+        .inOrder();
+    assertThat(
+            graph.getReverseTransitiveClosure(
+                ImmutableList.of(key("//pkg:d"), key("//pkg:unknown"), key("//pkg:c"))))
+        .containsExactly(
+            key("//pkg:d"), key("//pkg:c"), key("//pkg:e"), key("//pkg:a"), key("//pkg:b"))
+        .inOrder();
+  }
+
+  private static TargetIdeInfo.Builder target(String label) {
+    return TargetIdeInfo.builder().setLabel(label).setKind("proto_library");
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+}
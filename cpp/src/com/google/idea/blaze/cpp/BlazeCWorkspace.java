@@ -19,8 +19,14 @@ package com.google.idea.blaze.cpp;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.ideinfo.CIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.BlazeProjectData;
@@ -32,6 +38,7 @@ import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.SyncMode;
 import com.google.idea.blaze.base.sync.workspace.ExecutionRootPathResolver;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.ide.actions.ShowFilePathAction;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.PathManager;
@@ -39,6 +46,7 @@ import com.intellij.openapi.application.TransactionGuard;
 import com.intellij.openapi.components.ProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
@@ -66,14 +74,20 @@ import com.jetbrains.cidr.lang.workspace.compiler.CompilerInfoCache.Session;
 import com.jetbrains.cidr.lang.workspace.compiler.OCCompilerKind;
 import com.jetbrains.cidr.lang.workspace.compiler.TempFilesPool;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /** Main entry point for C/CPP configuration data. */
 public final class BlazeCWorkspace implements ProjectComponent {
@@ -82,8 +96,13 @@ public final class BlazeCWorkspace implements ProjectComponent {
   private static final int SERIALIZATION_VERSION = 1;
   private static final Logger logger = Logger.getInstance(BlazeCWorkspace.class);
 
+  private static final BoolExperiment parallelConfigurations =
+      new BoolExperiment("blaze.cpp.parallel.configurations", false);
+
   private final BlazeConfigurationResolver configurationResolver;
   private BlazeConfigurationResolverResult resolverResult;
+  // only accessed from the configuration sync task
+  private volatile ComputedWorkspace computedWorkspace = ComputedWorkspace.EMPTY;
   private final ImmutableList<OCLanguageKind> supportedLanguages =
       ImmutableList.of(CLanguageKind.C, CLanguageKind.CPP);
 
@@ -139,7 +158,11 @@ public final class BlazeCWorkspace implements ProjectComponent {
                   indicator.setFraction(0.0);
                   OCWorkspaceImpl.ModifiableModel model =
                       calculateConfigurations(
-                          blazeProjectData, workspaceRoot, newResult, indicator);
+                          blazeProjectData,
+                          workspaceRoot,
+                          newResult,
+                          !syncMode.equals(SyncMode.FULL),
+                          indicator);
                   ImmutableList<String> issues =
                       commit(model, SERIALIZATION_VERSION, toolEnvironment);
                   logger.info(
@@ -159,6 +182,7 @@ public final class BlazeCWorkspace implements ProjectComponent {
       BlazeProjectData blazeProjectData,
       WorkspaceRoot workspaceRoot,
       BlazeConfigurationResolverResult configResolveData,
+      boolean reuseUnchanged,
       ProgressIndicator indicator) {
 
     OCWorkspaceImpl.ModifiableModel workspaceModifiable =
@@ -171,126 +195,328 @@ public final class BlazeCWorkspace implements ProjectComponent {
             workspaceRoot,
             blazeProjectData.getBlazeInfo().getExecutionRoot(),
             blazeProjectData.getWorkspacePathResolver());
+    IncludeDirectoryCache includeDirectories =
+        new IncludeDirectoryCache(executionRootPathResolver);
+    CompilerSwitchesInterner switchesInterner = new CompilerSwitchesInterner();
+
+    List<ComputedConfiguration> computed;
+    if (parallelConfigurations.getValue()) {
+      ComputedWorkspace previous =
+          reuseUnchanged
+                  && computedWorkspace.isReusableFor(
+                      configResolveData, executionRootPathResolver.getExecutionRoot())
+              ? computedWorkspace
+              : ComputedWorkspace.EMPTY;
+      computed =
+          computeInParallel(
+              blazeProjectData,
+              configResolveData,
+              includeDirectories,
+              switchesInterner,
+              previous,
+              configurations,
+              indicator);
+    } else {
+      computed = new ArrayList<>(configurations.size());
+      int progress = 0;
+      for (BlazeResolveConfiguration resolveConfiguration : configurations) {
+        indicator.setText2(resolveConfiguration.getDisplayName());
+        indicator.setFraction(((double) progress) / configurations.size());
+        computed.add(
+            computeConfiguration(
+                blazeProjectData,
+                configResolveData,
+                includeDirectories,
+                switchesInterner,
+                resolveConfiguration));
+        progress++;
+      }
+    }
 
-    int progress = 0;
+    logger.info(
+        String.format(
+            "%d source files share %d distinct compiler switch lists",
+            computed.stream().mapToInt(c -> c.configSourceFiles.size()).sum(),
+            switchesInterner.size()));
+
+    ImmutableMap.Builder<BlazeResolveConfigurationData, ComputedConfiguration> computedMap =
+        ImmutableMap.builder();
+    for (ComputedConfiguration configuration : computed) {
+      String id = configuration.configuration.getDisplayName();
+      addConfiguration(
+          workspaceModifiable,
+          id,
+          id,
+          workspaceRoot.directory(),
+          configuration.configLanguages,
+          configuration.configSourceFiles);
+      computedMap.put(configuration.configuration.getConfigurationData(), configuration);
+    }
+    computedWorkspace =
+        new ComputedWorkspace(
+            configResolveData, executionRootPathResolver.getExecutionRoot(), computedMap.build());
+    return workspaceModifiable;
+  }
 
+  /**
+   * Computes the switches of each configuration on a pooled thread, reusing the previously
+   * computed switches of configurations which haven't changed. Results are in the same order as
+   * the configurations.
+   */
+  private List<ComputedConfiguration> computeInParallel(
+      BlazeProjectData blazeProjectData,
+      BlazeConfigurationResolverResult configResolveData,
+      IncludeDirectoryCache includeDirectories,
+      CompilerSwitchesInterner switchesInterner,
+      ComputedWorkspace previous,
+      ImmutableList<BlazeResolveConfiguration> configurations,
+      ProgressIndicator indicator) {
+    AtomicInteger progress = new AtomicInteger();
+    int reused = 0;
+    List<ListenableFuture<ComputedConfiguration>> futures =
+        new ArrayList<>(configurations.size());
     for (BlazeResolveConfiguration resolveConfiguration : configurations) {
-      indicator.setText2(resolveConfiguration.getDisplayName());
-      indicator.setFraction(((double) progress) / configurations.size());
-      BlazeCompilerSettings compilerSettings = resolveConfiguration.getCompilerSettings();
-      Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages = new HashMap<>();
-      Map<VirtualFile, PerFileCompilerOpts> configSourceFiles = new HashMap<>();
-      for (TargetKey targetKey : resolveConfiguration.getTargets()) {
-        TargetIdeInfo targetIdeInfo = blazeProjectData.getTargetMap().get(targetKey);
-        if (targetIdeInfo == null || targetIdeInfo.getcIdeInfo() == null) {
-          continue;
-        }
+      ComputedConfiguration unchanged = previous.getIfUnchanged(resolveConfiguration);
+      if (unchanged != null) {
+        futures.add(Futures.immediateFuture(unchanged));
+        reused++;
+        continue;
+      }
+      futures.add(
+          BlazeExecutor.getInstance()
+              .submit(
+                  () -> {
+                    ComputedConfiguration result =
+                        computeConfiguration(
+                            blazeProjectData,
+                            configResolveData,
+                            includeDirectories,
+                            switchesInterner,
+                            resolveConfiguration);
+                    indicator.setText2(resolveConfiguration.getDisplayName());
+                    indicator.setFraction(
+                        ((double) progress.incrementAndGet()) / configurations.size());
+                    return result;
+                  }));
+    }
+    logger.info(
+        String.format(
+            "Reusing %d of %d unchanged C configurations", reused, configurations.size()));
+    try {
+      return Futures.allAsList(futures).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException("Could not compute C configurations", e.getCause());
+    }
+  }
 
-        // defines and include directories are the same for all sources in a given target, so lets
-        // collect them once and reuse for each source file's options
-
-        UnfilteredCompilerOptions coptsExtractor =
-            UnfilteredCompilerOptions.builder()
-                .registerSingleOrSplitOption("-I")
-                .build(targetIdeInfo.getcIdeInfo().getLocalCopts());
-        ImmutableList<String> plainLocalCopts =
-            filterIncompatibleFlags(coptsExtractor.getUninterpretedOptions());
-        ImmutableList<ExecutionRootPath> localIncludes =
-            coptsExtractor.getExtractedOptionValues("-I").stream()
-                .map(ExecutionRootPath::new)
-                .collect(toImmutableList());
-
-        // transitiveDefines are sourced from a target's (and transitive deps) "defines" attribute
-        ImmutableList<String> transitiveDefineOptions =
-            targetIdeInfo.getcIdeInfo().getTransitiveDefines().stream()
-                .map(s -> "-D" + s)
-                .collect(toImmutableList());
-
-        Function<ExecutionRootPath, Stream<File>> resolver =
-            executionRootPath ->
-                executionRootPathResolver.resolveToIncludeDirectories(executionRootPath).stream();
-        // localIncludes are sourced from -I options in a target's "copts" attribute. They  can be
-        // arbitrarily declared and may not exist in configResolveData.
-        // transitiveIncludeDirectories are sourced from CcSkylarkApiProvider.include_directories
-
-        ImmutableList<String> iOptionIncludeDirectories =
-            Stream.concat(
-                    localIncludes.stream().flatMap(resolver),
-                    targetIdeInfo.getcIdeInfo().getTransitiveIncludeDirectories().stream()
-                        .flatMap(resolver)
-                        .filter(configResolveData::isValidHeaderRoot))
-                .map(file -> "-I" + file.getAbsolutePath())
-                .collect(toImmutableList());
-
-        // transitiveQuoteIncludeDirectories are sourced from
-        // CcSkylarkApiProvider.quote_include_directories
-        ImmutableList<String> iquoteOptionIncludeDirectories =
-            targetIdeInfo.getcIdeInfo().getTransitiveQuoteIncludeDirectories().stream()
-                .flatMap(resolver)
-                .filter(configResolveData::isValidHeaderRoot)
-                .map(file -> "-iquote" + file.getAbsolutePath())
-                .collect(toImmutableList());
-        // transitiveSystemIncludeDirectories are sourced from
-        // CcSkylarkApiProvider.system_include_directories
-        // Note: We would ideally use -isystem here, but it interacts badly with the switches
-        // that get built by ClangUtils::addIncludeDirectories (it uses -I for system libraries).
-        ImmutableList<String> isystemOptionIncludeDirectories =
-            targetIdeInfo.getcIdeInfo().getTransitiveSystemIncludeDirectories().stream()
-                .flatMap(resolver)
-                .filter(configResolveData::isValidHeaderRoot)
-                .map(file -> "-I" + file.getAbsolutePath())
-                .collect(toImmutableList());
-
-        for (VirtualFile vf : resolveConfiguration.getSources(targetKey)) {
-          OCLanguageKind kind = resolveConfiguration.getDeclaredLanguageKind(vf);
-          if (kind == null) {
-            kind = CLanguageKind.CPP;
-          }
+  private ComputedConfiguration computeConfiguration(
+      BlazeProjectData blazeProjectData,
+      BlazeConfigurationResolverResult configResolveData,
+      IncludeDirectoryCache includeDirectories,
+      CompilerSwitchesInterner switchesInterner,
+      BlazeResolveConfiguration resolveConfiguration) {
+    BlazeCompilerSettings compilerSettings = resolveConfiguration.getCompilerSettings();
+    Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages = new HashMap<>();
+    Map<VirtualFile, PerFileCompilerOpts> configSourceFiles = new HashMap<>();
+    // The configuration's targets all have the same copts, defines and include directories, so
+    // their switches are computed once and reused for each target's sources.
+    TargetSwitches targetSwitches = null;
+    for (TargetKey targetKey : resolveConfiguration.getTargets()) {
+      TargetIdeInfo targetIdeInfo = blazeProjectData.getTargetMap().get(targetKey);
+      if (targetIdeInfo == null || targetIdeInfo.getcIdeInfo() == null) {
+        continue;
+      }
+      if (targetSwitches == null) {
+        targetSwitches =
+            new TargetSwitches(
+                targetIdeInfo.getcIdeInfo(),
+                includeDirectories,
+                switchesInterner,
+                configResolveData);
+      }
 
-          CidrSwitchBuilder fileSpecificSwitchBuilder = new CidrSwitchBuilder();
-
-          ImmutableList<String> baseSwitches = compilerSettings.getCompilerSwitches(kind, vf);
-          fileSpecificSwitchBuilder.addAllRaw(baseSwitches);
-          fileSpecificSwitchBuilder.addAllRaw(transitiveDefineOptions);
-          fileSpecificSwitchBuilder.addAllRaw(iquoteOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(iOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(isystemOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(plainLocalCopts);
-
-          PerFileCompilerOpts perFileCompilerOpts =
-              new PerFileCompilerOpts(kind, fileSpecificSwitchBuilder.build());
-          configSourceFiles.put(vf, perFileCompilerOpts);
-          if (!configLanguages.containsKey(kind)) {
-            addConfigLanguageSwitches(
-                configLanguages, compilerSettings,
-                // If a file isn't found in configSourceFiles (newly created files), CLion uses the
-                // configLanguages switches. We want some basic header search roots (genfiles),
-                // which are part of every target's iquote directories. See:
-                // https://github.com/bazelbuild/bazel/blob/2c493e8a2132d54f4b2fb8046f6bcef11e92cd22/src/main/java/com/google/devtools/build/lib/rules/cpp/CcCompilationHelper.java#L911
-                iquoteOptionIncludeDirectories, kind);
-          }
+      for (VirtualFile vf : resolveConfiguration.getSources(targetKey)) {
+        OCLanguageKind kind = resolveConfiguration.getDeclaredLanguageKind(vf);
+        if (kind == null) {
+          kind = CLanguageKind.CPP;
         }
-      }
 
-      for (OCLanguageKind language : supportedLanguages) {
-        if (!configLanguages.containsKey(language)) {
+        // files with the same switches share a single CidrCompilerSwitches
+        ImmutableList<String> baseSwitches =
+            switchesInterner.intern(compilerSettings.getCompilerSwitches(kind, vf));
+        CidrCompilerSwitches fileSwitches =
+            switchesInterner.getSwitches(
+                ImmutableList.of(
+                    baseSwitches,
+                    targetSwitches.transitiveDefineOptions,
+                    targetSwitches.iquoteOptionIncludeDirectories,
+                    targetSwitches.iOptionIncludeDirectories,
+                    targetSwitches.isystemOptionIncludeDirectories,
+                    targetSwitches.plainLocalCopts));
+
+        PerFileCompilerOpts perFileCompilerOpts = new PerFileCompilerOpts(kind, fileSwitches);
+        configSourceFiles.put(vf, perFileCompilerOpts);
+        if (!configLanguages.containsKey(kind)) {
           addConfigLanguageSwitches(
-              configLanguages, compilerSettings, ImmutableList.of(), language);
+              configLanguages, compilerSettings,
+              // If a file isn't found in configSourceFiles (newly created files), CLion uses the
+              // configLanguages switches. We want some basic header search roots (genfiles),
+              // which are part of every target's iquote directories. See:
+              // https://github.com/bazelbuild/bazel/blob/2c493e8a2132d54f4b2fb8046f6bcef11e92cd22/src/main/java/com/google/devtools/build/lib/rules/cpp/CcCompilationHelper.java#L911
+              targetSwitches.iquoteOptionIncludeDirectories, kind);
         }
       }
+    }
 
-      String id = resolveConfiguration.getDisplayName();
+    for (OCLanguageKind language : supportedLanguages) {
+      if (!configLanguages.containsKey(language)) {
+        addConfigLanguageSwitches(configLanguages, compilerSettings, ImmutableList.of(), language);
+      }
+    }
+    return new ComputedConfiguration(resolveConfiguration, configLanguages, configSourceFiles);
+  }
 
-      addConfiguration(
-          workspaceModifiable,
-          id,
-          id,
-          workspaceRoot.directory(),
-          configLanguages,
-          configSourceFiles);
-      progress++;
+  /** Interned compiler switches shared by all the sources of a target. */
+  private static class TargetSwitches {
+    final ImmutableList<String> plainLocalCopts;
+    final ImmutableList<String> transitiveDefineOptions;
+    final ImmutableList<String> iOptionIncludeDirectories;
+    final ImmutableList<String> iquoteOptionIncludeDirectories;
+    final ImmutableList<String> isystemOptionIncludeDirectories;
+
+    TargetSwitches(
+        CIdeInfo cIdeInfo,
+        IncludeDirectoryCache includeDirectories,
+        CompilerSwitchesInterner switchesInterner,
+        BlazeConfigurationResolverResult configResolveData) {
+      UnfilteredCompilerOptions coptsExtractor =
+          UnfilteredCompilerOptions.builder()
+              .registerSingleOrSplitOption("-I")
+              .build(cIdeInfo.getLocalCopts());
+      plainLocalCopts =
+          switchesInterner.intern(
+              filterIncompatibleFlags(coptsExtractor.getUninterpretedOptions()));
+      ImmutableList<ExecutionRootPath> localIncludes =
+          coptsExtractor.getExtractedOptionValues("-I").stream()
+              .map(ExecutionRootPath::new)
+              .collect(toImmutableList());
+
+      // transitiveDefines are sourced from a target's (and transitive deps) "defines" attribute
+      transitiveDefineOptions =
+          switchesInterner.intern(
+              cIdeInfo.getTransitiveDefines().stream()
+                  .map(s -> "-D" + s)
+                  .collect(toImmutableList()));
+
+      Function<ExecutionRootPath, Stream<File>> resolver = includeDirectories::resolve;
+      // localIncludes are sourced from -I options in a target's "copts" attribute. They  can be
+      // arbitrarily declared and may not exist in configResolveData.
+      // transitiveIncludeDirectories are sourced from CcSkylarkApiProvider.include_directories
+      iOptionIncludeDirectories =
+          switchesInterner.intern(
+              Stream.concat(
+                      localIncludes.stream().flatMap(resolver),
+                      cIdeInfo.getTransitiveIncludeDirectories().stream()
+                          .flatMap(resolver)
+                          .filter(configResolveData::isValidHeaderRoot))
+                  .map(file -> "-I" + file.getAbsolutePath())
+                  .collect(toImmutableList()));
+
+      // transitiveQuoteIncludeDirectories are sourced from
+      // CcSkylarkApiProvider.quote_include_directories
+      iquoteOptionIncludeDirectories =
+          switchesInterner.intern(
+              cIdeInfo.getTransitiveQuoteIncludeDirectories().stream()
+                  .flatMap(resolver)
+                  .filter(configResolveData::isValidHeaderRoot)
+                  .map(file -> "-iquote" + file.getAbsolutePath())
+                  .collect(toImmutableList()));
+      // transitiveSystemIncludeDirectories are sourced from
+      // CcSkylarkApiProvider.system_include_directories
+      // Note: We would ideally use -isystem here, but it interacts badly with the switches
+      // that get built by ClangUtils::addIncludeDirectories (it uses -I for system libraries).
+      isystemOptionIncludeDirectories =
+          switchesInterner.intern(
+              cIdeInfo.getTransitiveSystemIncludeDirectories().stream()
+                  .flatMap(resolver)
+                  .filter(configResolveData::isValidHeaderRoot)
+                  .map(file -> "-I" + file.getAbsolutePath())
+                  .collect(toImmutableList()));
+    }
+  }
+
+  /**
+   * Memoizes the include directories of each {@link ExecutionRootPath}. Include paths overlap
+   * heavily between configurations, so most are only resolved once.
+   */
+  private static class IncludeDirectoryCache {
+    private final ExecutionRootPathResolver resolver;
+    private final ConcurrentMap<ExecutionRootPath, ImmutableList<File>> directories =
+        new ConcurrentHashMap<>();
+
+    IncludeDirectoryCache(ExecutionRootPathResolver resolver) {
+      this.resolver = resolver;
+    }
+
+    Stream<File> resolve(ExecutionRootPath path) {
+      return directories.computeIfAbsent(path, resolver::resolveToIncludeDirectories).stream();
+    }
+  }
+
+  /** The switches computed for a configuration. */
+  private static class ComputedConfiguration {
+    final BlazeResolveConfiguration configuration;
+    final Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages;
+    final Map<VirtualFile, PerFileCompilerOpts> configSourceFiles;
+
+    ComputedConfiguration(
+        BlazeResolveConfiguration configuration,
+        Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages,
+        Map<VirtualFile, PerFileCompilerOpts> configSourceFiles) {
+      this.configuration = configuration;
+      this.configLanguages = configLanguages;
+      this.configSourceFiles = configSourceFiles;
+    }
+  }
+
+  /** The configurations computed by the last update, and the inputs they were computed from. */
+  private static class ComputedWorkspace {
+    static final ComputedWorkspace EMPTY =
+        new ComputedWorkspace(BlazeConfigurationResolverResult.empty(), null, ImmutableMap.of());
+
+    final BlazeConfigurationResolverResult resolverResult;
+    @Nullable final File executionRoot;
+    final ImmutableMap<BlazeResolveConfigurationData, ComputedConfiguration> configurations;
+
+    ComputedWorkspace(
+        BlazeConfigurationResolverResult resolverResult,
+        @Nullable File executionRoot,
+        ImmutableMap<BlazeResolveConfigurationData, ComputedConfiguration> configurations) {
+      this.resolverResult = resolverResult;
+      this.executionRoot = executionRoot;
+      this.configurations = configurations;
+    }
+
+    /** Include directories are resolved against these, so they must be unchanged for reuse. */
+    boolean isReusableFor(BlazeConfigurationResolverResult newResult, File newExecutionRoot) {
+      return newExecutionRoot.equals(executionRoot)
+          && resolverResult.hasEquivalentHeaderRoots(newResult);
+    }
+
+    @Nullable
+    ComputedConfiguration getIfUnchanged(BlazeResolveConfiguration configuration) {
+      ComputedConfiguration computed = configurations.get(configuration.getConfigurationData());
+      return computed != null
+              && computed.configuration.getCompilerSettings()
+                  == configuration.getCompilerSettings()
+              && computed.configuration.isEquivalentConfigurations(configuration)
+          ? computed
+          : null;
     }
-    return workspaceModifiable;
   }
 
   private static void addConfiguration(
@@ -345,7 +571,7 @@ public final class BlazeCWorkspace implements ProjectComponent {
     }
   }
 
-  private void addConfigLanguageSwitches(
+  private static void addConfigLanguageSwitches(
       Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages,
       BlazeCompilerSettings compilerSettings,
       List<String> additionalSwitches,
@@ -73,6 +73,10 @@ final class BlazeConfigurationResolverResult {
         return false;
       }
     }
+    return hasEquivalentHeaderRoots(other);
+  }
+
+  boolean hasEquivalentHeaderRoots(BlazeConfigurationResolverResult other) {
     return validHeaderRoots.equals(other.validHeaderRoots);
   }
 
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.cpp;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.jetbrains.cidr.lang.toolchains.CidrCompilerSwitches;
+import com.jetbrains.cidr.lang.toolchains.CidrSwitchBuilder;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hash-conses the compiler switches built during a single C/C++ workspace update.
+ *
+ * <p>A file's switches are the concatenation of a few segments: the toolchain's base switches,
+ * then its target's defines, include directories and copts. Segments and the strings in them are
+ * interned, so equal segments are the same instance. Files built from the same segments then share
+ * a single {@link CidrCompilerSwitches}, rather than each holding a copy of the (often very long)
+ * include directory lists.
+ *
+ * <p>Thread-safe. Instances are discarded at the end of the update, so nothing is retained other
+ * than the switches themselves.
+ */
+final class CompilerSwitchesInterner {
+
+  private final Interner<String> strings = Interners.newStrongInterner();
+  private final Interner<ImmutableList<String>> segments = Interners.newStrongInterner();
+  private final ConcurrentMap<SegmentsKey, CidrCompilerSwitches> switches =
+      new ConcurrentHashMap<>();
+
+  /** Returns the canonical instance of this segment of switches. */
+  ImmutableList<String> intern(List<String> segment) {
+    return segments.intern(segment.stream().map(strings::intern).collect(toImmutableList()));
+  }
+
+  /**
+   * Returns the switches made up of these segments, in order. Each segment must have been returned
+   * by {@link #intern}.
+   */
+  CidrCompilerSwitches getSwitches(List<ImmutableList<String>> internedSegments) {
+    return switches.computeIfAbsent(
+        new SegmentsKey(ImmutableList.copyOf(internedSegments)),
+        CompilerSwitchesInterner::buildSwitches);
+  }
+
+  /** The number of distinct switches built so far. */
+  int size() {
+    return switches.size();
+  }
+
+  private static CidrCompilerSwitches buildSwitches(SegmentsKey key) {
+    CidrSwitchBuilder builder = new CidrSwitchBuilder();
+    for (ImmutableList<String> segment : key.segments) {
+      builder.addAllRaw(segment);
+    }
+    return builder.build();
+  }
+
+  /**
+   * A list of interned segments. Compared by the identity of its segments, so lookups don't need to
+   * hash or compare every switch.
+   */
+  private static final class SegmentsKey {
+    private final ImmutableList<ImmutableList<String>> segments;
+    private final int hashCode;
+
+    SegmentsKey(ImmutableList<ImmutableList<String>> segments) {
+      this.segments = segments;
+      int hash = 1;
+      for (ImmutableList<String> segment : segments) {
+        hash = 31 * hash + System.identityHashCode(segment);
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SegmentsKey)) {
+        return false;
+      }
+      SegmentsKey other = (SegmentsKey) o;
+      if (hashCode != other.hashCode || segments.size() != other.segments.size()) {
+        return false;
+      }
+      for (int i = 0; i < segments.size(); i++) {
+        if (segments.get(i) != other.segments.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
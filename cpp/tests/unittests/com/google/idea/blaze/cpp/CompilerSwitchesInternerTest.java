@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.cpp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.jetbrains.cidr.lang.toolchains.CidrCompilerSwitches;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompilerSwitchesInterner}. */
+@RunWith(JUnit4.class)
+public class CompilerSwitchesInternerTest {
+
+  @Test
+  public void testEqualSegmentsAreInterned() {
+    CompilerSwitchesInterner interner = new CompilerSwitchesInterner();
+
+    ImmutableList<String> first = interner.intern(ImmutableList.of("-Ifoo", "-Ibar"));
+    ImmutableList<String> second = interner.intern(ImmutableList.of("-Ifoo", "-Ibar"));
+
+    assertThat(second).isSameAs(first);
+  }
+
+  @Test
+  public void testFilesWithSameSegmentsShareSwitches() {
+    CompilerSwitchesInterner interner = new CompilerSwitchesInterner();
+    ImmutableList<String> base = interner.intern(ImmutableList.of("-O2"));
+    ImmutableList<String> includes = interner.intern(ImmutableList.of("-Ifoo", "-Ibar"));
+    ImmutableList<String> otherIncludes = interner.intern(ImmutableList.of("-Ibaz"));
+
+    CidrCompilerSwitches switches = interner.getSwitches(ImmutableList.of(base, includes));
+
+    assertThat(interner.getSwitches(ImmutableList.of(base, includes))).isSameAs(switches);
+    assertThat(interner.getSwitches(ImmutableList.of(base, otherIncludes)))
+        .isNotSameAs(switches);
+    assertThat(interner.getSwitches(ImmutableList.of(includes, base))).isNotSameAs(switches);
+  }
+
+  @Test
+  public void testLargeTargetMapSharesSwitches() {
+    // 50k files in 500 targets, all with the same base switches. Targets 300 apart have the same
+    // defines and include directories.
+    CompilerSwitchesInterner interner = new CompilerSwitchesInterner();
+    Set<CidrCompilerSwitches> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int target = 0; target < 500; target++) {
+      ImmutableList.Builder<String> includes = ImmutableList.builder();
+      for (int i = 0; i < 200; i++) {
+        includes.add("-Iexternal/dep" + ((target + i) % 300));
+      }
+      ImmutableList<String> defines =
+          interner.intern(ImmutableList.of("-DTARGET_GROUP=" + (target % 10)));
+      ImmutableList<String> includeSegment = interner.intern(includes.build());
+      for (int file = 0; file < 100; file++) {
+        ImmutableList<String> base = interner.intern(ImmutableList.of("-std=c++17", "-O0"));
+        distinct.add(interner.getSwitches(ImmutableList.of(base, defines, includeSegment)));
+      }
+    }
+
+    assertThat(distinct).hasSize(300);
+    assertThat(interner.size()).isEqualTo(300);
+  }
+}
@@ -27,12 +27,14 @@ import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
 import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
 import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.intellij.codeInsight.navigation.CtrlMouseHandler;
 import com.intellij.lang.documentation.DocumentationProviderEx;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiElementResolveResult;
@@ -53,6 +55,8 @@ import javax.annotation.Nullable;
 class BlazeGoImportResolver implements GoImportResolver {
   private static final String GO_PACKAGE_MAP_KEY = "BlazeGoPackageMap";
   private static final String GO_TARGET_MAP_KEY = "BlazeGoTargetMap";
+  private static final Key<ConcurrentMap<String, Optional<BlazeGoPackage>>>
+      PREVIOUS_GO_PACKAGE_MAP_KEY = Key.create("BlazeGoPackageMap.previous");
 
   @Nullable
   @Override
@@ -80,17 +84,51 @@ class BlazeGoImportResolver implements GoImportResolver {
     if (target == null) {
       return null;
     }
-    return goPackageMap
-        .computeIfAbsent(
+    Optional<BlazeGoPackage> goPackage =
+        goPackageMap.computeIfAbsent(
             importPath,
-            (path) -> Optional.of(new BlazeGoPackage(project, projectData, path, target)))
-        .orElse(null);
+            (path) -> Optional.of(new BlazeGoPackage(project, projectData, path, target)));
+    if (goPackage.isPresent() && !goPackage.get().hasCurrentPackageName(project)) {
+      // carried over from the previous sync, but its package declaration has since changed
+      BlazeGoPackage updated = new BlazeGoPackage(project, projectData, importPath, target);
+      goPackageMap.put(importPath, Optional.of(updated));
+      return updated;
+    }
+    return goPackage.orElse(null);
   }
 
   @Nullable
   static ConcurrentMap<String, Optional<BlazeGoPackage>> getGoPackageMap(Project project) {
     return SyncCache.getInstance(project)
-        .get(GO_PACKAGE_MAP_KEY, (p, pd) -> new ConcurrentHashMap<>());
+        .get(GO_PACKAGE_MAP_KEY, BlazeGoImportResolver::buildGoPackageMap);
+  }
+
+  /**
+   * Carries over the packages created during the previous sync whose targets are unchanged, so
+   * they keep their resolved files and directories. Runs in the sync cache computation, which
+   * readers may be waiting on, so it mustn't take a read action or touch PSI.
+   */
+  private static ConcurrentMap<String, Optional<BlazeGoPackage>> buildGoPackageMap(
+      Project project, BlazeProjectData projectData) {
+    ConcurrentMap<String, Optional<BlazeGoPackage>> goPackageMap = new ConcurrentHashMap<>();
+    ConcurrentMap<String, Optional<BlazeGoPackage>> previous =
+        project.getUserData(PREVIOUS_GO_PACKAGE_MAP_KEY);
+    Map<String, TargetKey> goTargetMap = getGoTargetMap(project);
+    if (previous != null && goTargetMap != null) {
+      previous.forEach(
+          (importPath, goPackage) -> {
+            TargetKey targetKey = goTargetMap.get(importPath);
+            TargetIdeInfo target =
+                targetKey != null ? projectData.getTargetMap().get(targetKey) : null;
+            if (target != null
+                && goPackage.isPresent()
+                && goPackage.get().isUnchanged(project, projectData, target)) {
+              goPackageMap.put(importPath, goPackage);
+            }
+          });
+    }
+    project.putUserData(PREVIOUS_GO_PACKAGE_MAP_KEY, goPackageMap);
+    return goPackageMap;
   }
 
   @Nullable
@@ -214,6 +252,25 @@ class BlazeGoImportResolver implements GoImportResolver {
     }
   }
 
+  /**
+   * Computes the go import path map and the files of each go package in the background after
+   * sync, and carries over the packages of unchanged targets.
+   */
+  static class GoTargetMapPrecomputer implements SyncCache.Precomputer {
+    @Override
+    public void precompute(Project project) {
+      BlazeProjectData projectData =
+          BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+      if (projectData == null
+          || !projectData.getWorkspaceLanguageSettings().isLanguageActive(LanguageClass.GO)) {
+        return;
+      }
+      getGoTargetMap(project);
+      GoPackageIndex.getInstance(project, projectData);
+      getGoPackageMap(project);
+    }
+  }
+
   /** Redirects quick navigation text on the fake file system item back to the build rule. */
   static class GoPackageDocumentationProvider extends DocumentationProviderEx {
     @Nullable
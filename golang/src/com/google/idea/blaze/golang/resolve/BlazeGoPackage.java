@@ -23,12 +23,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
-import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
-import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
-import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
@@ -39,13 +35,10 @@ import com.google.idea.blaze.base.lang.buildfile.references.BuildReferenceManage
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
 import com.google.idea.blaze.base.model.primitives.Label;
-import com.google.idea.blaze.base.model.primitives.LanguageClass;
-import com.google.idea.blaze.base.model.primitives.RuleType;
-import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
 import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
 import com.google.idea.blaze.golang.GoBlazeRules.RuleTypes;
-import com.intellij.openapi.diagnostic.Logger;
+import com.google.idea.blaze.golang.resolve.GoPackageIndex.PackageFiles;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
 import com.intellij.openapi.project.Project;
@@ -67,7 +60,6 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import one.util.streamex.StreamEx;
 
@@ -85,15 +77,14 @@ import one.util.streamex.StreamEx;
  * Exactly one {@link BlazeGoPackage} per go rule.
  */
 public class BlazeGoPackage extends GoPackage {
-  private static final Logger logger = Logger.getInstance(BlazeGoPackage.class);
-  private static final String GO_TARGET_TO_FILE_MAP_KEY = "BlazeGoTargetToFileMap";
-
   private final Label label;
   private final String importPath;
+  private final PackageFiles packageFiles;
   private final ConcurrentMap<File, Optional<PsiFile>> files;
   private final ConcurrentMap<File, Optional<VirtualFile>> directories;
   @Nullable private volatile PsiElement navigableElement;
   @Nullable private volatile PsiElement[] importReferences;
+  private volatile boolean packageNameChecked = true;
 
   BlazeGoPackage(
       Project project, BlazeProjectData projectData, String importPath, TargetIdeInfo target) {
@@ -101,20 +92,56 @@ public class BlazeGoPackage extends GoPackage {
         project,
         importPath,
         replaceProtoLibrary(project, projectData, target.getKey()).getLabel(),
-        getTargetToFileMap(project, projectData).get(target.getKey().getLabel()));
+        GoPackageIndex.getInstance(project, projectData).getFiles(target.getKey().getLabel()));
   }
 
   BlazeGoPackage(Project project, String importPath, Label label, Collection<File> files) {
-    super(project, getPackageName(project, files, importPath));
+    this(project, importPath, label, PackageFiles.of(files));
+  }
+
+  private BlazeGoPackage(
+      Project project, String importPath, Label label, PackageFiles packageFiles) {
+    super(project, getPackageName(project, packageFiles.files, importPath));
     this.importPath = importPath;
     this.label = label;
+    this.packageFiles = packageFiles;
     this.files = new ConcurrentHashMap<>();
-    files.forEach(f -> this.files.put(f, Optional.empty()));
+    packageFiles.files.forEach(f -> this.files.put(f, Optional.empty()));
     this.directories = new ConcurrentHashMap<>();
-    files.stream()
-        .map(File::getParentFile)
-        .filter(Objects::nonNull)
-        .forEach(f -> directories.put(f, Optional.empty()));
+    packageFiles.directories.forEach(f -> directories.put(f, Optional.empty()));
+  }
+
+  /**
+   * Returns true if this package, created for a previous sync, is still up to date for the given
+   * target. Packages share the {@link PackageFiles} of unchanged targets across syncs.
+   *
+   * <p>This doesn't touch PSI, so it can run in the sync cache computation. The package name is
+   * rechecked the next time the package is resolved, see {@link #hasCurrentPackageName}.
+   */
+  boolean isUnchanged(Project project, BlazeProjectData projectData, TargetIdeInfo target) {
+    if (packageFiles
+            != GoPackageIndex.getInstance(project, projectData)
+                .getFiles(target.getKey().getLabel())
+        || !label.equals(replaceProtoLibrary(project, projectData, target.getKey()).getLabel())) {
+      return false;
+    }
+    packageNameChecked = false;
+    return true;
+  }
+
+  /**
+   * The package name is read from the files when the package is created, so a package carried
+   * over from a previous sync checks it once more, in case a package declaration has been edited
+   * since. Must be called in a read action.
+   */
+  boolean hasCurrentPackageName(Project project) {
+    if (packageNameChecked) {
+      return true;
+    }
+    boolean unchanged =
+        Objects.equals(getName(), getPackageName(project, packageFiles.files, importPath));
+    packageNameChecked = unchanged;
+    return unchanged;
   }
 
   /**
@@ -139,89 +166,12 @@ public class BlazeGoPackage extends GoPackage {
 
   static ImmutableMultimap<Label, File> getTargetToFileMap(
       Project project, BlazeProjectData projectData) {
-    ImmutableMultimap<Label, File> map =
-        SyncCache.getInstance(project)
-            .get(GO_TARGET_TO_FILE_MAP_KEY, BlazeGoPackage::getUncachedTargetToFileMap);
-    if (map == null) {
-      logger.error("Unexpected null target to file map from SyncCache.");
-      return getUncachedTargetToFileMap(project, projectData);
-    }
-    return map;
+    return GoPackageIndex.getInstance(project, projectData).getTargetToFileMap();
   }
 
   public static ImmutableMultimap<Label, File> getUncachedTargetToFileMap(
       Project project, BlazeProjectData projectData) {
-    ImmutableMultimap<Label, GoIdeInfo> libraryToTestMap = buildLibraryToTestMap(projectData);
-    ImmutableMultimap.Builder<Label, File> builder = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
-      if (target.getGoIdeInfo() == null) {
-        continue;
-      }
-      builder.putAll(
-          target.getKey().getLabel(),
-          getSourceFiles(target, project, projectData, libraryToTestMap));
-    }
-    return builder.build();
-  }
-
-  private static ImmutableSet<File> getSourceFiles(
-      TargetIdeInfo target,
-      Project project,
-      BlazeProjectData projectData,
-      ImmutableMultimap<Label, GoIdeInfo> libraryToTestMap) {
-    if (target.getKind() == RuleTypes.GO_WRAP_CC.getKind()) {
-      return getWrapCcGoFiles(project, projectData, target);
-    }
-    return Stream.concat(
-            Stream.of(target.getGoIdeInfo()),
-            libraryToTestMap.get(target.getKey().getLabel()).stream())
-        .map(GoIdeInfo::getSources)
-        .flatMap(Collection::stream)
-        .map(a -> resolveArtifact(project, projectData, a))
-        .filter(Objects::nonNull)
-        .collect(toImmutableSet());
-  }
-
-  private static ImmutableMultimap<Label, GoIdeInfo> buildLibraryToTestMap(
-      BlazeProjectData projectData) {
-    TargetMap targetMap = projectData.getTargetMap();
-    ImmutableMultimap.Builder<Label, GoIdeInfo> builder = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : targetMap.targets()) {
-      if (target.getKind().getLanguageClass() != LanguageClass.GO
-          || target.getKind().getRuleType() != RuleType.TEST
-          || target.getGoIdeInfo() == null
-          || target.getGoIdeInfo().getLibraryLabels().isEmpty()) {
-        continue;
-      }
-      for (Label label : target.getGoIdeInfo().getLibraryLabels()) {
-        builder.put(label, target.getGoIdeInfo());
-      }
-    }
-    return builder.build();
-  }
-
-  @Nullable
-  private static File resolveArtifact(
-      Project project, BlazeProjectData data, ArtifactLocation artifact) {
-    return OutputArtifactResolver.resolve(project, data.getArtifactLocationDecoder(), artifact);
-  }
-
-  private static ImmutableSet<File> getWrapCcGoFiles(
-      Project project, BlazeProjectData projectData, TargetIdeInfo target) {
-    if (!target.getGoIdeInfo().getSources().isEmpty()) {
-      return target.getGoIdeInfo().getSources().stream()
-          .map(a -> resolveArtifact(project, projectData, a))
-          .filter(Objects::nonNull)
-          .collect(toImmutableSet());
-    }
-    // older versions of blaze don't expose the .go genfile
-    // in that case, look directly in blaze-out
-    String blazePackage = target.getKey().getLabel().blazePackage().relativePath();
-    File directory = new File(projectData.getBlazeInfo().getGenfilesDirectory(), blazePackage);
-    String filename = blazePackage + '/' + target.getKey().getLabel().targetName() + ".go";
-    filename = filename.replace("_", "__");
-    filename = filename.replace('/', '_');
-    return ImmutableSet.of(new File(directory, filename));
+    return GoPackageIndex.build(project, projectData, /* previous= */ null).getTargetToFileMap();
   }
 
   /**
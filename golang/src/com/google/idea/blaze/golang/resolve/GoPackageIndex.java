@@ -0,0 +1,376 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.golang.resolve;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.model.primitives.RuleType;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.sync.SyncCache;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.golang.GoBlazeRules.RuleTypes;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * The resolved source files and directories of each go target, shared by the {@link
+ * BlazeGoPackage}s created for them.
+ *
+ * <p>Built in parallel in the background after sync. Targets which are unchanged since the
+ * previous sync keep their previous {@link PackageFiles}, so only the packages of targets touched
+ * by a partial sync need to be recreated.
+ */
+final class GoPackageIndex {
+  private static final Logger logger = Logger.getInstance(GoPackageIndex.class);
+
+  private static final String GO_PACKAGE_INDEX_KEY = "BlazeGoPackageIndex";
+  private static final Key<GoPackageIndex> PREVIOUS_INDEX_KEY =
+      Key.create("BlazeGoPackageIndex.previous");
+
+  /** The source files of a go package, and the directories containing them. */
+  static final class PackageFiles {
+    static final PackageFiles EMPTY = new PackageFiles(ImmutableSet.of(), ImmutableSet.of());
+
+    final ImmutableSet<File> files;
+    final ImmutableSet<File> directories;
+
+    private PackageFiles(ImmutableSet<File> files, ImmutableSet<File> directories) {
+      this.files = files;
+      this.directories = directories;
+    }
+
+    static PackageFiles of(Collection<File> files) {
+      return new PackageFiles(
+          ImmutableSet.copyOf(files),
+          files.stream()
+              .map(File::getParentFile)
+              .filter(Objects::nonNull)
+              .collect(toImmutableSet()));
+    }
+  }
+
+  /**
+   * The inputs a target's files are resolved from: its kind, its go sources and those of its
+   * tests. Kept instead of the target itself, so the previous index doesn't hold on to the
+   * previous sync's target map.
+   */
+  private static final class Fingerprint {
+    private final Kind kind;
+    private final ImmutableList<ArtifactLocation> sources;
+    private final ImmutableList<ArtifactLocation> testSources;
+
+    private Fingerprint(
+        Kind kind,
+        ImmutableList<ArtifactLocation> sources,
+        ImmutableList<ArtifactLocation> testSources) {
+      this.kind = kind;
+      this.sources = sources;
+      this.testSources = testSources;
+    }
+
+    static Fingerprint of(TargetIdeInfo target, Collection<GoIdeInfo> tests) {
+      return new Fingerprint(
+          target.getKind(),
+          target.getGoIdeInfo().getSources(),
+          tests.stream()
+              .map(GoIdeInfo::getSources)
+              .flatMap(Collection::stream)
+              .collect(toImmutableList()));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Fingerprint)) {
+        return false;
+      }
+      Fingerprint that = (Fingerprint) o;
+      return kind == that.kind
+          && sources.equals(that.sources)
+          && testSources.equals(that.testSources);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(kind, sources, testSources);
+    }
+  }
+
+  /** The files of a target, along with the fingerprint of the inputs they were resolved from. */
+  private static final class Entry {
+    final Fingerprint fingerprint;
+    final PackageFiles files;
+
+    Entry(Fingerprint fingerprint, PackageFiles files) {
+      this.fingerprint = fingerprint;
+      this.files = files;
+    }
+  }
+
+  private final ArtifactLocationDecoder decoder;
+  private final File genfilesDirectory;
+  private final ImmutableMap<TargetKey, Entry> entries;
+  private final ImmutableMap<Label, PackageFiles> filesByLabel;
+
+  private GoPackageIndex(
+      ArtifactLocationDecoder decoder,
+      File genfilesDirectory,
+      ImmutableMap<TargetKey, Entry> entries,
+      ImmutableMap<Label, PackageFiles> filesByLabel) {
+    this.decoder = decoder;
+    this.genfilesDirectory = genfilesDirectory;
+    this.entries = entries;
+    this.filesByLabel = filesByLabel;
+  }
+
+  /** Returns the index for the current sync, building it if necessary. */
+  static GoPackageIndex getInstance(Project project, BlazeProjectData projectData) {
+    GoPackageIndex index =
+        SyncCache.getInstance(project).get(GO_PACKAGE_INDEX_KEY, GoPackageIndex::buildCached);
+    if (index == null) {
+      logger.error("Unexpected null go package index from SyncCache.");
+      return build(project, projectData, null);
+    }
+    return index;
+  }
+
+  private static GoPackageIndex buildCached(Project project, BlazeProjectData projectData) {
+    GoPackageIndex index = build(project, projectData, project.getUserData(PREVIOUS_INDEX_KEY));
+    project.putUserData(PREVIOUS_INDEX_KEY, index);
+    return index;
+  }
+
+  /**
+   * Builds the index, reusing the files of targets unchanged since the {@code previous} index.
+   * The files of other targets are resolved in parallel.
+   */
+  static GoPackageIndex build(
+      Project project, BlazeProjectData projectData, @Nullable GoPackageIndex previous) {
+    return build(
+        projectData.getTargetMap(),
+        projectData.getArtifactLocationDecoder(),
+        projectData.getBlazeInfo().getGenfilesDirectory(),
+        previous,
+        FetchExecutor.EXECUTOR,
+        (target, testSources) -> getSourceFiles(target, project, projectData, testSources));
+  }
+
+  /**
+   * Builds the index, resolving the files of changed targets with {@code sourceResolver}, which is
+   * given each target along with the sources of its tests.
+   */
+  @VisibleForTesting
+  static GoPackageIndex build(
+      TargetMap targetMap,
+      ArtifactLocationDecoder decoder,
+      File genfilesDirectory,
+      @Nullable GoPackageIndex previous,
+      ListeningExecutorService executor,
+      BiFunction<TargetIdeInfo, Collection<ArtifactLocation>, ImmutableSet<File>> sourceResolver) {
+    Stopwatch timer = Stopwatch.createStarted();
+    ImmutableMap<TargetKey, Entry> previousEntries =
+        previous != null
+                && previous.decoder.equals(decoder)
+                && previous.genfilesDirectory.equals(genfilesDirectory)
+            ? previous.entries
+            : ImmutableMap.of();
+
+    ImmutableMultimap<Label, GoIdeInfo> libraryToTestMap = buildLibraryToTestMap(targetMap);
+    Map<TargetKey, Entry> entries = new LinkedHashMap<>();
+    List<TargetKey> changedTargets = new ArrayList<>();
+    List<Fingerprint> changedFingerprints = new ArrayList<>();
+    List<ListenableFuture<ImmutableSet<File>>> futures = new ArrayList<>();
+    for (TargetIdeInfo target : targetMap.targets()) {
+      if (target.getGoIdeInfo() == null) {
+        continue;
+      }
+      Fingerprint fingerprint =
+          Fingerprint.of(target, libraryToTestMap.get(target.getKey().getLabel()));
+      Entry entry = previousEntries.get(target.getKey());
+      if (entry != null && entry.fingerprint.equals(fingerprint)) {
+        entries.put(target.getKey(), entry);
+        continue;
+      }
+      entries.put(target.getKey(), null);
+      changedTargets.add(target.getKey());
+      changedFingerprints.add(fingerprint);
+      futures.add(executor.submit(() -> sourceResolver.apply(target, fingerprint.testSources)));
+    }
+    List<ImmutableSet<File>> results;
+    try {
+      results = Futures.allAsList(futures).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException("Could not resolve go source files", e.getCause());
+    }
+
+    // directories are shared by the packages of every target in them
+    ConcurrentMap<File, File> directories = new ConcurrentHashMap<>();
+    for (int i = 0; i < changedTargets.size(); i++) {
+      ImmutableSet<File> files = results.get(i);
+      PackageFiles packageFiles =
+          new PackageFiles(
+              files,
+              files.stream()
+                  .map(File::getParentFile)
+                  .filter(Objects::nonNull)
+                  .map(dir -> directories.computeIfAbsent(dir, d -> d))
+                  .collect(toImmutableSet()));
+      entries.put(changedTargets.get(i), new Entry(changedFingerprints.get(i), packageFiles));
+    }
+
+    GoPackageIndex index =
+        new GoPackageIndex(
+            decoder, genfilesDirectory, ImmutableMap.copyOf(entries), mergeByLabel(entries));
+    logger.info(
+        String.format(
+            "Indexed files of %d go targets (%d changed) in %d ms",
+            entries.size(), changedTargets.size(), timer.elapsed(TimeUnit.MILLISECONDS)));
+    return index;
+  }
+
+  /** Targets with several aspects share a label, so their files are merged. */
+  private static ImmutableMap<Label, PackageFiles> mergeByLabel(Map<TargetKey, Entry> entries) {
+    Map<Label, List<PackageFiles>> byLabel = new LinkedHashMap<>();
+    for (Map.Entry<TargetKey, Entry> entry : entries.entrySet()) {
+      byLabel
+          .computeIfAbsent(entry.getKey().getLabel(), l -> new ArrayList<>(1))
+          .add(entry.getValue().files);
+    }
+    ImmutableMap.Builder<Label, PackageFiles> builder = ImmutableMap.builder();
+    for (Map.Entry<Label, List<PackageFiles>> entry : byLabel.entrySet()) {
+      List<PackageFiles> files = entry.getValue();
+      if (files.size() == 1) {
+        builder.put(entry.getKey(), files.get(0));
+        continue;
+      }
+      Set<File> merged = new LinkedHashSet<>();
+      files.forEach(f -> merged.addAll(f.files));
+      builder.put(entry.getKey(), PackageFiles.of(merged));
+    }
+    return builder.build();
+  }
+
+  /** Returns the files of the go package for this label. */
+  PackageFiles getFiles(Label label) {
+    return filesByLabel.getOrDefault(label, PackageFiles.EMPTY);
+  }
+
+  ImmutableMultimap<Label, File> getTargetToFileMap() {
+    ImmutableListMultimap.Builder<Label, File> builder = ImmutableListMultimap.builder();
+    filesByLabel.forEach((label, files) -> builder.putAll(label, files.files));
+    return builder.build();
+  }
+
+  private static ImmutableSet<File> getSourceFiles(
+      TargetIdeInfo target,
+      Project project,
+      BlazeProjectData projectData,
+      Collection<ArtifactLocation> testSources) {
+    if (target.getKind() == RuleTypes.GO_WRAP_CC.getKind()) {
+      return getWrapCcGoFiles(project, projectData, target);
+    }
+    return Stream.concat(target.getGoIdeInfo().getSources().stream(), testSources.stream())
+        .map(a -> resolveArtifact(project, projectData, a))
+        .filter(Objects::nonNull)
+        .collect(toImmutableSet());
+  }
+
+  private static ImmutableMultimap<Label, GoIdeInfo> buildLibraryToTestMap(TargetMap targetMap) {
+    ImmutableMultimap.Builder<Label, GoIdeInfo> builder = ImmutableListMultimap.builder();
+    for (TargetIdeInfo target : targetMap.targets()) {
+      if (target.getKind().getLanguageClass() != LanguageClass.GO
+          || target.getKind().getRuleType() != RuleType.TEST
+          || target.getGoIdeInfo() == null
+          || target.getGoIdeInfo().getLibraryLabels().isEmpty()) {
+        continue;
+      }
+      for (Label label : target.getGoIdeInfo().getLibraryLabels()) {
+        builder.put(label, target.getGoIdeInfo());
+      }
+    }
+    return builder.build();
+  }
+
+  @Nullable
+  private static File resolveArtifact(
+      Project project, BlazeProjectData data, ArtifactLocation artifact) {
+    return OutputArtifactResolver.resolve(project, data.getArtifactLocationDecoder(), artifact);
+  }
+
+  private static ImmutableSet<File> getWrapCcGoFiles(
+      Project project, BlazeProjectData projectData, TargetIdeInfo target) {
+    if (!target.getGoIdeInfo().getSources().isEmpty()) {
+      return target.getGoIdeInfo().getSources().stream()
+          .map(a -> resolveArtifact(project, projectData, a))
+          .filter(Objects::nonNull)
+          .collect(toImmutableSet());
+    }
+    // older versions of blaze don't expose the .go genfile
+    // in that case, look directly in blaze-out
+    String blazePackage = target.getKey().getLabel().blazePackage().relativePath();
+    File directory = new File(projectData.getBlazeInfo().getGenfilesDirectory(), blazePackage);
+    String filename = blazePackage + '/' + target.getKey().getLabel().targetName() + ".go";
+    filename = filename.replace("_", "__");
+    filename = filename.replace('/', '_');
+    return ImmutableSet.of(new File(directory, filename));
+  }
+}
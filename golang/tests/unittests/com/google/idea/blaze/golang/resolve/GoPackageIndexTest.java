@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.golang.resolve;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.golang.GoBlazeRules;
+import com.google.idea.blaze.golang.resolve.GoPackageIndex.PackageFiles;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for incrementally building the {@link GoPackageIndex}. */
+@RunWith(JUnit4.class)
+public class GoPackageIndexTest extends BlazeTestCase {
+
+  private static final TargetKey FOO = TargetKey.forPlainTarget(Label.create("//go:foo"));
+  private static final TargetKey FOO_TEST =
+      TargetKey.forPlainTarget(Label.create("//go:foo_test"));
+  private static final TargetKey BAR = TargetKey.forPlainTarget(Label.create("//go:bar"));
+  private static final File GENFILES = new File("/root/blaze-genfiles");
+
+  private final List<TargetKey> resolved = Collections.synchronizedList(new ArrayList<>());
+  private ArtifactLocationDecoder decoder;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class)
+        .registerExtension(new GoBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    decoder = MockBlazeProjectDataBuilder.builder().build().getArtifactLocationDecoder();
+  }
+
+  @Test
+  public void testUnchangedTargetsAreReused() {
+    GoPackageIndex first = build(targetMap("go/foo.go", "go/foo_test.go", "go/bar.go"), null);
+    resolved.clear();
+
+    // an equal, but separately built, target map
+    GoPackageIndex second = build(targetMap("go/foo.go", "go/foo_test.go", "go/bar.go"), first);
+
+    assertThat(resolved).isEmpty();
+    assertThat(second.getFiles(FOO.getLabel())).isSameAs(first.getFiles(FOO.getLabel()));
+    assertThat(second.getFiles(BAR.getLabel())).isSameAs(first.getFiles(BAR.getLabel()));
+  }
+
+  @Test
+  public void testTargetsWithChangedSourcesAreRecomputed() {
+    GoPackageIndex first = build(targetMap("go/foo.go", "go/foo_test.go", "go/bar.go"), null);
+    resolved.clear();
+
+    GoPackageIndex second = build(targetMap("go/foo2.go", "go/foo_test.go", "go/bar.go"), first);
+
+    assertThat(resolved).containsExactly(FOO);
+    assertThat(second.getFiles(FOO.getLabel()).files)
+        .containsExactly(file("go/foo2.go"), file("go/foo_test.go"));
+    assertThat(second.getFiles(BAR.getLabel())).isSameAs(first.getFiles(BAR.getLabel()));
+  }
+
+  @Test
+  public void testLibrariesWithChangedTestSourcesAreRecomputed() {
+    GoPackageIndex first = build(targetMap("go/foo.go", "go/foo_test.go", "go/bar.go"), null);
+    resolved.clear();
+
+    GoPackageIndex second = build(targetMap("go/foo.go", "go/foo2_test.go", "go/bar.go"), first);
+
+    assertThat(resolved).containsExactly(FOO, FOO_TEST);
+    assertThat(second.getFiles(FOO.getLabel()).files)
+        .containsExactly(file("go/foo.go"), file("go/foo2_test.go"));
+    assertThat(second.getFiles(BAR.getLabel())).isSameAs(first.getFiles(BAR.getLabel()));
+  }
+
+  @Test
+  public void testRemovedTargetsAreDropped() {
+    GoPackageIndex first = build(targetMap("go/foo.go", "go/foo_test.go", "go/bar.go"), null);
+
+    GoPackageIndex second = build(targetMap("go/foo.go", "go/foo_test.go", null), first);
+
+    assertThat(second.getFiles(BAR.getLabel())).isSameAs(PackageFiles.EMPTY);
+    assertThat(second.getTargetToFileMap().keySet())
+        .containsExactly(FOO.getLabel(), FOO_TEST.getLabel());
+  }
+
+  private GoPackageIndex build(TargetMap targetMap, @Nullable GoPackageIndex previous) {
+    return GoPackageIndex.build(
+        targetMap,
+        decoder,
+        GENFILES,
+        previous,
+        MoreExecutors.newDirectExecutorService(),
+        (target, testSources) -> {
+          resolved.add(target.getKey());
+          return Stream.concat(target.getGoIdeInfo().getSources().stream(), testSources.stream())
+              .map(source -> file(source.getRelativePath()))
+              .collect(toImmutableSet());
+        });
+  }
+
+  private static TargetMap targetMap(
+      String fooSource, String fooTestSource, @Nullable String barSource) {
+    TargetMapBuilder builder =
+        TargetMapBuilder.builder()
+            .addTarget(target(FOO, "go_library", fooSource))
+            .addTarget(
+                target(FOO_TEST, "go_test", fooTestSource)
+                    .setGoInfo(
+                        GoIdeInfo.builder()
+                            .addSource(source(fooTestSource))
+                            .addLibraryLabel(FOO.getLabel().toString())));
+    if (barSource != null) {
+      builder.addTarget(target(BAR, "go_library", barSource));
+    }
+    return builder.build();
+  }
+
+  private static TargetIdeInfo.Builder target(TargetKey key, String kind, String source) {
+    return TargetIdeInfo.builder()
+        .setLabel(key.getLabel())
+        .setKind(kind)
+        .setGoInfo(GoIdeInfo.builder().addSource(source(source)));
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+
+  private static File file(String relativePath) {
+    return new File("/root", relativePath);
+  }
+}
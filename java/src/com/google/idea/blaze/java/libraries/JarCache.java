@@ -20,6 +20,7 @@ import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
@@ -51,6 +52,8 @@ import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.google.idea.common.experiments.IntExperiment;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -85,10 +88,26 @@ public class JarCache {
     return new File(BlazeDataStorage.getProjectDataDir(importSettings), "libraries");
   }
 
+  private static File getBlobDir(BlazeImportSettings importSettings) {
+    return new File(BlazeDataStorage.getProjectDataDir(importSettings), "library_blobs");
+  }
+
+  /**
+   * Whether to populate the cache from a content-addressed blob store, hard linking rather than
+   * copying jars where possible.
+   */
+  private static final BoolExperiment useBlobStore =
+      new BoolExperiment("blaze.jar.cache.content.addressed", false);
+
+  /** The disk budget for jars no longer referenced by the project, but kept for reuse. */
+  private static final IntExperiment blobStoreBudgetMb =
+      new IntExperiment("blaze.jar.cache.content.addressed.budget.mb", 4096);
+
   private static final Logger logger = Logger.getInstance(JarCache.class);
 
   private final Project project;
   private final File cacheDir;
+  private final JarCacheBlobStore blobStore;
 
   /** The state of the cache as of the last call to {@link #readFileState}. */
   private volatile ImmutableMap<String, File> cacheState = ImmutableMap.of();
@@ -100,6 +119,7 @@ public class JarCache {
         BlazeImportSettingsManager.getInstance(project).getImportSettings();
     this.project = project;
     this.cacheDir = getCacheDir(importSettings);
+    this.blobStore = new JarCacheBlobStore(getBlobDir(importSettings));
   }
 
   public boolean isEnabled() {
@@ -135,6 +155,9 @@ public class JarCache {
       @Nullable BlazeProjectData oldProjectData,
       SyncMode syncMode) {
     boolean enabled = updateEnabled();
+    if (!enabled || !useBlobStore.getValue()) {
+      blobStore.clear();
+    }
     if (!enabled) {
       clearCache(context, /* blockOnCompletion= */ false);
       return;
@@ -172,12 +195,25 @@ public class JarCache {
       }
     }
 
+    boolean useBlobStore = JarCache.useBlobStore.getValue();
+    if (useBlobStore) {
+      blobStore.loadIndex();
+    }
+
     ImmutableMap<String, BlazeArtifact> projectState =
         getArtifactsToCache(projectViewSet, projectData);
     ImmutableMap<String, File> cachedFiles = readFileState();
     try {
       Map<String, BlazeArtifact> updated =
           FileCacheDiffer.findUpdatedOutputs(projectState, cachedFiles, previousOutputs);
+      if (useBlobStore) {
+        // hard links share their blob's modification time, so always look out of date to the differ
+        updated =
+            ImmutableMap.copyOf(
+                Maps.filterEntries(
+                    updated,
+                    e -> !blobStore.isUpToDate(e.getValue(), cacheFileForKey(e.getKey()))));
+      }
 
       List<File> removed = new ArrayList<>();
       if (removeMissingFiles) {
@@ -189,7 +225,7 @@ public class JarCache {
       }
 
       // update cache files, and remove files if required
-      List<ListenableFuture<?>> futures = new ArrayList<>(copyLocally(updated));
+      List<ListenableFuture<?>> futures = new ArrayList<>(copyLocally(updated, useBlobStore));
       if (removeMissingFiles) {
         futures.addAll(deleteCacheFiles(removed));
       }
@@ -211,7 +247,34 @@ public class JarCache {
       // update the in-memory record of which files are cached
       ImmutableMap<String, File> state = readFileState();
       logCacheSize(context, state);
+      if (useBlobStore) {
+        updateBlobStore(context, state);
+      }
+    }
+  }
+
+  private void updateBlobStore(BlazeContext context, ImmutableMap<String, File> cachedFiles) {
+    int linked = blobStore.getAndResetLinkedFileCount();
+    int copied = blobStore.getAndResetCopiedFileCount();
+    if (linked != 0 || copied != 0) {
+      context.output(
+          PrintOutput.log(
+              String.format("Jar Cache blob store: %d hard links, %d copies", linked, copied)));
+    }
+    JarCacheBlobStore.EvictionResult result =
+        blobStore.evict(blobStoreBudgetMb.getValue() * 1024L * 1024L, cachedFiles.values());
+    if (result.evictedBlobs != 0) {
+      context.output(
+          PrintOutput.log(
+              String.format(
+                  "Evicted %d jars (%d kB) from the Jar Cache blob store",
+                  result.evictedBlobs, result.evictedBytes / 1024)));
     }
+    context.output(
+        PrintOutput.log(
+            String.format(
+                "Total Jar Cache blob store size: %d kB", result.remainingBytes / 1024)));
+    blobStore.saveIndex();
   }
 
   private static void logCacheSize(BlazeContext context, ImmutableMap<String, File> cachedFiles) {
@@ -254,7 +317,8 @@ public class JarCache {
     return ImmutableMap.copyOf(newOutputs);
   }
 
-  private Collection<ListenableFuture<?>> copyLocally(Map<String, BlazeArtifact> updated) {
+  private Collection<ListenableFuture<?>> copyLocally(
+      Map<String, BlazeArtifact> updated, boolean useBlobStore) {
     List<ListenableFuture<?>> futures = new ArrayList<>();
     updated.forEach(
         (key, artifact) ->
@@ -262,7 +326,11 @@ public class JarCache {
                 FetchExecutor.EXECUTOR.submit(
                     () -> {
                       try {
-                        copyLocally(artifact, cacheFileForKey(key));
+                        if (useBlobStore) {
+                          blobStore.store(artifact, cacheFileForKey(key));
+                        } else {
+                          copyLocally(artifact, cacheFileForKey(key));
+                        }
                       } catch (IOException e) {
                         logger.warn(e);
                       }
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A content-addressed store backing the {@link JarCache}. Each distinct jar is stored once, keyed
+ * by its SHA-256 digest, and cache files are hard links to the stored blobs where the file system
+ * allows it, falling back to a copy otherwise.
+ *
+ * <p>Blobs which are no longer linked from the cache are kept for reuse until the store exceeds its
+ * disk budget, and are then evicted least-recently-used first.
+ *
+ * <p>A hard link shares its blob's modification time, which needn't match the file it was stored
+ * from, so the store records the size and modification time of each cache file's source instead.
+ */
+final class JarCacheBlobStore {
+
+  private static final Logger logger = Logger.getInstance(JarCacheBlobStore.class);
+
+  private static final String BLOB_SUFFIX = ".jar";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String INDEX_FILE_NAME = "index";
+  private static final String LINKS_FILE_NAME = "links";
+
+  private final File blobDir;
+
+  /** The last time each blob was stored or linked, in milliseconds. Keyed by digest. */
+  private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+
+  /** Digests of local files, valid while their size and modification time are unchanged. */
+  private final Map<File, LocalDigest> localDigests = new ConcurrentHashMap<>();
+
+  /** The blob and source of each cache file, keyed by cache file name. */
+  private final Map<String, Link> links = new ConcurrentHashMap<>();
+
+  private final AtomicInteger linkedFiles = new AtomicInteger();
+  private final AtomicInteger copiedFiles = new AtomicInteger();
+  private boolean indexLoaded = false;
+
+  JarCacheBlobStore(File blobDir) {
+    this.blobDir = blobDir;
+  }
+
+  /**
+   * Makes {@code destination} a link to the blob with the artifact's contents, adding the blob to
+   * the store if it isn't already present.
+   */
+  void store(BlazeArtifact artifact, File destination) throws IOException {
+    Link link;
+    if (artifact instanceof LocalFileArtifact) {
+      File source = ((LocalFileArtifact) artifact).getFile();
+      // read before hashing, so a concurrent modification leaves the cache file looking stale
+      long size = source.length();
+      long modifiedTime = source.lastModified();
+      String digest = storeLocal(source, /* mayLink= */ artifact instanceof OutputArtifact);
+      link = new Link(digest, size, modifiedTime, source.getPath());
+    } else {
+      link = new Link(storeRemote(artifact), -1, -1, "");
+    }
+    lastUsed.put(link.digest, System.currentTimeMillis());
+    linkOrCopy(blobFile(link.digest).toPath(), destination.toPath());
+    links.put(destination.getName(), link);
+  }
+
+  /**
+   * Returns true if {@code destination} was stored from the same local file, with the same size
+   * and modification time, as {@code artifact}. Remote artifacts are never considered up to date
+   * here; their cache state doesn't depend on modification times.
+   */
+  boolean isUpToDate(BlazeArtifact artifact, File destination) {
+    if (!(artifact instanceof LocalFileArtifact)) {
+      return false;
+    }
+    Link link = links.get(destination.getName());
+    if (link == null) {
+      return false;
+    }
+    File source = ((LocalFileArtifact) artifact).getFile();
+    return link.sourcePath.equals(source.getPath())
+        && link.sourceSize == source.length()
+        && link.sourceModifiedTime == source.lastModified()
+        && destination.exists();
+  }
+
+  /**
+   * Adds a local file to the store. Blaze replaces rather than modifies its outputs, so those can
+   * be hard linked; source files may be edited in place, so are always copied.
+   */
+  private String storeLocal(File source, boolean mayLink) throws IOException {
+    String digest = digest(source);
+    Path blob = blobFile(digest).toPath();
+    if (!Files.exists(blob)) {
+      Path temp = createTempFile();
+      try {
+        if (mayLink) {
+          linkOrCopy(source.toPath(), temp);
+        } else {
+          copy(source.toPath(), temp);
+        }
+        moveIntoPlace(temp, blob);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+    return digest;
+  }
+
+  private String storeRemote(BlazeArtifact artifact) throws IOException {
+    Path temp = createTempFile();
+    try {
+      HashCode hash;
+      try (InputStream stream = artifact.getInputStream();
+          HashingInputStream hashingStream = new HashingInputStream(Hashing.sha256(), stream)) {
+        Files.copy(hashingStream, temp, StandardCopyOption.REPLACE_EXISTING);
+        hash = hashingStream.hash();
+      }
+      String digest = hash.toString();
+      moveIntoPlace(temp, blobFile(digest).toPath());
+      return digest;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private String digest(File file) throws IOException {
+    long size = file.length();
+    long modifiedTime = file.lastModified();
+    LocalDigest cached = localDigests.get(file);
+    if (cached != null && cached.size == size && cached.modifiedTime == modifiedTime) {
+      return cached.digest;
+    }
+    String digest = com.google.common.io.Files.asByteSource(file).hash(Hashing.sha256()).toString();
+    localDigests.put(file, new LocalDigest(size, modifiedTime, digest));
+    return digest;
+  }
+
+  private Path createTempFile() throws IOException {
+    Files.createDirectories(blobDir.toPath());
+    Path temp = Files.createTempFile(blobDir.toPath(), "blob", TEMP_SUFFIX);
+    // linkOrCopy expects to create the target itself
+    Files.delete(temp);
+    return temp;
+  }
+
+  /** Atomically moves a completed blob into place, unless an identical blob already exists. */
+  private static void moveIntoPlace(Path temp, Path blob) throws IOException {
+    if (Files.exists(blob)) {
+      return;
+    }
+    try {
+      Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException | AtomicMoveNotSupportedException e) {
+      // another thread stored the same contents concurrently
+      if (!Files.exists(blob)) {
+        throw e;
+      }
+    }
+  }
+
+  private void linkOrCopy(Path source, Path target) throws IOException {
+    Files.deleteIfExists(target);
+    try {
+      Files.createLink(target, source);
+      linkedFiles.incrementAndGet();
+      return;
+    } catch (IOException | UnsupportedOperationException e) {
+      // e.g. the files are on different file systems; fall back to copying
+    }
+    copy(source, target);
+  }
+
+  private void copy(Path source, Path target) throws IOException {
+    // on file systems supporting it, recent JDKs clone rather than copy the file contents here
+    Files.copy(
+        source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    copiedFiles.incrementAndGet();
+  }
+
+  private File blobFile(String digest) {
+    return new File(blobDir, digest + BLOB_SUFFIX);
+  }
+
+  /** Reads the blob usage times persisted by {@link #saveIndex}, if not already loaded. */
+  synchronized void loadIndex() {
+    if (indexLoaded) {
+      return;
+    }
+    indexLoaded = true;
+    File[] tempFiles = blobDir.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+    if (tempFiles != null) {
+      for (File temp : tempFiles) {
+        temp.delete();
+      }
+    }
+    loadLinks();
+    File index = new File(blobDir, INDEX_FILE_NAME);
+    if (!index.exists()) {
+      return;
+    }
+    try {
+      for (String line : Files.readAllLines(index.toPath(), UTF_8)) {
+        int separator = line.indexOf(' ');
+        if (separator == -1) {
+          continue;
+        }
+        try {
+          lastUsed.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+          // ignore corrupt lines; the blob will be treated as least recently used
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Couldn't read jar cache blob index", e);
+    }
+  }
+
+  private void loadLinks() {
+    File file = new File(blobDir, LINKS_FILE_NAME);
+    if (!file.exists()) {
+      return;
+    }
+    try {
+      for (String line : Files.readAllLines(file.toPath(), UTF_8)) {
+        List<String> fields = Splitter.on('\t').limit(5).splitToList(line);
+        if (fields.size() != 5) {
+          continue;
+        }
+        try {
+          links.put(
+              fields.get(0),
+              new Link(
+                  fields.get(1),
+                  Long.parseLong(fields.get(2)),
+                  Long.parseLong(fields.get(3)),
+                  fields.get(4)));
+        } catch (NumberFormatException e) {
+          // ignore corrupt lines; the cache file will be treated as out of date
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Couldn't read jar cache links", e);
+    }
+  }
+
+  /** Persists the blob usage times, for LRU eviction across IDE restarts. */
+  synchronized void saveIndex() {
+    if (!blobDir.exists()) {
+      return;
+    }
+    List<String> lines = new ArrayList<>();
+    lastUsed.forEach((digest, time) -> lines.add(digest + " " + time));
+    List<String> linkLines = new ArrayList<>();
+    links.forEach(
+        (name, link) ->
+            linkLines.add(
+                Joiner.on('\t')
+                    .join(
+                        name,
+                        link.digest,
+                        link.sourceSize,
+                        link.sourceModifiedTime,
+                        link.sourcePath)));
+    try {
+      writeAtomically(INDEX_FILE_NAME, lines);
+      writeAtomically(LINKS_FILE_NAME, linkLines);
+    } catch (IOException e) {
+      logger.warn("Couldn't write jar cache blob index", e);
+    }
+  }
+
+  private void writeAtomically(String fileName, List<String> lines) throws IOException {
+    Path file = new File(blobDir, fileName).toPath();
+    Path temp = new File(blobDir, fileName + TEMP_SUFFIX).toPath();
+    Files.write(temp, lines, UTF_8);
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Deletes least-recently-used blobs until the store fits within the given budget. Blobs which
+   * are still linked from one of the given cache files aren't evicted, since deleting them
+   * wouldn't free any space.
+   *
+   * <p>Where the file system doesn't expose file keys, a blob counts as linked if any of the cache
+   * files were stored from it.
+   */
+  EvictionResult evict(long budgetBytes, Collection<File> cacheFiles) {
+    Set<String> cacheFileNames = new HashSet<>();
+    Set<Object> linkedFileKeys = new HashSet<>();
+    for (File file : cacheFiles) {
+      cacheFileNames.add(file.getName());
+      Object fileKey = fileKey(file.toPath());
+      if (fileKey != null) {
+        linkedFileKeys.add(fileKey);
+      }
+    }
+    links.keySet().retainAll(cacheFileNames);
+    Set<String> referencedDigests = new HashSet<>();
+    links.values().forEach(link -> referencedDigests.add(link.digest));
+    File[] blobs = blobDir.listFiles((dir, name) -> name.endsWith(BLOB_SUFFIX));
+    if (blobs == null) {
+      return new EvictionResult(0, 0, 0);
+    }
+    long totalBytes = 0;
+    List<Blob> candidates = new ArrayList<>();
+    for (File file : blobs) {
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      } catch (IOException e) {
+        continue;
+      }
+      totalBytes += attributes.size();
+      String digest = file.getName().substring(0, file.getName().length() - BLOB_SUFFIX.length());
+      Object fileKey = attributes.fileKey();
+      boolean linked =
+          fileKey != null ? linkedFileKeys.contains(fileKey) : referencedDigests.contains(digest);
+      if (!linked) {
+        candidates.add(new Blob(file, digest, attributes.size()));
+      }
+    }
+    candidates.sort(Comparator.comparingLong(blob -> lastUsed.getOrDefault(blob.digest, 0L)));
+    int evicted = 0;
+    long evictedBytes = 0;
+    for (Blob blob : candidates) {
+      if (totalBytes - evictedBytes <= budgetBytes) {
+        break;
+      }
+      if (blob.file.delete()) {
+        lastUsed.remove(blob.digest);
+        evicted++;
+        evictedBytes += blob.size;
+      }
+    }
+    lastUsed.keySet().retainAll(remainingDigests());
+    return new EvictionResult(evicted, evictedBytes, totalBytes - evictedBytes);
+  }
+
+  private Set<String> remainingDigests() {
+    Set<String> digests = new HashSet<>();
+    String[] names = blobDir.list((dir, name) -> name.endsWith(BLOB_SUFFIX));
+    if (names != null) {
+      for (String name : names) {
+        digests.add(name.substring(0, name.length() - BLOB_SUFFIX.length()));
+      }
+    }
+    return digests;
+  }
+
+  /** Returns the number of files hard linked since the last call. */
+  int getAndResetLinkedFileCount() {
+    return linkedFiles.getAndSet(0);
+  }
+
+  /** Returns the number of files copied since the last call. */
+  int getAndResetCopiedFileCount() {
+    return copiedFiles.getAndSet(0);
+  }
+
+  /** Deletes all blobs and the index. */
+  synchronized void clear() {
+    lastUsed.clear();
+    localDigests.clear();
+    links.clear();
+    File[] files = blobDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    blobDir.delete();
+  }
+
+  @Nullable
+  private static Object fileKey(Path path) {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** The outcome of a call to {@link #evict}. */
+  static final class EvictionResult {
+    final int evictedBlobs;
+    final long evictedBytes;
+    final long remainingBytes;
+
+    EvictionResult(int evictedBlobs, long evictedBytes, long remainingBytes) {
+      this.evictedBlobs = evictedBlobs;
+      this.evictedBytes = evictedBytes;
+      this.remainingBytes = remainingBytes;
+    }
+  }
+
+  private static final class Blob {
+    final File file;
+    final String digest;
+    final long size;
+
+    Blob(File file, String digest, long size) {
+      this.file = file;
+      this.digest = digest;
+      this.size = size;
+    }
+  }
+
+  private static final class Link {
+    final String digest;
+    final long sourceSize;
+    final long sourceModifiedTime;
+
+    /** The path of the local file this was stored from, or empty for remote artifacts. */
+    final String sourcePath;
+
+    Link(String digest, long sourceSize, long sourceModifiedTime, String sourcePath) {
+      this.digest = digest;
+      this.sourceSize = sourceSize;
+      this.sourceModifiedTime = sourceModifiedTime;
+      this.sourcePath = sourcePath;
+    }
+  }
+
+  private static final class LocalDigest {
+    final long size;
+    final long modifiedTime;
+    final String digest;
+
+    LocalDigest(long size, long modifiedTime, String digest) {
+      this.size = size;
+      this.modifiedTime = modifiedTime;
+      this.digest = digest;
+    }
+  }
+}
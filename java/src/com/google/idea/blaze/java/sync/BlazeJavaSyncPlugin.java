@@ -56,7 +56,10 @@ import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
 import com.google.idea.blaze.java.sync.model.BlazeJavaSyncData;
 import com.google.idea.blaze.java.sync.projectstructure.JavaSourceFolderProvider;
 import com.google.idea.blaze.java.sync.projectstructure.Jdks;
+import com.google.idea.blaze.java.sync.source.CachingJavaSourcePackageReader;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackageCache;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.transactions.Transactions;
 import com.intellij.openapi.module.ModuleType;
 import com.intellij.openapi.module.StdModuleTypes;
@@ -71,6 +74,9 @@ import javax.annotation.Nullable;
 
 /** Sync support for Java. */
 public class BlazeJavaSyncPlugin implements BlazeSyncPlugin {
+  private static final BoolExperiment cacheSourcePackages =
+      new BoolExperiment("blaze.java.source.package.cache", false);
+
   private final JdepsFileReader jdepsFileReader = new JdepsFileReader();
 
   @Override
@@ -147,13 +153,26 @@ public class BlazeJavaSyncPlugin implements BlazeSyncPlugin {
             jdepsMap,
             javaWorkingSet,
             artifactLocationDecoder);
+    CachingJavaSourcePackageReader packageReader =
+        cacheSourcePackages.getValue()
+            ? new CachingJavaSourcePackageReader(
+                previousSyncState != null
+                    ? previousSyncState.get(JavaSourcePackageCache.class)
+                    : null)
+            : null;
     BlazeJavaImportResult importResult =
         Scope.push(
             context,
             (childContext) -> {
               childContext.push(new TimingScope("JavaWorkspaceImporter", EventType.Other));
-              return blazeJavaWorkspaceImporter.importWorkspace(childContext);
+              return packageReader != null
+                  ? blazeJavaWorkspaceImporter.importWorkspace(childContext, packageReader)
+                  : blazeJavaWorkspaceImporter.importWorkspace(childContext);
             });
+    if (packageReader != null) {
+      packageReader.logStats(context);
+      syncStateBuilder.put(packageReader.getUpdatedCache());
+    }
     Glob.GlobSet excludedLibraries =
         new Glob.GlobSet(
             ImmutableList.<Glob>builder()
@@ -60,6 +60,8 @@ import com.google.idea.blaze.java.sync.jdeps.JdepsMap;
 import com.google.idea.blaze.java.sync.model.BlazeContentEntry;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
 import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
+import com.google.idea.blaze.java.sync.source.JavaPackageReader;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackageReader;
 import com.google.idea.blaze.java.sync.source.SourceArtifact;
 import com.google.idea.blaze.java.sync.source.SourceDirectoryCalculator;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
@@ -120,6 +122,15 @@ public final class BlazeJavaWorkspaceImporter {
   }
 
   public BlazeJavaImportResult importWorkspace(BlazeContext context) {
+    return importWorkspace(context, JavaSourcePackageReader.getInstance());
+  }
+
+  /**
+   * Imports the workspace, using the given reader for the packages of any non-generated sources
+   * without a package manifest.
+   */
+  public BlazeJavaImportResult importWorkspace(
+      BlazeContext context, JavaPackageReader sourcePackageReader) {
     WorkspaceBuilder workspaceBuilder = new WorkspaceBuilder();
     for (TargetIdeInfo target : sourceFilter.sourceTargets) {
       addTargetAsSource(
@@ -135,7 +146,8 @@ public final class BlazeJavaWorkspaceImporter {
             artifactLocationDecoder,
             importRoots,
             workspaceBuilder.sourceArtifacts,
-            workspaceBuilder.javaPackageManifests);
+            workspaceBuilder.javaPackageManifests,
+            sourcePackageReader);
 
     int totalContentEntryCount = 0;
     for (BlazeContentEntry contentEntry : contentEntries) {
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the declared packages of java source files, skipping any files which are unchanged since
+ * the previous sync. Safe to use from multiple threads.
+ */
+public final class CachingJavaSourcePackageReader extends JavaPackageReader {
+
+  private final JavaPackageReader delegate;
+  private final JavaSourcePackageCache previousCache;
+  private final Map<String, JavaSourcePackageCache.Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  public CachingJavaSourcePackageReader(@Nullable JavaSourcePackageCache previousCache) {
+    this(JavaSourcePackageReader.getInstance(), previousCache);
+  }
+
+  CachingJavaSourcePackageReader(
+      JavaPackageReader delegate, @Nullable JavaSourcePackageCache previousCache) {
+    this.delegate = delegate;
+    this.previousCache = previousCache != null ? previousCache : JavaSourcePackageCache.EMPTY;
+  }
+
+  @Override
+  @Nullable
+  String getDeclaredPackageOfJavaFile(
+      BlazeContext context,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      SourceArtifact sourceArtifact) {
+    if (sourceArtifact.artifactLocation.isGenerated()) {
+      return null;
+    }
+    File sourceFile = artifactLocationDecoder.resolveSource(sourceArtifact.artifactLocation);
+    if (sourceFile == null) {
+      return null;
+    }
+    FileOperationProvider fileOps = FileOperationProvider.getInstance();
+    String relativePath = sourceArtifact.artifactLocation.getRelativePath();
+    long modifiedTime = fileOps.getFileModifiedTime(sourceFile);
+    long size = fileOps.getFileSize(sourceFile);
+
+    String packageString = previousCache.getPackage(relativePath, modifiedTime, size);
+    if (packageString != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      packageString =
+          delegate.getDeclaredPackageOfJavaFile(context, artifactLocationDecoder, sourceArtifact);
+      if (packageString == null) {
+        return null;
+      }
+    }
+    entries.put(
+        relativePath, new JavaSourcePackageCache.Entry(modifiedTime, size, packageString));
+    return packageString;
+  }
+
+  /** Returns a cache containing every package successfully read by this reader. */
+  public JavaSourcePackageCache getUpdatedCache() {
+    return new JavaSourcePackageCache(entries);
+  }
+
+  /** Reports the number of cache hits and misses to the sync log. */
+  public void logStats(BlazeContext context) {
+    context.output(
+        PrintOutput.log(
+            String.format(
+                "Java source package cache: %d hits, %d misses", hits.get(), misses.get())));
+  }
+}
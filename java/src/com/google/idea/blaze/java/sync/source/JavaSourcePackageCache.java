@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.model.SyncData;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * The declared packages of java source files read during the previous sync, so unchanged files
+ * needn't be read again.
+ *
+ * <p>Entries are keyed by workspace-relative path, and are only valid while the file's
+ * modification time and size are unchanged.
+ */
+public final class JavaSourcePackageCache implements SyncData<ProjectData.JavaSourcePackageCache> {
+
+  static final JavaSourcePackageCache EMPTY = new JavaSourcePackageCache(ImmutableMap.of());
+
+  static final class Entry {
+    final long modifiedTime;
+    final long size;
+    final String packageString;
+
+    Entry(long modifiedTime, long size, String packageString) {
+      this.modifiedTime = modifiedTime;
+      this.size = size;
+      this.packageString = packageString;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry that = (Entry) o;
+      return modifiedTime == that.modifiedTime
+          && size == that.size
+          && packageString.equals(that.packageString);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(modifiedTime, size, packageString);
+    }
+  }
+
+  private final ImmutableMap<String, Entry> entries;
+
+  JavaSourcePackageCache(Map<String, Entry> entries) {
+    this.entries = ImmutableMap.copyOf(entries);
+  }
+
+  /**
+   * Returns the cached package of the given source file, or null if there's no entry for the file
+   * or it has been modified since the entry was recorded.
+   */
+  @Nullable
+  String getPackage(String relativePath, long modifiedTime, long size) {
+    Entry entry = entries.get(relativePath);
+    return entry != null && entry.modifiedTime == modifiedTime && entry.size == size
+        ? entry.packageString
+        : null;
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  static JavaSourcePackageCache fromProto(ProjectData.JavaSourcePackageCache proto) {
+    ImmutableMap.Builder<String, Entry> entries = ImmutableMap.builder();
+    for (ProjectData.JavaSourcePackageCache.Entry entry : proto.getEntriesList()) {
+      entries.put(
+          entry.getRelativePath(),
+          new Entry(entry.getModifiedTime(), entry.getSize(), entry.getPackageString()));
+    }
+    return new JavaSourcePackageCache(entries.build());
+  }
+
+  @Override
+  public ProjectData.JavaSourcePackageCache toProto() {
+    ProjectData.JavaSourcePackageCache.Builder builder =
+        ProjectData.JavaSourcePackageCache.newBuilder();
+    entries.forEach(
+        (path, entry) ->
+            builder.addEntries(
+                ProjectData.JavaSourcePackageCache.Entry.newBuilder()
+                    .setRelativePath(path)
+                    .setModifiedTime(entry.modifiedTime)
+                    .setSize(entry.size)
+                    .setPackageString(entry.packageString)));
+    return builder.build();
+  }
+
+  @Override
+  public void insert(ProjectData.SyncState.Builder builder) {
+    builder.setJavaSourcePackageCache(toProto());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return entries.equals(((JavaSourcePackageCache) o).entries);
+  }
+
+  @Override
+  public int hashCode() {
+    return entries.hashCode();
+  }
+
+  static class Extractor implements SyncData.Extractor<JavaSourcePackageCache> {
+    @Nullable
+    @Override
+    public JavaSourcePackageCache extract(ProjectData.SyncState syncState) {
+      return syncState.hasJavaSourcePackageCache()
+          ? JavaSourcePackageCache.fromProto(syncState.getJavaSourcePackageCache())
+          : null;
+    }
+  }
+}
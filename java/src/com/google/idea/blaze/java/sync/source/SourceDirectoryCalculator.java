@@ -30,7 +30,6 @@ import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -44,6 +43,7 @@ import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.util.PackagePrefixCalculator;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import com.google.idea.blaze.java.sync.model.BlazeContentEntry;
 import com.google.idea.blaze.java.sync.model.BlazeSourceDirectory;
 import com.intellij.openapi.project.Project;
@@ -72,7 +72,10 @@ public final class SourceDirectoryCalculator {
 
   private static final JavaPackageReader generatedFileJavaPackageReader =
       new FilePathJavaPackageReader();
-  private final ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+  /** The number of source files whose packages are read by each task. */
+  private static final int PACKAGE_READING_BATCH_SIZE = 500;
+
+  private final ListeningExecutorService executorService = FetchExecutor.EXECUTOR;
 
   public ImmutableList<BlazeContentEntry> calculateContentEntries(
       Project project,
@@ -82,6 +85,30 @@ public final class SourceDirectoryCalculator {
       ImportRoots importRoots,
       Collection<SourceArtifact> sources,
       Map<TargetKey, ArtifactLocation> javaPackageManifests) {
+    return calculateContentEntries(
+        project,
+        context,
+        workspaceRoot,
+        artifactLocationDecoder,
+        importRoots,
+        sources,
+        javaPackageManifests,
+        JavaSourcePackageReader.getInstance());
+  }
+
+  /**
+   * Calculates the content entries, using the given reader for the packages of any non-generated
+   * sources without a package manifest.
+   */
+  public ImmutableList<BlazeContentEntry> calculateContentEntries(
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      ImportRoots importRoots,
+      Collection<SourceArtifact> sources,
+      Map<TargetKey, ArtifactLocation> javaPackageManifests,
+      JavaPackageReader sourcePackageReader) {
 
     ManifestFilePackageReader manifestFilePackageReader =
         Scope.push(
@@ -100,9 +127,7 @@ public final class SourceDirectoryCalculator {
 
     final List<JavaPackageReader> javaPackageReaders =
         Lists.newArrayList(
-            manifestFilePackageReader,
-            JavaSourcePackageReader.getInstance(),
-            generatedFileJavaPackageReader);
+            manifestFilePackageReader, sourcePackageReader, generatedFileJavaPackageReader);
 
     Collection<SourceArtifact> nonGeneratedSources = filterGeneratedArtifacts(sources);
 
@@ -115,16 +140,20 @@ public final class SourceDirectoryCalculator {
         context,
         (childContext) -> {
           childContext.push(new TimingScope("CalculateSourceDirectories", EventType.Other));
+          // read the packages of all java sources up front, so they're read in parallel
+          Map<WorkspacePath, List<SourceRoot>> sourceRootsUnderDirectoryRoot =
+              readSourceRoots(
+                  childContext,
+                  artifactLocationDecoder,
+                  sourcesUnderDirectoryRoot,
+                  javaPackageReaders);
           for (WorkspacePath workspacePath : importRoots.rootDirectories()) {
             File contentRoot = workspaceRoot.fileForPath(workspacePath);
             ImmutableList<BlazeSourceDirectory> sourceDirectories =
                 calculateSourceDirectoriesForContentRoot(
-                    context,
                     workspaceRoot,
-                    artifactLocationDecoder,
                     workspacePath,
-                    sourcesUnderDirectoryRoot.get(workspacePath),
-                    javaPackageReaders);
+                    sourceRootsUnderDirectoryRoot.getOrDefault(workspacePath, ImmutableList.of()));
             result.add(new BlazeContentEntry(contentRoot, sourceDirectories));
           }
           result.sort(Comparator.comparing(lhs -> lhs.contentRoot));
@@ -141,62 +170,91 @@ public final class SourceDirectoryCalculator {
 
   private static Multimap<WorkspacePath, SourceArtifact> sortArtifactLocationsByRootDirectory(
       ImportRoots importRoots, Collection<SourceArtifact> sources) {
+    WorkspacePathTrie<WorkspacePath> excludedDirectories = new WorkspacePathTrie<>();
+    importRoots.excludeDirectories().forEach(dir -> excludedDirectories.put(dir, dir));
+    // root directories never overlap, so each source is under at most one of them
+    WorkspacePathTrie<WorkspacePath> rootDirectories = new WorkspacePathTrie<>();
+    importRoots.rootDirectories().forEach(dir -> rootDirectories.put(dir, dir));
 
     Multimap<WorkspacePath, SourceArtifact> result = ArrayListMultimap.create();
-
     for (SourceArtifact sourceArtifact : sources) {
       String sourcePath = sourceArtifact.artifactLocation.getRelativePath();
-      if (importRoots.excludeDirectories().stream()
-          .anyMatch(excluded -> isUnderRootDirectory(excluded, sourcePath))) {
+      if (excludedDirectories.getAncestorValue(sourcePath) != null) {
         continue;
       }
-      importRoots.rootDirectories().stream()
-          .filter(rootDirectory -> isUnderRootDirectory(rootDirectory, sourcePath))
-          .findFirst()
-          .ifPresent(foundWorkspacePath -> result.put(foundWorkspacePath, sourceArtifact));
+      WorkspacePath rootDirectory = rootDirectories.getAncestorValue(sourcePath);
+      if (rootDirectory != null) {
+        result.put(rootDirectory, sourceArtifact);
+      }
     }
     return result;
   }
 
-  private static boolean isUnderRootDirectory(WorkspacePath rootDirectory, String relativePath) {
-    if (rootDirectory.isWorkspaceRoot()) {
-      return true;
-    }
-    String rootDirectoryString = rootDirectory.toString();
-    return relativePath.startsWith(rootDirectoryString)
-        && (relativePath.length() == rootDirectoryString.length()
-            || (relativePath.charAt(rootDirectoryString.length()) == '/'));
-  }
-
-  /** Calculates all source directories for a single content root. */
-  private ImmutableList<BlazeSourceDirectory> calculateSourceDirectoriesForContentRoot(
+  /**
+   * Reads the declared package of each java source, in parallel, grouping the resulting source
+   * roots by content root.
+   */
+  private Map<WorkspacePath, List<SourceRoot>> readSourceRoots(
       BlazeContext context,
-      WorkspaceRoot workspaceRoot,
       ArtifactLocationDecoder artifactLocationDecoder,
-      WorkspacePath directoryRoot,
-      Collection<SourceArtifact> sourceArtifacts,
+      Multimap<WorkspacePath, SourceArtifact> sourcesUnderDirectoryRoot,
       Collection<JavaPackageReader> javaPackageReaders) {
-
     // Split out java-like files
     Predicate<ArtifactLocation> isSourceFile = JavaLikeLanguage.getSourceFileMatcher();
+    List<WorkspacePath> directoryRoots = Lists.newArrayList();
     List<SourceArtifact> javaArtifacts = Lists.newArrayList();
-    for (SourceArtifact sourceArtifact : sourceArtifacts) {
-      if (isSourceFile.test(sourceArtifact.artifactLocation)) {
-        javaArtifacts.add(sourceArtifact);
+    for (Map.Entry<WorkspacePath, SourceArtifact> entry : sourcesUnderDirectoryRoot.entries()) {
+      if (isSourceFile.test(entry.getValue().artifactLocation)) {
+        directoryRoots.add(entry.getKey());
+        javaArtifacts.add(entry.getValue());
       }
     }
 
+    // Batch the work, to avoid the overhead of a separate task per file
+    List<ListenableFuture<List<SourceRoot>>> futures = Lists.newArrayList();
+    for (List<SourceArtifact> batch : Lists.partition(javaArtifacts, PACKAGE_READING_BATCH_SIZE)) {
+      futures.add(
+          executorService.submit(
+              () -> {
+                List<SourceRoot> sourceRoots = Lists.newArrayListWithCapacity(batch.size());
+                for (SourceArtifact sourceArtifact : batch) {
+                  sourceRoots.add(
+                      sourceRootForJavaSource(
+                          context, artifactLocationDecoder, sourceArtifact, javaPackageReaders));
+                }
+                return sourceRoots;
+              }));
+    }
+
+    Map<WorkspacePath, List<SourceRoot>> result = new HashMap<>();
+    try {
+      int index = 0;
+      for (List<SourceRoot> batch : Futures.allAsList(futures).get()) {
+        for (SourceRoot sourceRoot : batch) {
+          WorkspacePath directoryRoot = directoryRoots.get(index++);
+          if (sourceRoot != null) {
+            result.computeIfAbsent(directoryRoot, k -> Lists.newArrayList()).add(sourceRoot);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      context.setCancelled();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not read sources", e);
+    }
+    return result;
+  }
+
+  /** Calculates all source directories for a single content root. */
+  private static ImmutableList<BlazeSourceDirectory> calculateSourceDirectoriesForContentRoot(
+      WorkspaceRoot workspaceRoot,
+      WorkspacePath directoryRoot,
+      Collection<SourceRoot> sourceRootsPerFile) {
     List<BlazeSourceDirectory> result = Lists.newArrayList();
 
     // Add java source directories
-    calculateJavaSourceDirectories(
-        context,
-        workspaceRoot,
-        artifactLocationDecoder,
-        directoryRoot,
-        javaArtifacts,
-        javaPackageReaders,
-        result);
+    calculateJavaSourceDirectories(workspaceRoot, directoryRoot, sourceRootsPerFile, result);
 
     if (result.isEmpty()) {
       // if there are no nested source directories, then mark the content root as a source directory
@@ -212,40 +270,12 @@ public final class SourceDirectoryCalculator {
   }
 
   /** Adds the java source directories. */
-  private void calculateJavaSourceDirectories(
-      BlazeContext context,
+  private static void calculateJavaSourceDirectories(
       WorkspaceRoot workspaceRoot,
-      ArtifactLocationDecoder artifactLocationDecoder,
       WorkspacePath directoryRoot,
-      Collection<SourceArtifact> javaArtifacts,
-      Collection<JavaPackageReader> javaPackageReaders,
+      Collection<SourceRoot> sourceRootsPerFile,
       Collection<BlazeSourceDirectory> result) {
 
-    List<SourceRoot> sourceRootsPerFile = Lists.newArrayList();
-
-    // Get java sources
-    List<ListenableFuture<SourceRoot>> sourceRootFutures = Lists.newArrayList();
-    for (final SourceArtifact sourceArtifact : javaArtifacts) {
-      ListenableFuture<SourceRoot> future =
-          executorService.submit(
-              () ->
-                  sourceRootForJavaSource(
-                      context, artifactLocationDecoder, sourceArtifact, javaPackageReaders));
-      sourceRootFutures.add(future);
-    }
-    try {
-      for (SourceRoot sourceRoot : Futures.allAsList(sourceRootFutures).get()) {
-        if (sourceRoot != null) {
-          sourceRootsPerFile.add(sourceRoot);
-        }
-      }
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      context.setCancelled();
-    } catch (ExecutionException e) {
-      throw new IllegalStateException("Could not read sources", e);
-    }
-
     // Sort source roots into their respective directories
     Map<WorkspacePath, Multiset<SourceRoot>> sourceDirectoryToSourceRoots = new HashMap<>();
     for (SourceRoot sourceRoot : sourceRootsPerFile) {
@@ -429,7 +459,7 @@ public final class SourceDirectoryCalculator {
   }
 
   @Nullable
-  private SourceRoot sourceRootForJavaSource(
+  private static SourceRoot sourceRootForJavaSource(
       BlazeContext context,
       ArtifactLocationDecoder decoder,
       SourceArtifact sourceArtifact,
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link JarCacheBlobStore}. */
+@RunWith(JUnit4.class)
+public class JarCacheBlobStoreTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File blobDir;
+  private File cacheDir;
+  private JarCacheBlobStore blobStore;
+
+  @Before
+  public void setUp() throws Exception {
+    blobDir = folder.newFolder("library_blobs");
+    cacheDir = folder.newFolder("libraries");
+    blobStore = new JarCacheBlobStore(blobDir);
+    blobStore.loadIndex();
+  }
+
+  @Test
+  public void testIdenticalJarsAreStoredOnce() throws Exception {
+    File first = sourceJar("k8-fastbuild/lib.jar", "contents");
+    File second = sourceJar("k8-opt/lib.jar", "contents");
+
+    blobStore.store(new SourceArtifact(first), new File(cacheDir, "lib_1.jar"));
+    blobStore.store(new SourceArtifact(second), new File(cacheDir, "lib_2.jar"));
+
+    assertThat(blobDir.list((dir, name) -> name.endsWith(".jar"))).hasLength(1);
+    assertThat(readString(new File(cacheDir, "lib_1.jar"))).isEqualTo("contents");
+    assertThat(readString(new File(cacheDir, "lib_2.jar"))).isEqualTo("contents");
+  }
+
+  @Test
+  public void testEvictionKeepsLinkedBlobs() throws Exception {
+    File cachedOld = new File(cacheDir, "old.jar");
+    File cachedNew = new File(cacheDir, "new.jar");
+    blobStore.store(new SourceArtifact(sourceJar("old.jar", "old contents")), cachedOld);
+    blobStore.store(new SourceArtifact(sourceJar("new.jar", "new contents")), cachedNew);
+    Files.delete(cachedOld.toPath());
+
+    JarCacheBlobStore.EvictionResult result =
+        blobStore.evict(/* budgetBytes= */ 0, ImmutableList.of(cachedNew));
+
+    assertThat(result.evictedBlobs).isEqualTo(1);
+    assertThat(blobDir.list((dir, name) -> name.endsWith(".jar"))).hasLength(1);
+    assertThat(readString(cachedNew)).isEqualTo("new contents");
+  }
+
+  @Test
+  public void testUnlinkedBlobsAreKeptWithinBudget() throws Exception {
+    File cached = new File(cacheDir, "lib.jar");
+    blobStore.store(new SourceArtifact(sourceJar("lib.jar", "contents")), cached);
+    Files.delete(cached.toPath());
+
+    JarCacheBlobStore.EvictionResult result =
+        blobStore.evict(/* budgetBytes= */ 1024, ImmutableList.of());
+
+    assertThat(result.evictedBlobs).isEqualTo(0);
+    assertThat(blobDir.list((dir, name) -> name.endsWith(".jar"))).hasLength(1);
+  }
+
+  @Test
+  public void testOutputArtifactsAreHardLinked() throws Exception {
+    File output = sourceJar("k8-opt/bin/lib.jar", "contents");
+    File cached = new File(cacheDir, "lib.jar");
+
+    blobStore.store(outputArtifact(output), cached);
+
+    File[] blobs = blobDir.listFiles((dir, name) -> name.endsWith(".jar"));
+    assertThat(blobs).hasLength(1);
+    assertThat(Files.isSameFile(cached.toPath(), blobs[0].toPath())).isTrue();
+    assertThat(readString(cached)).isEqualTo("contents");
+    assertThat(blobStore.getAndResetCopiedFileCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRemoteArtifactsAreStored() throws Exception {
+    File first = new File(cacheDir, "remote_1.jar");
+    File second = new File(cacheDir, "remote_2.jar");
+
+    blobStore.store(remoteArtifact("remote contents"), first);
+    blobStore.store(remoteArtifact("remote contents"), second);
+
+    assertThat(blobDir.list((dir, name) -> name.endsWith(".jar"))).hasLength(1);
+    assertThat(readString(first)).isEqualTo("remote contents");
+    assertThat(readString(second)).isEqualTo("remote contents");
+    assertThat(blobStore.isUpToDate(remoteArtifact("remote contents"), first)).isFalse();
+  }
+
+  @Test
+  public void testLinkToExistingBlobIsUpToDate() throws Exception {
+    File first = sourceJar("k8-fastbuild/bin/lib.jar", "contents");
+    File second = sourceJar("k8-opt/bin/lib.jar", "contents");
+    assertThat(first.setLastModified(1_000_000)).isTrue();
+    assertThat(second.setLastModified(5_000_000)).isTrue();
+    File cachedFirst = new File(cacheDir, "lib_1.jar");
+    File cachedSecond = new File(cacheDir, "lib_2.jar");
+
+    blobStore.store(outputArtifact(first), cachedFirst);
+    blobStore.store(outputArtifact(second), cachedSecond);
+
+    // the second cache file shares the first output's modification time, via the blob
+    assertThat(cachedSecond.lastModified()).isNotEqualTo(second.lastModified());
+    assertThat(blobStore.isUpToDate(outputArtifact(second), cachedSecond)).isTrue();
+    assertThat(blobStore.isUpToDate(outputArtifact(first), cachedSecond)).isFalse();
+
+    assertThat(second.setLastModified(6_000_000)).isTrue();
+    assertThat(blobStore.isUpToDate(outputArtifact(second), cachedSecond)).isFalse();
+  }
+
+  @Test
+  public void testUpToDateStateIsPersisted() throws Exception {
+    File output = sourceJar("k8-opt/bin/lib.jar", "contents");
+    File cached = new File(cacheDir, "lib.jar");
+    blobStore.store(outputArtifact(output), cached);
+    blobStore.saveIndex();
+
+    JarCacheBlobStore reloaded = new JarCacheBlobStore(blobDir);
+    reloaded.loadIndex();
+
+    assertThat(reloaded.isUpToDate(outputArtifact(output), cached)).isTrue();
+  }
+
+  @Test
+  public void testRemovedCacheFilesAreForgotten() throws Exception {
+    File output = sourceJar("k8-opt/bin/lib.jar", "contents");
+    File cached = new File(cacheDir, "lib.jar");
+    blobStore.store(outputArtifact(output), cached);
+    Files.delete(cached.toPath());
+
+    blobStore.evict(/* budgetBytes= */ 1024, ImmutableList.of());
+    // e.g. written by the non-content-addressed cache
+    Files.write(cached.toPath(), "other".getBytes(UTF_8));
+
+    assertThat(blobStore.isUpToDate(outputArtifact(output), cached)).isFalse();
+  }
+
+  private static BlazeArtifact outputArtifact(File file) {
+    return new LocalFileOutputArtifact(file, "k8-opt/bin/" + file.getName(), "k8-opt");
+  }
+
+  private static BlazeArtifact remoteArtifact(String contents) {
+    byte[] bytes = contents.getBytes(UTF_8);
+    return new BlazeArtifact() {
+      @Override
+      public long getLength() {
+        return bytes.length;
+      }
+
+      @Override
+      public BufferedInputStream getInputStream() {
+        return new BufferedInputStream(new ByteArrayInputStream(bytes));
+      }
+    };
+  }
+
+  private File sourceJar(String relativePath, String contents) throws Exception {
+    File file = new File(folder.getRoot(), "execroot/" + relativePath);
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.write(file.toPath(), contents.getBytes(UTF_8));
+    return file;
+  }
+
+  private static String readString(File file) throws Exception {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.sync.workspace.MockArtifactLocationDecoder;
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CachingJavaSourcePackageReader}. */
+@RunWith(JUnit4.class)
+public class CachingJavaSourcePackageReaderTest extends BlazeTestCase {
+
+  private static final SourceArtifact SOURCE =
+      new SourceArtifact(
+          TargetKey.forPlainTarget(Label.create("//java/com/google:lib")),
+          ArtifactLocation.builder()
+              .setRelativePath("java/com/google/Foo.java")
+              .setIsSource(true)
+              .build());
+
+  private final BlazeContext context = new BlazeContext();
+  private final ArtifactLocationDecoder decoder = new MockArtifactLocationDecoder();
+  private final CountingPackageReader delegate = new CountingPackageReader();
+  private MockFileOperationProvider fileOperationProvider;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    fileOperationProvider = new MockFileOperationProvider();
+    applicationServices.register(FileOperationProvider.class, fileOperationProvider);
+  }
+
+  @Test
+  public void testUnchangedFileIsNotReadAgain() {
+    CachingJavaSourcePackageReader firstSync = new CachingJavaSourcePackageReader(delegate, null);
+    assertThat(firstSync.getDeclaredPackageOfJavaFile(context, decoder, SOURCE))
+        .isEqualTo("com.google");
+    assertThat(delegate.reads).isEqualTo(1);
+
+    CachingJavaSourcePackageReader secondSync =
+        new CachingJavaSourcePackageReader(delegate, firstSync.getUpdatedCache());
+    assertThat(secondSync.getDeclaredPackageOfJavaFile(context, decoder, SOURCE))
+        .isEqualTo("com.google");
+    assertThat(delegate.reads).isEqualTo(1);
+    assertThat(secondSync.getUpdatedCache()).isEqualTo(firstSync.getUpdatedCache());
+  }
+
+  @Test
+  public void testModifiedFileIsReadAgain() {
+    CachingJavaSourcePackageReader firstSync = new CachingJavaSourcePackageReader(delegate, null);
+    firstSync.getDeclaredPackageOfJavaFile(context, decoder, SOURCE);
+
+    fileOperationProvider.modifiedTime = 2;
+    CachingJavaSourcePackageReader secondSync =
+        new CachingJavaSourcePackageReader(delegate, firstSync.getUpdatedCache());
+    secondSync.getDeclaredPackageOfJavaFile(context, decoder, SOURCE);
+
+    assertThat(delegate.reads).isEqualTo(2);
+  }
+
+  @Test
+  public void testCacheSurvivesSerialization() {
+    CachingJavaSourcePackageReader reader = new CachingJavaSourcePackageReader(delegate, null);
+    reader.getDeclaredPackageOfJavaFile(context, decoder, SOURCE);
+    JavaSourcePackageCache cache = reader.getUpdatedCache();
+
+    assertThat(JavaSourcePackageCache.fromProto(cache.toProto())).isEqualTo(cache);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  private static class CountingPackageReader extends JavaPackageReader {
+    int reads = 0;
+
+    @Override
+    String getDeclaredPackageOfJavaFile(
+        BlazeContext context,
+        ArtifactLocationDecoder artifactLocationDecoder,
+        SourceArtifact sourceArtifact) {
+      reads++;
+      return "com.google";
+    }
+  }
+
+  private static class MockFileOperationProvider extends FileOperationProvider {
+    long modifiedTime = 1;
+
+    @Override
+    public long getFileModifiedTime(File file) {
+      return modifiedTime;
+    }
+
+    @Override
+    public long getFileSize(File file) {
+      return 100;
+    }
+  }
+}
@@ -15,18 +15,31 @@
  */
 package com.google.idea.blaze.python.resolve.provider;
 
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.SyncCache;
-import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.python.resolve.BlazePyResolverUtils;
+import com.google.idea.blaze.python.resolve.provider.PySourcesIndex.Source;
+import com.google.idea.blaze.python.resolve.provider.PySourcesIndex.TargetSources;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
@@ -38,9 +51,11 @@ import com.jetbrains.python.codeInsight.imports.AutoImportQuickFix;
 import com.jetbrains.python.psi.PyUtil;
 import com.jetbrains.python.psi.resolve.PyQualifiedNameResolveContext;
 import java.io.File;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import javax.annotation.Nullable;
 
 /**
@@ -49,6 +64,18 @@ import javax.annotation.Nullable;
  */
 public abstract class AbstractPyImportResolverStrategy implements PyImportResolverStrategy {
 
+  private static final Logger logger =
+      Logger.getInstance(AbstractPyImportResolverStrategy.class);
+
+  private static final Interner<String> componentInterner = Interners.newWeakInterner();
+
+  /**
+   * The index built by each strategy for the previous sync, used to update the index
+   * incrementally. Keyed by strategy class.
+   */
+  private static final Key<ConcurrentMap<Class<?>, PySourcesIndex>> PREVIOUS_INDICES_KEY =
+      Key.create("AbstractPyImportResolverStrategy.previousSourcesIndices");
+
   @Nullable
   @Override
   public final PsiElement resolveFromSyncData(
@@ -91,32 +118,126 @@ public abstract class AbstractPyImportResolverStrategy implements PyImportResolv
     return SyncCache.getInstance(project).get(getClass(), this::buildSourcesIndex);
   }
 
-  @SuppressWarnings("unused")
   private PySourcesIndex buildSourcesIndex(Project project, BlazeProjectData projectData) {
+    ConcurrentMap<Class<?>, PySourcesIndex> previousIndices = getPreviousIndices(project);
+    PySourcesIndex index =
+        buildIndex(
+            projectData.getTargetMap(),
+            previousIndices.get(getClass()),
+            target -> computeTargetSources(project, target));
+    previousIndices.put(getClass(), index);
+    return index;
+  }
+
+  private static synchronized ConcurrentMap<Class<?>, PySourcesIndex> getPreviousIndices(
+      Project project) {
+    ConcurrentMap<Class<?>, PySourcesIndex> indices = project.getUserData(PREVIOUS_INDICES_KEY);
+    if (indices == null) {
+      indices = new ConcurrentHashMap<>();
+      project.putUserData(PREVIOUS_INDICES_KEY, indices);
+    }
+    return indices;
+  }
+
+  /**
+   * Builds the sources index, reusing the sources of targets whose python sources are unchanged
+   * since the index built for the previous sync. Source providers resolve artifacts with the
+   * current project data when called, so they remain valid across syncs.
+   *
+   * @param computeSources computes the sources of a target, or returns null if it has none
+   */
+  @VisibleForTesting
+  static PySourcesIndex buildIndex(
+      TargetMap targetMap,
+      @Nullable PySourcesIndex previous,
+      Function<TargetIdeInfo, TargetSources> computeSources) {
+    ImmutableMap<TargetKey, TargetSources> previousSources =
+        previous != null ? previous.targetSources : ImmutableMap.of();
+
+    ImmutableMap.Builder<TargetKey, TargetSources> targetSources = ImmutableMap.builder();
     ImmutableSetMultimap.Builder<String, QualifiedName> shortNames = ImmutableSetMultimap.builder();
     Map<QualifiedName, PsiElementProvider> map = new HashMap<>();
-    ArtifactLocationDecoder decoder = projectData.getArtifactLocationDecoder();
-    for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
-      for (ArtifactLocation source : getPySources(target)) {
-        QualifiedName name = toImportString(source);
-        if (name == null || name.getLastComponent() == null) {
+    int reused = 0;
+    for (TargetIdeInfo target : targetMap.targets()) {
+      TargetSources sources = previousSources.get(target.getKey());
+      if (sources != null && hasSamePySources(sources, target)) {
+        reused++;
+      } else {
+        sources = computeSources.apply(target);
+        if (sources == null) {
           continue;
         }
-        shortNames.put(name.getLastComponent(), name);
-        PsiElementProvider psiProvider = psiProviderFromArtifact(project, decoder, source);
-        map.put(name, psiProvider);
-        if (includeParentDirectory(source)) {
-          map.put(name.removeTail(1), PsiElementProvider.getParent(psiProvider));
+      }
+      targetSources.put(target.getKey(), sources);
+      for (Source source : sources.sources) {
+        shortNames.put(source.name.getLastComponent(), source.name);
+        map.put(source.name, source.provider);
+        if (source.parentProvider != null) {
+          map.put(source.name.removeTail(1), source.parentProvider);
         }
       }
     }
-    return new PySourcesIndex(shortNames.build(), ImmutableMap.copyOf(map));
+    PySourcesIndex index =
+        new PySourcesIndex(shortNames.build(), ImmutableMap.copyOf(map), targetSources.build());
+    logger.info(
+        String.format(
+            "Indexed python sources of %d targets, %d unchanged since last sync",
+            index.targetSources.size(), reused));
+    return index;
+  }
+
+  /**
+   * The index only depends on a target's python sources. Targets unaffected by a sync are often
+   * carried over from the previous target map, sharing the same source collection.
+   */
+  private static boolean hasSamePySources(TargetSources previous, TargetIdeInfo target) {
+    ImmutableCollection<ArtifactLocation> pySources = getPySources(target);
+    return previous.pySources == pySources || previous.pySources.equals(pySources);
   }
 
+  @Nullable
+  private TargetSources computeTargetSources(Project project, TargetIdeInfo target) {
+    ImmutableCollection<ArtifactLocation> pySources = getPySources(target);
+    if (pySources.isEmpty()) {
+      return null;
+    }
+    ImmutableList.Builder<Source> sources = ImmutableList.builder();
+    for (ArtifactLocation source : pySources) {
+      QualifiedName name = toImportString(source);
+      if (name == null || name.getLastComponent() == null) {
+        continue;
+      }
+      name = intern(name);
+      PsiElementProvider psiProvider = psiProviderFromArtifact(project, source);
+      sources.add(
+          new Source(
+              name,
+              psiProvider,
+              includeParentDirectory(source) ? PsiElementProvider.getParent(psiProvider) : null));
+    }
+    return new TargetSources(pySources, sources.build());
+  }
+
+  /** Interns the components of an import string, which are shared by many sources. */
+  private static QualifiedName intern(QualifiedName name) {
+    return QualifiedName.fromComponents(
+        name.getComponents().stream().map(componentInterner::intern).collect(toList()));
+  }
+
+  /**
+   * Providers outlive the sync they were created for, so artifacts are resolved with the project
+   * data current at the time of the call, rather than capturing the decoder.
+   */
   private static PsiElementProvider psiProviderFromArtifact(
-      Project project, ArtifactLocationDecoder decoder, ArtifactLocation source) {
+      Project project, ArtifactLocation source) {
     return (manager) -> {
-      File file = OutputArtifactResolver.resolve(project, decoder, source);
+      BlazeProjectData projectData =
+          BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+      if (projectData == null) {
+        return null;
+      }
+      File file =
+          OutputArtifactResolver.resolve(project, projectData.getArtifactLocationDecoder(), source);
       if (file == null) {
         return null;
       }
@@ -127,7 +248,8 @@ public abstract class AbstractPyImportResolverStrategy implements PyImportResolv
     };
   }
 
-  private static Collection<ArtifactLocation> getPySources(TargetIdeInfo target) {
+  @VisibleForTesting
+  static ImmutableCollection<ArtifactLocation> getPySources(TargetIdeInfo target) {
     if (target.getPyIdeInfo() != null) {
       return target.getPyIdeInfo().getSources();
     }
@@ -150,4 +272,20 @@ public abstract class AbstractPyImportResolverStrategy implements PyImportResolv
     relativePath = StringUtil.trimExtensions(relativePath);
     return QualifiedName.fromComponents(StringUtil.split(relativePath, File.separator));
   }
+
+  /** Computes the sources index of each applicable strategy in the background after sync. */
+  static class SourcesIndexPrecomputer implements SyncCache.Precomputer {
+    @Override
+    public void precompute(Project project) {
+      if (!Blaze.isBlazeProject(project)) {
+        return;
+      }
+      for (PyImportResolverStrategy strategy : PyImportResolverStrategy.EP_NAME.getExtensions()) {
+        if (strategy instanceof AbstractPyImportResolverStrategy
+            && strategy.appliesToBuildSystem(Blaze.getBuildSystem(project))) {
+          ((AbstractPyImportResolverStrategy) strategy).getSourcesIndex(project);
+        }
+      }
+    }
+  }
 }
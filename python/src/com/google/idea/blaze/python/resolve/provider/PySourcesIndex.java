@@ -15,19 +15,61 @@
  */
 package com.google.idea.blaze.python.resolve.provider;
 
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.intellij.psi.util.QualifiedName;
+import javax.annotation.Nullable;
 
 /** An index of python sources and their associated import strings. */
 class PySourcesIndex {
   final ImmutableSetMultimap<String, QualifiedName> shortNames;
   final ImmutableMap<QualifiedName, PsiElementProvider> sourceMap;
 
+  /** The sources of each target, reused by the next sync's index if the target is unchanged. */
+  final ImmutableMap<TargetKey, TargetSources> targetSources;
+
   PySourcesIndex(
       ImmutableSetMultimap<String, QualifiedName> shortNames,
-      ImmutableMap<QualifiedName, PsiElementProvider> sourceMap) {
+      ImmutableMap<QualifiedName, PsiElementProvider> sourceMap,
+      ImmutableMap<TargetKey, TargetSources> targetSources) {
     this.shortNames = shortNames;
     this.sourceMap = sourceMap;
+    this.targetSources = targetSources;
+  }
+
+  /** The indexed python sources of a single target. */
+  static class TargetSources {
+    /**
+     * The target's python source artifacts these sources were computed from. Only these are kept,
+     * rather than the whole target, so the previous sync's targets can be garbage collected.
+     */
+    final ImmutableCollection<ArtifactLocation> pySources;
+
+    final ImmutableList<Source> sources;
+
+    TargetSources(ImmutableCollection<ArtifactLocation> pySources, ImmutableList<Source> sources) {
+      this.pySources = pySources;
+      this.sources = sources;
+    }
+  }
+
+  /** A python source, its import string, and the provider of its directory if importable. */
+  static class Source {
+    final QualifiedName name;
+    final PsiElementProvider provider;
+    @Nullable final PsiElementProvider parentProvider;
+
+    Source(
+        QualifiedName name,
+        PsiElementProvider provider,
+        @Nullable PsiElementProvider parentProvider) {
+      this.name = name;
+      this.provider = provider;
+      this.parentProvider = parentProvider;
+    }
   }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.python.resolve.provider;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.PyIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.python.PythonBlazeRules;
+import com.google.idea.blaze.python.resolve.provider.PySourcesIndex.TargetSources;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for incrementally building the {@link PySourcesIndex}. */
+@RunWith(JUnit4.class)
+public class AbstractPyImportResolverStrategyTest extends BlazeTestCase {
+
+  private static final TargetKey FOO = TargetKey.forPlainTarget(Label.create("//py:foo"));
+  private static final TargetKey BAR = TargetKey.forPlainTarget(Label.create("//py:bar"));
+
+  private final List<TargetKey> computed = new ArrayList<>();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class)
+        .registerExtension(new PythonBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testUnchangedTargetsAreReused() {
+    PySourcesIndex first =
+        build(targetMap(ImmutableList.of("py/foo.py"), ImmutableList.of("py/bar.py")), null);
+    computed.clear();
+
+    // an equal, but separately built, target map
+    PySourcesIndex second =
+        build(targetMap(ImmutableList.of("py/foo.py"), ImmutableList.of("py/bar.py")), first);
+
+    assertThat(computed).isEmpty();
+    assertThat(second.targetSources.get(FOO)).isSameAs(first.targetSources.get(FOO));
+    assertThat(second.targetSources.get(BAR)).isSameAs(first.targetSources.get(BAR));
+  }
+
+  @Test
+  public void testTargetsWithChangedSourcesAreRecomputed() {
+    PySourcesIndex first =
+        build(targetMap(ImmutableList.of("py/foo.py"), ImmutableList.of("py/bar.py")), null);
+    computed.clear();
+
+    PySourcesIndex second =
+        build(
+            targetMap(
+                ImmutableList.of("py/foo.py", "py/foo_util.py"), ImmutableList.of("py/bar.py")),
+            first);
+
+    assertThat(computed).containsExactly(FOO);
+    assertThat(second.targetSources.get(FOO).pySources)
+        .containsExactly(source("py/foo.py"), source("py/foo_util.py"));
+    assertThat(second.targetSources.get(BAR)).isSameAs(first.targetSources.get(BAR));
+  }
+
+  @Test
+  public void testRemovedTargetsAreDropped() {
+    PySourcesIndex first =
+        build(targetMap(ImmutableList.of("py/foo.py"), ImmutableList.of("py/bar.py")), null);
+
+    PySourcesIndex second = build(targetMap(ImmutableList.of("py/foo.py"), null), first);
+
+    assertThat(second.targetSources.keySet()).containsExactly(FOO);
+  }
+
+  private PySourcesIndex build(TargetMap targetMap, @Nullable PySourcesIndex previous) {
+    return AbstractPyImportResolverStrategy.buildIndex(
+        targetMap,
+        previous,
+        target -> {
+          computed.add(target.getKey());
+          return new TargetSources(
+              AbstractPyImportResolverStrategy.getPySources(target), ImmutableList.of());
+        });
+  }
+
+  private static TargetMap targetMap(List<String> fooSources, @Nullable List<String> barSources) {
+    TargetMapBuilder builder = TargetMapBuilder.builder().addTarget(target(FOO, fooSources));
+    if (barSources != null) {
+      builder.addTarget(target(BAR, barSources));
+    }
+    return builder.build();
+  }
+
+  private static TargetIdeInfo.Builder target(TargetKey key, List<String> sources) {
+    PyIdeInfo.Builder pyInfo = PyIdeInfo.builder();
+    for (String source : sources) {
+      pyInfo.addSources(ImmutableList.of(source(source)));
+    }
+    return TargetIdeInfo.builder()
+        .setLabel(key.getLabel())
+        .setKind("py_library")
+        .setPyInfo(pyInfo);
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}